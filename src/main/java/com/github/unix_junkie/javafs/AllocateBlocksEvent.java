@@ -0,0 +1,41 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A chain of blocks allocated for a file system entry.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@Name("com.github.unix_junkie.javafs.AllocateBlocks")
+@Label("Allocate Blocks")
+@Description("A chain of blocks allocated.")
+@Category({"javafs"})
+@Enabled(false)
+@StackTrace(false)
+final class AllocateBlocksEvent extends Event {
+	@Label("Requested")
+	@Description("The number of blocks requested.")
+	long requested;
+
+	@Label("Allocated")
+	@Description("The number of blocks allocated.")
+	long allocated;
+
+	@Label("Fragments")
+	@Description("The number of runs of adjacent blocks the chain consists of.")
+	long fragments;
+
+	@Label("Blocks Scanned")
+	@Description("The number of inode table entries read while looking for free blocks.")
+	long blocksScanned;
+}
@@ -0,0 +1,671 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>A cache of data area blocks, held off-heap.</p>
+ *
+ * <p>Blocks are evicted according to the W-TinyLFU policy: a newly cached
+ * block enters a small LRU <em>window</em>; once evicted from the window, it
+ * is only admitted to the main area (a segmented LRU with
+ * <em>probation</em> and <em>protected</em> segments) if it has been
+ * accessed more frequently than the block the main area would evict in its
+ * favour. Access frequencies are estimated by a count-min sketch which is
+ * periodically aged. As a result, frequently accessed blocks (such as
+ * those of the root directory) stay cached while a large file is streamed
+ * through the cache.</p>
+ *
+ * <p>Blocks written to the cache are marked dirty and written back to the
+ * container either when evicted or on {@link #flush()}, in the order of
+ * their offsets.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see CacheSize
+ */
+public final class BlockCache {
+	/**
+	 * <p>The backing store of the cache.</p>
+	 */
+	interface Storage {
+		/**
+		 * @param blockId the block id.
+		 * @param destination the buffer to read the whole block into.
+		 * @throws IOException if an I/O error occurs.
+		 */
+		void load(final long blockId, final ByteBuffer destination) throws IOException;
+
+		/**
+		 * @param blockId the block id.
+		 * @param source the whole block contents.
+		 * @throws IOException if an I/O error occurs.
+		 */
+		void store(final long blockId, final ByteBuffer source) throws IOException;
+	}
+
+	private enum Segment {
+		WINDOW,
+		PROBATION,
+		PROTECTED,
+	}
+
+	private static final class Node {
+		final long blockId;
+
+		final int slot;
+
+		Segment segment;
+
+		boolean dirty;
+
+		@Nullable
+		Node previous;
+
+		@Nullable
+		Node next;
+
+		Node(final long blockId, final int slot) {
+			this.blockId = blockId;
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * <p>An intrusive doubly-linked LRU list: the most recently used node
+	 * is the head, the eviction candidate is the tail.</p>
+	 */
+	private static final class Queue {
+		@Nullable
+		Node head;
+
+		@Nullable
+		Node tail;
+
+		int size;
+
+		Queue() {
+			// empty
+		}
+
+		void addFirst(final Node node) {
+			node.previous = null;
+			node.next = this.head;
+			final Node head0 = this.head;
+			if (head0 == null) {
+				this.tail = node;
+			} else {
+				head0.previous = node;
+			}
+			this.head = node;
+			this.size++;
+		}
+
+		void remove(final Node node) {
+			final Node previous = node.previous;
+			final Node next = node.next;
+			if (previous == null) {
+				this.head = next;
+			} else {
+				previous.next = next;
+			}
+			if (next == null) {
+				this.tail = previous;
+			} else {
+				next.previous = previous;
+			}
+			node.previous = null;
+			node.next = null;
+			this.size--;
+		}
+
+		void moveToFront(final Node node) {
+			this.remove(node);
+			this.addFirst(node);
+		}
+	}
+
+	/**
+	 * <p>A count-min sketch of 4-bit counters, halved once the number of
+	 * recorded accesses reaches the sample size, so that the frequencies
+	 * of blocks which are no longer accessed decay.</p>
+	 */
+	private static final class FrequencySketch {
+		private static final int DEPTH = 4;
+
+		private static final long SEEDS[] = {
+			0x97cb3127ae93ba4bL,
+			0xc2b2ae3d27d4eb4fL,
+			0x165667b19e3779f9L,
+			0xd6e8feb86659fd93L,
+		};
+
+		@Nonnull
+		private final byte table[][];
+
+		private final int mask;
+
+		private final int sampleSize;
+
+		private int additions;
+
+		FrequencySketch(final int capacity) {
+			final int width = Integer.highestOneBit(max(16, capacity) * 2 - 1);
+			this.table = new byte[DEPTH][width];
+			this.mask = width - 1;
+			this.sampleSize = max(16, capacity) * 10;
+		}
+
+		int frequency(final long blockId) {
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < DEPTH; i++) {
+				frequency = min(frequency, this.table[i][this.index(blockId, i)]);
+			}
+			return frequency;
+		}
+
+		void increment(final long blockId) {
+			boolean added = false;
+			for (int i = 0; i < DEPTH; i++) {
+				final int index = this.index(blockId, i);
+				if (this.table[i][index] < 15) {
+					this.table[i][index]++;
+					added = true;
+				}
+			}
+
+			if (added && ++this.additions >= this.sampleSize) {
+				for (final byte row[] : this.table) {
+					for (int j = 0; j < row.length; j++) {
+						row[j] >>>= 1;
+					}
+				}
+				this.additions /= 2;
+			}
+		}
+
+		private int index(final long blockId, final int i) {
+			long hash = (blockId + SEEDS[i]) * SEEDS[(i + 1) % DEPTH];
+			hash ^= hash >>> 32;
+			return (int) hash & this.mask;
+		}
+	}
+
+	/**
+	 * The largest slab allocated, in bytes.
+	 */
+	private static final int MAX_SLAB_LENGTH = 1 << 30;
+
+	@Nonnull
+	private final Storage storage;
+
+	private final int blockLength;
+
+	private final int capacity;
+
+	private final int slotsPerSlab;
+
+	@Nonnull
+	private final ByteBuffer slabs[];
+
+	@Nonnull
+	private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+	@Nonnull
+	private final Map<Long, Node> nodes = new HashMap<>();
+
+	@Nonnull
+	private final Queue window = new Queue();
+
+	@Nonnull
+	private final Queue probation = new Queue();
+
+	@Nonnull
+	private final Queue protectedSegment = new Queue();
+
+	private final int maxWindowSize;
+
+	private final int maxProtectedSize;
+
+	@Nonnull
+	private final FrequencySketch sketch;
+
+	private long hitCount;
+
+	private long missCount;
+
+	private long evictionCount;
+
+	private long writeBackCount;
+
+	private int dirtyCount;
+
+	/**
+	 * @param storage the backing store.
+	 * @param blockLength the block length, in bytes.
+	 * @param capacity the maximum number of blocks cached; must be
+	 *        positive.
+	 */
+	BlockCache(final Storage storage, final int blockLength, final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(format("Capacity should be positive: %d", Integer.valueOf(capacity)));
+		}
+
+		this.storage = storage;
+		this.blockLength = blockLength;
+		this.capacity = capacity;
+		this.slotsPerSlab = max(1, MAX_SLAB_LENGTH / blockLength);
+
+		final int slabCount = (capacity + this.slotsPerSlab - 1) / this.slotsPerSlab;
+		this.slabs = new ByteBuffer[slabCount];
+		for (int i = 0; i < slabCount; i++) {
+			final int slots = min(this.slotsPerSlab, capacity - i * this.slotsPerSlab);
+			this.slabs[i] = ByteBuffer.allocateDirect(slots * blockLength);
+		}
+		for (int slot = 0; slot < capacity; slot++) {
+			this.freeSlots.add(Integer.valueOf(slot));
+		}
+
+		this.maxWindowSize = max(1, capacity / 100);
+		this.maxProtectedSize = (capacity - this.maxWindowSize) * 4 / 5;
+		this.sketch = new FrequencySketch(capacity);
+	}
+
+	/**
+	 * <p>Returns a copy of the block contents, loading the block into the
+	 * cache if necessary.</p>
+	 *
+	 * @param blockId the block id.
+	 * @return a copy of the block contents, with position set to 0 and
+	 *         limit set to the block length.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized ByteBuffer read(final long blockId) throws IOException {
+		final Node node = this.get(blockId);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer copy = ByteBuffer.allocate(this.blockLength);
+		copy.put(this.slot(node.slot));
+		copy.flip();
+		return copy;
+	}
+
+	/**
+	 * <p>Writes {@code source} to the cached block, loading the block into
+	 * the cache first if necessary. The block is marked dirty and will be
+	 * written back later.</p>
+	 *
+	 * @param blockId the block id.
+	 * @param offset the offset within the block.
+	 * @param source the bytes to write; consumed.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void write(final long blockId, final int offset, final ByteBuffer source) throws IOException {
+		final Node node = this.get(blockId);
+		this.put(node, offset, source);
+		if (!node.dirty) {
+			node.dirty = true;
+			this.dirtyCount++;
+		}
+	}
+
+	/**
+	 * <p>Updates the block if it is cached, without marking it dirty:
+	 * this is for writes which reach the container by other means (e.g.:
+	 * via the journal).</p>
+	 *
+	 * @param blockId the block id.
+	 * @param offset the offset within the block.
+	 * @param source the bytes to write; not consumed.
+	 */
+	synchronized void update(final long blockId, final int offset, final ByteBuffer source) {
+		final Node node = this.nodes.get(Long.valueOf(blockId));
+		if (node != null) {
+			this.put(node, offset, source.duplicate());
+		}
+	}
+
+	/**
+	 * <p>Overwrites the bytes of {@code buffer} which were read from
+	 * {@code blockId} with the cached ones, if the block is cached. The
+	 * position and limit of {@code buffer} remain unchanged.</p>
+	 *
+	 * @param blockId the block id.
+	 * @param offset the offset within the block {@code buffer} contents
+	 *        were read from.
+	 * @param buffer the buffer to patch.
+	 */
+	synchronized void patch(final long blockId, final int offset, final ByteBuffer buffer) {
+		final Node node = this.nodes.get(Long.valueOf(blockId));
+		if (node == null) {
+			return;
+		}
+
+		final ByteBuffer slot = this.slot(node.slot);
+		slot.position(offset);
+		slot.limit(min(this.blockLength, offset + buffer.remaining()));
+		buffer.duplicate().put(slot);
+	}
+
+	/**
+	 * <p>Removes the block from the cache.</p>
+	 *
+	 * @param blockId the block id.
+	 * @param writeBack whether a dirty block should be written back, or
+	 *        discarded (if the block has been freed).
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void invalidate(final long blockId, final boolean writeBack) throws IOException {
+		final Node node = this.nodes.get(Long.valueOf(blockId));
+		if (node == null) {
+			return;
+		}
+
+		if (writeBack) {
+			this.writeBack(node);
+		}
+		this.remove(node);
+	}
+
+	/**
+	 * <p>Discards all cached blocks, dirty ones included.</p>
+	 */
+	synchronized void invalidateAll() {
+		for (final Node node : new ArrayList<>(this.nodes.values())) {
+			this.remove(node);
+		}
+	}
+
+	/**
+	 * <p>Writes all dirty blocks back, in the order of their offsets. The
+	 * blocks remain cached.</p>
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void flush() throws IOException {
+		if (this.dirtyCount == 0) {
+			return;
+		}
+
+		final List<Node> dirtyNodes = new ArrayList<>(this.dirtyCount);
+		for (final Node node : this.nodes.values()) {
+			if (node.dirty) {
+				dirtyNodes.add(node);
+			}
+		}
+		dirtyNodes.sort((node0, node1) -> Long.compare(node0.blockId, node1.blockId));
+		for (final Node node : dirtyNodes) {
+			this.writeBack(node);
+		}
+	}
+
+	/**
+	 * @return the maximum size of the cache, in bytes.
+	 */
+	public long getCapacity() {
+		return (long) this.capacity * this.blockLength;
+	}
+
+	/**
+	 * @return the number of blocks currently cached.
+	 */
+	public synchronized int getSize() {
+		return this.nodes.size();
+	}
+
+	/**
+	 * @return the number of dirty blocks.
+	 */
+	public synchronized int getDirtyCount() {
+		return this.dirtyCount;
+	}
+
+	/**
+	 * @return the number of block accesses served from the cache.
+	 */
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * @return the number of block accesses which required a block to be
+	 *         loaded.
+	 */
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * @return the number of blocks evicted to make room for others.
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * @return the number of dirty blocks written back.
+	 */
+	public synchronized long getWriteBackCount() {
+		return this.writeBackCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		final long accessCount = this.hitCount + this.missCount;
+		@Nonnull
+		@SuppressWarnings("null")
+		final String s = format("%d/%d block(s) cached, %d dirty; hits: %d, misses: %d (%.1f%% hit ratio), evictions: %d, write-backs: %d",
+				Integer.valueOf(this.nodes.size()),
+				Integer.valueOf(this.capacity),
+				Integer.valueOf(this.dirtyCount),
+				Long.valueOf(this.hitCount),
+				Long.valueOf(this.missCount),
+				Double.valueOf(accessCount == 0 ? 0.0 : 100.0 * this.hitCount / accessCount),
+				Long.valueOf(this.evictionCount),
+				Long.valueOf(this.writeBackCount));
+		return s;
+	}
+
+	/**
+	 * @param blockId the block id.
+	 * @return the cached block, loaded if necessary.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private Node get(final long blockId) throws IOException {
+		this.sketch.increment(blockId);
+
+		final Node cached = this.nodes.get(Long.valueOf(blockId));
+		if (cached != null) {
+			this.hitCount++;
+			this.onHit(cached);
+			return cached;
+		}
+
+		this.missCount++;
+		final int slot = this.acquireSlot();
+		final ByteBuffer buffer = this.slot(slot);
+		try {
+			this.storage.load(blockId, buffer);
+		} catch (final IOException | RuntimeException e) {
+			this.freeSlots.push(Integer.valueOf(slot));
+			throw e;
+		}
+
+		final Node node = new Node(blockId, slot);
+		node.segment = Segment.WINDOW;
+		this.window.addFirst(node);
+		this.nodes.put(Long.valueOf(blockId), node);
+		return node;
+	}
+
+	private void onHit(final Node node) {
+		switch (node.segment) {
+		case WINDOW:
+			this.window.moveToFront(node);
+			break;
+		case PROBATION:
+			/*
+			 * Promote, demoting the least recently used protected
+			 * block if the protected segment is full.
+			 */
+			this.probation.remove(node);
+			node.segment = Segment.PROTECTED;
+			this.protectedSegment.addFirst(node);
+			if (this.protectedSegment.size > this.maxProtectedSize) {
+				final Node demoted = this.protectedSegment.tail;
+				if (demoted != null) {
+					this.protectedSegment.remove(demoted);
+					demoted.segment = Segment.PROBATION;
+					this.probation.addFirst(demoted);
+				}
+			}
+			break;
+		case PROTECTED:
+			this.protectedSegment.moveToFront(node);
+			break;
+		default:
+			assert false : node.segment;
+		}
+	}
+
+	/**
+	 * @return a free slot, evicting a block if the cache is full.
+	 * @throws IOException if a dirty block evicted can't be written back.
+	 */
+	private int acquireSlot() throws IOException {
+		final Integer freeSlot = this.freeSlots.poll();
+		if (freeSlot != null) {
+			/*
+			 * While there's room, blocks overflowing the window
+			 * enter the main area unconditionally.
+			 */
+			final Node overflow = this.window.tail;
+			if (overflow != null && this.window.size >= this.maxWindowSize) {
+				this.window.remove(overflow);
+				overflow.segment = Segment.PROBATION;
+				this.probation.addFirst(overflow);
+			}
+			return freeSlot.intValue();
+		}
+
+		final Node victim = this.selectVictim();
+		this.writeBack(victim);
+		this.remove(victim);
+		this.evictionCount++;
+
+		final Integer slot = this.freeSlots.poll();
+		assert slot != null;
+		return slot.intValue();
+	}
+
+	private Node selectVictim() {
+		final Node candidate = this.window.tail;
+		final Node mainVictim = this.probation.tail != null
+				? this.probation.tail
+				: this.protectedSegment.tail;
+
+		if (candidate == null || this.window.size < this.maxWindowSize && mainVictim != null) {
+			assert mainVictim != null;
+			return mainVictim;
+		}
+		if (mainVictim == null) {
+			return candidate;
+		}
+
+		/*
+		 * The window is full: its least recently used block either
+		 * replaces the main area victim (and moves to the probation
+		 * segment), or is evicted itself.
+		 */
+		if (this.sketch.frequency(candidate.blockId) > this.sketch.frequency(mainVictim.blockId)) {
+			this.window.remove(candidate);
+			candidate.segment = Segment.PROBATION;
+			this.probation.addFirst(candidate);
+			return mainVictim;
+		}
+		return candidate;
+	}
+
+	private void remove(final Node node) {
+		switch (node.segment) {
+		case WINDOW:
+			this.window.remove(node);
+			break;
+		case PROBATION:
+			this.probation.remove(node);
+			break;
+		case PROTECTED:
+			this.protectedSegment.remove(node);
+			break;
+		default:
+			assert false : node.segment;
+		}
+		if (node.dirty) {
+			node.dirty = false;
+			this.dirtyCount--;
+		}
+		this.nodes.remove(Long.valueOf(node.blockId));
+		this.freeSlots.push(Integer.valueOf(node.slot));
+	}
+
+	private void writeBack(final Node node) throws IOException {
+		if (!node.dirty) {
+			return;
+		}
+
+		this.storage.store(node.blockId, this.slot(node.slot));
+		node.dirty = false;
+		this.dirtyCount--;
+		this.writeBackCount++;
+	}
+
+	private void put(final Node node, final int offset, final ByteBuffer source) {
+		if (offset < 0 || offset + source.remaining() > this.blockLength) {
+			throw new IndexOutOfBoundsException(format("%d byte(s) at offset %d exceed the block length of %d",
+					Integer.valueOf(source.remaining()),
+					Integer.valueOf(offset),
+					Integer.valueOf(this.blockLength)));
+		}
+
+		final ByteBuffer slot = this.slot(node.slot);
+		slot.position(offset);
+		slot.put(source);
+	}
+
+	/**
+	 * @param slot the slot index.
+	 * @return a view of the slot, with position set to 0 and limit set
+	 *         to the block length.
+	 */
+	private ByteBuffer slot(final int slot) {
+		final ByteBuffer slab = this.slabs[slot / this.slotsPerSlab].duplicate();
+		final int start = slot % this.slotsPerSlab * this.blockLength;
+		slab.limit(start + this.blockLength);
+		slab.position(start);
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer view = slab.slice();
+		return view;
+	}
+}
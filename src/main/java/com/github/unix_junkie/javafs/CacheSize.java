@@ -0,0 +1,88 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>The size of the {@linkplain BlockCache block cache}, in bytes. Can be
+ * passed to either {@link FileSystem#create(java.nio.file.Path, long,
+ * FileSystemOption...)} or {@link FileSystem#mount(java.nio.file.Path,
+ * FileSystemOption...)}. The size is rounded down to the block size; a
+ * size smaller than a single block disables the cache.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class CacheSize implements FileSystemOption {
+	/**
+	 * The cache size used unless specified explicitly: 4 MiB.
+	 */
+	@Nonnull
+	public static final CacheSize DEFAULT = new CacheSize(4L * 1024 * 1024);
+
+	/**
+	 * Disables the block cache.
+	 */
+	@Nonnull
+	public static final CacheSize DISABLED = new CacheSize(0L);
+
+	private final long bytes;
+
+	private CacheSize(final long bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @param bytes the cache size, in bytes.
+	 * @return the cache size option.
+	 */
+	public static CacheSize of(final long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException(format("Negative cache size: %d", Long.valueOf(bytes)));
+		}
+		return new CacheSize(bytes);
+	}
+
+	/**
+	 * @return the cache size, in bytes.
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		return obj instanceof CacheSize && ((CacheSize) obj).bytes == this.bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Long.hashCode(this.bytes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final String s = format("CacheSize(%d)", Long.valueOf(this.bytes));
+		return s;
+	}
+}
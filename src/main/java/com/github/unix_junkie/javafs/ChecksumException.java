@@ -0,0 +1,40 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+
+/**
+ * <p>Thrown when the contents of a block don't match its {@linkplain
+ * Feature#CHECKSUMS checksum}.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class ChecksumException extends IOException {
+	private static final long serialVersionUID = -2166387357457466343L;
+
+	private final long blockId;
+
+	/**
+	 * @param blockId the id of the corrupted block.
+	 * @param expected the checksum stored.
+	 * @param actual the checksum of the block contents.
+	 */
+	ChecksumException(final long blockId, final int expected, final int actual) {
+		super(format("Checksum mismatch in block %d: expected 0x%08x, actual 0x%08x",
+				Long.valueOf(blockId),
+				Integer.valueOf(expected),
+				Integer.valueOf(actual)));
+		this.blockId = blockId;
+	}
+
+	/**
+	 * @return the id of the corrupted block.
+	 */
+	public long getBlockId() {
+		return this.blockId;
+	}
+}
@@ -5,11 +5,11 @@ package com.github.unix_junkie.javafs;
 
 import static com.github.unix_junkie.javafs.FileType.DIRECTORY;
 import static java.lang.String.format;
+import static java.lang.System.nanoTime;
 import static java.util.Collections.emptySet;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.file.Path;
 import java.util.Date;
 import java.util.LinkedHashSet;
@@ -21,6 +21,8 @@ import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.github.unix_junkie.javafs.FileSystemMetrics.Operation;
+
 /**
  * <p>File system entry which corresponds to a directory.</p>
  *
@@ -31,12 +33,27 @@ public final class Directory extends FileSystemEntry {
 	@SuppressWarnings("null")
 	private static final Logger LOGGER = Logger.getLogger(Directory.class.getName());
 
+	/**
+	 * <p>The directory this one has been listed from (or added to), or
+	 * {@code null} for the root directory and detached directories.</p>
+	 *
+	 * <p>Parent (..) links are not stored on the file system, so the
+	 * parent is only known if this directory has been reached by
+	 * descending from the root one.</p>
+	 */
+	@Nullable
+	private Directory parent;
+
 	public Directory(final String name) {
 		this(name, new Date());
 	}
 
 	public Directory(final Path source) throws IOException {
-		super(source);
+		this(source, HostAttributes.read(source));
+	}
+
+	Directory(final Path source, final HostAttributes attrs) throws IOException {
+		super(source, attrs);
 
 		/*
 		 * For new (empty) directories, size is initially zero,
@@ -99,27 +116,71 @@ public final class Directory extends FileSystemEntry {
 		if (!child.isDetached()) {
 			throw new IllegalArgumentException("Can only add a detached child");
 		}
+
+		final long t0 = nanoTime();
+		try {
+			this.fileSystem.update(() -> {
+				this.addChild0(child);
+				this.fileSystem.indexLink(this, child);
+			});
+		} finally {
+			this.fileSystem.getMetrics().record(Operation.ADD_CHILD, nanoTime() - t0);
+		}
+	}
+
+	private void addChild0(final FileSystemEntry child) throws IOException {
 		final String childName = child.getName();
 
 		final String parentName = this.getName();
-		LOGGER.finest(format("Adding %s to %s", childName, parentName));
+		LOGGER.finest(() -> format("Adding %s to %s", childName, parentName));
 
 		/*
-		 * List this directory entries and check for duplicates.
+		 * List this directory entries and check for duplicates, unless
+		 * the name filter tells there're none.
 		 */
-		for (final FileSystemEntry entry : this.list()) {
-			if (entry.getName().equals(childName)) {
-				throw new IOException(format("File %s already exists in directory %s", childName, parentName));
+		final SortedLayout layout = this.getSortedLayout();
+		final NameFilter filter = this.fileSystem.getNameFilter(this);
+		final ByteBuffer encodedName = child.getEncodedName();
+		if (filter.mightContain(encodedName)) {
+			if (layout != null) {
+				if (layout.find(childName) != null) {
+					throw new IOException(format("File %s already exists in directory %s", childName, parentName));
+				}
+			} else {
+				for (final FileSystemEntry entry : this.list()) {
+					if (entry.getName().equals(childName)) {
+						throw new IOException(format("File %s already exists in directory %s", childName, parentName));
+					}
+				}
 			}
 		}
 
+		/*
+		 * Should adding the child fail, the name merely becomes a
+		 * false positive.
+		 */
+		filter.add(encodedName);
+
+		/*
+		 * Small files and symbolic links are stored right in the
+		 * parent directory entry, and need no blocks of their own.
+		 */
+		final boolean inline = !(child instanceof Directory) && child.dataSize <= this.fileSystem.getInlineDataThreshold();
+		child.setInline(inline);
+		child.setBaseTime(this.getChildBaseTime());
+
+		if (layout != null) {
+			this.addSortedChild(child, inline, layout);
+			return;
+		}
+
 		/*
 		 * Find out whether parent directory needs to grow
 		 * (e. g. file names longer than block size)
 		 */
 		final int sizeIncrement = this.fileSystem.getBlockAddressSize() + child.getMetadataSize();
 		final long oldBlockCount = this.getBlockCount();
-		LOGGER.finest(format("Parent directory (%d block(s)) will grow for %d byte(s)", Long.valueOf(oldBlockCount), Integer.valueOf(sizeIncrement)));
+		LOGGER.finest(() -> format("Parent directory (%d block(s)) will grow for %d byte(s)", Long.valueOf(oldBlockCount), Integer.valueOf(sizeIncrement)));
 		final int blockSize = this.fileSystem.getBlockSize().getLength();
 		final long newBlockCount = FileUtilities.getBlockCount(this.dataSize + sizeIncrement, blockSize);
 		final boolean growthRequired = newBlockCount != oldBlockCount;
@@ -128,10 +189,10 @@ public final class Directory extends FileSystemEntry {
 			 * Grow the parent directory *before* allocating space
 			 * for the child. This *may* result in less fragmentation.
 			 */
-			LOGGER.finest(format("Parent directory will span %d block(s)", Long.valueOf(newBlockCount)));
+			LOGGER.finest(() -> format("Parent directory will span %d block(s)", Long.valueOf(newBlockCount)));
 			this.fileSystem.growInode(this.firstBlockId, newBlockCount - oldBlockCount);
 		}
-		final long childBlockCount = FileUtilities.getBlockCount(child.dataSize, blockSize);
+		final long childBlockCount = inline || getStagedBlockId(child) != -1 ? 0L : FileUtilities.getBlockCount(child.dataSize, blockSize);
 
 		/*
 		 * Check for free space.
@@ -143,13 +204,13 @@ public final class Directory extends FileSystemEntry {
 					Long.valueOf(requestedBlockCount), Long.valueOf(freeBlockCount)));
 		}
 
-		/*
-		 * Allocate inode for the child entry.
-		 */
-		final long childInode = this.fileSystem.allocateBlocks(childBlockCount);
+		final long childInode = this.allocateChild(child, inline);
 		child.setFileSystem(this.fileSystem);
 		child.setFirstBlockId(childInode);
 		child.writeData();
+		if (child instanceof Directory) {
+			((Directory) child).parent = this;
+		}
 
 		/*
 		 * Update the parent's data area, growing it if necessary.
@@ -170,22 +231,26 @@ public final class Directory extends FileSystemEntry {
 			child.writeMetadataTo(inodeWithMetadata);
 
 			inodeWithMetadata.flip();
-			this.fileSystem.writeTo(this.firstBlockId, inodeWithMetadata, this.dataSize);
+			this.fileSystem.writeDirectoryData(this.firstBlockId, inodeWithMetadata, this.dataSize);
 		} else {
 			/*
-			 * Get the last (incomplete) block, set its position and write.
+			 * Get the last (incomplete) block, and write at its position.
 			 *
 			 * This may be a little bit faster than iterating over
 			 * each block occupied by the parent directory.
 			 */
 			final long lastBlockId = this.fileSystem.getLastBlockId(this.firstBlockId);
-			final MappedByteBuffer lastBlock = this.fileSystem.mapBlock(lastBlockId);
-			final int position = (int) this.dataSize % this.fileSystem.getBlockSize().getLength();
+			final int position = (int) (this.dataSize % this.fileSystem.getBlockSize().getLength());
 			assert this.dataSize == 0 ^ position != 0;
-			lastBlock.position(position);
 
-			this.fileSystem.writeInode(childInode, lastBlock);
-			child.writeMetadataTo(lastBlock);
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer inodeWithMetadata = ByteBuffer.allocate(sizeIncrement);
+			this.fileSystem.writeInode(childInode, inodeWithMetadata);
+			child.writeMetadataTo(inodeWithMetadata);
+
+			inodeWithMetadata.flip();
+			this.fileSystem.writeMetadata(this.fileSystem.getBlockOffset(lastBlockId) + position, inodeWithMetadata);
 		}
 
 		/*
@@ -193,16 +258,195 @@ public final class Directory extends FileSystemEntry {
 		 * Record the change in the parent's parent (or boot sector for the root directory).
 		 */
 		this.dataSize += sizeIncrement;
-		if (this.isRootDirectory()) {
-			this.fileSystem.setRootDirectorySize(this.dataSize);
-		} else {
-			// XXX: Implement for directories other than the root one.
-			throw new UnsupportedOperationException("Parent (..) links in directories are not stored yet.");
+		this.writeDataSize();
+
+		child.source = null;
+	}
+
+	private void addSortedChild(final FileSystemEntry child, final boolean inline, final SortedLayout layout) throws IOException {
+		/*
+		 * Free space is not checked up front: if there's not enough,
+		 * the allocation itself fails.
+		 */
+		final long childInode = this.allocateChild(child, inline);
+		try {
+			child.setFileSystem(this.fileSystem);
+			child.setFirstBlockId(childInode);
+			child.writeData();
+			layout.insert(child, childInode);
+		} catch (final IOException ioe) {
+			this.freeChild(child, inline, childInode);
+			throw ioe;
+		}
+		if (child instanceof Directory) {
+			((Directory) child).parent = this;
+		}
+
+		this.writeDataSize();
+
+		child.source = null;
+	}
+
+	/**
+	 * <p>Allocates the blocks for the contents of {@code child}, being
+	 * added to this directory.</p>
+	 *
+	 * @param child the detached child.
+	 * @param inline whether {@code child} is stored inline.
+	 * @return the first block of {@code child}: 0 (the root directory's)
+	 *         for inline entries, which have none, or the blocks already
+	 *         {@linkplain File#getStagedBlockId() staged} for a file.
+	 * @throws IOException if there's not enough free space on the file
+	 *         system, or an I/O error occurs.
+	 */
+	private long allocateChild(final FileSystemEntry child, final boolean inline) throws IOException {
+		if (inline) {
+			return 0L;
+		}
+		final long stagedBlockId = getStagedBlockId(child);
+		if (stagedBlockId != -1) {
+			return stagedBlockId;
+		}
+		final int blockSize = this.fileSystem.getBlockSize().getLength();
+		return this.fileSystem.allocateBlocks(FileUtilities.getBlockCount(child.dataSize, blockSize));
+	}
+
+	/**
+	 * <p>Detaches {@code child} which failed to be added to this directory,
+	 * and frees the blocks {@linkplain #allocateChild(FileSystemEntry,
+	 * boolean) allocated} for it. Staged blocks are left to their owner.
+	 * </p>
+	 *
+	 * @param child the child.
+	 * @param inline whether {@code child} is stored inline.
+	 * @param childInode the first block of {@code child}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void freeChild(final FileSystemEntry child, final boolean inline, final long childInode) throws IOException {
+		child.setFileSystem(null);
+		child.setFirstBlockId(-1);
+		if (!inline && getStagedBlockId(child) == -1) {
+			this.fileSystem.freeBlocks(childInode);
+		}
+	}
+
+	private static long getStagedBlockId(final FileSystemEntry child) {
+		return child instanceof File ? ((File) child).getStagedBlockId() : -1;
+	}
+
+	/**
+	 * <p>Replaces the child entry named as {@code child} with {@code
+	 * child}. The replacement takes effect once {@code child} is written
+	 * in full, so that should there be not enough free space (or a failure
+	 * otherwise), the original entry is left intact. Only then the blocks
+	 * of the original entry are freed.</p>
+	 *
+	 * @param child the child entry to replace the existing one with.
+	 * @throws IOException if this directory has no entry with the same
+	 *         name, or has a directory with the same name, there's not
+	 *         enough free space on the file system, or an I/O error occurs.
+	 */
+	public void replaceChild(final FileSystemEntry child) throws IOException {
+		this.requireNotDetached();
+		if (child instanceof Directory) {
+			throw new IllegalArgumentException("Can't replace an entry with a directory");
+		}
+		if (!child.isDetached()) {
+			throw new IllegalArgumentException("Can only add a detached child");
+		}
+
+		final long t0 = nanoTime();
+		try {
+			this.fileSystem.update(() -> {
+				this.replaceChild0(child);
+				this.fileSystem.indexLink(this, child);
+			});
+		} finally {
+			this.fileSystem.getMetrics().record(Operation.ADD_CHILD, nanoTime() - t0);
+		}
+	}
+
+	private void replaceChild0(final FileSystemEntry child) throws IOException {
+		final String childName = child.getName();
+
+		final String parentName = this.getName();
+		LOGGER.finest(() -> format("Replacing %s in %s", childName, parentName));
+
+		final FileSystemEntry existing = this.getChild(childName);
+		if (existing == null) {
+			throw new IOException(format("No file %s in directory %s", childName, parentName));
+		}
+		if (existing instanceof Directory) {
+			throw new IOException(format("%s in directory %s is a directory", childName, parentName));
 		}
 
+		final boolean inline = child.dataSize <= this.fileSystem.getInlineDataThreshold();
+		child.setInline(inline);
+		child.setBaseTime(this.getChildBaseTime());
+
+		final long childInode = this.allocateChild(child, inline);
+		try {
+			child.setFileSystem(this.fileSystem);
+			child.setFirstBlockId(childInode);
+			child.writeData();
+			final SortedLayout layout = this.getSortedLayout();
+			if (layout != null) {
+				layout.replace(child, childInode);
+			} else {
+				this.replaceUnsorted(existing, child);
+			}
+		} catch (final IOException ioe) {
+			this.freeChild(child, inline, childInode);
+			throw ioe;
+		}
+
+		this.fileSystem.indexUnlink(this, existing);
+		if (!existing.isInline()) {
+			this.fileSystem.freeBlocks(existing.firstBlockId);
+		}
+		existing.setFileSystem(null);
+		existing.setFirstBlockId(-1);
+
+		this.writeDataSize();
+
 		child.source = null;
 	}
 
+	/**
+	 * <p>Rewrites the entries of this (unsorted) directory with {@code
+	 * existing} replaced by {@code child}. If the directory needs to grow,
+	 * it does before anything is written.</p>
+	 *
+	 * @param existing the entry to replace.
+	 * @param child the entry to replace {@code existing} with, attached.
+	 * @throws IOException if there're no free blocks left for the directory
+	 *         to grow, or an I/O error occurs.
+	 */
+	private void replaceUnsorted(final FileSystemEntry existing, final FileSystemEntry child) throws IOException {
+		final long newDataSize = this.dataSize - existing.getMetadataSize() + child.getMetadataSize();
+		final long oldBlockCount = this.getBlockCount();
+		final long newBlockCount = FileUtilities.getBlockCount(newDataSize, this.fileSystem.getBlockSize().getLength());
+		if (newBlockCount > oldBlockCount) {
+			this.fileSystem.growInode(this.firstBlockId, newBlockCount - oldBlockCount);
+		}
+
+		/*
+		 * XXX: Implement for directory sizes larger than 2G.
+		 */
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer metadata = ByteBuffer.allocate((int) newDataSize);
+		for (final FileSystemEntry remainingChild : this.list()) {
+			final FileSystemEntry entry = remainingChild.getName().equals(child.getName()) ? child : remainingChild;
+			this.fileSystem.writeInode(entry.firstBlockId, metadata);
+			entry.writeMetadataTo(metadata);
+		}
+		metadata.flip();
+		this.fileSystem.writeDirectoryData(this.firstBlockId, metadata, 0L);
+
+		this.dataSize = newDataSize;
+	}
+
 	/**
 	 * <p>Removes (unlinks) the child entry denoted by {@code child} from
 	 * this directory.</p>
@@ -214,6 +458,27 @@ public final class Directory extends FileSystemEntry {
 	public void unlink(final String child) throws IOException {
 		this.requireNotDetached();
 
+		final long t0 = nanoTime();
+		try {
+			this.fileSystem.update(() -> this.unlink0(child));
+		} finally {
+			this.fileSystem.getMetrics().record(Operation.UNLINK, nanoTime() - t0);
+		}
+	}
+
+	private void unlink0(final String child) throws IOException {
+		final UnlinkEvent event = new UnlinkEvent();
+		event.begin();
+
+		final SortedLayout layout = this.getSortedLayout();
+		if (layout != null) {
+			this.unlinkSorted(child, layout);
+			event.directory = this.getName();
+			event.child = child;
+			event.commit();
+			return;
+		}
+
 		final Set<FileSystemEntry> children = this.list();
 		if (!children.stream().anyMatch(entry -> entry.getName().equals(child))) {
 			throw new IOException(format("rm: cannot remove `%s': No such file or directory", child));
@@ -222,10 +487,23 @@ public final class Directory extends FileSystemEntry {
 		final Set<FileSystemEntry> matchingChildren = children.stream().filter(entry -> entry.getName().equals(child)).collect(Collectors.toSet());
 		assert matchingChildren.size() == 1;
 		final FileSystemEntry matchingChild = matchingChildren.iterator().next();
+		if (matchingChild instanceof Directory && matchingChild.dataSize != 0) {
+			/*
+			 * Otherwise, the blocks of its children would be leaked.
+			 */
+			throw new IOException(format("rm: cannot remove `%s': Directory not empty", child));
+		}
 
 		final int sizeDecrement = this.fileSystem.getBlockAddressSize() + matchingChild.getMetadataSize();
 
-		this.fileSystem.freeBlocks(matchingChild.firstBlockId);
+		this.fileSystem.indexUnlink(this, matchingChild);
+
+		if (!matchingChild.isInline()) {
+			this.fileSystem.freeBlocks(matchingChild.firstBlockId);
+		}
+		if (matchingChild instanceof Directory) {
+			this.fileSystem.discardNameFilter(matchingChild.firstBlockId);
+		}
 		matchingChild.setFileSystem(null);
 		matchingChild.setFirstBlockId(-1);
 		assert matchingChild.isDetached();
@@ -246,19 +524,42 @@ public final class Directory extends FileSystemEntry {
 		}
 		metadata.flip();
 
-		this.fileSystem.writeTo(this.firstBlockId, metadata);
+		event.directory = this.getName();
+		event.child = child;
+		event.bytesRewritten = metadata.remaining();
+		this.fileSystem.writeDirectoryData(this.firstBlockId, metadata, 0L);
 
 		/*
 		 * Parent directory size has changed.
 		 * Record the change in the parent's parent (or boot sector for the root directory).
 		 */
 		this.dataSize -= sizeDecrement;
-		if (this.isRootDirectory()) {
-			this.fileSystem.setRootDirectorySize(this.dataSize);
-		} else {
-			// XXX: Implement for directories other than the root one.
-			throw new UnsupportedOperationException("Parent (..) links in directories are not stored yet.");
+		this.writeDataSize();
+
+		event.commit();
+	}
+
+	private void unlinkSorted(final String child, final SortedLayout layout) throws IOException {
+		final FileSystemEntry matchingChild = layout.find(child);
+		if (matchingChild == null) {
+			throw new IOException(format("rm: cannot remove `%s': No such file or directory", child));
+		}
+		if (matchingChild instanceof Directory && matchingChild.dataSize != 0) {
+			throw new IOException(format("rm: cannot remove `%s': Directory not empty", child));
+		}
+
+		layout.remove(child);
+		this.fileSystem.indexUnlink(this, matchingChild);
+		if (!matchingChild.isInline()) {
+			this.fileSystem.freeBlocks(matchingChild.firstBlockId);
+		}
+		if (matchingChild instanceof Directory) {
+			this.fileSystem.discardNameFilter(matchingChild.firstBlockId);
 		}
+		matchingChild.setFileSystem(null);
+		matchingChild.setFirstBlockId(-1);
+
+		this.writeDataSize();
 	}
 
 	@Override
@@ -282,18 +583,45 @@ public final class Directory extends FileSystemEntry {
 			return emptySet;
 		}
 
+		final SortedLayout layout = this.getSortedLayout();
+		if (layout != null) {
+			final long t0 = nanoTime();
+			try {
+				final ListDirectoryEvent event = new ListDirectoryEvent();
+				event.begin();
+				final Set<FileSystemEntry> children = layout.list();
+				event.directory = this.getName();
+				event.entries = children.size();
+				event.commit();
+				return children;
+			} finally {
+				this.fileSystem.getMetrics().record(Operation.LIST, nanoTime() - t0);
+			}
+		}
+
 		if (this.dataSize > Integer.MAX_VALUE) {
 			// TODO: Implement for directories spanning more than 2G
 			LOGGER.severe(format("Directories larger than 2G are not supported: %d", Long.valueOf(this.dataSize)));
 			throw new UnsupportedOperationException();
 		}
 
-		final List<MappedByteBuffer> blocks = this.fileSystem.mapBlocks(this.firstBlockId);
-		final int blockCount = blocks.size();
-		@Nonnull
-		@SuppressWarnings("null")
-		final ByteBuffer contents = blockCount == 1 ? blocks.iterator().next() : this.getData();
-		return this.list(contents);
+		final long t0 = nanoTime();
+		try {
+			final List<ByteBuffer> blocks = this.fileSystem.readBlocks(this.firstBlockId);
+			final int blockCount = blocks.size();
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer contents = blockCount == 1 ? blocks.iterator().next() : this.getData();
+			final ListDirectoryEvent event = new ListDirectoryEvent();
+			event.begin();
+			final Set<FileSystemEntry> children = this.list(contents);
+			event.directory = this.getName();
+			event.entries = children.size();
+			event.commit();
+			return children;
+		} finally {
+			this.fileSystem.getMetrics().record(Operation.LIST, nanoTime() - t0);
+		}
 	}
 
 	private Set<FileSystemEntry> list(final ByteBuffer contents) throws IOException {
@@ -304,12 +632,10 @@ public final class Directory extends FileSystemEntry {
 			final long inode = this.fileSystem.readInode(contents);
 			bytesRead += this.fileSystem.getBlockAddressSize();
 
-			final FileSystemEntry child = readMetadataFrom(contents);
+			final FileSystemEntry child = readMetadataFrom(contents, this.getChildBaseTime());
 			bytesRead += child.getMetadataSize();
 
-			child.setFileSystem(this.fileSystem);
-			child.setFirstBlockId(inode);
-			children.add(child);
+			children.add(this.attach(child, inode));
 		}
 
 		assert bytesRead == this.dataSize : bytesRead;
@@ -317,6 +643,255 @@ public final class Directory extends FileSystemEntry {
 		return children;
 	}
 
+	/**
+	 * <p>Reads the attributes of all the entries of this directory in a
+	 * single pass over its data, without creating any entries: the bulk
+	 * counterpart of {@link #list()} for callers which only need the
+	 * attributes, such as {@code ls -l}.</p>
+	 *
+	 * @param destination the buffer to fill, which is {@linkplain
+	 *        StatBuffer#clear() cleared} first and may be reused across
+	 *        calls.
+	 * @return the number of entries read.
+	 * @throws IOException if an I/O error occurs.
+	 * @see StatFormatter
+	 */
+	public int stat(final StatBuffer destination) throws IOException {
+		this.requireNotDetached();
+
+		destination.clear();
+		if (this.dataSize == 0) {
+			return 0;
+		}
+
+		final long t0 = nanoTime();
+		try {
+			final SortedLayout layout = this.getSortedLayout();
+			if (layout != null) {
+				layout.stat(destination);
+				return destination.size();
+			}
+
+			if (this.dataSize > Integer.MAX_VALUE) {
+				LOGGER.severe(format("Directories larger than 2G are not supported: %d", Long.valueOf(this.dataSize)));
+				throw new UnsupportedOperationException();
+			}
+
+			final long baseTime = this.getChildBaseTime();
+			final ByteBuffer contents = this.getData();
+			while (contents.hasRemaining()) {
+				final long inode = this.fileSystem.readInode(contents);
+				readStatFrom(contents, baseTime, inode, destination);
+			}
+			return destination.size();
+		} finally {
+			this.fileSystem.getMetrics().record(Operation.LIST, nanoTime() - t0);
+		}
+	}
+
+	/**
+	 * <p>Creates the subdirectory described by a row {@linkplain
+	 * #stat(StatBuffer) read} from this directory, without looking it up
+	 * again.</p>
+	 *
+	 * @param stats the attributes of the entries of this directory.
+	 * @param row the row of a subdirectory within {@code stats}.
+	 * @return the subdirectory, attached.
+	 */
+	Directory getChildDirectory(final StatBuffer stats, final int row) {
+		if (stats.getType(row) != DIRECTORY) {
+			throw new IllegalArgumentException(format("%s is not a directory", stats.getName(row)));
+		}
+
+		final Directory child = new Directory(new PosixAttributes(stats.getAttributes(row)),
+				stats.getNumberOfLinks(row),
+				stats.getUid(row),
+				stats.getGid(row),
+				stats.getSize(row),
+				new Date(stats.getCreationTime(row)),
+				new Date(stats.getModificationTime(row)),
+				new Date(stats.getAccessTime(row)),
+				stats.getName(row));
+		child.setBaseTime(this.getChildBaseTime());
+		this.attach(child, stats.getInode(row));
+		return child;
+	}
+
+	/**
+	 * @return the absolute path of this directory.
+	 * @throws IllegalStateException if the path is unknown, i.e. this
+	 *         directory hasn't been reached from the root one.
+	 */
+	String getPath() {
+		if (this.isRootDirectory()) {
+			return "/";
+		}
+
+		final Directory parent0 = this.parent;
+		if (parent0 == null) {
+			throw new IllegalStateException(format("Parent of %s is unknown", this.name));
+		}
+		final String parentPath = parent0.getPath();
+		return parentPath.endsWith("/") ? parentPath + this.name : parentPath + '/' + this.name;
+	}
+
+	/**
+	 * <p>Reads this directory anew from the data of its parent (or from
+	 * the boot sector, for the root directory). Other handles of the same
+	 * directory may have added or removed children since this one was
+	 * read, leaving its size out of date.</p>
+	 *
+	 * @return a fresh handle of this directory.
+	 * @throws IOException if this directory has been removed, or an I/O
+	 *         error occurs.
+	 * @throws IllegalStateException if the parent of this directory is
+	 *         unknown.
+	 */
+	Directory reread() throws IOException {
+		this.requireNotDetached();
+
+		if (this.isRootDirectory()) {
+			return this.fileSystem.getRoot();
+		}
+
+		final Directory parent0 = this.parent;
+		if (parent0 == null) {
+			throw new IllegalStateException(format("Parent of %s is unknown", this.name));
+		}
+		for (final FileSystemEntry child : parent0.reread().list()) {
+			if (child instanceof Directory && child.firstBlockId == this.firstBlockId) {
+				return (Directory) child;
+			}
+		}
+		throw new IOException(format("Directory %s no longer exists", this.name));
+	}
+
+	/**
+	 * <p>Links an entry just read from the data of this directory to the
+	 * file system.</p>
+	 *
+	 * @param child the entry read.
+	 * @param inode the first block of {@code child}.
+	 * @return {@code child}.
+	 */
+	FileSystemEntry attach(final FileSystemEntry child, final long inode) {
+		child.setFileSystem(this.fileSystem);
+		child.setFirstBlockId(inode);
+		if (child instanceof Directory) {
+			((Directory) child).parent = this;
+		}
+		return child;
+	}
+
+	/**
+	 * <p>Looks up the child entry named {@code name}.</p>
+	 *
+	 * @param name the name of the child entry.
+	 * @return the child entry, or {@code null} if this directory doesn't
+	 *         contain an entry named {@code name}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Nullable
+	public FileSystemEntry getChild(final String name) throws IOException {
+		this.requireNotDetached();
+
+		if (!this.fileSystem.getNameFilter(this).mightContain(FileSystemEntry.encodeName(name))) {
+			return null;
+		}
+
+		final SortedLayout layout = this.getSortedLayout();
+		if (layout != null) {
+			return layout.find(name);
+		}
+
+		for (final FileSystemEntry child : this.list()) {
+			if (child.getName().equals(name)) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * <p>Records the current size of this directory in its parent's data
+	 * area (or in the boot sector for the root directory).</p>
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writeDataSize() throws IOException {
+		this.fileSystem.indexDataSize(this);
+
+		if (this.isRootDirectory()) {
+			this.fileSystem.setRootDirectorySize(this.dataSize);
+			return;
+		}
+
+		final Directory parent0 = this.parent;
+		if (parent0 == null) {
+			throw new IllegalStateException(format("Parent of %s is unknown", this.name));
+		}
+		final SortedLayout layout = parent0.getSortedLayout();
+		if (layout != null) {
+			layout.writeChildSize(this.name, this.dataSize);
+		} else {
+			parent0.writeChildSize(this.firstBlockId, this.dataSize);
+		}
+	}
+
+	/**
+	 * <p>Overwrites the size stored in the directory entry of the child
+	 * whose first block is {@code childInode}.</p>
+	 *
+	 * @param childInode the first block id of the child.
+	 * @param childSize the new size of the child.
+	 * @throws IOException if this directory has no such child, or an I/O
+	 *         error occurs.
+	 */
+	private void writeChildSize(final long childInode, final long childSize) throws IOException {
+		final long baseTime = this.getChildBaseTime();
+		final ByteBuffer contents = this.getData();
+		while (contents.hasRemaining()) {
+			final long inode = this.fileSystem.readInode(contents);
+			final int entryOffset = contents.position();
+			if (inode == childInode) {
+				this.fileSystem.writeDirectoryData(this.firstBlockId, encodeDirectorySize(childSize, baseTime), entryOffset + getSizeOffset(contents, baseTime));
+				return;
+			}
+			contents.position(entryOffset + getMetadataSize(contents, baseTime));
+		}
+		throw new IOException(format("Directory %s has no child at block %d", this.getName(), Long.valueOf(childInode)));
+	}
+
+	/**
+	 * @return the time the timestamps of the children of this directory
+	 *         are encoded relative to, or {@link #NO_BASE_TIME} if the
+	 *         file system uses the fixed-length encoding.
+	 * @see Feature#COMPACT_METADATA
+	 */
+	private long getChildBaseTime() {
+		return this.fileSystem.getFeatures().contains(Feature.COMPACT_METADATA)
+				? this.getCreationTime().getTime()
+				: NO_BASE_TIME;
+	}
+
+	/**
+	 * @return the sorted layout of this directory's data, or {@code null}
+	 *         if the file system doesn't keep directories sorted.
+	 * @throws IOException if an I/O error occurs.
+	 * @see Feature#SORTED_DIRECTORIES
+	 */
+	@Nullable
+	private SortedLayout getSortedLayout() throws IOException {
+		this.requireNotDetached();
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final FileSystem fileSystem0 = this.fileSystem;
+		return fileSystem0.getFeatures().contains(Feature.SORTED_DIRECTORIES)
+				? new SortedLayout(this, fileSystem0, this.getChildBaseTime())
+				: null;
+	}
+
 	private boolean isRootDirectory() {
 		return this.name.length() == 0;
 	}
@@ -0,0 +1,158 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>Defines when metadata updates are forced to the storage device, i.e.:
+ * trades update latency for the amount of work which may be lost in case
+ * of a crash. The policy is chosen per mount and can be passed to either
+ * {@link FileSystem#create(java.nio.file.Path, long, FileSystemOption...)}
+ * or {@link FileSystem#mount(java.nio.file.Path, FileSystemOption...)}.</p>
+ *
+ * <p>If no policy is specified, file systems with a {@linkplain
+ * Feature#JOURNAL journal} use {@link #PER_OPERATION}, and those without
+ * one use {@link #ASYNC}.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#sync()
+ * @see FileSystem#beginBatch()
+ */
+public final class DurabilityPolicy implements FileSystemOption {
+	/**
+	 * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+	 */
+	public enum Mode {
+		/**
+		 * Each metadata update is durable once it returns.
+		 */
+		PER_OPERATION,
+		/**
+		 * Metadata updates are durable once the enclosing {@linkplain
+		 * FileSystem#beginBatch() batch} is closed.
+		 */
+		PER_BATCH,
+		/**
+		 * Metadata updates are forced by a background thread at a
+		 * fixed interval.
+		 */
+		PERIODIC,
+		/**
+		 * Metadata updates are never forced explicitly: the operating
+		 * system writes them back whenever it sees fit.
+		 */
+		ASYNC,
+	}
+
+	/**
+	 * @see Mode#PER_OPERATION
+	 */
+	@Nonnull
+	public static final DurabilityPolicy PER_OPERATION = new DurabilityPolicy(Mode.PER_OPERATION, 0L);
+
+	/**
+	 * @see Mode#PER_BATCH
+	 */
+	@Nonnull
+	public static final DurabilityPolicy PER_BATCH = new DurabilityPolicy(Mode.PER_BATCH, 0L);
+
+	/**
+	 * @see Mode#ASYNC
+	 */
+	@Nonnull
+	public static final DurabilityPolicy ASYNC = new DurabilityPolicy(Mode.ASYNC, 0L);
+
+	@Nonnull
+	private final Mode mode;
+
+	private final long intervalNanos;
+
+	private DurabilityPolicy(final Mode mode, final long intervalNanos) {
+		this.mode = mode;
+		this.intervalNanos = intervalNanos;
+	}
+
+	/**
+	 * @param interval the interval between two subsequent flushes.
+	 * @param unit the unit of {@code interval}.
+	 * @return the {@linkplain Mode#PERIODIC periodic} policy with the
+	 *         given interval.
+	 */
+	public static DurabilityPolicy periodic(final long interval, final TimeUnit unit) {
+		final long intervalNanos = unit.toNanos(interval);
+		if (intervalNanos <= 0) {
+			throw new IllegalArgumentException(format("Invalid interval: %d %s", Long.valueOf(interval), unit));
+		}
+		return new DurabilityPolicy(Mode.PERIODIC, intervalNanos);
+	}
+
+	/**
+	 * @return the mode of this policy.
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * @param unit the unit to return the interval in.
+	 * @return the interval between two subsequent flushes, or 0 unless
+	 *         this policy is {@linkplain Mode#PERIODIC periodic}.
+	 */
+	public long getInterval(final TimeUnit unit) {
+		return unit.convert(this.intervalNanos, NANOSECONDS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || this.getClass() != obj.getClass()) {
+			return false;
+		}
+		final DurabilityPolicy that = (DurabilityPolicy) obj;
+		return this.mode == that.mode && this.intervalNanos == that.intervalNanos;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * this.mode.hashCode() + Long.hashCode(this.intervalNanos);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if (this.mode != Mode.PERIODIC) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final String s = this.mode.toString();
+			return s;
+		}
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final String s = format("%s(%d ms)", this.mode, Long.valueOf(this.getInterval(TimeUnit.MILLISECONDS)));
+		return s;
+	}
+}
@@ -0,0 +1,494 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.util.logging.Level.FINE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>A read-only channel over the contents of a file system entry, with
+ * adaptive readahead.</p>
+ *
+ * <p>The chain of blocks occupied by the entry is resolved incrementally
+ * and remembered, so that neither sequential nor random reads walk the
+ * inode table from the first block over and over again. As long as reads
+ * are sequential, the next chain links and data blocks are prefetched in
+ * background; the readahead window starts at {@value #INITIAL_WINDOW}
+ * blocks and doubles each time it is consumed by half, up to {@value
+ * #MAX_WINDOW_BYTES} bytes. A non-sequential read resets the window.</p>
+ *
+ * <p>If the file system has {@linkplain Feature#CHECKSUMS checksums}, each
+ * block is read as a whole and verified the first time it is accessed.</p>
+ *
+ * <p>The contents of an {@linkplain Feature#INLINE_DATA inline} entry are
+ * already in memory, and are read w/o accessing any blocks.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystemEntry#newByteChannel()
+ */
+final class EntryChannel implements SeekableByteChannel {
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final Logger LOGGER = Logger.getLogger(EntryChannel.class.getName());
+
+	static final int INITIAL_WINDOW = 4;
+
+	static final int MAX_WINDOW_BYTES = 2 * 1024 * 1024;
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	private final long size;
+
+	private final int blockLength;
+
+	private final long blockCount;
+
+	private final int maxWindow;
+
+	/**
+	 * The last block read and verified, if the file system has
+	 * {@linkplain Feature#CHECKSUMS checksums}; {@code null} otherwise.
+	 */
+	@Nullable
+	private final ByteBuffer verifiedBlock;
+
+	private long verifiedBlockIndex = -1L;
+
+	/**
+	 * The contents of an inline entry, or {@code null}.
+	 */
+	@Nullable
+	private final ByteBuffer inlineData;
+
+	/**
+	 * The block ids resolved so far: {@code chain[i]} is the id of the
+	 * {@code i}-th block of the entry. Shared with readahead tasks, so
+	 * guarded by {@code this}.
+	 */
+	@Nonnull
+	private long chain[];
+
+	private int chainLength;
+
+	private long position;
+
+	/**
+	 * The position the next read is expected at, if sequential.
+	 */
+	private long expectedPosition;
+
+	private int window = INITIAL_WINDOW;
+
+	/**
+	 * The index of the block readahead has been requested up to
+	 * (exclusive).
+	 */
+	private long readaheadEnd;
+
+	private long prefetchedBlockCount;
+
+	private volatile boolean open = true;
+
+	/**
+	 * @param fileSystem the file system the entry belongs to.
+	 * @param firstBlockId the id of the first block allocated for the
+	 *        entry.
+	 * @param size the size of the entry contents.
+	 */
+	EntryChannel(final FileSystem fileSystem, final long firstBlockId, final long size) {
+		this(fileSystem, firstBlockId, size, null);
+	}
+
+	/**
+	 * @param fileSystem the file system the entry belongs to.
+	 * @param inlineData the contents of an inline entry.
+	 */
+	EntryChannel(final FileSystem fileSystem, final ByteBuffer inlineData) {
+		this(fileSystem, 0L, inlineData.capacity(), inlineData);
+	}
+
+	private EntryChannel(final FileSystem fileSystem, final long firstBlockId, final long size, @Nullable final ByteBuffer inlineData) {
+		this.fileSystem = fileSystem;
+		this.size = size;
+		this.inlineData = inlineData;
+		this.blockLength = fileSystem.getBlockSize().getLength();
+		this.blockCount = inlineData == null ? FileUtilities.getBlockCount(size, this.blockLength) : 0L;
+		this.maxWindow = max(INITIAL_WINDOW, MAX_WINDOW_BYTES / this.blockLength);
+		this.verifiedBlock = fileSystem.getFeatures().contains(Feature.CHECKSUMS)
+				? ByteBuffer.allocate(this.blockLength)
+				: null;
+		this.chain = new long[(int) min(max(this.blockCount, 1), 64)];
+		this.chain[0] = firstBlockId;
+		this.chainLength = 1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#read(ByteBuffer)
+	 */
+	@Override
+	public int read(final ByteBuffer destination) throws IOException {
+		this.requireOpen();
+
+		if (this.position >= this.size) {
+			return -1;
+		}
+		if (!destination.hasRemaining()) {
+			return 0;
+		}
+
+		final ByteBuffer inlineData0 = this.inlineData;
+		if (inlineData0 != null) {
+			final ByteBuffer chunk = inlineData0.duplicate();
+			chunk.position((int) this.position).limit((int) min(this.size, this.position + destination.remaining()));
+			final int length = chunk.remaining();
+			destination.put(chunk);
+			this.position += length;
+			return length;
+		}
+
+		final long blockIndex = this.position / this.blockLength;
+		this.onRead(blockIndex);
+
+		int bytesRead = 0;
+		while (destination.hasRemaining() && this.position < this.size) {
+			final long currentBlockIndex = this.position / this.blockLength;
+			final int offset = (int) (this.position % this.blockLength);
+			final int length = (int) min(min(this.blockLength - offset, destination.remaining()), this.size - this.position);
+
+			final ByteBuffer verifiedBlock0 = this.verifiedBlock;
+			if (verifiedBlock0 == null) {
+				final ByteBuffer chunk = destination.duplicate();
+				chunk.limit(chunk.position() + length);
+				this.fileSystem.readBlock(this.getBlockId(currentBlockIndex), offset, chunk);
+				destination.position(chunk.position());
+			} else {
+				if (currentBlockIndex != this.verifiedBlockIndex) {
+					final long blockId = this.getBlockId(currentBlockIndex);
+					this.verifiedBlockIndex = -1L;
+					verifiedBlock0.clear();
+					this.fileSystem.readBlock(blockId, 0, verifiedBlock0);
+					verifiedBlock0.flip();
+					this.fileSystem.verifyChecksum(blockId, verifiedBlock0);
+					this.verifiedBlockIndex = currentBlockIndex;
+				}
+				final ByteBuffer chunk = verifiedBlock0.duplicate();
+				chunk.position(offset).limit(offset + length);
+				destination.put(chunk);
+			}
+
+			this.position += length;
+			bytesRead += length;
+		}
+		this.expectedPosition = this.position;
+
+		return bytesRead;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#write(ByteBuffer)
+	 */
+	@Override
+	public int write(final ByteBuffer source) {
+		throw new NonWritableChannelException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#position()
+	 */
+	@Override
+	public long position() throws IOException {
+		this.requireOpen();
+		return this.position;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#position(long)
+	 */
+	@Override
+	public SeekableByteChannel position(final long newPosition) throws IOException {
+		this.requireOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException(format("Negative position: %d", Long.valueOf(newPosition)));
+		}
+		this.position = newPosition;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#size()
+	 */
+	@Override
+	public long size() throws IOException {
+		this.requireOpen();
+		return this.size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#truncate(long)
+	 */
+	@Override
+	public SeekableByteChannel truncate(final long size0) {
+		throw new NonWritableChannelException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.channels.Channel#isOpen()
+	 */
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Pending readahead requests are abandoned.</p>
+	 *
+	 * @see java.nio.channels.Channel#close()
+	 */
+	@Override
+	public void close() {
+		this.open = false;
+	}
+
+	/**
+	 * <p>Transfers up to {@code count} bytes, starting at {@code
+	 * position}, to {@code target}. Each run of adjacent blocks is sent
+	 * with a single {@linkplain FileSystem#transferBlocks(long, int, long,
+	 * WritableByteChannel) direct transfer} where possible, and read
+	 * block by block otherwise.</p>
+	 *
+	 * <p>Unlike {@link #read(ByteBuffer)}, this method neither changes
+	 * the channel position nor triggers readahead, and may be called by
+	 * multiple threads concurrently.</p>
+	 *
+	 * @param position the position within the entry to start at.
+	 * @param count the maximum number of bytes to transfer.
+	 * @param target the channel to transfer the bytes to.
+	 * @return the number of bytes transferred.
+	 * @throws IOException if an I/O error occurs.
+	 * @see java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)
+	 */
+	long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+		this.requireOpen();
+		if (position < 0 || count < 0) {
+			throw new IllegalArgumentException(format("Negative position or count: %d, %d", Long.valueOf(position), Long.valueOf(count)));
+		}
+
+		final long end = min(this.size, position + count);
+		final ByteBuffer inlineData0 = this.inlineData;
+		if (inlineData0 != null) {
+			if (position >= end) {
+				return 0L;
+			}
+			final ByteBuffer chunk = inlineData0.duplicate();
+			chunk.position((int) position).limit((int) end);
+			while (chunk.hasRemaining()) {
+				target.write(chunk);
+			}
+			return end - position;
+		}
+
+		long current = position;
+		@Nullable
+		ByteBuffer block = null;
+		while (current < end) {
+			final long blockIndex = current / this.blockLength;
+			final long lastBlockIndex = (end - 1) / this.blockLength;
+			final long firstBlockId = this.getBlockId(blockIndex);
+			long runLength = 1L;
+			while (blockIndex + runLength <= lastBlockIndex && this.getBlockId(blockIndex + runLength) == firstBlockId + runLength) {
+				runLength++;
+			}
+
+			final int offset = (int) (current % this.blockLength);
+			final long length = min(runLength * this.blockLength - offset, end - current);
+			final long transferred = this.fileSystem.transferBlocks(firstBlockId, offset, length, target);
+			if (transferred == 0) {
+				break;
+			}
+			if (transferred > 0) {
+				current += transferred;
+				continue;
+			}
+
+			/*
+			 * Can't transfer directly: read (and verify) the run
+			 * block by block.
+			 */
+			if (block == null) {
+				block = ByteBuffer.allocate(this.blockLength);
+			}
+			for (long i = 0; i < runLength && current < end; i++) {
+				final long blockId = firstBlockId + i;
+				final int blockOffset = (int) (current % this.blockLength);
+				block.clear();
+				this.fileSystem.readBlock(blockId, 0, block);
+				block.flip();
+				this.fileSystem.verifyChecksum(blockId, block);
+				block.position(blockOffset).limit((int) min(this.blockLength, blockOffset + end - current));
+				while (block.hasRemaining()) {
+					current += target.write(block);
+				}
+			}
+		}
+		return current - position;
+	}
+
+	/**
+	 * @return the current readahead window, in blocks.
+	 */
+	int getWindow() {
+		return this.window;
+	}
+
+	/**
+	 * @return the number of blocks prefetched so far.
+	 */
+	synchronized long getPrefetchedBlockCount() {
+		return this.prefetchedBlockCount;
+	}
+
+	/**
+	 * <p>Updates the readahead state and, if the access is sequential and
+	 * the reader is about to catch up with the readahead, schedules the
+	 * next window.</p>
+	 *
+	 * @param blockIndex the index of the block the read starts at.
+	 */
+	private void onRead(final long blockIndex) {
+		if (this.position != this.expectedPosition) {
+			/*
+			 * Random access: don't waste I/O bandwidth.
+			 */
+			this.window = INITIAL_WINDOW;
+			this.readaheadEnd = blockIndex + 1;
+			return;
+		}
+
+		if (blockIndex + this.window / 2 < this.readaheadEnd) {
+			return;
+		}
+
+		final long from = max(this.readaheadEnd, blockIndex + 1);
+		final long to = min(from + this.window, this.blockCount);
+		this.readaheadEnd = max(this.readaheadEnd, to);
+		this.window = min(this.window * 2, this.maxWindow);
+		if (from >= to) {
+			return;
+		}
+
+		this.fileSystem.readahead(() -> this.prefetch(from, to));
+	}
+
+	/**
+	 * <p>Resolves the chain links of, and loads, the blocks in the {@code
+	 * [from, to)} range. Runs in background.</p>
+	 */
+	private void prefetch(final long from, final long to) {
+		try {
+			long runStart = -1L;
+			int runLength = 0;
+			for (long i = from; i < to && this.open; i++) {
+				final long blockId = this.getBlockId(i);
+				if (runLength != 0 && blockId == runStart + runLength) {
+					runLength++;
+					continue;
+				}
+				if (runLength != 0) {
+					this.fileSystem.loadBlocks(runStart, runLength);
+				}
+				runStart = blockId;
+				runLength = 1;
+			}
+			if (runLength != 0 && this.open) {
+				this.fileSystem.loadBlocks(runStart, runLength);
+			}
+
+			synchronized (this) {
+				this.prefetchedBlockCount += to - from;
+			}
+		} catch (final ClosedChannelException cce) {
+			/*
+			 * The file system has been unmounted meanwhile.
+			 */
+		} catch (final IOException | RuntimeException e) {
+			LOGGER.log(FINE, "Readahead failed", e);
+		}
+	}
+
+	/**
+	 * @param blockIndex the index of the block within the entry.
+	 * @return the id of the block, resolving the chain as necessary.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private long getBlockId(final long blockIndex) throws IOException {
+		if (blockIndex >= this.blockCount && blockIndex > 0) {
+			throw new IOException(format("Block %d requested while the entry occupies %d", Long.valueOf(blockIndex), Long.valueOf(this.blockCount)));
+		}
+
+		while (true) {
+			final long lastBlockId;
+			final int knownLength;
+			synchronized (this) {
+				if (blockIndex < this.chainLength) {
+					return this.chain[(int) blockIndex];
+				}
+				knownLength = this.chainLength;
+				lastBlockId = this.chain[knownLength - 1];
+			}
+
+			/*
+			 * The inode table is read w/o holding the lock, so that
+			 * a readahead task resolving the chain does not block
+			 * the reader (and vice versa).
+			 */
+			final long nextBlockId = this.fileSystem.getNextBlockId(lastBlockId);
+
+			synchronized (this) {
+				if (this.chainLength == knownLength) {
+					if (this.chainLength == this.chain.length) {
+						this.chain = Arrays.copyOf(this.chain, (int) min(this.chain.length * 2L, this.blockCount));
+					}
+					this.chain[this.chainLength++] = nextBlockId;
+				}
+			}
+		}
+	}
+
+	private void requireOpen() throws ClosedChannelException {
+		if (!this.open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
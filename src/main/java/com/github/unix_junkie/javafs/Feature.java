@@ -0,0 +1,109 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>Optional on-disk features. The set of features a file system uses is
+ * chosen when the file system is {@linkplain FileSystem#create(java.nio.file.Path,
+ * long, BlockSize, FileSystemOption...) created} and is stored in the boot
+ * sector as a bit mask.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public enum Feature implements FileSystemOption {
+	/**
+	 * Metadata updates are first recorded in a write-ahead journal which
+	 * follows the data area, see {@link Journal}.
+	 */
+	JOURNAL(0x1),
+	/**
+	 * A CRC32C checksum of each data block is kept in the checksum area
+	 * which follows the journal (or the data area, if there's no
+	 * journal). Requires Java 9+.
+	 *
+	 * @see FileSystem#scrub()
+	 */
+	CHECKSUMS(0x2),
+	/**
+	 * The contents of small files and symbolic links are stored in the
+	 * parent directory entry, right after the name, rather than in data
+	 * blocks of their own. Such contents are not covered by {@linkplain
+	 * #CHECKSUMS checksums}, just as the rest of the directory data.
+	 *
+	 * @see FileSystem#getInlineDataThreshold()
+	 */
+	INLINE_DATA(0x4),
+	/**
+	 * Directory entries use the variable-length encoding of the on-disk
+	 * format v1.1: sizes and lengths are varints, and timestamps are
+	 * encoded relative to the creation time of the parent directory.
+	 * The root directory entry in the boot sector is not affected.
+	 */
+	COMPACT_METADATA(0x8),
+	/**
+	 * Directory entries are kept ordered by name, in blocks of their own,
+	 * so that a lookup is a binary search rather than a linear scan, and
+	 * listings come out sorted.
+	 *
+	 * @see SortedLayout
+	 */
+	SORTED_DIRECTORIES(0x10),
+	/**
+	 * The names of all entries are recorded in a volume-wide index, kept
+	 * in a reserved chain of blocks starting right after the root
+	 * directory, so that entries can be found by name w/o walking the
+	 * directory tree.
+	 *
+	 * @see FileSystem#find(String)
+	 */
+	PATH_INDEX(0x20),
+	;
+
+	private final int mask;
+
+	private Feature(final int mask) {
+		this.mask = mask;
+	}
+
+	/**
+	 * @return the bit this feature occupies in the feature mask.
+	 */
+	int getMask() {
+		return this.mask;
+	}
+
+	static int toMask(final Set<Feature> features) {
+		int mask = 0;
+		for (final Feature feature : features) {
+			mask |= feature.mask;
+		}
+		return mask;
+	}
+
+	static Set<Feature> fromMask(final int mask) {
+		final Set<Feature> features = EnumSet.noneOf(Feature.class);
+		int unknownMask = mask;
+		for (final Feature feature : values()) {
+			if ((mask & feature.mask) != 0) {
+				features.add(feature);
+				unknownMask &= ~feature.mask;
+			}
+		}
+		if (unknownMask != 0) {
+			throw new IllegalArgumentException(format("Unsupported feature(s): 0x%08x", Integer.valueOf(unknownMask)));
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final Set<Feature> unmodifiableFeatures = unmodifiableSet(features);
+		return unmodifiableFeatures;
+	}
+}
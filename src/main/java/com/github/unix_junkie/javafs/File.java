@@ -4,15 +4,14 @@
 package com.github.unix_junkie.javafs;
 
 import static com.github.unix_junkie.javafs.FileType.FILE;
-import static java.nio.file.Files.readAttributes;
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.lang.Math.min;
 import static java.nio.file.StandardOpenOption.READ;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Date;
 
 import javax.annotation.Nonnull;
@@ -24,10 +23,92 @@ import javax.annotation.Nullable;
  * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
  */
 public final class File extends FileSystemEntry {
+	/**
+	 * <p>The contents of a file created from scratch (rather than from an
+	 * external {@link #source}); {@code null} once written.</p>
+	 */
+	@Nullable
+	private ReadableByteChannel contents;
+
+	/**
+	 * <p>The first block of the contents {@linkplain StagingChannel staged}
+	 * for a file not yet added to a directory, or -1.</p>
+	 */
+	private long stagedBlockId = -1;
+
 	public File(final Path source) throws IOException {
-		super(source);
+		this(source, HostAttributes.read(source));
+	}
+
+	File(final Path source, final HostAttributes attrs) throws IOException {
+		super(source, attrs);
 
-		this.dataSize = readAttributes(source, BasicFileAttributes.class, NOFOLLOW_LINKS).size();
+		this.dataSize = attrs.size;
+	}
+
+	/**
+	 * <p>Creates a detached file whose contents are read from {@code
+	 * contents} once the file is {@linkplain Directory#addChild(FileSystemEntry)
+	 * added} to a directory. The channel is not closed.</p>
+	 *
+	 * @param name the file name.
+	 * @param size the file size, in bytes.
+	 * @param contents the channel to read exactly {@code size} bytes from.
+	 */
+	public File(final String name, final long size, final ReadableByteChannel contents) {
+		this(name, size, new Date());
+		this.contents = contents;
+	}
+
+	/**
+	 * <p>Creates a detached file with the metadata specified, whose
+	 * contents are read from {@code contents} once the file is {@linkplain
+	 * Directory#addChild(FileSystemEntry) added} to a directory. The
+	 * channel is not closed.</p>
+	 *
+	 * @param attributes POSIX attributes.
+	 * @param uid owner Id (UID).
+	 * @param gid group Id (GID).
+	 * @param modificationTime modification time, also used as the creation
+	 *        and access time.
+	 * @param name the file name.
+	 * @param size the file size, in bytes.
+	 * @param contents the channel to read exactly {@code size} bytes from.
+	 */
+	public File(final PosixAttributes attributes,
+			final short uid,
+			final short gid,
+			final Date modificationTime,
+			final String name,
+			final long size,
+			final ReadableByteChannel contents) {
+		this(attributes, (byte) 1, uid, gid, size,
+				modificationTime,
+				modificationTime,
+				modificationTime, name);
+		this.contents = contents;
+	}
+
+	/**
+	 * <p>Creates a detached file whose contents are already written to a
+	 * chain of exactly as many blocks as {@code size} takes. Once the file
+	 * is added to a directory, the blocks become its own, unless the file
+	 * is stored {@linkplain Feature#INLINE_DATA inline}.</p>
+	 *
+	 * @param name the file name.
+	 * @param size the file size, in bytes.
+	 * @param stagedBlockId the first block of the contents.
+	 * @see StagingChannel#link(Directory, String)
+	 */
+	File(final String name, final long size, final long stagedBlockId) {
+		this(name, size, new Date());
+		this.stagedBlockId = stagedBlockId;
+	}
+
+	private File(final String name, final long size, final Date creationTime) {
+		this(new PosixAttributes((short) 0644), (byte) 1,
+				(short) 0, (short) 0, size, creationTime,
+				creationTime, creationTime, name);
 	}
 
 	public File(final PosixAttributes attributes,
@@ -70,16 +151,50 @@ public final class File extends FileSystemEntry {
 	protected void writeData() throws IOException {
 		this.requireNotDetached();
 
+		if (this.stagedBlockId != -1) {
+			/*
+			 * Contents stored in blocks are already in place.
+			 */
+			if (this.isInline()) {
+				@Nonnull
+				@SuppressWarnings("null")
+				final ByteBuffer contents0 = ByteBuffer.allocate((int) this.dataSize);
+				for (final ByteBuffer block : this.fileSystem.readBlocks(this.stagedBlockId)) {
+					final ByteBuffer chunk = block.duplicate();
+					chunk.limit(chunk.position() + min(chunk.remaining(), contents0.remaining()));
+					contents0.put(chunk);
+				}
+				contents0.flip();
+				this.writeContents(contents0);
+			}
+			return;
+		}
+
+		final ReadableByteChannel contents0 = this.contents;
+		if (contents0 != null) {
+			this.contents = null;
+			this.writeContents(contents0);
+			return;
+		}
+
 		if (this.source == null) {
 			return;
 		}
 
 		try (@Nonnull @SuppressWarnings("null")
 				final FileChannel channel = FileChannel.open(this.source, READ)) {
-			this.fileSystem.writeTo(this.firstBlockId, channel);
+			this.writeContents(channel);
 		}
 	}
 
+	/**
+	 * @return the first block of the contents staged for this file, or -1.
+	 * @see #File(String, long, long)
+	 */
+	long getStagedBlockId() {
+		return this.stagedBlockId;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 *
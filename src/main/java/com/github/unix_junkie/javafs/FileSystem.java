@@ -4,6 +4,15 @@
 package com.github.unix_junkie.javafs;
 
 import static com.github.unix_junkie.javafs.BlockSize.guessBlockSize;
+import static com.github.unix_junkie.javafs.Feature.CHECKSUMS;
+import static com.github.unix_junkie.javafs.Feature.COMPACT_METADATA;
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static com.github.unix_junkie.javafs.Feature.PATH_INDEX;
+import static com.github.unix_junkie.javafs.FileUtilities.readFully;
+import static com.github.unix_junkie.javafs.FileUtilities.writeFully;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.String.format;
 import static java.lang.System.nanoTime;
 import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
@@ -16,34 +25,67 @@ import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.SPARSE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.WARNING;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.CharsetEncoder;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.LongFunction;
 import java.util.logging.Logger;
+import java.util.stream.LongStream;
+import java.util.zip.CRC32C;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.github.unix_junkie.javafs.DurabilityPolicy.Mode;
+import com.github.unix_junkie.javafs.FileSystemMetrics.Operation;
+
 /**
  * <p>An abstract representation of a mounted file system. Please use either of
- * {@link #create(Path, long)}, {@link #create(Path, long, BlockSize)} and
- * {@link #mount(Path)} factory methods to get a file system instance.</p>
+ * {@link #create(Path, long, FileSystemOption...)}, {@link #create(Path, long,
+ * BlockSize, FileSystemOption...)} and {@link #mount(Path,
+ * FileSystemOption...)} factory methods to get a file system instance.</p>
+ *
+ * <p>The container consists of the boot sector, the inode table, the data
+ * area and, if the {@linkplain Feature#JOURNAL journal} is enabled, the
+ * journal area, and, if {@linkplain Feature#CHECKSUMS checksums} are
+ * enabled, the checksum area, in this order.</p>
  *
  * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
- * @see #create(Path, long)
- * @see #create(Path, long, BlockSize)
- * @see #mount(Path)
+ * @see #create(Path, long, FileSystemOption...)
+ * @see #create(Path, long, BlockSize, FileSystemOption...)
+ * @see #mount(Path, FileSystemOption...)
  */
 public final class FileSystem implements AutoCloseable {
 	@Nonnull
@@ -54,7 +96,61 @@ public final class FileSystem implements AutoCloseable {
 
 	private static final byte METADATA_OFFSET = 17;
 
-	private static final byte METADATA_LENGTH = 14;
+	/**
+	 * Consists of the following:
+	 * <ul>
+	 * <li>1 byte: major version,</li>
+	 * <li>1 byte: minor version,</li>
+	 * <li>8 bytes: data area length,</li>
+	 * <li>4 bytes: block size,</li>
+	 * <li>4 bytes: {@linkplain Feature feature} mask,</li>
+	 * <li>8 bytes: journal length (0 if no journal).</li>
+	 * </ul>
+	 */
+	private static final byte METADATA_LENGTH = 26;
+
+	/**
+	 * The smallest journal created, in bytes.
+	 */
+	private static final long MIN_JOURNAL_LENGTH = 64L * 1024;
+
+	/**
+	 * The largest journal created, in bytes.
+	 */
+	private static final long MAX_JOURNAL_LENGTH = 64L * 1024 * 1024;
+
+	private static final int READAHEAD_THREAD_COUNT = 2;
+
+	/**
+	 * The length of a single {@linkplain Feature#CHECKSUMS checksum}.
+	 */
+	private static final int CHECKSUM_LENGTH = 4;
+
+	/**
+	 * The checksum of free blocks, and of blocks which are not written
+	 * by {@link #writeTo(long, ByteBuffer, long)} (i.e.: directories).
+	 * Such blocks are not verified (nor are the blocks whose CRC32C
+	 * happens to be 0).
+	 */
+	static final int NO_CHECKSUM = 0;
+
+	/**
+	 * The number of blocks a single {@linkplain #scrub() scrub} task
+	 * verifies.
+	 */
+	private static final int SCRUB_BATCH_SIZE = 256;
+
+	/**
+	 * The largest {@linkplain Feature#INLINE_DATA inline} contents, in
+	 * bytes, regardless of the block size.
+	 */
+	private static final int MAX_INLINE_DATA_LENGTH = 256;
+
+	/**
+	 * The number of in-memory file systems created or loaded so far, to
+	 * name them after.
+	 */
+	private static final AtomicLong IN_MEMORY_COUNT = new AtomicLong();
 
 	@Nonnull
 	private final FileChannel channel;
@@ -67,29 +163,129 @@ public final class FileSystem implements AutoCloseable {
 	@Nonnull
 	private final BlockSize blockSize;
 
-	private FileSystem(final FileChannel channel, final long dataAreaLength,
-			final BlockSize blockSize) {
+	@Nonnull
+	private final Set<Feature> features;
+
+	/**
+	 * The length of the journal area, or 0 if there's no journal.
+	 */
+	private final long journalLength;
+
+	@Nullable
+	private Journal journal;
+
+	/**
+	 * Serializes metadata updates.
+	 *
+	 * @see #update(MetadataUpdate)
+	 */
+	@Nonnull
+	private final ReentrantLock updateLock = new ReentrantLock();
+
+	@Nullable
+	private BlockCache cache;
+
+	/**
+	 * Runs {@linkplain EntryChannel readahead} tasks; created on demand.
+	 */
+	@Nullable
+	private ThreadPoolExecutor readaheadExecutor;
+
+	@Nonnull
+	private DurabilityPolicy durabilityPolicy = DurabilityPolicy.ASYNC;
+
+	/**
+	 * Forces metadata updates at a fixed interval, if the durability
+	 * policy is {@linkplain DurabilityPolicy.Mode#PERIODIC periodic}.
+	 */
+	@Nullable
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Latencies of metadata updates, including the time spent waiting
+	 * for them to become durable (if the durability policy requires so).
+	 */
+	@Nonnull
+	private final LatencyHistogram operationLatency = new LatencyHistogram();
+
+	/**
+	 * Latencies of batches, from {@link #beginBatch()} until the batch is
+	 * closed and its updates are durable.
+	 */
+	@Nonnull
+	private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+	/**
+	 * Latencies of explicit flushes, see {@link #sync()}.
+	 */
+	@Nonnull
+	private final LatencyHistogram syncLatency = new LatencyHistogram();
+
+	@Nonnull
+	private final LongAdder checksumErrorCount = new LongAdder();
+
+	@Nonnull
+	private final FileSystemMetrics metrics;
+
+	/**
+	 * Name filters of the directories looked up so far, by their first
+	 * block.
+	 */
+	@Nonnull
+	private final Map<Long, NameFilter> nameFilters = new ConcurrentHashMap<>();
+
+	/**
+	 * The {@linkplain Feature#PATH_INDEX path index}, loaded on first
+	 * access, and dropped whenever an update fails.
+	 */
+	@Nullable
+	private volatile PathIndex pathIndex;
+
+	/**
+	 * The {@linkplain MetadataIndex metadata index}, built on first query,
+	 * and dropped whenever an update fails.
+	 */
+	@Nullable
+	private volatile MetadataIndex metadataIndex;
+
+	/**
+	 * @param channel the channel to access the container through.
+	 * @param name the absolute path of the container, or a name for an
+	 *        {@linkplain #createInMemory(long, BlockSize, FileSystemOption...)
+	 *        in-memory} one, as reported by the {@linkplain #getMetrics()
+	 *        metrics}.
+	 */
+	private FileSystem(final FileChannel channel, final String name,
+			final long dataAreaLength, final BlockSize blockSize,
+			final Set<Feature> features, final long journalLength) {
 		this.channel = channel;
+		this.metrics = new FileSystemMetrics(name);
 		this.dataAreaLength = dataAreaLength;
 		this.blockSize = blockSize;
+		this.features = features;
+		this.journalLength = journalLength;
 	}
 
 	/**
 	 * <p>Creates a file system container specified by {@code path} and
 	 * returns the created file system. The file system will use the block
 	 * size which is the default for {@code length}. Use {@link #create(Path,
-	 * long, BlockSize)} is you need to specify a custom block size.</p>
+	 * long, BlockSize, FileSystemOption...)} is you need to specify a custom
+	 * block size.</p>
 	 *
 	 * @param path the path of the file system container; will be truncated 
 	 *        if exists.
 	 * @param length the size of the file system container, in bytes.
+	 * @param options the {@linkplain Feature features} to enable, and,
+	 *        optionally, the {@linkplain DurabilityPolicy durability
+	 *        policy}.
 	 * @return the created file system.
 	 * @throws IOException if the underlying file channel can't be opened,
 	 *         or any other I/O error occurs.
-	 * @see #create(Path, long, BlockSize)
+	 * @see #create(Path, long, BlockSize, FileSystemOption...)
 	 */
-	public static FileSystem create(final Path path, final long length) throws IOException {
-		return create(path, length, guessBlockSize(length));
+	public static FileSystem create(final Path path, final long length, final FileSystemOption ... options) throws IOException {
+		return create(path, length, guessBlockSize(length), options);
 	}
 
 	/**
@@ -98,59 +294,124 @@ public final class FileSystem implements AutoCloseable {
 	 *
 	 * @param path the path of the file system container; will be truncated 
 	 *        if exists.
-	 * @param length the size of the file system container, in bytes.
+	 * @param length the size of the file system container, in bytes. The
+	 *        areas used by optional {@linkplain Feature features} (e.g.:
+	 *        the journal) are not included.
 	 * @param blockSize the file system block size.
+	 * @param options the {@linkplain Feature features} to enable, and,
+	 *        optionally, the {@linkplain DurabilityPolicy durability
+	 *        policy}.
 	 * @return the created file system.
 	 * @throws IOException if the underlying file channel can't be opened,
 	 *         or any other I/O error occurs.
-	 * @see #create(Path, long)
+	 * @see #create(Path, long, FileSystemOption...)
 	 */
-	public static FileSystem create(final Path path, final long length, final BlockSize blockSize) throws IOException {
-		final int blockLength = blockSize.getLength();
-		final long dataAreaLength = length % blockLength == 0
-				? length
-				: length / blockLength * blockLength;
-		if (length != dataAreaLength) {
-			System.out.println(format("File system length: %d rounded down to %d", Long.valueOf(length), Long.valueOf(dataAreaLength)));
-		}
-		final OpenOption options[] = exists(path)
+	public static FileSystem create(final Path path, final long length, final BlockSize blockSize, final FileSystemOption ... options) throws IOException {
+		final long t0 = nanoTime();
+
+		final Set<Feature> features = getFeatures(options);
+		final long dataAreaLength = getDataAreaLength(length, blockSize);
+		final Preallocation preallocation = getOption(Preallocation.class, options, Preallocation.SPARSE);
+		final OpenOption openOptions[] = exists(path)
 				? new OpenOption[] {READ, WRITE, TRUNCATE_EXISTING, CREATE}
-				: new OpenOption[] {READ, WRITE, CREATE_NEW, SPARSE};
+				: preallocation == Preallocation.SPARSE
+						? new OpenOption[] {READ, WRITE, CREATE_NEW, SPARSE}
+						: new OpenOption[] {READ, WRITE, CREATE_NEW};
 		@Nonnull
 		@SuppressWarnings({ "null", "resource" })
-		final FileChannel channel = FileChannel.open(path, options);
+		final FileChannel channel = FileChannel.open(path, openOptions);
 		try {
-			final FileSystem fileSystem = new FileSystem(channel, dataAreaLength, blockSize);
+			final long journalLength = features.contains(JOURNAL)
+					? getJournalLength(dataAreaLength)
+					: 0L;
+			@Nonnull
+			@SuppressWarnings("null")
+			final String name = path.toAbsolutePath().toString();
+			final FileSystem fileSystem = new FileSystem(channel, name, dataAreaLength, blockSize, features, journalLength);
 			final long fullFileLength = fileSystem.getLength();
 			/*
-			 * Set file size.
-			 */
-			channel.position(fullFileLength - 1).write(ByteBuffer.wrap(new byte[] {0x0}));
-
-			fileSystem.writeBootSector();
-
-			/*
-			 * Write root directory.
+			 * Set file size. The container has just been created or
+			 * truncated, so whatever is not written explicitly reads
+			 * as zeroes.
 			 */
-			final FileSystemEntry root = new Directory("");
-			final long rootDirectorySize = root.getDataSize();
-			assert rootDirectorySize == 0 : rootDirectorySize;
-
-			root.setFileSystem(fileSystem);
-			final long blockCount = root.getBlockCount();
-			assert blockCount == 1 : blockCount;
+			if (preallocation == Preallocation.FULL) {
+				fill(channel, fullFileLength);
+			} else {
+				channel.position(fullFileLength - 1).write(ByteBuffer.wrap(new byte[] {0x0}));
+			}
 
-			final long rootBlockId = fileSystem.allocateBlocks(blockCount);
-			assert rootBlockId == 0 : rootBlockId;
-			root.setFirstBlockId(rootBlockId);
+			fileSystem.initialize(options, t0);
+			return fileSystem;
+		} catch (final IOException ioe) {
+			try {
+				throw ioe;
+			} finally {
+				channel.close();
+			}
+		}
+	}
 
-			final int bootSectorSize = fileSystem.getBootSectorSize();
-			final MappedByteBuffer bootSector = channel.map(READ_WRITE, 0, bootSectorSize);
-			bootSector.position(bootSectorSize / 2);
-			root.writeMetadataTo(bootSector);
+	/**
+	 * <p>Creates an ephemeral file system held in off-heap memory rather
+	 * than in a container file, and returns it. The file system will use
+	 * the block size which is the default for {@code length}.</p>
+	 *
+	 * @param length the size of the file system, in bytes.
+	 * @param options the {@linkplain Feature features} to enable, and,
+	 *        optionally, the {@linkplain DurabilityPolicy durability
+	 *        policy}.
+	 * @return the created file system.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #createInMemory(long, BlockSize, FileSystemOption...)
+	 */
+	public static FileSystem createInMemory(final long length, final FileSystemOption ... options) throws IOException {
+		return createInMemory(length, guessBlockSize(length), options);
+	}
 
-			fileSystem.printStats(System.out);
+	/**
+	 * <p>Creates an ephemeral file system held in off-heap memory rather
+	 * than in a container file, and returns it. The layout, the allocator
+	 * and the directory code are exactly those of a file-backed file
+	 * system, so the file system can be {@linkplain #snapshot(Path) saved}
+	 * to a regular container, and a container can be {@linkplain
+	 * #loadInMemory(Path, FileSystemOption...) loaded} into memory.</p>
+	 *
+	 * <p>Memory is allocated as the file system fills up, in chunks of up
+	 * to 1 GB, and released once the file system is {@linkplain #close()
+	 * closed}; the contents are lost at that point. {@linkplain
+	 * Preallocation Preallocation} options are ignored.</p>
+	 *
+	 * @param length the size of the file system, in bytes. The areas used
+	 *        by optional {@linkplain Feature features} (e.g.: the journal)
+	 *        are not included.
+	 * @param blockSize the file system block size.
+	 * @param options the {@linkplain Feature features} to enable, and,
+	 *        optionally, the {@linkplain DurabilityPolicy durability
+	 *        policy}.
+	 * @return the created file system.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #createInMemory(long, FileSystemOption...)
+	 */
+	public static FileSystem createInMemory(final long length, final BlockSize blockSize, final FileSystemOption ... options) throws IOException {
+		final long t0 = nanoTime();
 
+		final Set<Feature> features = getFeatures(options);
+		final long dataAreaLength = getDataAreaLength(length, blockSize);
+		final long journalLength = features.contains(JOURNAL)
+				? getJournalLength(dataAreaLength)
+				: 0L;
+		final long dataAreaOffset = getDataAreaOffset(dataAreaLength, blockSize);
+		final long fullLength = dataAreaOffset
+				+ dataAreaLength
+				+ journalLength
+				+ getChecksumAreaLength(dataAreaLength / blockSize.getLength(), features);
+
+		@SuppressWarnings("resource")
+		final MemoryChannel channel = new MemoryChannel(fullLength, dataAreaOffset);
+		final FileSystem fileSystem = new FileSystem(channel, nextInMemoryName(), dataAreaLength, blockSize, features, journalLength);
+		assert fileSystem.getLength() == fullLength : fileSystem.getLength();
+		try {
+			fileSystem.initialize(options, t0);
 			return fileSystem;
 		} catch (final IOException ioe) {
 			try {
@@ -161,45 +422,250 @@ public final class FileSystem implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * <p>Writes the boot sector, the root directory, and the areas used
+	 * by optional {@linkplain Feature features} of a new file system whose
+	 * container has already been sized, and makes the file system ready
+	 * for use.</p>
+	 *
+	 * @param options the options the file system is created with.
+	 * @param t0 the time the creation has started at, see {@link
+	 *        System#nanoTime()}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void initialize(final FileSystemOption options[], final long t0) throws IOException {
+		this.writeBootSector();
+
+		if (this.features.contains(JOURNAL)) {
+			this.journal = Journal.create(this.channel, this.getJournalOffset(), this.journalLength);
+		}
+
+		/*
+		 * Write root directory.
+		 */
+		final FileSystemEntry root = new Directory("");
+		final long rootDirectorySize = root.getDataSize();
+		assert rootDirectorySize == 0 : rootDirectorySize;
+
+		root.setFileSystem(this);
+		final long blockCount = root.getBlockCount();
+		assert blockCount == 1 : blockCount;
+
+		this.update(() -> {
+			final long rootBlockId = this.allocateBlocks(blockCount);
+			assert rootBlockId == 0 : rootBlockId;
+			root.setFirstBlockId(rootBlockId);
+
+			final int bootSectorSize = this.getBootSectorSize();
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer rootMetadata = ByteBuffer.allocate(root.getMetadataSize());
+			root.writeMetadataTo(rootMetadata);
+			rootMetadata.flip();
+			this.writeMetadata(bootSectorSize / 2, rootMetadata);
+
+			if (this.features.contains(PATH_INDEX)) {
+				final long pathIndexBlockId = this.allocateBlocks(1L);
+				assert pathIndexBlockId == PathIndex.FIRST_BLOCK_ID : pathIndexBlockId;
+				PathIndex.create(this);
+			}
+		});
+
+		this.setUp(options, t0);
+	}
+
+	/**
+	 * <p>Sets up the block cache, the durability policy and the metrics
+	 * of a just created or mounted file system.</p>
+	 */
+	private void setUp(final FileSystemOption options[], final long t0) {
+		this.setBlockCache(getOption(CacheSize.class, options, CacheSize.DEFAULT));
+		this.setDurabilityPolicy(getOption(DurabilityPolicy.class, options, this.features.contains(JOURNAL)
+				? DurabilityPolicy.PER_OPERATION
+				: DurabilityPolicy.ASYNC));
+
+		this.metrics.record(Operation.MOUNT, nanoTime() - t0);
+		this.metrics.register();
+	}
+
+	private static Set<Feature> getFeatures(final FileSystemOption options[]) {
+		final Set<Feature> features = EnumSet.noneOf(Feature.class);
+		for (final FileSystemOption option : options) {
+			if (option instanceof Feature) {
+				features.add((Feature) option);
+			} else if (!(option instanceof DurabilityPolicy || option instanceof CacheSize || option instanceof Preallocation)) {
+				throw new IllegalArgumentException(format("Unsupported option: %s", option));
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * @param length the requested file system length.
+	 * @param blockSize the file system block size.
+	 * @return {@code length} rounded down to the block size.
+	 */
+	private static long getDataAreaLength(final long length, final BlockSize blockSize) {
+		final int blockLength = blockSize.getLength();
+		final long dataAreaLength = length % blockLength == 0
+				? length
+				: length / blockLength * blockLength;
+		if (length != dataAreaLength) {
+			System.out.println(format("File system length: %d rounded down to %d", Long.valueOf(length), Long.valueOf(dataAreaLength)));
+		}
+		return dataAreaLength;
+	}
+
+	/**
+	 * @return a name, unique within this JVM, to register the metrics of
+	 *         an in-memory file system under.
+	 */
+	private static String nextInMemoryName() {
+		return "memory:" + IN_MEMORY_COUNT.incrementAndGet();
+	}
+
 	/**
 	 * <p>Mounts a file system container specified by {@code path} and
 	 * returns the mounted file system.</p>
 	 *
 	 * @param path the path of the file system container; will be truncated 
 	 *        if exists.
+	 * @param options the mount options, e.g.: the {@linkplain
+	 *        DurabilityPolicy durability policy}. {@linkplain Feature
+	 *        Features} can only be enabled when the file system is
+	 *        created.
 	 * @return the mounted file system.
 	 * @throws IOException if the underlying file channel can't be opened,
 	 *         file system metadata is corrupted (invalid block size, etc.),
 	 *         file system version is not supported, or any other I/O error
 	 *         occurs.
 	 */
-	public static FileSystem mount(final Path path) throws IOException {
+	public static FileSystem mount(final Path path, final FileSystemOption ... options) throws IOException {
+		final long t0 = nanoTime();
+
+		checkMountOptions(options);
+
 		@Nonnull
 		@SuppressWarnings({ "null", "resource" })
 		final FileChannel channel = FileChannel.open(path, READ, WRITE);
+		@Nonnull
+		@SuppressWarnings("null")
+		final String name = path.toAbsolutePath().toString();
+		return mount(channel, name, options, t0);
+	}
+
+	/**
+	 * <p>Copies the file system container specified by {@code path} into
+	 * off-heap memory, and mounts the copy as an {@linkplain
+	 * #createInMemory(long, BlockSize, FileSystemOption...) in-memory} file
+	 * system. The container itself is not modified, neither now nor when
+	 * the copy is updated; use {@link #snapshot(Path)} to save the copy.
+	 * </p>
+	 *
+	 * @param path the path of the file system container.
+	 * @param options the mount options, see {@link #mount(Path,
+	 *        FileSystemOption...)}.
+	 * @return the mounted file system.
+	 * @throws IOException if the container can't be read, file system
+	 *         metadata is corrupted, file system version is not supported,
+	 *         or any other I/O error occurs.
+	 */
+	public static FileSystem loadInMemory(final Path path, final FileSystemOption ... options) throws IOException {
+		final long t0 = nanoTime();
+
+		checkMountOptions(options);
+
+		final MemoryChannel channel;
+		try (final FileChannel source = FileChannel.open(path, READ)) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer metadata = ByteBuffer.allocate(METADATA_LENGTH);
+			readFully(source, metadata, METADATA_OFFSET);
+			metadata.flip();
+			final long dataAreaLength = metadata.getLong(2);
+			final BlockSize blockSize;
+			try {
+				blockSize = BlockSize.valueOf(metadata.getInt(10));
+			} catch (final IllegalArgumentException iae) {
+				throw new IOException(iae.getMessage(), iae);
+			}
+			final long dataAreaOffset = getDataAreaOffset(dataAreaLength, blockSize);
+			final long length = source.size();
+			if (dataAreaLength <= 0 || dataAreaOffset + dataAreaLength > length) {
+				throw new IOException(format("%s: data area of %d byte(s) at %d doesn't fit into the container",
+						path,
+						Long.valueOf(dataAreaLength),
+						Long.valueOf(dataAreaOffset)));
+			}
+
+			channel = new MemoryChannel(length, dataAreaOffset);
+			try {
+				for (long position = 0L; position < length; ) {
+					final long n = channel.transferFrom(source, position, length - position);
+					if (n <= 0) {
+						throw new IOException(format("%s: unexpected end of file at %d", path, Long.valueOf(position)));
+					}
+					position += n;
+				}
+			} catch (final IOException ioe) {
+				try {
+					throw ioe;
+				} finally {
+					channel.close();
+				}
+			}
+		}
+
+		return mount(channel, nextInMemoryName(), options, t0);
+	}
+
+	private static void checkMountOptions(final FileSystemOption options[]) {
+		for (final FileSystemOption option : options) {
+			if (!(option instanceof DurabilityPolicy || option instanceof CacheSize)) {
+				throw new IllegalArgumentException(format("Unsupported mount option: %s", option));
+			}
+		}
+	}
+
+	/**
+	 * <p>Mounts the file system accessed through {@code channel}, which
+	 * is closed should the mount fail.</p>
+	 */
+	private static FileSystem mount(final FileChannel channel, final String name,
+			final FileSystemOption options[], final long t0) throws IOException {
 		try {
-			final MappedByteBuffer metadata = channel.map(READ_ONLY, METADATA_OFFSET, METADATA_LENGTH);
+			final ByteBuffer metadata = map(channel, READ_ONLY, METADATA_OFFSET, METADATA_LENGTH);
 			channel.position(METADATA_OFFSET);
 			final byte major = metadata.get();
 			final byte minor = metadata.get();
 			final long dataAreaLength = metadata.getLong();
 			final BlockSize blockSize;
+			final Set<Feature> features;
 			try {
 				blockSize = BlockSize.valueOf(metadata.getInt());
+				features = Feature.fromMask(metadata.getInt());
 			} catch (final IllegalArgumentException iae) {
 				throw new IOException(iae.getMessage(), iae);
 			}
+			final long journalLength = metadata.getLong();
 
-			final FileSystem fileSystem = new FileSystem(channel, dataAreaLength, blockSize);
+			final FileSystem fileSystem = new FileSystem(channel, name, dataAreaLength, blockSize, features, journalLength);
 			if (major != fileSystem.getVersionMajor()
-					|| minor != fileSystem.getVersionMinor()) {
+					|| minor != fileSystem.getFormatVersionMinor()) {
 				throw new IOException(format("Version %d.%d not supported.",
 						Byte.valueOf(major),
 						Byte.valueOf(minor)));
 			}
 
-			fileSystem.printStats(System.out);
+			if (features.contains(JOURNAL)) {
+				/*
+				 * Replay the transactions committed but not yet
+				 * checkpointed before the file system is accessed.
+				 */
+				fileSystem.journal = Journal.open(channel, fileSystem.getJournalOffset(), journalLength);
+			}
 
+			fileSystem.setUp(options, t0);
 			return fileSystem;
 		} catch (final IOException ioe) {
 			try {
@@ -211,51 +677,299 @@ public final class FileSystem implements AutoCloseable {
 	}
 
 	/**
-	 * <p>Returns file system block size. Once the file system is created,
-	 * its block size can't be changed.</p>
+	 * @return the optional {@linkplain Feature features} this file system
+	 *         uses.
+	 */
+	public Set<Feature> getFeatures() {
+		return this.features;
+	}
+
+	/**
+	 * <p>Returns the size up to which the contents of files and symbolic
+	 * links are stored {@linkplain Feature#INLINE_DATA inline}. A quarter
+	 * of a block at most, so that a directory block still holds a few
+	 * such entries.</p>
 	 *
-	 * @return file system block size.
+	 * @return the largest inline contents, in bytes, or -1 if this file
+	 *         system doesn't store any contents inline.
 	 */
-	public BlockSize getBlockSize() {
-		return this.blockSize;
+	public int getInlineDataThreshold() {
+		return this.features.contains(INLINE_DATA)
+				? min(MAX_INLINE_DATA_LENGTH, this.blockSize.getLength() / 4)
+				: -1;
 	}
 
 	/**
-	 * <p>Returns block address size.</p>
+	 * <p>Returns the filter of the names in {@code directory}, building it
+	 * from the directory contents unless it's already cached.</p>
 	 *
-	 * <p>For a 1.44M file system (4k blocks), 16-bit addressing is
-	 * sufficient; inode table would be just 720 bytes.</p>
+	 * <p>The filter is built while holding the update lock, so that no
+	 * child is added to the directory in between it's listed and the
+	 * filter is cached.</p>
 	 *
-	 * <p>For a 32G file system (4k blocks again), 24-bit addressing is
-	 * sufficient; inode table size is 24M.</p>
+	 * <p>A saturated filter is rebuilt from the directory as currently
+	 * stored, rather than from {@code directory}: children may have been
+	 * added through another handle since {@code directory} was read, and
+	 * a filter missing their names would let duplicates in. Until the
+	 * first filter is built, no child can have been added at all.</p>
 	 *
-	 * <p>For a file system which is 7.99E large however (the maximum value
-	 * which can be represented using {@link Long#MAX_VALUE}) and uses 64k
-	 * blocks, 48-bit addressing will be required, and inode table size will
-	 * be 768T.</p>
+	 * @param directory the (attached) directory.
+	 * @return the name filter of {@code directory}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	NameFilter getNameFilter(final Directory directory) throws IOException {
+		final Long key = Long.valueOf(directory.firstBlockId);
+		final NameFilter filter = this.nameFilters.get(key);
+		if (filter != null && !filter.isSaturated()) {
+			return filter;
+		}
+
+		this.updateLock.lock();
+		try {
+			final NameFilter filter0 = this.nameFilters.get(key);
+			if (filter0 != null && !filter0.isSaturated()) {
+				return filter0;
+			}
+			final Directory current = filter0 == null ? directory : directory.reread();
+			final NameFilter newFilter = NameFilter.of(current.list());
+			this.nameFilters.put(key, newFilter);
+			return newFilter;
+		} finally {
+			this.updateLock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Forgets the name filter of the directory starting at {@code
+	 * firstBlockId}, once the directory is removed (and its blocks may be
+	 * reused by another one).</p>
 	 *
-	 * @return the number of bytes needed to identify a block within the
-	 *         inode table. The values returned will range from 1 (8-bit) to
-	 *         8 (64-bit).
+	 * @param firstBlockId the first block of the directory.
 	 */
-	public byte getBlockAddressSize() {
-		return getBlockAddressSize(this.getTotalBlockCount());
+	void discardNameFilter(final long firstBlockId) {
+		this.nameFilters.remove(Long.valueOf(firstBlockId));
 	}
 
-	static byte getBlockAddressSize(final long blockCount) {
-		if (blockCount <= 0) {
-			throw new IllegalArgumentException(String.valueOf(blockCount));
+	/**
+	 * <p>Finds the entries whose names match {@code glob} using the
+	 * {@linkplain Feature#PATH_INDEX path index}, rather than walking the
+	 * directory tree.</p>
+	 *
+	 * @param glob the shell pattern ({@code *}, {@code ?} and bracket
+	 *        expressions) to match the names of entries against.
+	 * @return the absolute paths of the entries found, sorted.
+	 * @throws IOException if the index is corrupt, or an I/O error occurs.
+	 * @throws UnsupportedOperationException if this file system has no
+	 *         path index.
+	 */
+	public List<String> find(final String glob) throws IOException {
+		if (!this.features.contains(PATH_INDEX)) {
+			throw new UnsupportedOperationException("File system has no path index");
 		}
+		return this.getPathIndex().find(glob);
+	}
 
-		/*
-		 * "FAT12" is not used at all: we jump from "FAT8" (up to 1020k)
-		 * directly to "FAT16" (1M and up).
-		 */
-		for (long limit = 0x100; limit <= Long.MAX_VALUE && limit != 0 /* integer overflow */; limit *= 0x100) {
-			/*
-			 * Here, "strictly less" rather than "less or equal",
-			 * because values like 0xFF, 0xFFFF etc will mark EOF
-			 * and can't be used for addressing.
+	/**
+	 * <p>Walks the whole directory tree.</p>
+	 *
+	 * @param visitor the (thread-safe) visitor.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #walk(Directory, TreeVisitor, int)
+	 */
+	public void walk(final TreeVisitor visitor) throws IOException {
+		this.walk(this.getRoot(), visitor, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * <p>Walks the directory tree under {@code start}, visiting sibling
+	 * subdirectories in parallel on the {@linkplain ForkJoinPool#commonPool()
+	 * common pool}. {@code start} itself is not visited.</p>
+	 *
+	 * <p>The walk is not isolated from concurrent updates: entries added
+	 * or removed while it runs may or may not be visited.</p>
+	 *
+	 * @param start the directory to start at, either the root one or
+	 *        one reached from it.
+	 * @param visitor the (thread-safe) visitor, which can prune subtrees.
+	 * @param maxDepth the depth of the deepest entries to visit, 1 for the
+	 *        children of {@code start} only.
+	 * @throws IOException if an I/O error occurs.
+	 * @see TreeVisitor
+	 */
+	public void walk(final Directory start, final TreeVisitor visitor, final int maxDepth) throws IOException {
+		if (start.fileSystem != this) {
+			throw new IllegalArgumentException(format("%s is not on this file system", start.getName()));
+		}
+		if (maxDepth < 1) {
+			return;
+		}
+
+		try {
+			ForkJoinPool.commonPool().invoke(new TreeWalker(start, start.getPath(), 1, visitor, maxDepth));
+		} catch (final UncheckedIOException uioe) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final IOException cause = uioe.getCause();
+			throw cause;
+		}
+	}
+
+	private PathIndex getPathIndex() throws IOException {
+		final PathIndex pathIndex0 = this.pathIndex;
+		if (pathIndex0 != null) {
+			return pathIndex0;
+		}
+
+		this.updateLock.lock();
+		try {
+			final PathIndex pathIndex1 = this.pathIndex;
+			if (pathIndex1 != null) {
+				return pathIndex1;
+			}
+			final PathIndex pathIndex2 = PathIndex.load(this);
+			this.pathIndex = pathIndex2;
+			return pathIndex2;
+		} finally {
+			this.updateLock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Finds the entries whose attributes match {@code query}, using
+	 * the {@linkplain MetadataIndex metadata index} (which is built by
+	 * walking the directory tree on first query) rather than decoding
+	 * every entry.</p>
+	 *
+	 * @param query the query.
+	 * @return the absolute paths of the entries matching {@code query},
+	 *         sorted.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public List<String> query(final MetadataQuery query) throws IOException {
+		final long t0 = nanoTime();
+		try {
+			return this.getMetadataIndex().query(query);
+		} finally {
+			final long t1 = nanoTime();
+			LOGGER.finest(() -> format("Queried metadata index in %.3f ms", Double.valueOf((t1 - t0) / 1e6)));
+		}
+	}
+
+	private MetadataIndex getMetadataIndex() throws IOException {
+		final MetadataIndex metadataIndex0 = this.metadataIndex;
+		if (metadataIndex0 != null) {
+			return metadataIndex0;
+		}
+
+		this.updateLock.lock();
+		try {
+			final MetadataIndex metadataIndex1 = this.metadataIndex;
+			if (metadataIndex1 != null) {
+				return metadataIndex1;
+			}
+			final MetadataIndex metadataIndex2 = MetadataIndex.build(this.getRoot());
+			this.metadataIndex = metadataIndex2;
+			return metadataIndex2;
+		} finally {
+			this.updateLock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Records {@code child}, just added to {@code parent}, in the
+	 * {@linkplain Feature#PATH_INDEX path index}, if there's one, and in
+	 * the {@linkplain MetadataIndex metadata index}, if it's been built.
+	 * </p>
+	 *
+	 * @param parent the parent directory.
+	 * @param child the entry added.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void indexLink(final Directory parent, final FileSystemEntry child) throws IOException {
+		if (this.features.contains(PATH_INDEX)) {
+			this.getPathIndex().link(parent.firstBlockId, child);
+		}
+		final MetadataIndex metadataIndex0 = this.metadataIndex;
+		if (metadataIndex0 != null) {
+			metadataIndex0.add(parent.firstBlockId, child);
+		}
+	}
+
+	/**
+	 * <p>Removes {@code child}, being unlinked from {@code parent}, from
+	 * the indices {@code child} is recorded in.</p>
+	 *
+	 * @param parent the parent directory.
+	 * @param child the entry unlinked, still attached.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #indexLink(Directory, FileSystemEntry)
+	 */
+	void indexUnlink(final Directory parent, final FileSystemEntry child) throws IOException {
+		if (this.features.contains(PATH_INDEX)) {
+			this.getPathIndex().unlink(parent.firstBlockId, child.getName());
+		}
+		final MetadataIndex metadataIndex0 = this.metadataIndex;
+		if (metadataIndex0 != null) {
+			metadataIndex0.remove(parent.firstBlockId, child.getName());
+		}
+	}
+
+	/**
+	 * @param directory the directory whose size has just changed.
+	 */
+	void indexDataSize(final Directory directory) {
+		final MetadataIndex metadataIndex0 = this.metadataIndex;
+		if (metadataIndex0 != null) {
+			metadataIndex0.setSize(directory.firstBlockId, directory.getDataSize());
+		}
+	}
+
+	/**
+	 * <p>Returns file system block size. Once the file system is created,
+	 * its block size can't be changed.</p>
+	 *
+	 * @return file system block size.
+	 */
+	public BlockSize getBlockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * <p>Returns block address size.</p>
+	 *
+	 * <p>For a 1.44M file system (4k blocks), 16-bit addressing is
+	 * sufficient; inode table would be just 720 bytes.</p>
+	 *
+	 * <p>For a 32G file system (4k blocks again), 24-bit addressing is
+	 * sufficient; inode table size is 24M.</p>
+	 *
+	 * <p>For a file system which is 7.99E large however (the maximum value
+	 * which can be represented using {@link Long#MAX_VALUE}) and uses 64k
+	 * blocks, 48-bit addressing will be required, and inode table size will
+	 * be 768T.</p>
+	 *
+	 * @return the number of bytes needed to identify a block within the
+	 *         inode table. The values returned will range from 1 (8-bit) to
+	 *         8 (64-bit).
+	 */
+	public byte getBlockAddressSize() {
+		return getBlockAddressSize(this.getTotalBlockCount());
+	}
+
+	static byte getBlockAddressSize(final long blockCount) {
+		if (blockCount <= 0) {
+			throw new IllegalArgumentException(String.valueOf(blockCount));
+		}
+
+		/*
+		 * "FAT12" is not used at all: we jump from "FAT8" (up to 1020k)
+		 * directly to "FAT16" (1M and up).
+		 */
+		for (long limit = 0x100; limit <= Long.MAX_VALUE && limit != 0 /* integer overflow */; limit *= 0x100) {
+			/*
+			 * Here, "strictly less" rather than "less or equal",
+			 * because values like 0xFF, 0xFFFF etc will mark EOF
+			 * and can't be used for addressing.
 			 *
 			 * Values like 0x00, 0x0000 etc. (denoting the root
 			 * directory) are *needed* for addressing, as root
@@ -319,12 +1033,51 @@ public final class FileSystem implements AutoCloseable {
 	}
 
 	/**
-	 * <p>Returns data area length plus overhead (boot sector and inode table).</p>
+	 * <p>Returns the length of the journal area, in bytes.</p>
+	 *
+	 * @return the length of the journal area, or 0 if this file system has
+	 *         no {@linkplain Feature#JOURNAL journal}.
+	 */
+	public long getJournalLength() {
+		return this.journalLength;
+	}
+
+	/**
+	 * @return the journal, or {@code null} if this file system has no
+	 *         {@linkplain Feature#JOURNAL journal}.
+	 */
+	@Nullable
+	Journal getJournal() {
+		return this.journal;
+	}
+
+	/**
+	 * <p>Returns data area length plus overhead (boot sector, inode table,
+	 * journal and checksum area).</p>
 	 *
-	 * @return data area length plus overhead (boot sector and inode table).
+	 * @return data area length plus overhead (boot sector, inode table,
+	 *         journal and checksum area).
 	 */
 	public long getLength() {
-		return this.getBootSectorSize() + this.getInodeTableSizeRounded() + this.getDataAreaLength();
+		return this.getChecksumOffset() + this.getChecksumAreaLength();
+	}
+
+	/**
+	 * <p>Returns the length of the checksum area: 4 bytes per block,
+	 * rounded to the sector size.</p>
+	 *
+	 * @return the length of the checksum area, or 0 if this file system
+	 *         has no {@linkplain Feature#CHECKSUMS checksums}.
+	 */
+	public long getChecksumAreaLength() {
+		return getChecksumAreaLength(this.getTotalBlockCount(), this.features);
+	}
+
+	private static long getChecksumAreaLength(final long totalBlockCount, final Set<Feature> features) {
+		if (!features.contains(CHECKSUMS)) {
+			return 0L;
+		}
+		return FileUtilities.getBlockCount(totalBlockCount * CHECKSUM_LENGTH, SECTOR_SIZE) * SECTOR_SIZE;
 	}
 
 	/**
@@ -362,7 +1115,20 @@ public final class FileSystem implements AutoCloseable {
 	 */
 	@SuppressWarnings("static-method")
 	public byte getVersionMinor() {
-		return 0;
+		return 1;
+	}
+
+	/**
+	 * <p>Returns the minor version of the on-disk format of this file
+	 * system: 1 if entries use the {@linkplain Feature#COMPACT_METADATA
+	 * compact} encoding, and 0 otherwise, so that the file systems w/o
+	 * compact entries remain readable by version 1.0 drivers.</p>
+	 *
+	 * @return the minor version of the on-disk format.
+	 * @see #getVersionMinor()
+	 */
+	byte getFormatVersionMinor() {
+		return (byte) (this.features.contains(COMPACT_METADATA) ? 1 : 0);
 	}
 
 	/**
@@ -390,123 +1156,452 @@ public final class FileSystem implements AutoCloseable {
 	 */
 	@Override
 	public void close() throws IOException {
-		this.channel.close();
+		try {
+			/*
+			 * Background tasks are never interrupted: a thread
+			 * interrupted in the middle of channel I/O closes the
+			 * channel for everyone else.
+			 */
+			final ScheduledExecutorService flusher0 = this.flusher;
+			if (flusher0 != null) {
+				flusher0.shutdown();
+				awaitTermination(flusher0);
+			}
+			final ThreadPoolExecutor readaheadExecutor0;
+			synchronized (this) {
+				readaheadExecutor0 = this.readaheadExecutor;
+				if (readaheadExecutor0 != null) {
+					/*
+					 * Pending readahead is dropped, running
+					 * tasks are waited for.
+					 */
+					readaheadExecutor0.getQueue().clear();
+					readaheadExecutor0.shutdown();
+				}
+			}
+			if (readaheadExecutor0 != null) {
+				awaitTermination(readaheadExecutor0);
+			}
+
+			final Journal journal0 = this.journal;
+			if (journal0 != null) {
+				journal0.close();
+			} else {
+				final BlockCache cache0 = this.cache;
+				if (cache0 != null) {
+					cache0.flush();
+				}
+				if (this.durabilityPolicy.getMode() != Mode.ASYNC) {
+					this.channel.force(false);
+				}
+			}
+		} finally {
+			this.metrics.unregister();
+			this.channel.close();
+		}
 	}
 
-	private void writeBootSector() throws IOException {
-		/*
-		 * Unlike FAT, this filesystem implementation is big-endian,
-		 * so we're not changing any byte order here and forth.
-		 */
-		final ByteBuffer bootSector = ByteBuffer.allocate(this.getBootSectorSize());
-		final CharsetEncoder encoder = US_ASCII.newEncoder();
-		final String header = "Java File System";
-		encoder.encode(CharBuffer.wrap(header), bootSector, true);
-		/*
-		 * Write [^ to be compatble with a DOS/Windows "type" command
-		 */
-		bootSector.put((byte) 0x1B);
-		/*
-		 * File system version.
-		 */
-		bootSector.put(this.getVersionMajor());
-		bootSector.put(this.getVersionMinor());
+	private static void awaitTermination(final ExecutorService executor) {
+		try {
+			if (!executor.awaitTermination(10, SECONDS)) {
+				LOGGER.warning("Background tasks still running after unmount");
+			}
+		} catch (final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
-		/*
-		 * File system length and block size.
-		 */
-		bootSector.putLong(this.dataAreaLength);
-		bootSector.putInt(this.blockSize.getLength());
+	/**
+	 * @return the operation counters and latencies of this file system,
+	 *         also available via JMX while the file system is mounted.
+	 */
+	public FileSystemMetrics getMetrics() {
+		return this.metrics;
+	}
 
-		/*
-		 * The standard x86 boot sector magic.
-		 */
-		bootSector.position(this.getBootSectorSize() - 2);
-		bootSector.putShort((short) 0x55AA);
+	/**
+	 * @return the block cache, or {@code null} if the cache is
+	 *         {@linkplain CacheSize#DISABLED disabled}.
+	 */
+	@Nullable
+	public BlockCache getBlockCache() {
+		return this.cache;
+	}
 
-		bootSector.flip();
-		this.channel.position(0).write(bootSector);
+	/**
+	 * @return the durability policy this file system was mounted with.
+	 */
+	public DurabilityPolicy getDurabilityPolicy() {
+		return this.durabilityPolicy;
 	}
 
 	/**
-	 * <p>Returns the number of files on this file system. The number
-	 * returned is at least 1 (empty file system with only a root directory).
-	 * </p>
-	 *
-	 * @return the number of files on this file system.
-	 * @throws IOException if an I/O error occurs.
+	 * @return the latencies of metadata updates (e.g.: adding or removing
+	 *         a directory entry), including the time spent waiting for
+	 *         the update to become durable, if the {@linkplain
+	 *         #getDurabilityPolicy() durability policy} requires so.
 	 */
-	public long getFileCount() throws IOException {
-		final long t0 = nanoTime();
-		try {
-			final LongAdder fileCount = new LongAdder();
+	public LatencyHistogram getOperationLatency() {
+		return this.operationLatency;
+	}
 
-			this.<Void>scanInodeTable((final long inode) -> {
-				if (inode == this.getEofMarker()) {
-					fileCount.increment();
-				}
-				return null;
-			});
+	/**
+	 * @return the latencies of {@linkplain #beginBatch() batches}.
+	 */
+	public LatencyHistogram getBatchLatency() {
+		return this.batchLatency;
+	}
 
-			return fileCount.sum();
-		} finally {
-			final long t1 = nanoTime();
-			LOGGER.finest(format("Calculated files in %.3f ms", Double.valueOf((t1 - t0) / 1e6)));
-		}
+	/**
+	 * @return the latencies of {@linkplain #sync() flushes}, whether
+	 *         explicit, at the end of a batch, or periodic.
+	 */
+	public LatencyHistogram getSyncLatency() {
+		return this.syncLatency;
 	}
 
 	/**
-	 * <p>Returns the number of free blocks.</p>
-	 *
-	 * <p>This operation is as inefficient as a similar operation on FAT
-	 * family file systems: since there're no free space bitmaps,
-	 * calculating free space results in full inode table scanning.</p>
+	 * <p>Forces all metadata updates made so far to the storage device,
+	 * regardless of the {@linkplain #getDurabilityPolicy() durability
+	 * policy}.</p>
 	 *
-	 * @return the number of free blocks.
 	 * @throws IOException if an I/O error occurs.
-	 * @see #getTotalBlockCount()
 	 */
-	public long getFreeBlockCount() throws IOException {
+	public void sync() throws IOException {
 		final long t0 = nanoTime();
 		try {
-			final LongAdder freeBlockCount = new LongAdder();
-
-			this.<Void>scanInodeTable((final long inode) -> {
-				/*
-				 * If inode table entry is zeroed, the
-				 * corresponding block is free.
-				 */
-				if (inode == 0) {
-					freeBlockCount.increment();
-				}
-				return null;
-			});
-
-			return freeBlockCount.sum();
+			final Journal journal0 = this.journal;
+			if (journal0 != null) {
+				journal0.flush();
+			} else {
+				this.forceInPlace();
+			}
 		} finally {
-			final long t1 = nanoTime();
-			LOGGER.finest(format("Calculated free blocks in %.3f ms", Double.valueOf((t1 - t0) / 1e6)));
+			this.syncLatency.record(nanoTime() - t0);
 		}
 	}
 
 	/**
-	 * <p>Returns the file system's root directory.</p>
+	 * <p>Writes the dirty cached blocks back and forces the channel: this
+	 * is how updates of a file system without a journal are made durable.
+	 * </p>
 	 *
-	 * @return the file system's root directory.
 	 * @throws IOException if an I/O error occurs.
 	 */
-	public Directory getRoot() throws IOException {
-		final int bootSectorSize = this.getBootSectorSize();
-		final MappedByteBuffer bootSector = this.channel.map(READ_WRITE, 0, bootSectorSize);
-		bootSector.position(bootSectorSize / 2);
-		final Directory root = (Directory) FileSystemEntry.readMetadataFrom(bootSector);
-		root.setFileSystem(this);
-		root.setFirstBlockId(0L);
-		return root;
+	private void forceInPlace() throws IOException {
+		final BlockCache cache0 = this.cache;
+		if (cache0 != null) {
+			cache0.flush();
+		}
+		this.channel.force(false);
 	}
 
 	/**
-	 * <p>Prints brief file system information to {@code out}.</p>
+	 * <p>Saves a consistent copy of this file system to a regular container
+	 * at {@code target}, which can then be {@linkplain #mount(Path,
+	 * FileSystemOption...) mounted} or {@linkplain #loadInMemory(Path,
+	 * FileSystemOption...) loaded}. Metadata updates are suspended while
+	 * the copy is made.</p>
+	 *
+	 * <p>This is mainly useful for {@linkplain #createInMemory(long,
+	 * BlockSize, FileSystemOption...) in-memory} file systems, but works
+	 * for any file system.</p>
+	 *
+	 * @param target the path of the container to create; will be
+	 *        truncated if exists.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void snapshot(final Path target) throws IOException {
+		this.updateLock.lock();
+		try {
+			/*
+			 * Bring the container up to date, so that the copy
+			 * needs no journal replay.
+			 */
+			final Journal journal0 = this.journal;
+			if (journal0 != null) {
+				journal0.checkpoint();
+			} else {
+				final BlockCache cache0 = this.cache;
+				if (cache0 != null) {
+					cache0.flush();
+				}
+			}
+
+			try (final FileChannel out = FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING)) {
+				final long length = this.getLength();
+				for (long position = 0L; position < length; ) {
+					final long n = this.channel.transferTo(position, length - position, out);
+					if (n <= 0) {
+						throw new IOException(format("%s: short write at %d", target, Long.valueOf(position)));
+					}
+					position += n;
+				}
+				out.force(false);
+			}
+		} finally {
+			this.updateLock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Starts a batch of metadata updates. Once the batch is closed, all
+	 * updates made so far are durable:</p>
+	 *
+	 * <pre>
+	 * try (final FileSystem.Batch batch = fileSystem.beginBatch()) {
+	 * 	root.addChild(new Directory("a"));
+	 * 	root.addChild(new Directory("b"));
+	 * }</pre>
+	 *
+	 * <p>Batches are what makes the {@linkplain
+	 * DurabilityPolicy.Mode#PER_BATCH per-batch} durability policy
+	 * durable, but can be used with any other policy as well.</p>
+	 *
+	 * @return the new batch.
+	 */
+	public Batch beginBatch() {
+		return new Batch();
+	}
+
+	private void setDurabilityPolicy(final DurabilityPolicy durabilityPolicy) {
+		this.durabilityPolicy = durabilityPolicy;
+		if (durabilityPolicy.getMode() != Mode.PERIODIC) {
+			return;
+		}
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ScheduledExecutorService flusher0 = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "javafs-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long interval = durabilityPolicy.getInterval(NANOSECONDS);
+		flusher0.scheduleWithFixedDelay(() -> {
+			try {
+				this.sync();
+			} catch (final ClosedChannelException cce) {
+				/*
+				 * The file system is being unmounted.
+				 */
+			} catch (final IOException ioe) {
+				LOGGER.log(WARNING, "Periodic flush failed", ioe);
+			}
+		}, interval, interval, NANOSECONDS);
+		this.flusher = flusher0;
+	}
+
+	private void setBlockCache(final CacheSize cacheSize) {
+		final int blockLength = this.getBlockSize().getLength();
+		final long blockCount = min(cacheSize.getBytes() / blockLength, this.getTotalBlockCount());
+		if (blockCount == 0) {
+			return;
+		}
+
+		this.cache = new BlockCache(new BlockCache.Storage() {
+			@Override
+			public void load(final long blockId, final ByteBuffer destination) throws IOException {
+				final long blockOffset = FileSystem.this.getBlockOffset(blockId);
+				readFully(FileSystem.this.channel, destination, blockOffset);
+				destination.flip();
+
+				final Journal journal0 = FileSystem.this.journal;
+				if (journal0 != null) {
+					journal0.patch(blockOffset, destination);
+				}
+			}
+
+			@Override
+			public void store(final long blockId, final ByteBuffer source) throws IOException {
+				writeFully(FileSystem.this.channel, source, FileSystem.this.getBlockOffset(blockId));
+			}
+		}, blockLength, (int) min(blockCount, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * <p>Fills the first {@code length} bytes of {@code channel} with
+	 * zeroes.</p>
+	 *
+	 * @see Preallocation#FULL
+	 */
+	private static void fill(final FileChannel channel, final long length) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer zeroes = ByteBuffer.allocateDirect(1024 * 1024);
+		for (long position = 0L; position < length; position += zeroes.capacity()) {
+			zeroes.clear().limit((int) min(zeroes.capacity(), length - position));
+			writeFully(channel, zeroes, position);
+		}
+	}
+
+	/**
+	 * @param clazz the option type.
+	 * @param options the options passed to {@code create()} or {@code
+	 *        mount()}.
+	 * @param defaultValue the value to return if {@code options} contain
+	 *        no option of the requested type.
+	 * @return the option of the requested type.
+	 * @throws IllegalArgumentException if {@code options} contain several
+	 *         different options of the requested type.
+	 */
+	private static <T extends FileSystemOption> T getOption(final Class<T> clazz, final FileSystemOption options[], final T defaultValue) {
+		T value = null;
+		for (final FileSystemOption option : options) {
+			if (clazz.isInstance(option)) {
+				if (value != null && !value.equals(option)) {
+					throw new IllegalArgumentException(format("Conflicting options: %s and %s", value, option));
+				}
+				value = clazz.cast(option);
+			}
+		}
+		return value == null ? defaultValue : value;
+	}
+
+	private void writeBootSector() throws IOException {
+		/*
+		 * Unlike FAT, this filesystem implementation is big-endian,
+		 * so we're not changing any byte order here and forth.
+		 */
+		final ByteBuffer bootSector = ByteBuffer.allocate(this.getBootSectorSize());
+		final CharsetEncoder encoder = US_ASCII.newEncoder();
+		final String header = "Java File System";
+		encoder.encode(CharBuffer.wrap(header), bootSector, true);
+		/*
+		 * Write [^ to be compatble with a DOS/Windows "type" command
+		 */
+		bootSector.put((byte) 0x1B);
+		/*
+		 * File system version.
+		 */
+		bootSector.put(this.getVersionMajor());
+		bootSector.put(this.getFormatVersionMinor());
+
+		/*
+		 * File system length and block size.
+		 */
+		bootSector.putLong(this.dataAreaLength);
+		bootSector.putInt(this.blockSize.getLength());
+
+		/*
+		 * Optional features.
+		 */
+		bootSector.putInt(Feature.toMask(this.features));
+		bootSector.putLong(this.journalLength);
+		assert bootSector.position() == METADATA_OFFSET + METADATA_LENGTH : bootSector.position();
+
+		/*
+		 * The standard x86 boot sector magic.
+		 */
+		bootSector.position(this.getBootSectorSize() - 2);
+		bootSector.putShort((short) 0x55AA);
+
+		bootSector.flip();
+		this.channel.position(0).write(bootSector);
+	}
+
+	/**
+	 * <p>Returns the number of files on this file system. The number
+	 * returned is at least 1 (empty file system with only a root directory).
+	 * </p>
+	 *
+	 * <p>{@linkplain Feature#INLINE_DATA Inline} entries occupy no blocks,
+	 * so, if the file system has any, the directory tree is walked in
+	 * addition to the inode table scan.</p>
+	 *
+	 * @return the number of files on this file system.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long getFileCount() throws IOException {
+		final long t0 = nanoTime();
+		try {
+			final LongAdder fileCount = new LongAdder();
+
+			this.<Void>scanInodeTable((final long inode) -> {
+				if (inode == this.getEofMarker()) {
+					fileCount.increment();
+				}
+				return null;
+			});
+
+			if (this.features.contains(INLINE_DATA)) {
+				fileCount.add(getInlineEntryCount(this.getRoot()));
+			}
+			if (this.features.contains(PATH_INDEX)) {
+				fileCount.decrement();
+			}
+
+			return fileCount.sum();
+		} finally {
+			final long t1 = nanoTime();
+			LOGGER.finest(() -> format("Calculated files in %.3f ms", Double.valueOf((t1 - t0) / 1e6)));
+		}
+	}
+
+	private static long getInlineEntryCount(final Directory directory) throws IOException {
+		long inlineEntryCount = 0L;
+		for (final FileSystemEntry child : directory.list()) {
+			if (child.isInline()) {
+				inlineEntryCount++;
+			} else if (child instanceof Directory) {
+				inlineEntryCount += getInlineEntryCount((Directory) child);
+			}
+		}
+		return inlineEntryCount;
+	}
+
+	/**
+	 * <p>Returns the number of free blocks.</p>
+	 *
+	 * <p>This operation is as inefficient as a similar operation on FAT
+	 * family file systems: since there're no free space bitmaps,
+	 * calculating free space results in full inode table scanning.</p>
+	 *
+	 * @return the number of free blocks.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #getTotalBlockCount()
+	 */
+	public long getFreeBlockCount() throws IOException {
+		final long t0 = nanoTime();
+		try {
+			final LongAdder freeBlockCount = new LongAdder();
+
+			this.<Void>scanInodeTable((final long inode) -> {
+				/*
+				 * If inode table entry is zeroed, the
+				 * corresponding block is free.
+				 */
+				if (inode == 0) {
+					freeBlockCount.increment();
+				}
+				return null;
+			});
+
+			return freeBlockCount.sum();
+		} finally {
+			final long t1 = nanoTime();
+			LOGGER.finest(() -> format("Calculated free blocks in %.3f ms", Double.valueOf((t1 - t0) / 1e6)));
+		}
+	}
+
+	/**
+	 * <p>Returns the file system's root directory.</p>
+	 *
+	 * @return the file system's root directory.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public Directory getRoot() throws IOException {
+		final int bootSectorSize = this.getBootSectorSize();
+		final ByteBuffer bootSector = this.readMetadata(0, bootSectorSize);
+		bootSector.position(bootSectorSize / 2);
+		final Directory root = (Directory) FileSystemEntry.readMetadataFrom(bootSector);
+		root.setFileSystem(this);
+		root.setFirstBlockId(0L);
+		return root;
+	}
+
+	/**
+	 * <p>Prints brief file system information to {@code out}.</p>
 	 *
 	 * @param out the {@code PrintStream} file system information should be
 	 *        printed to. 
@@ -526,6 +1621,24 @@ public final class FileSystem implements AutoCloseable {
 				Long.valueOf(this.getFileCount())));
 		out.println(format("%d block(s) free",
 				Long.valueOf(this.getFreeBlockCount())));
+		this.printInodeTableStats(out);
+	}
+
+	/**
+	 * <p>Prints the file system geometry to {@code out}. Unlike {@link
+	 * #printStats(PrintStream)}, doesn't scan the inode table.</p>
+	 *
+	 * @param out the {@code PrintStream} file system information should be
+	 *        printed to.
+	 */
+	public void printGeometry(final PrintStream out) {
+		out.println(format("%d %s-block(s)",
+				Long.valueOf(this.getTotalBlockCount()),
+				this.blockSize.getDescription()));
+		this.printInodeTableStats(out);
+	}
+
+	private void printInodeTableStats(final PrintStream out) {
 		out.println(format("Inode table addressing: %d-bit",
 				Byte.valueOf((byte) (8 * this.getBlockAddressSize()))));
 		out.println(format("Inode table size: %d byte(s) (%d 512-byte sector(s))",
@@ -535,9 +1648,92 @@ public final class FileSystem implements AutoCloseable {
 
 	void setRootDirectorySize(final long rootDirectorySize) throws IOException {
 		final int bootSectorSize = this.getBootSectorSize();
-		final MappedByteBuffer bootSector = this.channel.map(READ_WRITE, 0, bootSectorSize);
-		bootSector.position(bootSectorSize / 2 + FileSystemEntry.SIZE_OFFSET);
-		bootSector.putLong(rootDirectorySize);
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer size = ByteBuffer.allocate(8);
+		size.putLong(rootDirectorySize);
+		size.flip();
+		this.writeMetadata(bootSectorSize / 2 + FileSystemEntry.SIZE_OFFSET, size);
+	}
+
+	/**
+	 * <p>Runs {@code update} as a single metadata transaction. Updates are
+	 * serialized; nested updates become a part of the outer one.</p>
+	 *
+	 * <p>If the file system has a {@linkplain Feature#JOURNAL journal},
+	 * all metadata writes made by {@code update} are either applied as a
+	 * whole or not applied at all. If {@code update} fails, its metadata
+	 * writes are rolled back.</p>
+	 *
+	 * <p>With the {@linkplain DurabilityPolicy.Mode#PER_OPERATION
+	 * per-operation} durability policy, the update is durable once this
+	 * method returns. Journal transactions committed concurrently by
+	 * several threads share a single {@link FileChannel#force(boolean)}
+	 * call.</p>
+	 *
+	 * @param update the metadata update to run.
+	 * @throws IOException if {@code update} fails, or an I/O error occurs.
+	 */
+	void update(final MetadataUpdate update) throws IOException {
+		if (this.updateLock.isHeldByCurrentThread()) {
+			/*
+			 * Nested update: becomes a part of the outer one.
+			 */
+			update.apply();
+			return;
+		}
+
+		final long t0 = nanoTime();
+		final Journal journal0 = this.journal;
+		final long sequence;
+
+		this.updateLock.lock();
+		try {
+			if (journal0 == null) {
+				try {
+					update.apply();
+				} catch (final IOException | RuntimeException | Error e) {
+					this.pathIndex = null;
+					this.metadataIndex = null;
+					throw e;
+				}
+				sequence = 0L;
+			} else {
+				journal0.begin();
+				try {
+					update.apply();
+					sequence = journal0.commit();
+				} catch (final IOException | RuntimeException | Error e) {
+					journal0.abort();
+					this.pathIndex = null;
+					this.metadataIndex = null;
+
+					/*
+					 * Cached blocks may contain the writes just
+					 * rolled back.
+					 */
+					final BlockCache cache0 = this.cache;
+					if (cache0 != null) {
+						cache0.invalidateAll();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			this.updateLock.unlock();
+		}
+
+		try {
+			if (this.durabilityPolicy.getMode() == Mode.PER_OPERATION) {
+				if (journal0 == null) {
+					this.forceInPlace();
+				} else {
+					journal0.awaitDurable(sequence);
+				}
+			}
+		} finally {
+			this.operationLatency.record(nanoTime() - t0);
+		}
 	}
 
 	/**
@@ -550,6 +1746,18 @@ public final class FileSystem implements AutoCloseable {
 	 * @see #growInode(long, long)
 	 */
 	long allocateBlocks(final long requestedBlockCount) throws IOException {
+		final long t0 = nanoTime();
+		try {
+			return this.allocateBlocks0(requestedBlockCount);
+		} finally {
+			this.metrics.record(Operation.ALLOCATE, nanoTime() - t0);
+		}
+	}
+
+	private long allocateBlocks0(final long requestedBlockCount) throws IOException {
+		final AllocateBlocksEvent event = new AllocateBlocksEvent();
+		event.begin();
+
 		if (requestedBlockCount <= 0) {
 			throw new IllegalArgumentException(format("Requested block count negative or zero: %d",
 					Long.valueOf(requestedBlockCount)));
@@ -559,39 +1767,61 @@ public final class FileSystem implements AutoCloseable {
 			throw new IOException(format("%d blocks requested while the filesystem has a maximum of %d",
 					Long.valueOf(requestedBlockCount), Long.valueOf(totalBlockCount)));
 		}
-		final long freeBlockCount = this.getFreeBlockCount();
-		if (requestedBlockCount > freeBlockCount) {
-			throw new IOException(format("%d blocks requested while only %d available",
-					Long.valueOf(requestedBlockCount), Long.valueOf(freeBlockCount)));
-		}
 
+		/*
+		 * Free space is not counted up front (that would take a full
+		 * inode table scan per allocation): if the table is exhausted
+		 * before enough free blocks are found, the blocks linked so
+		 * far are released.
+		 */
 		long firstBlockId = 0;
 
 		long allocatedBlockCount = 0;
+		long fragmentCount = 0;
 		final int bootSectorSize = this.getBootSectorSize();
 		if (this.getInodeTableSize() <= Integer.MAX_VALUE) {
-			final MappedByteBuffer inodeTable = this.channel.map(READ_ONLY, bootSectorSize, this.getInodeTableSize());
+			final InodeTableReader inodeTable = new InodeTableReader(this.map(READ_ONLY, bootSectorSize, this.getInodeTableSize()));
 
 			long previousBlockId = -1;
 			while (allocatedBlockCount < requestedBlockCount) {
-				final long currentBlockId = inodeTable.position() / this.getBlockAddressSize();
-				final long inode = this.readInode(inodeTable);
+				final long currentBlockId = inodeTable.getBlockId();
+				if (currentBlockId == totalBlockCount) {
+					this.metrics.addScannedInodes(totalBlockCount);
+					if (previousBlockId != -1) {
+						this.writeInode(previousBlockId, this.getEofMarker());
+						long blockId = firstBlockId;
+						do {
+							blockId = this.freeBlock(blockId);
+						} while (blockId != this.getEofMarker());
+					}
+					throw new IOException(format("%d blocks requested while only %d available",
+							Long.valueOf(requestedBlockCount), Long.valueOf(allocatedBlockCount)));
+				}
+				final long inode = inodeTable.next();
 				if (inode == 0) {
+					if (previousBlockId == -1 || currentBlockId != previousBlockId + 1) {
+						fragmentCount++;
+					}
 					if (previousBlockId == -1) {
-						LOGGER.finest(format("Initial block available is %d", Long.valueOf(currentBlockId)));
+						Trace.record(Trace.Point.ALLOCATE_FIRST, currentBlockId, 0L);
 						firstBlockId = currentBlockId;
 					} else {
-						LOGGER.finest(format("Referencing block %d from block %d...",
-								Long.valueOf(currentBlockId),
-								Long.valueOf(previousBlockId)));
+						Trace.record(Trace.Point.ALLOCATE_LINK, previousBlockId, currentBlockId);
 						this.writeInode(previousBlockId, currentBlockId);
 					}
 					previousBlockId = currentBlockId;
 					allocatedBlockCount++;
 				}
 			}
-			LOGGER.finest(format("Writing EOF marker to block %d...", Long.valueOf(previousBlockId)));
+			this.metrics.addScannedInodes(inodeTable.getBlockId());
+			Trace.record(Trace.Point.ALLOCATE_EOF, previousBlockId, 0L);
 			this.writeInode(previousBlockId, this.getEofMarker());
+
+			event.requested = requestedBlockCount;
+			event.allocated = allocatedBlockCount;
+			event.fragments = fragmentCount;
+			event.blocksScanned = inodeTable.getBlockId();
+			event.commit();
 		} else {
 			/*
 			 * TODO: implement for 2G+ inode tables
@@ -606,14 +1836,97 @@ public final class FileSystem implements AutoCloseable {
 	}
 
 	void growInode(final long firstBlockId, final long requestedIncrement) throws IOException {
+		this.appendBlocks(this.getLastBlockId(firstBlockId), requestedIncrement);
+	}
+
+	/**
+	 * <p>The same as {@link #growInode(long, long)}, for a caller which
+	 * already knows the last block of the chain, so that the chain
+	 * needn't be walked.</p>
+	 *
+	 * @param lastBlockId the id of the last block of the chain.
+	 * @param requestedIncrement the number of blocks to append.
+	 * @return the id of the first block appended.
+	 * @throws IOException if there's not enough free blocks left, or an
+	 *         I/O error occurs.
+	 */
+	long appendBlocks(final long lastBlockId, final long requestedIncrement) throws IOException {
 		final long extentStart = this.allocateBlocks(requestedIncrement);
-		final long lastBlockId = this.getLastBlockId(firstBlockId);
 		this.writeInode(lastBlockId, extentStart);
+		return extentStart;
+	}
+
+	/**
+	 * <p>Allocates a single block and links it into a chain right after
+	 * {@code previousBlockId}.</p>
+	 *
+	 * @param previousBlockId the id of the block to insert the new one
+	 *        after.
+	 * @return the id of the new block.
+	 * @throws IOException if there're no free blocks left, or an I/O error
+	 *         occurs.
+	 * @see #removeBlock(long, long)
+	 */
+	long insertBlock(final long previousBlockId) throws IOException {
+		final long blockId = this.allocateBlocks(1L);
+		this.writeInode(blockId, this.readInode(previousBlockId));
+		this.writeInode(previousBlockId, blockId);
+		return blockId;
+	}
+
+	/**
+	 * <p>Unlinks {@code blockId} from the chain it belongs to, and frees
+	 * it.</p>
+	 *
+	 * @param previousBlockId the id of the block preceding {@code blockId}.
+	 * @param blockId the id of the block to remove.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #insertBlock(long)
+	 */
+	void removeBlock(final long previousBlockId, final long blockId) throws IOException {
+		this.writeInode(previousBlockId, this.readInode(blockId));
+		this.writeInode(blockId, this.getEofMarker());
+		this.freeBlocks(blockId);
+	}
+
+	/**
+	 * <p>Frees the blocks of the chain starting at {@code firstBlockId}
+	 * past the first {@code blockCount} ones.</p>
+	 *
+	 * @param firstBlockId the id of the first block of the chain.
+	 * @param blockCount the number of blocks to keep.
+	 * @throws IOException if the chain is shorter than {@code blockCount},
+	 *         or an I/O error occurs.
+	 * @see #growInode(long, long)
+	 */
+	void shrinkInode(final long firstBlockId, final long blockCount) throws IOException {
+		if (blockCount <= 0) {
+			throw new IllegalArgumentException(format("Block count negative or zero: %d",
+					Long.valueOf(blockCount)));
+		}
+
+		long lastBlockId = firstBlockId;
+		for (long i = 1; i < blockCount; i++) {
+			lastBlockId = this.getNextBlockId(lastBlockId);
+		}
+		final long nextBlockId = this.readInode(lastBlockId);
+		if (nextBlockId != this.getEofMarker()) {
+			this.writeInode(lastBlockId, this.getEofMarker());
+			this.freeBlocks(nextBlockId);
+		}
 	}
 
 	long getLastBlockId(final long firstBlockId) throws IOException {
-		final long nextBlockId = this.readInode(firstBlockId);
-		return nextBlockId == this.getEofMarker() ? firstBlockId : this.getLastBlockId(nextBlockId);
+		/*
+		 * Iterative rather than recursive: the chain of a large file
+		 * may well be longer than the stack is deep.
+		 */
+		long blockId = firstBlockId;
+		long nextBlockId;
+		while ((nextBlockId = this.readInode(blockId)) != this.getEofMarker()) {
+			blockId = nextBlockId;
+		}
+		return blockId;
 	}
 
 	/**
@@ -626,98 +1939,524 @@ public final class FileSystem implements AutoCloseable {
 			throw new IOException("Unable to delete the root directory");
 		}
 
+		final long t0 = nanoTime();
+		final FreeBlocksEvent event = new FreeBlocksEvent();
+		event.begin();
+		try {
+			long blockId = firstBlockId;
+			do {
+				blockId = this.freeBlock(blockId);
+				event.freed++;
+			} while (blockId != this.getEofMarker());
+			LOGGER.finest("Space freed.");
+			event.commit();
+		} finally {
+			this.metrics.record(Operation.FREE, nanoTime() - t0);
+		}
+	}
+
+	/**
+	 * @param firstBlockId the id of the block to free.
+	 * @return the id of the next block in the chain, or an EOF marker.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #freeBlocks(long)
+	 */
+	private long freeBlock(final long firstBlockId) throws IOException {
+		final Journal journal0 = this.journal;
+		if (journal0 != null && journal0.isDirty(this.getBlockOffset(firstBlockId), this.getBlockSize().getLength())) {
+			/*
+			 * Directory blocks may have updates which are not yet
+			 * checkpointed. Write them in place while the block
+			 * still belongs to the directory, so that neither a
+			 * later checkpoint nor a journal replay overwrite
+			 * whatever the block is re-allocated for.
+			 */
+			journal0.checkpoint();
+		}
+
+		final BlockCache cache0 = this.cache;
+		if (cache0 != null) {
+			/*
+			 * Whatever is cached (even if dirty) is of no interest
+			 * once the block is free.
+			 */
+			cache0.invalidate(firstBlockId, false);
+		}
+
 		final long nextBlockId = this.readInode(firstBlockId);
-		LOGGER.finest(format("Freeing block %d...", Long.valueOf(firstBlockId)));
+		Trace.record(Trace.Point.FREE_BLOCK, firstBlockId, 0L);
 		this.writeInode(firstBlockId, 0);
+		if (this.features.contains(CHECKSUMS)) {
+			this.writeChecksum(firstBlockId, NO_CHECKSUM);
+		}
 
-		if (nextBlockId != this.getEofMarker()) {
-			this.freeBlocks(nextBlockId);
-		} else {
-			LOGGER.finest("Space freed.");
+		return nextBlockId;
+	}
+
+	/*
+	 * The value returned varies depending on address size.
+	 */
+	private long getEofMarker() {
+		return getEofMarker(this.getBlockAddressSize());
+	}
+
+	/**
+	 * @param blockAddressSize the block address size, 1..8 bytes.
+	 * @return the EOF marker (all bits set) for {@code blockAddressSize}.
+	 */
+	static long getEofMarker(final byte blockAddressSize) {
+		return blockAddressSize >= 8 ? -1L : (1L << 8 * blockAddressSize) - 1;
+	}
+
+	long readInode(final ByteBuffer source) {
+		return readInode(source, this.getBlockAddressSize());
+	}
+
+	/**
+	 * @param source the buffer to read the inode from.
+	 * @param blockAddressSize the block address size, 1..8 bytes.
+	 * @return the inode read.
+	 */
+	static long readInode(final ByteBuffer source, final byte blockAddressSize) {
+		/*
+		 * Read blockAddressSize bytes and promote the
+		 * value to long.
+		 */
+		long inode = 0L;
+		for (byte b = (byte) (blockAddressSize - 1); b >= 0; b--) {
+			inode |= (source.get() & 0xffL) << 8 * b;
+		}
+
+		return inode;
+	}
+
+	/**
+	 * <p>Reads the inode pointer stored at {@code blockId}. The inode
+	 * pointer read can either point to the next inode in a singly-linked
+	 * list, or be an {@linkplain #getEofMarker() EOF marker} designating
+	 * that {@code blockId} is the last one in the list.</p>
+	 *
+	 * @param blockId the block id in the inode table
+	 * @return the next block id, or an EOF marker.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #getNextBlockId(long)
+	 */
+	private long readInode(final long blockId) throws IOException {
+		final byte blockAddressSize = this.getBlockAddressSize();
+
+		this.metrics.onInodeRead();
+		final ByteBuffer inodeBuffer = this.readMetadata(this.getBootSectorSize() + blockId * blockAddressSize, blockAddressSize);
+		return this.readInode(inodeBuffer);
+	}
+
+	/**
+	 * @param blockId the block id.
+	 * @return the id of the block following {@code blockId} in the chain.
+	 * @throws IOException if {@code blockId} is the last block in the
+	 *         chain, or an I/O error occurs.
+	 */
+	long getNextBlockId(final long blockId) throws IOException {
+		final long nextBlockId = this.readInode(blockId);
+		if (nextBlockId == this.getEofMarker()) {
+			throw new IOException(format("Block %d is the last one in the chain", Long.valueOf(blockId)));
+		}
+		return nextBlockId;
+	}
+
+	void writeInode(final long inode, final ByteBuffer destination) {
+		writeInode(inode, destination, this.getBlockAddressSize());
+	}
+
+	/**
+	 * @param inode the inode to write.
+	 * @param destination the buffer to write the inode to.
+	 * @param blockAddressSize the block address size, 1..8 bytes.
+	 */
+	static void writeInode(final long inode, final ByteBuffer destination, final byte blockAddressSize) {
+		for (byte b = (byte) (blockAddressSize - 1); b >= 0; b--) {
+			destination.put((byte) (inode >>> 8 * b & 0xff));
+		}
+	}
+
+	private void writeInode(final long blockId, final long inode) throws IOException {
+		final byte blockAddressSize = this.getBlockAddressSize();
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer inodeBuffer = ByteBuffer.allocate(blockAddressSize);
+
+		this.writeInode(inode, inodeBuffer);
+		assert inodeBuffer.position() == inodeBuffer.limit();
+
+		this.metrics.onInodeWrite();
+		inodeBuffer.flip();
+		this.writeMetadata(this.getBootSectorSize() + blockId * blockAddressSize, inodeBuffer);
+	}
+
+	/**
+	 * <p>Writes a piece of metadata (an inode table entry, the root
+	 * directory size, or a part of directory contents). For file systems
+	 * with a {@linkplain Feature#JOURNAL journal}, the write is recorded
+	 * within the current transaction.</p>
+	 *
+	 * @param position the offset within the container.
+	 * @param source the bytes to write.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #update(MetadataUpdate)
+	 * @see #readMetadata(long, int)
+	 */
+	void writeMetadata(final long position, final ByteBuffer source) throws IOException {
+		final Journal journal0 = this.journal;
+		final BlockCache cache0 = this.cache;
+		final boolean cached = cache0 != null && this.isDataArea(position);
+		if (journal0 == null) {
+			if (cached) {
+				this.writeCached(position, source, true);
+			} else {
+				writeFully(this.channel, source, position);
+			}
+			return;
+		}
+
+		if (!journal0.isInTransaction()) {
+			throw new IllegalStateException("Metadata write outside of an update");
+		}
+		if (cached) {
+			this.writeCached(position, source, false);
+		}
+		journal0.write(position, source);
+	}
+
+	/**
+	 * <p>Applies a write within the data area to the block cache.</p>
+	 *
+	 * @param position the offset within the container.
+	 * @param source the bytes to write; only consumed if {@code dirty}.
+	 * @param dirty whether the blocks written to should be marked dirty
+	 *        (i.e.: the cache is responsible for writing them back), or
+	 *        just updated if cached (the bytes reach the container by
+	 *        other means).
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writeCached(final long position, final ByteBuffer source, final boolean dirty) throws IOException {
+		final BlockCache cache0 = this.cache;
+		assert cache0 != null;
+
+		final int blockLength = this.getBlockSize().getLength();
+		final long dataAreaOffset = this.getDataAreaOffset();
+		final ByteBuffer remaining = source.duplicate();
+		while (remaining.hasRemaining()) {
+			final long relativePosition = position + remaining.position() - source.position() - dataAreaOffset;
+			final long blockId = relativePosition / blockLength;
+			final int offset = (int) (relativePosition % blockLength);
+
+			final ByteBuffer chunk = remaining.duplicate();
+			chunk.limit(chunk.position() + min(blockLength - offset, chunk.remaining()));
+			if (dirty) {
+				cache0.write(blockId, offset, chunk);
+			} else {
+				cache0.update(blockId, offset, chunk);
+			}
+			remaining.position(chunk.limit());
+		}
+
+		if (dirty) {
+			source.position(source.limit());
+		}
+	}
+
+	/**
+	 * <p>Reads a piece of metadata, taking updates which are not yet
+	 * checkpointed into account.</p>
+	 *
+	 * @param position the offset within the container.
+	 * @param length the number of bytes to read.
+	 * @return the bytes read, with position set to 0 and limit set to
+	 *         {@code length}.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #writeMetadata(long, ByteBuffer)
+	 */
+	ByteBuffer readMetadata(final long position, final int length) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(this.channel, buffer, position);
+		buffer.flip();
+
+		this.patch(position, buffer);
+		return buffer;
+	}
+
+	/**
+	 * <p>Overwrites the bytes of {@code buffer} (between its position and
+	 * limit) which were read from the container at {@code position} with
+	 * the metadata updates which are not yet checkpointed, or the dirty
+	 * cached blocks which are not yet written back. The position and limit
+	 * of {@code buffer} remain unchanged.</p>
+	 *
+	 * @param position the offset within the container {@code buffer}
+	 *        contents were read from.
+	 * @param buffer the buffer to patch.
+	 */
+	private void patch(final long position, final ByteBuffer buffer) {
+		final Journal journal0 = this.journal;
+		final BlockCache cache0 = this.cache;
+		if (journal0 != null) {
+			journal0.patch(position, buffer);
+		} else if (cache0 != null && this.isDataArea(position)) {
+			/*
+			 * Dirty cached blocks are yet to be written back.
+			 */
+			final int blockLength = this.getBlockSize().getLength();
+			final int length = buffer.remaining();
+			final long relativePosition = position - this.getDataAreaOffset();
+			for (long blockId = relativePosition / blockLength; blockId * blockLength < relativePosition + length; blockId++) {
+				final long blockStart = blockId * blockLength;
+				final int from = (int) max(0L, blockStart - relativePosition);
+				final ByteBuffer destination = buffer.duplicate();
+				destination.position(buffer.position() + from);
+				destination.limit(buffer.position() + (int) min(length, blockStart + blockLength - relativePosition));
+				cache0.patch(blockId, (int) (relativePosition + from - blockStart), destination);
+			}
 		}
 	}
 
-	/*
-	 * The value returned varies depending on address size.
+	/**
+	 * <p>Reads a part of a single block, taking the metadata updates
+	 * which are not yet checkpointed, as well as the dirty cached blocks,
+	 * into account.</p>
+	 *
+	 * @param blockId the block id.
+	 * @param offset the offset within the block.
+	 * @param destination the buffer to read into; filled up to its
+	 *        limit, which should not exceed the block boundary.
+	 * @throws IOException if an I/O error occurs.
+	 * @see EntryChannel
+	 */
+	void readBlock(final long blockId, final int offset, final ByteBuffer destination) throws IOException {
+		assert offset + destination.remaining() <= this.getBlockSize().getLength();
+
+		final long position = this.getBlockOffset(blockId) + offset;
+		final ByteBuffer view = destination.duplicate();
+		readFully(this.channel, destination, position);
+		view.limit(destination.position());
+		this.metrics.addBytesRead(view.remaining());
+		this.patch(position, view);
+	}
+
+	/**
+	 * <p>Maps a region of the container into memory, see {@link
+	 * FileChannel#map(MapMode, long, long)}.</p>
+	 */
+	private ByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+		this.metrics.onMap();
+		return map(this.channel, mode, position, size);
+	}
+
+	/**
+	 * <p>Maps a region of {@code channel} into memory, or, for an
+	 * in-memory volume, {@linkplain MemoryChannel#slice(MapMode, long,
+	 * long) slices} it.</p>
+	 */
+	private static ByteBuffer map(final FileChannel channel, final MapMode mode, final long position, final long size) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = channel instanceof MemoryChannel
+				? ((MemoryChannel) channel).slice(mode, position, size)
+				: channel.map(mode, position, size);
+		return buffer;
+	}
+
+	/**
+	 * <p>Asynchronously loads a run of adjacent blocks into memory (i.e.:
+	 * the page cache), so that subsequent reads don't have to wait for
+	 * the device.</p>
+	 *
+	 * @param firstBlockId the id of the first block in the run.
+	 * @param blockCount the number of blocks in the run.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #readahead(Runnable)
+	 */
+	void loadBlocks(final long firstBlockId, final int blockCount) throws IOException {
+		if (this.channel instanceof MemoryChannel) {
+			/*
+			 * Already in memory.
+			 */
+			return;
+		}
+
+		this.metrics.onMap();
+		this.channel.map(READ_ONLY, this.getBlockOffset(firstBlockId), (long) blockCount * this.getBlockSize().getLength()).load();
+	}
+
+	/**
+	 * <p>Transfers (a part of) a run of adjacent blocks from the container
+	 * directly to {@code target}, w/o copying it to the Java heap.</p>
+	 *
+	 * <p>This is only possible if the blocks needn't be verified (i.e.:
+	 * the file system has no {@linkplain Feature#CHECKSUMS checksums}) and
+	 * the container is up to date, i.e.: there are neither dirty cached
+	 * blocks nor metadata updates which are not yet checkpointed within
+	 * the range. Otherwise, the range has to be {@linkplain
+	 * #readBlock(long, int, ByteBuffer) read} instead.</p>
+	 *
+	 * @param firstBlockId the id of the first block in the run.
+	 * @param offset the offset within the first block.
+	 * @param length the number of bytes to transfer.
+	 * @param target the channel to transfer the bytes to.
+	 * @return the number of bytes transferred, or {@code -1} if the range
+	 *         can't be transferred directly.
+	 * @throws IOException if an I/O error occurs.
+	 * @see FileChannel#transferTo(long, long, WritableByteChannel)
 	 */
-	private long getEofMarker() {
-		long eofMarker = 0L;
-		for (byte b = 0; b < this.getBlockAddressSize(); b++) {
-			eofMarker |= 0xff << 8 * b;
+	long transferBlocks(final long firstBlockId, final int offset, final long length, final WritableByteChannel target) throws IOException {
+		if (this.features.contains(CHECKSUMS)) {
+			return -1L;
+		}
+		final long position = this.getBlockOffset(firstBlockId) + offset;
+		final Journal journal0 = this.journal;
+		final BlockCache cache0 = this.cache;
+		if (journal0 != null && journal0.isDirty(position, length)
+				|| cache0 != null && cache0.getDirtyCount() != 0) {
+			return -1L;
 		}
-		return eofMarker;
+
+		long transferred = 0L;
+		while (transferred < length) {
+			final long n = this.channel.transferTo(position + transferred, length - transferred, target);
+			if (n <= 0) {
+				break;
+			}
+			transferred += n;
+		}
+		this.metrics.addBytesRead(transferred);
+		return transferred;
 	}
 
-	long readInode(final ByteBuffer source) {
-		/*
-		 * The buffer of blockAddressSize length (1..8 bytes).
-		 */
-		final byte blockAddressSize = this.getBlockAddressSize();
+	/**
+	 * <p>Runs a readahead task in background. Tasks submitted after the
+	 * file system has been unmounted are silently dropped.</p>
+	 *
+	 * @param task the readahead task.
+	 * @see EntryChannel
+	 */
+	void readahead(final Runnable task) {
+		ThreadPoolExecutor readaheadExecutor0;
+		synchronized (this) {
+			if (!this.channel.isOpen()) {
+				return;
+			}
 
-		/*
-		 * Read blockAddressSize bytes and promote the
-		 * value to long.
-		 */
-		long inode = 0L;
-		for (byte b = (byte) (blockAddressSize - 1); b >= 0; b--) {
-			inode |= (source.get() & 0xff) << 8 * b;
+			readaheadExecutor0 = this.readaheadExecutor;
+			if (readaheadExecutor0 == null) {
+				final ThreadPoolExecutor executor = new ThreadPoolExecutor(READAHEAD_THREAD_COUNT, READAHEAD_THREAD_COUNT,
+						10, SECONDS,
+						new LinkedBlockingQueue<>(),
+						runnable -> {
+							final Thread thread = new Thread(runnable, "javafs-readahead");
+							thread.setDaemon(true);
+							return thread;
+						});
+				executor.allowCoreThreadTimeOut(true);
+				this.readaheadExecutor = readaheadExecutor0 = executor;
+			}
 		}
 
-		return inode;
+		try {
+			readaheadExecutor0.execute(task);
+		} catch (final RejectedExecutionException ree) {
+			/*
+			 * Being unmounted.
+			 */
+		}
 	}
 
 	/**
-	 * <p>Reads the inode pointer stored at {@code blockId}. The inode
-	 * pointer read can either point to the next inode in a singly-linked
-	 * list, or be an {@linkplain #getEofMarker() EOF marker} designating
-	 * that {@code blockId} is the last one in the list.</p>
+	 * <p>Writes directory contents to the previously allocated blocks,
+	 * starting at {@code destinationOffset}.</p>
 	 *
-	 * @param blockId the block id in the inode table
-	 * @return the next block id, or an EOF marker.
+	 * @param firstBlockId the id of the first block allocated for the
+	 *        directory.
+	 * @param source the buffer which contains directory contents.
+	 * @param destinationOffset the offset within directory contents to
+	 *        start writing at.
 	 * @throws IOException if an I/O error occurs.
+	 * @see #writeMetadata(long, ByteBuffer)
 	 */
-	private long readInode(final long blockId) throws IOException {
-		final byte blockAddressSize = this.getBlockAddressSize();
+	void writeDirectoryData(final long firstBlockId, final ByteBuffer source, final long destinationOffset) throws IOException {
+		final int blockLength = this.getBlockSize().getLength();
+		final int originalLimit = source.limit();
 
-		final ByteBuffer inodeBuffer = ByteBuffer.allocate(blockAddressSize);
+		long bytesToSkip = destinationOffset;
+		long blockId = firstBlockId;
+		while (source.hasRemaining()) {
+			if (blockId == this.getEofMarker()) {
+				throw new IOException(format("Directory at block %d is too short to write %d byte(s) at offset %d",
+						Long.valueOf(firstBlockId),
+						Integer.valueOf(source.remaining()),
+						Long.valueOf(destinationOffset)));
+			}
 
-		this.channel.position(this.getBootSectorSize() + blockId * blockAddressSize);
-		this.channel.read(inodeBuffer);
-		inodeBuffer.flip();
-		return this.readInode(inodeBuffer);
+			if (bytesToSkip >= blockLength) {
+				bytesToSkip -= blockLength;
+			} else {
+				source.limit(min(originalLimit, source.position() + blockLength - (int) bytesToSkip));
+				this.writeMetadata(this.getBlockOffset(blockId) + bytesToSkip, source);
+				source.limit(originalLimit);
+				bytesToSkip = 0;
+			}
+
+			blockId = this.readInode(blockId);
+		}
 	}
 
-	void writeInode(final long inode, final ByteBuffer destination) {
-		final byte blockAddressSize = this.getBlockAddressSize();
+	/**
+	 * @param blockId the block id.
+	 * @return the offset of the block within the container.
+	 */
+	long getBlockOffset(final long blockId) {
+		return this.getDataAreaOffset() + blockId * this.getBlockSize().getLength();
+	}
 
-		for (byte b = (byte) (blockAddressSize - 1); b >= 0; b--) {
-			destination.put((byte) (inode >>> 8 * b & 0xff));
-		}
+	private long getDataAreaOffset() {
+		return this.getBootSectorSize() + this.getInodeTableSizeRounded();
 	}
 
-	private void writeInode(final long blockId, final long inode) throws IOException {
-		final byte blockAddressSize = this.getBlockAddressSize();
+	/**
+	 * <p>The same as {@link #getDataAreaOffset()}, for a file system which
+	 * hasn't been created (or mounted) yet.</p>
+	 */
+	private static long getDataAreaOffset(final long dataAreaLength, final BlockSize blockSize) {
+		final long totalBlockCount = dataAreaLength / blockSize.getLength();
+		final long inodeTableSize = totalBlockCount * getBlockAddressSize(totalBlockCount);
+		return SECTOR_SIZE + FileUtilities.getBlockCount(inodeTableSize, SECTOR_SIZE) * SECTOR_SIZE;
+	}
 
-		@Nonnull
-		@SuppressWarnings("null")
-		final ByteBuffer inodeBuffer = ByteBuffer.allocate(blockAddressSize);
+	private long getJournalOffset() {
+		return this.getDataAreaOffset() + this.getDataAreaLength();
+	}
 
-		this.writeInode(inode, inodeBuffer);
-		assert inodeBuffer.position() == inodeBuffer.limit();
+	private long getChecksumOffset() {
+		return this.getJournalOffset() + this.getJournalLength();
+	}
 
-		inodeBuffer.flip();
-		this.channel.position(this.getBootSectorSize() + blockId * blockAddressSize);
-		this.channel.write(inodeBuffer);
+	/**
+	 * @param position the offset within the container.
+	 * @return whether {@code position} falls within the data area, i.e.:
+	 *         is subject to block caching.
+	 */
+	private boolean isDataArea(final long position) {
+		return position >= this.getDataAreaOffset() && position < this.getJournalOffset();
 	}
 
-	MappedByteBuffer mapBlock(final long blockId) throws IOException {
-		final long dataAreaStart = this.getBootSectorSize() + this.getInodeTableSizeRounded();
-		final int blockLength = this.getBlockSize().getLength();
-		final long dataAreaOffset = blockId * blockLength;
-		@Nonnull
-		@SuppressWarnings("null")
-		final MappedByteBuffer block = this.channel.map(READ_WRITE, dataAreaStart + dataAreaOffset, blockLength);
-		return block;
+	/**
+	 * @param dataAreaLength the length of the data area.
+	 * @return the length of the journal to create, rounded to the sector
+	 *         size.
+	 */
+	private static long getJournalLength(final long dataAreaLength) {
+		final long journalLength = min(max(dataAreaLength / 64, MIN_JOURNAL_LENGTH), MAX_JOURNAL_LENGTH);
+		return journalLength / SECTOR_SIZE * SECTOR_SIZE;
 	}
 
 	/**
@@ -734,22 +2473,108 @@ public final class FileSystem implements AutoCloseable {
 	 * @throws IOException if an I/O error occurs.
 	 * @see #getBlockCount(long)
 	 */
-	List<MappedByteBuffer> mapBlocks(final long firstBlockId) throws IOException {
-		final List<MappedByteBuffer> buffers = new ArrayList<>();
+	List<ByteBuffer> mapBlocks(final long firstBlockId) throws IOException {
+		return this.mapBlocks(firstBlockId, null);
+	}
+
+	/**
+	 * @param firstBlockId the id of the first block allocated for the file.
+	 * @param blockIds the list to add the ids of the blocks to, or {@code
+	 *        null}.
+	 * @return the list of blocks allocated for (or occupied by) the file
+	 *         pointed to by {@code firstBlockId}.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #mapBlocks(long)
+	 */
+	private List<ByteBuffer> mapBlocks(final long firstBlockId, @Nullable final List<Long> blockIds) throws IOException {
+		final long t0 = nanoTime();
+		final MapBlocksEvent event = new MapBlocksEvent();
+		event.begin();
+		final List<ByteBuffer> buffers = new ArrayList<>();
+
+		final int blockLength = this.getBlockSize().getLength();
+
+		final BlockCache cache0 = this.cache;
+
+		long blockId = firstBlockId;
+		while (blockId != this.getEofMarker()) {
+			if (cache0 != null) {
+				/*
+				 * The block is about to be written to directly.
+				 */
+				cache0.invalidate(blockId, true);
+			}
+			buffers.add(this.map(READ_WRITE, this.getBlockOffset(blockId), blockLength));
+			if (blockIds != null) {
+				blockIds.add(Long.valueOf(blockId));
+			}
+			blockId = this.readInode(blockId);
+		}
+
+		this.metrics.record(Operation.MAP, nanoTime() - t0);
+		event.chainLength = buffers.size();
+		event.commit();
+
+		return buffers;
+	}
+
+	/**
+	 * <p>Returns the contents of the blocks allocated for (or occupied by)
+	 * the file pointed to by {@code firstBlockId}, for reading. Unlike
+	 * {@link #mapBlocks(long)}, metadata updates which are not yet
+	 * checkpointed are taken into account, so this is the method to read
+	 * directory contents with. Blocks are served from the {@linkplain
+	 * #getBlockCache() block cache}, if enabled.</p>
+	 *
+	 * @param firstBlockId the id of the first block allocated for the file.
+	 * @return the list of blocks allocated for (or occupied by) the file
+	 *         pointed to by {@code firstBlockId}.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #mapBlocks(long)
+	 */
+	List<ByteBuffer> readBlocks(final long firstBlockId) throws IOException {
+		final List<ByteBuffer> buffers = new ArrayList<>();
 
-		final long dataAreaStart = this.getBootSectorSize() + this.getInodeTableSizeRounded();
 		final int blockLength = this.getBlockSize().getLength();
+		final Journal journal0 = this.journal;
+		final BlockCache cache0 = this.cache;
 
 		long blockId = firstBlockId;
 		while (blockId != this.getEofMarker()) {
-			final long dataAreaOffset = blockId * blockLength;
-			buffers.add(this.channel.map(READ_WRITE, dataAreaStart + dataAreaOffset, blockLength));
+			final long blockOffset = this.getBlockOffset(blockId);
+			if (cache0 != null) {
+				buffers.add(cache0.read(blockId));
+			} else if (journal0 != null && journal0.isDirty(blockOffset, blockLength)) {
+				buffers.add(this.readMetadata(blockOffset, blockLength));
+			} else {
+				buffers.add(this.map(READ_ONLY, blockOffset, blockLength));
+			}
 			blockId = this.readInode(blockId);
 		}
+		this.metrics.addBytesRead((long) buffers.size() * blockLength);
 
 		return buffers;
 	}
 
+	/**
+	 * @param firstBlockId the id of the first block allocated for the file.
+	 * @return the ids of the blocks allocated for the file pointed to by
+	 *         {@code firstBlockId}, in the chain order.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #getBlockCount(long)
+	 */
+	List<Long> getBlockIds(final long firstBlockId) throws IOException {
+		final List<Long> blockIds = new ArrayList<>();
+
+		long blockId = firstBlockId;
+		while (blockId != this.getEofMarker()) {
+			blockIds.add(Long.valueOf(blockId));
+			blockId = this.readInode(blockId);
+		}
+
+		return blockIds;
+	}
+
 	/**
 	 * @param firstBlockId the id of the first block allocated for the file.
 	 * @return the number of blocks allocated for (or occupied by) the file
@@ -795,41 +2620,266 @@ public final class FileSystem implements AutoCloseable {
 	 * @see #writeTo(long, FileChannel)
 	 */
 	void writeTo(final long firstBlockId, final ByteBuffer source, final long destinationOffset) throws IOException {
-		final List<MappedByteBuffer> blocks = this.mapBlocks(firstBlockId);
+		final List<Long> blockIds = new ArrayList<>();
+		final List<ByteBuffer> blocks = this.mapBlocks(firstBlockId, blockIds);
+		this.metrics.addBytesWritten(source.remaining());
 		FileUtilities.writeTo(source, blocks, destinationOffset);
+		this.updateChecksums(blockIds, blocks, (int) (destinationOffset / this.getBlockSize().getLength()));
+	}
+
+	/**
+	 * <p>The same as {@link #writeTo(long, ByteBuffer, long)}, for a
+	 * caller which keeps the ids of the blocks of the chain: only the
+	 * blocks written to are mapped (and have their checksums updated).</p>
+	 *
+	 * @param blockIds the ids of the blocks allocated for the file, in
+	 *        the chain order.
+	 * @param source the buffer which contains file's contents.
+	 * @param destinationOffset the offset to start writing at.
+	 * @throws IOException if the blocks can't hold {@code source} at
+	 *         {@code destinationOffset}, or an I/O error occurs.
+	 */
+	void writeTo(final List<Long> blockIds, final ByteBuffer source, final long destinationOffset) throws IOException {
+		final int blockLength = this.getBlockSize().getLength();
+		final int fromIndex = (int) (destinationOffset / blockLength);
+		final long toIndex = FileUtilities.getBlockCount(destinationOffset + source.remaining(), blockLength);
+		if (toIndex > blockIds.size()) {
+			throw new IOException(format("%d block(s) can't hold %d byte(s) at %d",
+					Integer.valueOf(blockIds.size()),
+					Integer.valueOf(source.remaining()),
+					Long.valueOf(destinationOffset)));
+		}
+
+		final List<Long> written = blockIds.subList(fromIndex, (int) toIndex);
+		final List<ByteBuffer> blocks = new ArrayList<>();
+		final BlockCache cache0 = this.cache;
+		for (final Long blockId : written) {
+			if (cache0 != null) {
+				/*
+				 * The block is about to be written to directly.
+				 */
+				cache0.invalidate(blockId.longValue(), true);
+			}
+			blocks.add(this.map(READ_WRITE, this.getBlockOffset(blockId.longValue()), blockLength));
+		}
+		this.metrics.addBytesWritten(source.remaining());
+		FileUtilities.writeTo(source, blocks, destinationOffset - (long) fromIndex * blockLength);
+		this.updateChecksums(written, blocks, 0);
 	}
 
 	/**
 	 * <p>Writes file's contents to the previously allocated blocks.</p>
 	 *
 	 * @param firstBlockId the id of the first block allocated for the file.
-	 * @param source the channel for reading a file on the "real" file system.
+	 * @param source the channel for reading a file on the "real" file
+	 *        system, or any other channel; read until either the blocks
+	 *        are full or the end of stream is reached.
 	 * @throws IOException if an I/O error occurs.
 	 * @see #writeTo(long, ByteBuffer)
 	 * @see #writeTo(long, ByteBuffer, long)
 	 */
-	void writeTo(final long firstBlockId, final FileChannel source) throws IOException {
-		final List<MappedByteBuffer> blocks = this.mapBlocks(firstBlockId);
-		source.read(blocks.toArray(new MappedByteBuffer[0]));
+	void writeTo(final long firstBlockId, final ReadableByteChannel source) throws IOException {
+		final List<Long> blockIds = new ArrayList<>();
+		final List<ByteBuffer> blocks = this.mapBlocks(firstBlockId, blockIds);
+		long bytesRead = 0L;
+		if (source instanceof ScatteringByteChannel) {
+			final ByteBuffer destinations[] = blocks.toArray(new ByteBuffer[0]);
+			long n;
+			while ((n = ((ScatteringByteChannel) source).read(destinations)) > 0) {
+				bytesRead += n;
+			}
+		} else {
+			blocks:
+			for (final ByteBuffer block : blocks) {
+				while (block.hasRemaining()) {
+					final int n = source.read(block);
+					if (n == -1) {
+						break blocks;
+					}
+					bytesRead += n;
+				}
+			}
+		}
+		this.metrics.addBytesWritten(bytesRead);
+		this.updateChecksums(blockIds, blocks, 0);
+	}
+
+	/**
+	 * <p>Computes and stores the {@linkplain Feature#CHECKSUMS checksums}
+	 * of the blocks just written, if the feature is enabled. Checksums of
+	 * adjacent blocks are written at once.</p>
+	 *
+	 * @param blockIds the ids of the blocks allocated for the file.
+	 * @param blocks the blocks allocated for the file.
+	 * @param fromIndex the index of the first block written.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void updateChecksums(final List<Long> blockIds, final List<ByteBuffer> blocks, final int fromIndex) throws IOException {
+		if (!this.features.contains(CHECKSUMS)) {
+			return;
+		}
+
+		final int blockCount = blocks.size();
+		this.update(() -> {
+			final CRC32C crc = new CRC32C();
+			int runStart = fromIndex;
+			while (runStart < blockCount) {
+				int runEnd = runStart + 1;
+				while (runEnd < blockCount && blockIds.get(runEnd).longValue() == blockIds.get(runEnd - 1).longValue() + 1) {
+					runEnd++;
+				}
+
+				@Nonnull
+				@SuppressWarnings("null")
+				final ByteBuffer checksums = ByteBuffer.allocate((runEnd - runStart) * CHECKSUM_LENGTH);
+				for (int i = runStart; i < runEnd; i++) {
+					crc.reset();
+					crc.update(blocks.get(i).duplicate().clear());
+					checksums.putInt((int) crc.getValue());
+				}
+				checksums.flip();
+				this.writeMetadata(this.getChecksumPosition(blockIds.get(runStart).longValue()), checksums);
+
+				runStart = runEnd;
+			}
+		});
+	}
+
+	private long getChecksumPosition(final long blockId) {
+		return this.getChecksumOffset() + blockId * CHECKSUM_LENGTH;
+	}
+
+	private void writeChecksum(final long blockId, final int checksum) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_LENGTH).putInt(0, checksum);
+		this.writeMetadata(this.getChecksumPosition(blockId), buffer);
+	}
+
+	/**
+	 * <p>Verifies the contents of a block against its stored {@linkplain
+	 * Feature#CHECKSUMS checksum}. Does nothing unless checksums are
+	 * enabled.</p>
+	 *
+	 * @param blockId the block id.
+	 * @param block the complete contents of the block, between the
+	 *        buffer position and limit; not consumed.
+	 * @throws ChecksumException if the checksum doesn't match.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void verifyChecksum(final long blockId, final ByteBuffer block) throws IOException {
+		if (!this.features.contains(CHECKSUMS)) {
+			return;
+		}
+
+		final int expected = this.readMetadata(this.getChecksumPosition(blockId), CHECKSUM_LENGTH).getInt();
+		if (expected == NO_CHECKSUM) {
+			return;
+		}
+
+		final CRC32C crc = new CRC32C();
+		crc.update(block.duplicate());
+		final int actual = (int) crc.getValue();
+		if (actual != expected) {
+			this.checksumErrorCount.increment();
+			throw new ChecksumException(blockId, expected, actual);
+		}
+	}
+
+	/**
+	 * <p>Verifies the {@linkplain Feature#CHECKSUMS checksums} of all
+	 * blocks in parallel, using the common fork-join pool. Unlike the
+	 * lazy verification on read, this is the way to detect silent
+	 * corruption of the data which is not read regularly.</p>
+	 *
+	 * @return the ids of the blocks whose contents don't match their
+	 *         checksums, in ascending order; empty if the file system has
+	 *         no checksums.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long[] scrub() throws IOException {
+		if (!this.features.contains(CHECKSUMS)) {
+			return new long[0];
+		}
+
+		final long totalBlockCount = this.getTotalBlockCount();
+		final long batchCount = FileUtilities.getBlockCount(totalBlockCount, SCRUB_BATCH_SIZE);
+		try {
+			final long corruptedBlockIds[] = LongStream.range(0, batchCount).parallel().flatMap(batch -> {
+				try {
+					return Arrays.stream(this.scrub(batch * SCRUB_BATCH_SIZE, (int) min(SCRUB_BATCH_SIZE, totalBlockCount - batch * SCRUB_BATCH_SIZE)));
+				} catch (final IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			}).sorted().toArray();
+			if (corruptedBlockIds.length != 0) {
+				this.checksumErrorCount.add(corruptedBlockIds.length);
+				LOGGER.warning(format("%d corrupted block(s) found", Integer.valueOf(corruptedBlockIds.length)));
+			}
+			return corruptedBlockIds;
+		} catch (final UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+	}
+
+	/**
+	 * @param firstBlockId the id of the first block to verify.
+	 * @param blockCount the number of blocks to verify.
+	 * @return the ids of the corrupted blocks.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private long[] scrub(final long firstBlockId, final int blockCount) throws IOException {
+		final ByteBuffer checksums = this.readMetadata(this.getChecksumPosition(firstBlockId), blockCount * CHECKSUM_LENGTH);
+		final int blockLength = this.getBlockSize().getLength();
+		final ByteBuffer blocks = this.map(READ_ONLY, this.getBlockOffset(firstBlockId), (long) blockCount * blockLength);
+		final CRC32C crc = new CRC32C();
+
+		final LongStream.Builder corruptedBlockIds = LongStream.builder();
+		for (int i = 0; i < blockCount; i++) {
+			final int expected = checksums.getInt(i * CHECKSUM_LENGTH);
+			if (expected == NO_CHECKSUM) {
+				continue;
+			}
+
+			final ByteBuffer block = blocks.duplicate();
+			block.position(i * blockLength).limit((i + 1) * blockLength);
+			crc.reset();
+			crc.update(block);
+			if ((int) crc.getValue() != expected) {
+				corruptedBlockIds.add(firstBlockId + i);
+			}
+		}
+		return corruptedBlockIds.build().toArray();
+	}
+
+	/**
+	 * @return the number of checksum mismatches detected so far, either
+	 *         on read or by {@linkplain #scrub() scrubbing}.
+	 */
+	public long getChecksumErrorCount() {
+		return this.checksumErrorCount.sum();
 	}
 
 	private <T> void scanInodeTable(final LongFunction<T> f) throws IOException {
+		this.metrics.onTableScan();
+		this.metrics.addScannedInodes(this.getTotalBlockCount());
+
+		final ScanInodeTableEvent event = new ScanInodeTableEvent();
+		event.begin();
+
 		final int bootSectorSize = this.getBootSectorSize();
 		if (this.getInodeTableSize() <= Integer.MAX_VALUE) {
-			@Nonnull
-			@SuppressWarnings("null")
-			final MappedByteBuffer inodeTable = this.channel.map(READ_ONLY, bootSectorSize, this.getInodeTableSize());
+			final InodeTableReader inodeTable = new InodeTableReader(this.map(READ_ONLY, bootSectorSize, this.getInodeTableSize()));
 
 			for (long l = 0; l < this.getTotalBlockCount(); l++) {
-				final long inode = this.readInode(inodeTable);
+				final long inode = inodeTable.next();
 
 				f.apply(inode);
 			}
 
-			assert inodeTable.position() == this.getInodeTableSize() : inodeTable.position();
+			assert inodeTable.getBlockId() == this.getTotalBlockCount() : inodeTable.getBlockId();
 		} else {
-			final ByteBuffer inodeBuffer = ByteBuffer.allocate(this.getBlockAddressSize());
-			this.channel.position(bootSectorSize);
+			final byte blockAddressSize = this.getBlockAddressSize();
 
 			/*
 			 * Very inefficient: for a 32G file system, scanning a
@@ -838,16 +2888,123 @@ public final class FileSystem implements AutoCloseable {
 			 * TODO: rewrite for 2G+ inode tables
 			 */
 			for (long l = 0; l < this.getTotalBlockCount(); l++) {
-				inodeBuffer.clear();
-				this.channel.read(inodeBuffer);
-				inodeBuffer.flip();
+				final ByteBuffer inodeBuffer = this.readMetadata(bootSectorSize + l * blockAddressSize, blockAddressSize);
 
 				final long inode = this.readInode(inodeBuffer);
 
 				f.apply(inode);
 			}
+		}
+
+		event.blocksScanned = this.getTotalBlockCount();
+		event.commit();
+	}
+
+	/**
+	 * <p>A batch of metadata updates, see {@link FileSystem#beginBatch()}.
+	 * </p>
+	 *
+	 * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+	 */
+	public final class Batch implements AutoCloseable {
+		private final long startTime = nanoTime();
+
+		private boolean closed;
+
+		Batch() {
+			// Only instantiated by FileSystem.beginBatch()
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * <p>Makes all metadata updates made so far durable, unless the
+		 * {@linkplain FileSystem#getDurabilityPolicy() durability policy}
+		 * is {@linkplain DurabilityPolicy.Mode#ASYNC asynchronous}.
+		 * Closing a batch more than once has no effect.</p>
+		 *
+		 * @see AutoCloseable#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+
+			try {
+				if (FileSystem.this.durabilityPolicy.getMode() != Mode.ASYNC) {
+					FileSystem.this.sync();
+				}
+			} finally {
+				FileSystem.this.batchLatency.record(nanoTime() - this.startTime);
+			}
+		}
+	}
+
+	/**
+	 * <p>A metadata update, see {@link FileSystem#update(MetadataUpdate)}.
+	 * </p>
+	 */
+	@FunctionalInterface
+	interface MetadataUpdate {
+		/**
+		 * @throws IOException if an I/O error occurs.
+		 */
+		void apply() throws IOException;
+	}
+
+	/**
+	 * <p>Sequentially reads the (mapped) inode table, taking the metadata
+	 * updates which are not yet checkpointed into account.</p>
+	 */
+	private final class InodeTableReader {
+		@Nonnull
+		private final ByteBuffer inodeTable;
+
+		private final byte blockAddressSize;
+
+		/**
+		 * The journal pages within the inode table, in ascending order.
+		 */
+		@Nonnull
+		private final long dirtyPages[];
+
+		private int dirtyPageIndex;
+
+		InodeTableReader(final ByteBuffer inodeTable) {
+			this.inodeTable = inodeTable;
+			this.blockAddressSize = FileSystem.this.getBlockAddressSize();
+
+			final Journal journal0 = FileSystem.this.journal;
+			this.dirtyPages = journal0 == null
+					? new long[0]
+					: journal0.getDirtyPages(FileSystem.this.getBootSectorSize(), inodeTable.limit());
+		}
+
+		/**
+		 * @return the id of the block whose inode will be read next.
+		 */
+		long getBlockId() {
+			return this.inodeTable.position() / this.blockAddressSize;
+		}
+
+		long next() throws IOException {
+			if (this.dirtyPageIndex < this.dirtyPages.length) {
+				final long start = FileSystem.this.getBootSectorSize() + this.inodeTable.position();
+				final long end = start + this.blockAddressSize;
+				while (this.dirtyPageIndex < this.dirtyPages.length
+						&& (this.dirtyPages[this.dirtyPageIndex] + 1) * Journal.PAGE_SIZE <= start) {
+					this.dirtyPageIndex++;
+				}
+				if (this.dirtyPageIndex < this.dirtyPages.length
+						&& this.dirtyPages[this.dirtyPageIndex] * Journal.PAGE_SIZE < end) {
+					this.inodeTable.position(this.inodeTable.position() + this.blockAddressSize);
+					return FileSystem.this.readInode(FileSystem.this.readMetadata(start, this.blockAddressSize));
+				}
+			}
 
-			assert this.channel.position() == bootSectorSize + this.getInodeTableSize();
+			return FileSystem.this.readInode(this.inodeTable);
 		}
 	}
 }
@@ -4,29 +4,20 @@
 package com.github.unix_junkie.javafs;
 
 import static com.github.unix_junkie.javafs.FileType.DIRECTORY;
-import static com.github.unix_junkie.javafs.FileUtilities.getGid;
-import static com.github.unix_junkie.javafs.FileUtilities.getNlinks;
-import static com.github.unix_junkie.javafs.FileUtilities.getPosixAttributes;
-import static com.github.unix_junkie.javafs.FileUtilities.getUid;
 import static com.github.unix_junkie.javafs.FileUtilities.gidToString;
 import static com.github.unix_junkie.javafs.FileUtilities.uidToString;
 import static java.lang.Math.min;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.Files.readAttributes;
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.MappedByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.CharacterCodingException;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -42,11 +33,12 @@ import javax.annotation.Nullable;
  */
 public abstract class FileSystemEntry {
 	/**
-	 * Consists of the following:
+	 * The fixed-length (v1.0) encoding consists of the following:
 	 * <ul>
 	 * <li>4 bytes: the complete length of the entry itself, including file name,</li>
-	 * <li>4 bits: file type (4 bits),</li>
-	 * <li>12 bits: POSIX attributes (12 bits),</li>
+	 * <li>1 bit: {@linkplain #INLINE_DATA_FLAG inline data} flag,</li>
+	 * <li>3 bits: file type,</li>
+	 * <li>12 bits: POSIX attributes,</li>
 	 * <li>1 byte: nlinks,</li>
 	 * <li>2 bytes: uid,</li>
 	 * <li>2 bytes: gid,</li>
@@ -55,11 +47,58 @@ public abstract class FileSystemEntry {
 	 * <li>8 bytes: mtime,</li>
 	 * <li>8 bytes: atime.</li>
 	 * </ul>
+	 * The name follows, and then, for inline entries, the contents.
 	 */
 	private static byte NAME_OFFSET = 43;
 
 	static byte SIZE_OFFSET = 11;
 
+	/**
+	 * Set in the type and attributes field if the entry contents are
+	 * stored right after its name, see {@link Feature#INLINE_DATA}.
+	 */
+	private static final int INLINE_DATA_FLAG = 0x8000;
+
+	/**
+	 * {@link FileType#values()} clones the array on each call.
+	 */
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final FileType TYPES[] = FileType.values();
+
+	/**
+	 * The {@linkplain Feature#COMPACT_METADATA compact} (v1.1) encoding
+	 * consists of the following:
+	 * <ul>
+	 * <li>varint: the length of the rest of the entry, including file name,</li>
+	 * <li>2 bytes: flag, file type and POSIX attributes (as above),</li>
+	 * <li>1 byte: nlinks,</li>
+	 * <li>2 bytes: uid,</li>
+	 * <li>2 bytes: gid,</li>
+	 * <li>varint: file size, always {@value #DIRECTORY_SIZE_LENGTH} bytes
+	 * long for directories,</li>
+	 * <li>signed varint: ctime, relative to the {@linkplain #baseTime base
+	 * time},</li>
+	 * <li>signed varint: mtime, likewise,</li>
+	 * <li>signed varint: atime, likewise.</li>
+	 * </ul>
+	 * The name and the inline contents follow, as above.
+	 */
+	static final byte COMPACT_SIZE_OFFSET = 7;
+
+	/**
+	 * Directory sizes change as children are added and removed, so, in
+	 * the compact encoding, they are padded to the width of the largest
+	 * size and updated in place.
+	 */
+	static final int DIRECTORY_SIZE_LENGTH = 9;
+
+	/**
+	 * The {@linkplain #baseTime base time} of entries in the fixed-length
+	 * encoding.
+	 */
+	static final long NO_BASE_TIME = Long.MIN_VALUE;
+
 	@Nonnull
 	private final PosixAttributes attributes;
 
@@ -117,6 +156,21 @@ public abstract class FileSystemEntry {
 	 */
 	protected long firstBlockId = -1;
 
+	/**
+	 * <p>The contents of an {@linkplain Feature#INLINE_DATA inline} entry,
+	 * or {@code null} if the contents are stored in data blocks (or the
+	 * entry is detached).</p>
+	 */
+	@Nullable
+	private ByteBuffer inlineData;
+
+	/**
+	 * <p>The time the timestamps of this entry are encoded relative to
+	 * (the creation time of the parent directory), or {@link #NO_BASE_TIME}
+	 * if the entry uses the fixed-length encoding.</p>
+	 */
+	private long baseTime = NO_BASE_TIME;
+
 	/**
 	 * <p>Creates a detached file system entry, using an existing {@code
 	 * path} at the external file system.</p>
@@ -125,24 +179,36 @@ public abstract class FileSystemEntry {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	protected FileSystemEntry(final Path source) throws IOException {
-		final BasicFileAttributes attrs = readAttributes(source, BasicFileAttributes.class, NOFOLLOW_LINKS);
-		if (attrs.isOther()) {
+		this(source, HostAttributes.read(source));
+	}
+
+	/**
+	 * <p>Creates a detached file system entry from the attributes of an
+	 * existing {@code path} at the external file system, read in advance.
+	 * </p>
+	 *
+	 * @param source the source of this entry at the external file system.
+	 * @param attrs the attributes of {@code source}.
+	 * @throws IOException if {@code source} is of a different type.
+	 */
+	FileSystemEntry(final Path source, final HostAttributes attrs) throws IOException {
+		if (attrs.other) {
 			throw new IllegalArgumentException(source + " is either a socket or a device");
 		}
 
 		final FileType type = this.getType();
-		final FileType sourceType = FileUtilities.getType(source);
+		final FileType sourceType = attrs.type;
 		if (type != sourceType) {
 			throw new IOException(format("Attempting to construct a %s from %s", type, sourceType));
 		}
 
-		this.attributes = getPosixAttributes(source);
-		this.numberOfLinks = getNlinks(source);
-		this.uid = getUid(source);
-		this.gid = getGid(source);
-		this.creationTime = new Date(attrs.creationTime().toMillis());
-		this.modificationTime = new Date(attrs.lastModifiedTime().toMillis());
-		this.accessTime = new Date(attrs.lastAccessTime().toMillis());
+		this.attributes = attrs.attributes;
+		this.numberOfLinks = attrs.numberOfLinks;
+		this.uid = attrs.uid;
+		this.gid = attrs.gid;
+		this.creationTime = new Date(attrs.creationTime);
+		this.modificationTime = new Date(attrs.modificationTime);
+		this.accessTime = new Date(attrs.accessTime);
 		@Nonnull
 		@SuppressWarnings("null")
 		final String fileName = source.getFileName().toString();
@@ -151,6 +217,28 @@ public abstract class FileSystemEntry {
 		this.source = source;
 	}
 
+	/**
+	 * <p>Creates a detached entry of the appropriate type from an
+	 * existing {@code path} at the external file system, reading all of
+	 * its attributes at once.</p>
+	 *
+	 * @param source the source of the entry at the external file system.
+	 * @return the new entry.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static FileSystemEntry fromHost(final Path source) throws IOException {
+		final HostAttributes attrs = HostAttributes.read(source);
+		switch (attrs.type) {
+		case DIRECTORY:
+			return new Directory(source, attrs);
+		case FILE:
+			return new File(source, attrs);
+		case SYMBOLIC_LINK:
+		default:
+			return new SymbolicLink(source, attrs);
+		}
+	}
+
 	/**
 	 * <p>Creates a detached file system entry from the complete metadata.
 	 * </p>
@@ -218,35 +306,168 @@ public abstract class FileSystemEntry {
 	}
 
 	static FileSystemEntry readMetadataFrom(final ByteBuffer source) throws IOException {
+		return readMetadataFrom(source, NO_BASE_TIME);
+	}
+
+	/**
+	 * @param source the buffer to read the entry from.
+	 * @param baseTime the creation time of the parent directory if the
+	 *        entry is in the compact encoding, or {@link #NO_BASE_TIME}.
+	 * @return the entry read.
+	 * @throws IOException if the entry can't be decoded.
+	 */
+	static FileSystemEntry readMetadataFrom(final ByteBuffer source, final long baseTime) throws IOException {
+		final boolean compact = baseTime != NO_BASE_TIME;
 		final int oldPosition = source.position();
 
-		final int dataLength = source.getInt();
+		final int dataLength = compact ? (int) Varint.get(source) : source.getInt();
+		final int lengthLength = source.position() - oldPosition;
 		final short typeAndAttributes = source.getShort();
 		@Nonnull
 		@SuppressWarnings("null")
-		final FileType type = FileType.values()[typeAndAttributes >> 12];
+		final FileType type = TYPES[typeAndAttributes >> 12 & 0x7];
+		final boolean inline = (typeAndAttributes & INLINE_DATA_FLAG) != 0;
 		final PosixAttributes attributes = new PosixAttributes((short) (typeAndAttributes & 0x0FFF));
 		final byte numberOfLinks = source.get();
 		final short uid = source.getShort();
 		final short gid = source.getShort();
-		final long size = source.getLong();
-		final Date creationTime = new Date(source.getLong());
-		final Date modificationTime = new Date(source.getLong());
-		final Date accessTime = new Date(source.getLong());
+		final long size = compact ? Varint.get(source) : source.getLong();
+		final Date creationTime = new Date(compact ? baseTime + Varint.getSigned(source) : source.getLong());
+		final Date modificationTime = new Date(compact ? baseTime + Varint.getSigned(source) : source.getLong());
+		final Date accessTime = new Date(compact ? baseTime + Varint.getSigned(source) : source.getLong());
 
-		final int newPosition = source.position();
-		assert newPosition - oldPosition == NAME_OFFSET : newPosition - oldPosition;
+		final int headerLength = source.position() - oldPosition;
+		assert compact || headerLength == NAME_OFFSET : headerLength;
 
-		final byte encodedName0[] = new byte[dataLength - NAME_OFFSET];
+		/*
+		 * The compact length doesn't include the length itself.
+		 */
+		final int nameAndDataLength = compact
+				? dataLength - (headerLength - lengthLength)
+				: dataLength - NAME_OFFSET;
+		final int inlineDataLength = inline ? (int) size : 0;
+		final byte encodedName0[] = new byte[nameAndDataLength - inlineDataLength];
 		source.get(encodedName0);
 		final ByteBuffer encodedName = ByteBuffer.wrap(encodedName0);
 		@Nonnull
 		@SuppressWarnings("null")
 		final String name = UTF_8.newDecoder().decode(encodedName).toString();
 
-		return newInstance(type, attributes, numberOfLinks, uid,
+		final FileSystemEntry entry = newInstance(type, attributes, numberOfLinks, uid,
 				gid, size, creationTime, modificationTime,
 				accessTime, name, encodedName);
+		if (inline) {
+			final byte inlineData0[] = new byte[inlineDataLength];
+			source.get(inlineData0);
+			entry.inlineData = ByteBuffer.wrap(inlineData0);
+		}
+		entry.baseTime = baseTime;
+		return entry;
+	}
+
+	/**
+	 * <p>Decodes the attributes of an entry straight into a row of {@code
+	 * destination}, without creating the entry itself; the counterpart of
+	 * {@link #readMetadataFrom(ByteBuffer, long)} for bulk listings.</p>
+	 *
+	 * @param source the buffer to read the entry from, which is advanced
+	 *        past the entry (including any inline contents).
+	 * @param baseTime the creation time of the parent directory if the
+	 *        entry is in the compact encoding, or {@link #NO_BASE_TIME}.
+	 * @param inode the first block of the entry.
+	 * @param destination the buffer to append the row to.
+	 * @throws IOException if the entry can't be decoded.
+	 */
+	static void readStatFrom(final ByteBuffer source, final long baseTime,
+			final long inode, final StatBuffer destination) throws IOException {
+		final boolean compact = baseTime != NO_BASE_TIME;
+		final int oldPosition = source.position();
+
+		final int dataLength = compact ? (int) Varint.get(source) : source.getInt();
+		final int lengthLength = source.position() - oldPosition;
+		final short typeAndAttributes = source.getShort();
+		@Nonnull
+		@SuppressWarnings("null")
+		final FileType type = TYPES[typeAndAttributes >> 12 & 0x7];
+		final boolean inline = (typeAndAttributes & INLINE_DATA_FLAG) != 0;
+		final byte numberOfLinks = source.get();
+		final short uid = source.getShort();
+		final short gid = source.getShort();
+		final long size = compact ? Varint.get(source) : source.getLong();
+		final long creationTime = compact ? baseTime + Varint.getSigned(source) : source.getLong();
+		final long modificationTime = compact ? baseTime + Varint.getSigned(source) : source.getLong();
+		final long accessTime = compact ? baseTime + Varint.getSigned(source) : source.getLong();
+
+		final int headerLength = source.position() - oldPosition;
+		final int nameAndDataLength = compact
+				? dataLength - (headerLength - lengthLength)
+				: dataLength - NAME_OFFSET;
+		final int inlineDataLength = inline ? (int) size : 0;
+		destination.add(type, (short) (typeAndAttributes & 0x0FFF), numberOfLinks,
+				uid, gid, size,
+				creationTime, modificationTime, accessTime,
+				inode,
+				source, nameAndDataLength - inlineDataLength);
+		source.position(source.position() + inlineDataLength);
+	}
+
+	/**
+	 * @param source the buffer positioned at the entry (past its address),
+	 *        which remains unchanged.
+	 * @param baseTime the base time the entry is encoded with, or {@link
+	 *        #NO_BASE_TIME}.
+	 * @return the number of bytes the entry occupies.
+	 * @throws IOException if the entry can't be decoded.
+	 */
+	static int getMetadataSize(final ByteBuffer source, final long baseTime) throws IOException {
+		if (baseTime == NO_BASE_TIME) {
+			return source.getInt(source.position());
+		}
+
+		final ByteBuffer length = source.duplicate();
+		final int compactLength = (int) Varint.get(length);
+		return length.position() - source.position() + compactLength;
+	}
+
+	/**
+	 * @param source the buffer positioned at the entry (past its address),
+	 *        which remains unchanged.
+	 * @param baseTime the base time the entry is encoded with, or {@link
+	 *        #NO_BASE_TIME}.
+	 * @return the offset of the size within the entry.
+	 * @throws IOException if the entry can't be decoded.
+	 * @see #encodeDirectorySize(long, long)
+	 */
+	static int getSizeOffset(final ByteBuffer source, final long baseTime) throws IOException {
+		if (baseTime == NO_BASE_TIME) {
+			return SIZE_OFFSET;
+		}
+
+		final ByteBuffer length = source.duplicate();
+		Varint.get(length);
+		return length.position() - source.position() + COMPACT_SIZE_OFFSET;
+	}
+
+	/**
+	 * @param size the directory size.
+	 * @param baseTime the base time the directory entry is encoded with,
+	 *        or {@link #NO_BASE_TIME}.
+	 * @return {@code size}, encoded so that it can overwrite the size of
+	 *         a directory entry in place.
+	 * @see #getSizeOffset(ByteBuffer, long)
+	 */
+	static ByteBuffer encodeDirectorySize(final long size, final long baseTime) {
+		final boolean compact = baseTime != NO_BASE_TIME;
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer encodedSize = ByteBuffer.allocate(compact ? DIRECTORY_SIZE_LENGTH : 8);
+		if (compact) {
+			Varint.put(encodedSize, size, DIRECTORY_SIZE_LENGTH);
+		} else {
+			encodedSize.putLong(size);
+		}
+		encodedSize.flip();
+		return encodedSize;
 	}
 
 	final void writeMetadataTo(final ByteBuffer destination) throws IOException {
@@ -256,21 +477,40 @@ public abstract class FileSystemEntry {
 		 */
 		final int oldPosition = destination.position();
 
-		destination.putInt(this.getMetadataSize());
-		final short typeAndAttributes = (short) ((short) (this.getType().ordinal() << 12) | this.attributes.getValue());
+		final boolean compact = this.baseTime != NO_BASE_TIME;
+		if (compact) {
+			Varint.put(destination, this.getCompactLength());
+		} else {
+			destination.putInt(this.getMetadataSize());
+		}
+		final ByteBuffer inlineData0 = this.inlineData;
+		final short typeAndAttributes = (short) ((short) (this.getType().ordinal() << 12)
+				| this.attributes.getValue()
+				| (inlineData0 == null ? 0 : INLINE_DATA_FLAG));
 		destination.putShort(typeAndAttributes);
 		destination.put(this.numberOfLinks);
 		destination.putShort(this.uid);
 		destination.putShort(this.gid);
-		destination.putLong(this.dataSize);
-		destination.putLong(this.creationTime.getTime());
-		destination.putLong(this.modificationTime.getTime());
-		destination.putLong(this.accessTime.getTime());
-
-		final int newPosition = destination.position();
-		assert newPosition - oldPosition == NAME_OFFSET : newPosition - oldPosition;
+		if (compact) {
+			Varint.put(destination, this.dataSize, this.getCompactSizeLength());
+			Varint.putSigned(destination, this.creationTime.getTime() - this.baseTime);
+			Varint.putSigned(destination, this.modificationTime.getTime() - this.baseTime);
+			Varint.putSigned(destination, this.accessTime.getTime() - this.baseTime);
+		} else {
+			destination.putLong(this.dataSize);
+			destination.putLong(this.creationTime.getTime());
+			destination.putLong(this.modificationTime.getTime());
+			destination.putLong(this.accessTime.getTime());
+
+			final int newPosition = destination.position();
+			assert newPosition - oldPosition == NAME_OFFSET : newPosition - oldPosition;
+		}
 
 		destination.put(this.getEncodedName());
+		if (inlineData0 != null) {
+			destination.put(inlineData0.duplicate());
+		}
+		assert destination.position() - oldPosition == this.getMetadataSize() : destination.position() - oldPosition;
 	}
 
 	/**
@@ -288,25 +528,38 @@ public abstract class FileSystemEntry {
 	 * @see #writeData()
 	 */
 	private void writeDataTo(final ByteBuffer destination) throws IOException {
-		this.requireNotDetached();
-
-		final List<MappedByteBuffer> blocks = this.fileSystem.mapBlocks(this.firstBlockId);
-
-		if (destination.limit() - destination.position() == 0) {
-			/*
-			 * Empty file.
-			 */
-			assert blocks.size() == 1;
-			return;
+		try (final SeekableByteChannel channel = this.newByteChannel()) {
+			while (destination.hasRemaining() && channel.read(destination) != -1) {
+				// empty
+			}
 		}
+	}
 
-		final int remainder = (int) (this.dataSize % this.fileSystem.getBlockSize().getLength());
-		if (remainder != 0) {
-			blocks.get(blocks.size() - 1).limit(remainder);
-		}
-		for (final MappedByteBuffer block : blocks) {
-			destination.put(block);
-		}
+	/**
+	 * <p>Opens a read-only channel over the contents of this entry. As
+	 * long as the channel is read sequentially, the blocks ahead of the
+	 * current position are prefetched in background.</p>
+	 *
+	 * <p>The channel reflects the contents of this entry as of the moment
+	 * the channel is opened; it is not thread-safe.</p>
+	 *
+	 * <p>For {@linkplain #isInline() inline} entries, the channel is
+	 * backed by the contents read along with the directory entry.</p>
+	 *
+	 * @return the channel to read this entry contents from.
+	 * @throws IllegalStateException if this entry is detached.
+	 * @see #getData()
+	 */
+	public final SeekableByteChannel newByteChannel() {
+		this.requireNotDetached();
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final FileSystem fileSystem0 = this.fileSystem;
+		final ByteBuffer inlineData0 = this.inlineData;
+		return inlineData0 == null
+				? new EntryChannel(fileSystem0, this.firstBlockId, this.dataSize)
+				: new EntryChannel(fileSystem0, inlineData0);
 	}
 
 	/**
@@ -320,6 +573,50 @@ public abstract class FileSystemEntry {
 	 */
 	protected abstract void writeData() throws IOException;
 
+	/**
+	 * <p>Writes this entry contents, either to the blocks allocated, or, for
+	 * an {@linkplain #isInline() inline} entry, to the buffer which is then
+	 * written along with the metadata.</p>
+	 *
+	 * @param contents the contents.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #writeData()
+	 */
+	protected final void writeContents(final ByteBuffer contents) throws IOException {
+		final ByteBuffer inlineData0 = this.inlineData;
+		if (inlineData0 == null) {
+			this.fileSystem.writeTo(this.firstBlockId, contents);
+			return;
+		}
+
+		final ByteBuffer chunk = contents.duplicate();
+		chunk.limit(chunk.position() + min(chunk.remaining(), inlineData0.capacity()));
+		inlineData0.duplicate().put(chunk);
+	}
+
+	/**
+	 * <p>Writes this entry contents, either to the blocks allocated, or, for
+	 * an {@linkplain #isInline() inline} entry, to the buffer which is then
+	 * written along with the metadata.</p>
+	 *
+	 * @param contents the channel to read the contents from, until either
+	 *        the entry size is reached or end-of-stream.
+	 * @throws IOException if an I/O error occurs.
+	 * @see #writeData()
+	 */
+	protected final void writeContents(final ReadableByteChannel contents) throws IOException {
+		final ByteBuffer inlineData0 = this.inlineData;
+		if (inlineData0 == null) {
+			this.fileSystem.writeTo(this.firstBlockId, contents);
+			return;
+		}
+
+		final ByteBuffer destination = inlineData0.duplicate();
+		while (destination.hasRemaining() && contents.read(destination) != -1) {
+			// empty
+		}
+	}
+
 	/**
 	 * @return the type of this entry.
 	 */
@@ -350,6 +647,63 @@ public abstract class FileSystemEntry {
 		return this.dataSize;
 	}
 
+	/**
+	 * @return the POSIX attributes of this entry.
+	 */
+	public final PosixAttributes getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * @return the number of hard links.
+	 */
+	public final byte getNumberOfLinks() {
+		return this.numberOfLinks;
+	}
+
+	/**
+	 * @return the owner Id (UID).
+	 */
+	public final short getUid() {
+		return this.uid;
+	}
+
+	/**
+	 * @return the group Id (GID).
+	 */
+	public final short getGid() {
+		return this.gid;
+	}
+
+	/**
+	 * @return the creation time.
+	 */
+	public final Date getCreationTime() {
+		return new Date(this.creationTime.getTime());
+	}
+
+	/**
+	 * @return the modification time.
+	 */
+	public final Date getModificationTime() {
+		return new Date(this.modificationTime.getTime());
+	}
+
+	/**
+	 * @return the access time.
+	 */
+	public final Date getAccessTime() {
+		return new Date(this.accessTime.getTime());
+	}
+
+	/**
+	 * @return the first block id of this entry in the inode table, or -1
+	 *         for detached entries.
+	 */
+	final long getFirstBlockId() {
+		return this.firstBlockId;
+	}
+
 	/**
 	 * @return the name of this file system entry w/o the directory part
 	 *         (the <em>basename</em>).
@@ -364,7 +718,64 @@ public abstract class FileSystemEntry {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	final int getMetadataSize() throws IOException {
-		return NAME_OFFSET + this.getEncodedName().limit();
+		if (this.baseTime != NO_BASE_TIME) {
+			final int compactLength = this.getCompactLength();
+			return Varint.getLength(compactLength) + compactLength;
+		}
+
+		final ByteBuffer inlineData0 = this.inlineData;
+		return NAME_OFFSET + this.getEncodedName().limit() + (inlineData0 == null ? 0 : inlineData0.capacity());
+	}
+
+	/**
+	 * @return the length of this entry in the compact encoding, w/o the
+	 *         length itself.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private int getCompactLength() throws IOException {
+		final ByteBuffer inlineData0 = this.inlineData;
+		return COMPACT_SIZE_OFFSET
+				+ this.getCompactSizeLength()
+				+ Varint.getSignedLength(this.creationTime.getTime() - this.baseTime)
+				+ Varint.getSignedLength(this.modificationTime.getTime() - this.baseTime)
+				+ Varint.getSignedLength(this.accessTime.getTime() - this.baseTime)
+				+ this.getEncodedName().limit()
+				+ (inlineData0 == null ? 0 : inlineData0.capacity());
+	}
+
+	private int getCompactSizeLength() {
+		return this instanceof Directory ? DIRECTORY_SIZE_LENGTH : Varint.getLength(this.dataSize);
+	}
+
+	/**
+	 * <p>Chooses the encoding this (detached) entry is to be written with
+	 * once added to a directory.</p>
+	 *
+	 * @param baseTime the creation time of the parent directory for the
+	 *        compact encoding, or {@link #NO_BASE_TIME} for the
+	 *        fixed-length one.
+	 */
+	final void setBaseTime(final long baseTime) {
+		this.baseTime = baseTime;
+	}
+
+	/**
+	 * @return whether the contents of this entry are stored in its parent
+	 *         directory entry rather than in data blocks of their own.
+	 * @see Feature#INLINE_DATA
+	 */
+	public final boolean isInline() {
+		return this.inlineData != null;
+	}
+
+	/**
+	 * <p>Makes this (detached) entry store its contents inline, once added
+	 * to a directory, or reverts it to storing the contents in blocks.</p>
+	 *
+	 * @param inline whether the contents are to be stored inline.
+	 */
+	final void setInline(final boolean inline) {
+		this.inlineData = inline ? ByteBuffer.allocate((int) this.dataSize) : null;
 	}
 
 	/**
@@ -375,6 +786,10 @@ public abstract class FileSystemEntry {
 	public final long getBlockCount() {
 		this.requireNotDetached();
 
+		if (this.inlineData != null) {
+			return 0L;
+		}
+
 		final int blockSize = this.fileSystem.getBlockSize().getLength();
 		return FileUtilities.getBlockCount(this.dataSize, blockSize);
 	}
@@ -386,16 +801,14 @@ public abstract class FileSystemEntry {
 	 */
 	@Override
 	public String toString() {
-		final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
 		final StringBuilder builder = new StringBuilder();
 		builder.append(this.getType().getType());
-		builder.append(this.attributes).append(' ');
+		PosixAttributes.appendTo(builder, this.attributes.getValue()).append(' ');
 		builder.append(this.numberOfLinks).append(' ');
 		builder.append(uidToString(this.uid)).append(' ');
 		builder.append(gidToString(this.gid)).append(' ');
 		builder.append(this.dataSize).append(' ');
-		builder.append(dateFormat.format(this.modificationTime)).append(' ');
+		new StatFormatter().appendDate(this.modificationTime.getTime(), builder).append(' ');
 		/*
 		 * Root directory has an empty name.
 		 */
@@ -414,13 +827,29 @@ public abstract class FileSystemEntry {
 		this.firstBlockId = firstBlockId;
 	}
 
+	/**
+	 * @return the name of this entry, UTF-8 encoded.
+	 * @throws CharacterCodingException if the name can't be encoded.
+	 */
 	@SuppressWarnings("null")
-	private ByteBuffer getEncodedName() throws CharacterCodingException {
-		return (ByteBuffer) (this.encodedName == null
-				? this.encodedName = UTF_8.newEncoder().encode(CharBuffer.wrap(this.name))
+	final ByteBuffer getEncodedName() throws CharacterCodingException {
+		return (this.encodedName == null
+				? this.encodedName = encodeName(this.name)
 				: this.encodedName).position(0);
 	}
 
+	/**
+	 * @param name the name of an entry.
+	 * @return {@code name}, UTF-8 encoded.
+	 * @throws CharacterCodingException if {@code name} can't be encoded.
+	 */
+	static ByteBuffer encodeName(final String name) throws CharacterCodingException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer encodedName = UTF_8.newEncoder().encode(CharBuffer.wrap(name));
+		return encodedName;
+	}
+
 	private static String validateName(final String name, final FileType type) {
 		if (name.indexOf('/') != -1 || name.indexOf('\0') != -1) {
 			/*
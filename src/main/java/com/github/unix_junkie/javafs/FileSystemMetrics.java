@@ -0,0 +1,357 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+import static java.util.logging.Level.WARNING;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Operation counters and latency histograms of a single mounted file
+ * system. Updating a counter costs a {@link LongAdder} increment, so the
+ * metrics are always on.</p>
+ *
+ * <p>While the file system is mounted, its metrics are also available via
+ * JMX, see {@link FileSystemMetricsMXBean}.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#getMetrics()
+ */
+public final class FileSystemMetrics implements FileSystemMetricsMXBean {
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final Logger LOGGER = Logger.getLogger(FileSystemMetrics.class.getName());
+
+	/**
+	 * The JMX domain file system metrics are registered under.
+	 */
+	public static final String DOMAIN = "com.github.unix_junkie.javafs";
+
+	/**
+	 * <p>The operations whose latencies are recorded.</p>
+	 */
+	public enum Operation {
+		/**
+		 * Creating or mounting the file system.
+		 */
+		MOUNT,
+		/**
+		 * Allocating a chain of blocks.
+		 */
+		ALLOCATE,
+		/**
+		 * Freeing a chain of blocks.
+		 */
+		FREE,
+		/**
+		 * Mapping a chain of blocks into memory.
+		 */
+		MAP,
+		/**
+		 * Adding a directory entry.
+		 */
+		ADD_CHILD,
+		/**
+		 * Removing a directory entry.
+		 */
+		UNLINK,
+		/**
+		 * Listing a directory.
+		 */
+		LIST,
+	}
+
+	@Nonnull
+	private final String path;
+
+	@Nonnull
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+	@Nonnull
+	private final LongAdder bytesRead = new LongAdder();
+
+	@Nonnull
+	private final LongAdder bytesWritten = new LongAdder();
+
+	@Nonnull
+	private final LongAdder mapCount = new LongAdder();
+
+	@Nonnull
+	private final LongAdder inodeReadCount = new LongAdder();
+
+	@Nonnull
+	private final LongAdder inodeWriteCount = new LongAdder();
+
+	@Nonnull
+	private final LongAdder tableScanCount = new LongAdder();
+
+	@Nonnull
+	private final LongAdder scannedInodeCount = new LongAdder();
+
+	/**
+	 * The name this instance is registered under, or {@code null} if not
+	 * registered.
+	 */
+	@Nullable
+	private ObjectName objectName;
+
+	/**
+	 * @param path the absolute path of the file system container, or the
+	 *        name of an in-memory file system.
+	 */
+	FileSystemMetrics(final String path) {
+		this.path = path;
+		for (final Operation operation : Operation.values()) {
+			this.latencies.put(operation, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @param operation the operation.
+	 * @return the latencies of {@code operation}.
+	 */
+	public LatencyHistogram getLatency(final Operation operation) {
+		@Nonnull
+		@SuppressWarnings("null")
+		final LatencyHistogram latency = this.latencies.get(operation);
+		return latency;
+	}
+
+	void record(final Operation operation, final long nanos) {
+		this.getLatency(operation).record(nanos);
+	}
+
+	void addBytesRead(final long n) {
+		this.bytesRead.add(n);
+	}
+
+	void addBytesWritten(final long n) {
+		this.bytesWritten.add(n);
+	}
+
+	void onMap() {
+		this.mapCount.increment();
+	}
+
+	void onInodeRead() {
+		this.inodeReadCount.increment();
+	}
+
+	void onInodeWrite() {
+		this.inodeWriteCount.increment();
+	}
+
+	void onTableScan() {
+		this.tableScanCount.increment();
+	}
+
+	void addScannedInodes(final long n) {
+		this.scannedInodeCount.add(n);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getPath()
+	 */
+	@Override
+	public String getPath() {
+		return this.path;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getOperations()
+	 */
+	@Override
+	public Map<String, OperationStatistics> getOperations() {
+		final Map<String, OperationStatistics> operations = new LinkedHashMap<>();
+		for (final Operation operation : Operation.values()) {
+			operations.put(operation.name(), OperationStatistics.of(this.getLatency(operation)));
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final Map<String, OperationStatistics> unmodifiableOperations = Collections.unmodifiableMap(operations);
+		return unmodifiableOperations;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getBytesRead()
+	 */
+	@Override
+	public long getBytesRead() {
+		return this.bytesRead.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getBytesWritten()
+	 */
+	@Override
+	public long getBytesWritten() {
+		return this.bytesWritten.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getMapCount()
+	 */
+	@Override
+	public long getMapCount() {
+		return this.mapCount.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getInodeReadCount()
+	 */
+	@Override
+	public long getInodeReadCount() {
+		return this.inodeReadCount.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getInodeWriteCount()
+	 */
+	@Override
+	public long getInodeWriteCount() {
+		return this.inodeWriteCount.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getTableScanCount()
+	 */
+	@Override
+	public long getTableScanCount() {
+		return this.tableScanCount.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#getScannedInodeCount()
+	 */
+	@Override
+	public long getScannedInodeCount() {
+		return this.scannedInodeCount.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemMetricsMXBean#reset()
+	 */
+	@Override
+	public void reset() {
+		this.latencies.values().forEach(LatencyHistogram::reset);
+		this.bytesRead.reset();
+		this.bytesWritten.reset();
+		this.mapCount.reset();
+		this.inodeReadCount.reset();
+		this.inodeWriteCount.reset();
+		this.tableScanCount.reset();
+		this.scannedInodeCount.reset();
+	}
+
+	/**
+	 * @return the name this instance is registered under with the platform
+	 *         MBean server, or {@code null} if not registered.
+	 */
+	@Nullable
+	public synchronized ObjectName getObjectName() {
+		return this.objectName;
+	}
+
+	/**
+	 * <p>Registers this instance with the platform MBean server. If
+	 * another file system with the same container path is already
+	 * registered (i.e.: the same container is mounted twice), a warning
+	 * is logged and this instance is not registered.</p>
+	 */
+	synchronized void register() {
+		if (this.objectName != null) {
+			return;
+		}
+
+		try {
+			final ObjectName name = new ObjectName(format("%s:type=FileSystem,path=%s", DOMAIN, ObjectName.quote(this.path)));
+			getPlatformMBeanServer().registerMBean(this, name);
+			this.objectName = name;
+		} catch (final JMException jme) {
+			LOGGER.log(WARNING, format("Failed to register metrics of %s", this.path), jme);
+		}
+	}
+
+	synchronized void unregister() {
+		final ObjectName objectName0 = this.objectName;
+		if (objectName0 == null) {
+			return;
+		}
+
+		try {
+			getPlatformMBeanServer().unregisterMBean(objectName0);
+		} catch (final JMException jme) {
+			LOGGER.log(WARNING, format("Failed to unregister metrics of %s", this.path), jme);
+		} finally {
+			this.objectName = null;
+		}
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		for (final Operation operation : Operation.values()) {
+			final LatencyHistogram latency = this.getLatency(operation);
+			if (latency.getCount() != 0) {
+				builder.append(format("%s: %s%n", operation, latency));
+			}
+		}
+		builder.append(format("Bytes read: %d, written: %d; mmap calls: %d; inodes read: %d, written: %d; table scans: %d (%d inodes)",
+				Long.valueOf(this.getBytesRead()),
+				Long.valueOf(this.getBytesWritten()),
+				Long.valueOf(this.getMapCount()),
+				Long.valueOf(this.getInodeReadCount()),
+				Long.valueOf(this.getInodeWriteCount()),
+				Long.valueOf(this.getTableScanCount()),
+				Long.valueOf(this.getScannedInodeCount())));
+		@Nonnull
+		@SuppressWarnings("null")
+		final String s = builder.toString();
+		return s;
+	}
+
+	@Nonnull
+	private static MBeanServer getPlatformMBeanServer() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		return server;
+	}
+}
@@ -0,0 +1,70 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import java.util.Map;
+
+/**
+ * <p>The management interface of {@link FileSystemMetrics}. An instance is
+ * registered with the platform MBean server for each mounted file system,
+ * under the {@value FileSystemMetrics#DOMAIN}{@code :type=FileSystem,path=...}
+ * name.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#getMetrics()
+ */
+public interface FileSystemMetricsMXBean {
+	/**
+	 * @return the path of the file system container.
+	 */
+	String getPath();
+
+	/**
+	 * @return the statistics of each {@linkplain FileSystemMetrics.Operation
+	 *         operation}, keyed by operation name.
+	 */
+	Map<String, OperationStatistics> getOperations();
+
+	/**
+	 * @return the number of file contents bytes read.
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return the number of file contents bytes written.
+	 */
+	long getBytesWritten();
+
+	/**
+	 * @return the number of regions of the container mapped into memory.
+	 */
+	long getMapCount();
+
+	/**
+	 * @return the number of individual inode table entries read.
+	 */
+	long getInodeReadCount();
+
+	/**
+	 * @return the number of inode table entries written.
+	 */
+	long getInodeWriteCount();
+
+	/**
+	 * @return the number of full inode table scans (e.g.: calculating the
+	 *         free block count).
+	 */
+	long getTableScanCount();
+
+	/**
+	 * @return the number of inode table entries read sequentially, either
+	 *         by a full scan or while looking for free blocks.
+	 */
+	long getScannedInodeCount();
+
+	/**
+	 * <p>Resets all the counters and histograms.</p>
+	 */
+	void reset();
+}
@@ -0,0 +1,17 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+/**
+ * <p>An object that configures how a file system is created or mounted.
+ * Please see {@link Feature} for the options which are recorded in the file
+ * system container and thus can only be specified at creation time.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#create(java.nio.file.Path, long, BlockSize, FileSystemOption...)
+ * @see FileSystem#mount(java.nio.file.Path, FileSystemOption...)
+ */
+public interface FileSystemOption {
+	// empty
+}
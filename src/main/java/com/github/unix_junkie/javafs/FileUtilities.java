@@ -24,6 +24,7 @@ import static java.util.logging.Level.WARNING;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.attribute.UserPrincipal;
 import java.util.List;
@@ -31,6 +32,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -91,6 +93,36 @@ public abstract class FileUtilities {
 		}
 	}
 
+	/**
+	 * <p>Caches the names of the owner and the group of {@code path} for
+	 * {@link #uidToString(short)} and {@link #gidToString(short)}, unless
+	 * they're already known: unlike {@link #getUid(Path)} and {@link
+	 * #getGid(Path)}, names are only looked up once per distinct uid and
+	 * gid rather than once per file.</p>
+	 *
+	 * @param path the path.
+	 * @param uid the uid of the owner of {@code path}.
+	 * @param gid the gid of the owner of {@code path}.
+	 */
+	static void cacheOwnerNames(final Path path, final int uid, final int gid) {
+		try {
+			final Integer uid0 = Integer.valueOf(uid);
+			if (!USERS.containsKey(uid0)) {
+				USERS.putIfAbsent(uid0, ((UserPrincipal) getAttribute(path, "posix:owner", NOFOLLOW_LINKS)).getName());
+			}
+			final Integer gid0 = Integer.valueOf(gid);
+			if (!GROUPS.containsKey(gid0)) {
+				GROUPS.putIfAbsent(gid0, ((UserPrincipal) getAttribute(path, "posix:group", NOFOLLOW_LINKS)).getName());
+			}
+		} catch (final UnsupportedOperationException ignored) {
+			/*
+			 * Numeric ids will do.
+			 */
+		} catch (final IOException ioe) {
+			LOGGER.log(WARNING, "", ioe);
+		}
+	}
+
 	/**
 	 * @param path the path whose attributes are to be read.
 	 * @return the real (if possible) or fake POSIX attributes. Only the
@@ -123,7 +155,7 @@ public abstract class FileUtilities {
 	public static byte getNlinks(final Path path) throws IOException {
 		try {
 			final Map<String, Object> attributes = readAttributes(path, "unix:*", NOFOLLOW_LINKS);
-			final Integer nlinks = (Integer) attributes.get("nlinks");
+			final Integer nlinks = (Integer) attributes.get("nlink");
 			if (nlinks == null) {
 				LOGGER.info(format("unix:nlinks unavailable for %s; returning 1", path));
 				return 1;
@@ -198,6 +230,96 @@ public abstract class FileUtilities {
 				: blockCount + 1;
 	}
 
+	/**
+	 * <p>Reads from {@code channel} starting at {@code position} until
+	 * {@code destination} is full. The position of the channel is not
+	 * changed, so this method is safe for use by multiple concurrent
+	 * threads.</p>
+	 *
+	 * @param channel the channel to read from.
+	 * @param destination the buffer to fill.
+	 * @param position the file position to start reading at.
+	 * @throws IOException if the end of file is reached before {@code
+	 *         destination} is full, or any other I/O error occurs.
+	 */
+	static void readFully(final FileChannel channel, final ByteBuffer destination, final long position) throws IOException {
+		final int start = destination.position();
+		while (destination.hasRemaining()) {
+			if (channel.read(destination, position + destination.position() - start) == -1) {
+				throw new IOException(format("Unexpected end of file at %d", Long.valueOf(position + destination.position() - start)));
+			}
+		}
+	}
+
+	/**
+	 * <p>Writes the remaining bytes of {@code source} to {@code channel}
+	 * starting at {@code position}. The position of the channel is not
+	 * changed, so this method is safe for use by multiple concurrent
+	 * threads.</p>
+	 *
+	 * @param channel the channel to write to.
+	 * @param source the buffer to write.
+	 * @param position the file position to start writing at.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static void writeFully(final FileChannel channel, final ByteBuffer source, final long position) throws IOException {
+		final int start = source.position();
+		while (source.hasRemaining()) {
+			channel.write(source, position + source.position() - start);
+		}
+	}
+
+	/**
+	 * <p>Writes {@code value} to {@code destination} as an unsigned
+	 * variable-length integer: 7 bits per byte, least significant group
+	 * first, the most significant bit of each byte set if more bytes
+	 * follow.</p>
+	 *
+	 * @param destination the buffer to write the value to.
+	 * @param value the value to write; negative values occupy 10 bytes.
+	 * @see #getVarLong(ByteBuffer)
+	 * @see #getVarLongSize(long)
+	 */
+	static void putVarLong(final ByteBuffer destination, final long value) {
+		long remainder = value;
+		while ((remainder & ~0x7FL) != 0) {
+			destination.put((byte) (remainder & 0x7F | 0x80));
+			remainder >>>= 7;
+		}
+		destination.put((byte) remainder);
+	}
+
+	/**
+	 * <p>Reads an unsigned variable-length integer written by {@link
+	 * #putVarLong(ByteBuffer, long)}.</p>
+	 *
+	 * @param source the buffer to read the value from.
+	 * @return the value read.
+	 * @throws IllegalArgumentException if the encoded value is longer
+	 *         than 64 bits.
+	 */
+	static long getVarLong(final ByteBuffer source) {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = source.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer");
+	}
+
+	/**
+	 * @param value the value to be written.
+	 * @return how many bytes {@link #putVarLong(ByteBuffer, long)} will
+	 *         use to store {@code value} (1 to 10).
+	 */
+	static int getVarLongSize(final long value) {
+		final int significantBits = 64 - Long.numberOfLeadingZeros(value);
+		return significantBits == 0 ? 1 : (significantBits + 6) / 7;
+	}
+
 	/**
 	 * <p>Writes file contents to the previously allocated blocks.</p>
 	 *
@@ -250,4 +372,83 @@ public abstract class FileUtilities {
 			bytesToSkip = 0;
 		}
 	}
+
+	/**
+	 * <p>Converts a glob (as specified by {@link
+	 * java.nio.file.FileSystem#getPathMatcher(String)}) to a regular
+	 * expression: {@code *} and {@code ?} match within a single name,
+	 * {@code **} spans names, and bracket expressions, {@code {a,b}} groups
+	 * and {@code \} escapes are supported. Shell patterns matched against
+	 * a single name are a special case.</p>
+	 *
+	 * @param glob the glob.
+	 * @return the compiled regular expression.
+	 * @throws IllegalArgumentException if {@code glob} is malformed.
+	 */
+	public static Pattern globToPattern(final String glob) {
+		final StringBuilder regex = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[': {
+				final int end = glob.indexOf(']', i + 2);
+				if (end == -1) {
+					throw new IllegalArgumentException(format("Unterminated bracket expression: %s", glob));
+				}
+				final String expression = glob.substring(i + 1, end);
+				regex.append("[[^/]&&[");
+				regex.append(expression.startsWith("!") ? '^' + expression.substring(1) : expression);
+				regex.append("]]");
+				i = end;
+				break;
+			}
+			case '{':
+				if (inGroup) {
+					throw new IllegalArgumentException(format("Nested groups are not supported: %s", glob));
+				}
+				inGroup = true;
+				regex.append("(?:");
+				break;
+			case '}':
+				if (!inGroup) {
+					regex.append("\\}");
+				} else {
+					inGroup = false;
+					regex.append(')');
+				}
+				break;
+			case ',':
+				regex.append(inGroup ? "|" : ",");
+				break;
+			case '\\':
+				if (++i == glob.length()) {
+					throw new IllegalArgumentException(format("Trailing escape character: %s", glob));
+				}
+				regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+				break;
+			default:
+				regex.append(Pattern.quote(String.valueOf(c)));
+				break;
+			}
+		}
+		if (inGroup) {
+			throw new IllegalArgumentException(format("Unterminated group: %s", glob));
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+		return pattern;
+	}
 }
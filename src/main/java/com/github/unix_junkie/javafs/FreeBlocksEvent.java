@@ -0,0 +1,29 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A chain of blocks freed when a file system entry is removed.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@Name("com.github.unix_junkie.javafs.FreeBlocks")
+@Label("Free Blocks")
+@Description("A chain of blocks freed.")
+@Category({"javafs"})
+@Enabled(false)
+@StackTrace(false)
+final class FreeBlocksEvent extends Event {
+	@Label("Freed")
+	@Description("The number of blocks freed.")
+	long freed;
+}
@@ -0,0 +1,137 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.FileType.DIRECTORY;
+import static com.github.unix_junkie.javafs.FileType.FILE;
+import static com.github.unix_junkie.javafs.FileType.SYMBOLIC_LINK;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>All the attributes of a file at the external file system an entry is
+ * created from, harvested with a single {@code lstat(2)}.</p>
+ *
+ * <p>Reading the attributes one by one ({@link FileUtilities#getType(Path)},
+ * {@link FileUtilities#getUid(Path)}, etc.) costs a system call each, and
+ * also resolves the owner and group names for every file; here, the
+ * {@code unix} view is asked for everything but the names at once, and the
+ * names are {@linkplain FileUtilities#cacheOwnerNames(Path, int, int)
+ * resolved} once per distinct uid and gid. File systems with no {@code
+ * unix} view (Windows) fall back to the basic attributes.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class HostAttributes {
+	/**
+	 * The {@code unix} view attributes needed. Unlike {@code unix:*}, the
+	 * list excludes {@code owner} and {@code group}, which would be
+	 * resolved to names on every call.
+	 */
+	private static final String UNIX_ATTRIBUTES = "unix:mode,nlink,uid,gid,size,"
+			+ "creationTime,lastModifiedTime,lastAccessTime,"
+			+ "isDirectory,isSymbolicLink,isOther";
+
+	@Nonnull
+	final FileType type;
+
+	/**
+	 * Whether the file is a socket or a device.
+	 */
+	final boolean other;
+
+	@Nonnull
+	final PosixAttributes attributes;
+
+	final byte numberOfLinks;
+
+	final short uid;
+
+	final short gid;
+
+	final long size;
+
+	final long creationTime;
+
+	final long modificationTime;
+
+	final long accessTime;
+
+	private HostAttributes(final FileType type,
+			final boolean other,
+			final PosixAttributes attributes,
+			final byte numberOfLinks,
+			final short uid,
+			final short gid,
+			final long size,
+			final long creationTime,
+			final long modificationTime,
+			final long accessTime) {
+		this.type = type;
+		this.other = other;
+		this.attributes = attributes;
+		this.numberOfLinks = numberOfLinks;
+		this.uid = uid;
+		this.gid = gid;
+		this.size = size;
+		this.creationTime = creationTime;
+		this.modificationTime = modificationTime;
+		this.accessTime = accessTime;
+	}
+
+	/**
+	 * @param path the path at the external file system (symbolic links
+	 *        are not followed).
+	 * @return the attributes of {@code path}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static HostAttributes read(final Path path) throws IOException {
+		final Map<String, Object> attrs;
+		try {
+			attrs = readAttributes(path, UNIX_ATTRIBUTES, NOFOLLOW_LINKS);
+		} catch (final UnsupportedOperationException | IllegalArgumentException e) {
+			return readBasic(path);
+		}
+
+		final FileType type = ((Boolean) attrs.get("isSymbolicLink")).booleanValue()
+				? SYMBOLIC_LINK
+				: ((Boolean) attrs.get("isDirectory")).booleanValue() ? DIRECTORY : FILE;
+		final int uid = ((Integer) attrs.get("uid")).intValue();
+		final int gid = ((Integer) attrs.get("gid")).intValue();
+		FileUtilities.cacheOwnerNames(path, uid, gid);
+		return new HostAttributes(type,
+				((Boolean) attrs.get("isOther")).booleanValue(),
+				new PosixAttributes(((Integer) attrs.get("mode")).intValue()),
+				((Integer) attrs.get("nlink")).byteValue(),
+				(short) uid,
+				(short) gid,
+				((Long) attrs.get("size")).longValue(),
+				((FileTime) attrs.get("creationTime")).toMillis(),
+				((FileTime) attrs.get("lastModifiedTime")).toMillis(),
+				((FileTime) attrs.get("lastAccessTime")).toMillis());
+	}
+
+	private static HostAttributes readBasic(final Path path) throws IOException {
+		final BasicFileAttributes attrs = readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+		final FileType type = attrs.isSymbolicLink() ? SYMBOLIC_LINK : attrs.isDirectory() ? DIRECTORY : FILE;
+		return new HostAttributes(type,
+				attrs.isOther(),
+				new PosixAttributes(PosixAttributes.defaultValue(type)),
+				(byte) 1,
+				(short) 0,
+				(short) 0,
+				attrs.size(),
+				attrs.creationTime().toMillis(),
+				attrs.lastModifiedTime().toMillis(),
+				attrs.lastAccessTime().toMillis());
+	}
+}
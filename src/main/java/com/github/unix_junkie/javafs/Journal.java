@@ -0,0 +1,828 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.FileUtilities.getVarLong;
+import static com.github.unix_junkie.javafs.FileUtilities.getVarLongSize;
+import static com.github.unix_junkie.javafs.FileUtilities.putVarLong;
+import static com.github.unix_junkie.javafs.FileUtilities.readFully;
+import static com.github.unix_junkie.javafs.FileUtilities.writeFully;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.lang.Thread.currentThread;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>Write-ahead metadata journal.</p>
+ *
+ * <p>The journal occupies a separate area which follows the data area. Its
+ * first sector is the header holding the sequence number of the first
+ * transaction expected in the log; transaction records follow. Each record
+ * consists of:</p>
+ * <ul>
+ * <li>4 bytes: record magic,</li>
+ * <li>8 bytes: transaction sequence number,</li>
+ * <li>4 bytes: payload length,</li>
+ * <li>payload: a list of byte ranges, each being a variable-length offset
+ * (relative to the end of the previous range), a variable-length range
+ * length and the range contents,</li>
+ * <li>4 bytes: CRC-32 of the sequence number, payload length and payload.</li>
+ * </ul>
+ *
+ * <p>Metadata writes made within a transaction are not applied to the
+ * container directly. Instead, they are kept in memory (the <em>overlay</em>)
+ * which readers consult, and logged once the transaction commits. Several
+ * transactions committed concurrently are written with a single {@link
+ * FileChannel#force(boolean)} (group commit). The overlay is written in place
+ * (<em>checkpointed</em>) lazily, once the log is half full or the file
+ * system is unmounted, after which the log is discarded.</p>
+ *
+ * <p>Mount-time recovery replays all complete transactions found in the log,
+ * which is bounded by the journal length rather than by the file system
+ * size.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class Journal implements AutoCloseable {
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final Logger LOGGER = Logger.getLogger(Journal.class.getName());
+
+	/**
+	 * The granularity of the overlay, as well as the size of the journal
+	 * header.
+	 */
+	static final int PAGE_SIZE = 512;
+
+	/**
+	 * "JNL1"
+	 */
+	private static final int HEADER_MAGIC = 0x4A4E4C31;
+
+	/**
+	 * "TXN1"
+	 */
+	private static final int TRANSACTION_MAGIC = 0x54584E31;
+
+	/**
+	 * Record magic, sequence number and payload length.
+	 */
+	private static final int TRANSACTION_HEADER_LENGTH = 16;
+
+	/**
+	 * CRC-32.
+	 */
+	private static final int TRANSACTION_TRAILER_LENGTH = 4;
+
+	/**
+	 * Marks pages which weren't in the overlay before the current
+	 * transaction touched them.
+	 */
+	@Nonnull
+	private static final byte ON_DISK[] = new byte[0];
+
+	@Nonnull
+	private final FileChannel channel;
+
+	/**
+	 * The offset of the journal area within the container.
+	 */
+	private final long offset;
+
+	/**
+	 * The length of the journal area, including the header.
+	 */
+	private final long length;
+
+	/**
+	 * Page index to page contents; guarded by {@code this}.
+	 */
+	@Nonnull
+	private final NavigableMap<Long, byte[]> pages = new TreeMap<>();
+
+	/**
+	 * For each page touched by the current transaction, its contents
+	 * before the transaction (or {@link #ON_DISK}); {@code null} if no
+	 * transaction is active. Guarded by {@code this}.
+	 */
+	@Nullable
+	private Map<Long, byte[]> undo;
+
+	/**
+	 * Byte ranges (start to end, exclusive) written by the current
+	 * transaction. Guarded by {@code this}.
+	 */
+	@Nonnull
+	private final NavigableMap<Long, Long> ranges = new TreeMap<>();
+
+	/**
+	 * Guarded by {@code this}.
+	 */
+	private long nextSequence;
+
+	/**
+	 * Where the next transaction will be logged, relative to the end of
+	 * the header. Guarded by {@code this}.
+	 */
+	private long writePosition;
+
+	@Nonnull
+	private final Object commitLock = new Object();
+
+	/**
+	 * Transactions committed but not yet written; guarded by {@link
+	 * #commitLock}.
+	 */
+	@Nonnull
+	private final List<PendingTransaction> pending = new ArrayList<>();
+
+	/**
+	 * Guarded by {@link #commitLock}.
+	 */
+	private long durableSequence;
+
+	/**
+	 * Whether some thread is currently writing and forcing a batch of
+	 * transactions; guarded by {@link #commitLock}.
+	 */
+	private boolean flushing;
+
+	/**
+	 * Guarded by {@link #commitLock}.
+	 */
+	private long commitCount;
+
+	/**
+	 * Guarded by {@link #commitLock}.
+	 */
+	private long forceCount;
+
+	private volatile long checkpointCount;
+
+	private int replayedTransactionCount;
+
+	private Journal(final FileChannel channel, final long offset, final long length, final long nextSequence) {
+		if (length < 2 * PAGE_SIZE || length % PAGE_SIZE != 0) {
+			throw new IllegalArgumentException(format("Invalid journal length: %d", Long.valueOf(length)));
+		}
+		this.channel = channel;
+		this.offset = offset;
+		this.length = length;
+		this.nextSequence = nextSequence;
+		this.durableSequence = nextSequence - 1;
+	}
+
+	/**
+	 * <p>Initializes an empty journal.</p>
+	 *
+	 * @param channel the file system container.
+	 * @param offset the offset of the journal area.
+	 * @param length the length of the journal area.
+	 * @return the newly initialized journal.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static Journal create(final FileChannel channel, final long offset, final long length) throws IOException {
+		final Journal journal = new Journal(channel, offset, length, 1L);
+		journal.writeHeader();
+		return journal;
+	}
+
+	/**
+	 * <p>Opens an existing journal, replaying any complete transactions
+	 * found in the log.</p>
+	 *
+	 * @param channel the file system container.
+	 * @param offset the offset of the journal area.
+	 * @param length the length of the journal area.
+	 * @return the journal opened.
+	 * @throws IOException if the journal header is corrupted, or an I/O
+	 *         error occurs.
+	 * @see #getReplayedTransactionCount()
+	 */
+	static Journal open(final FileChannel channel, final long offset, final long length) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+		readFully(channel, header, offset);
+		header.flip();
+		if (header.getInt() != HEADER_MAGIC) {
+			throw new IOException("Journal header corrupted");
+		}
+
+		final Journal journal = new Journal(channel, offset, length, header.getLong());
+		journal.recover();
+		return journal;
+	}
+
+	/**
+	 * <p>Starts a new transaction. Only a single transaction can be active
+	 * at a time; it's up to the caller to serialize transactions.</p>
+	 *
+	 * @throws IOException if a checkpoint is due and fails.
+	 */
+	synchronized void begin() throws IOException {
+		if (this.undo != null) {
+			throw new IllegalStateException("Transaction already active");
+		}
+
+		if (this.writePosition > this.getCapacity() / 2) {
+			this.checkpoint();
+		}
+
+		this.undo = new HashMap<>();
+	}
+
+	/**
+	 * @return whether a transaction is currently active.
+	 */
+	synchronized boolean isInTransaction() {
+		return this.undo != null;
+	}
+
+	/**
+	 * <p>Records a metadata write within the current transaction.</p>
+	 *
+	 * @param position the offset within the container.
+	 * @param source the bytes to write.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void write(final long position, final ByteBuffer source) throws IOException {
+		final Map<Long, byte[]> undo0 = this.undo;
+		if (undo0 == null) {
+			throw new IllegalStateException("No active transaction");
+		}
+
+		final int byteCount = source.remaining();
+		if (byteCount == 0) {
+			return;
+		}
+
+		long currentPosition = position;
+		while (source.hasRemaining()) {
+			final Long pageIndex = Long.valueOf(currentPosition / PAGE_SIZE);
+			final int pageOffset = (int) (currentPosition % PAGE_SIZE);
+			final int chunkLength = min(PAGE_SIZE - pageOffset, source.remaining());
+
+			byte page[] = this.pages.get(pageIndex);
+			if (!undo0.containsKey(pageIndex)) {
+				undo0.put(pageIndex, page == null ? ON_DISK : page.clone());
+			}
+			if (page == null) {
+				page = this.readPage(pageIndex.longValue());
+				this.pages.put(pageIndex, page);
+			}
+
+			source.get(page, pageOffset, chunkLength);
+			currentPosition += chunkLength;
+		}
+
+		this.addRange(position, position + byteCount);
+	}
+
+	/**
+	 * <p>Commits the current transaction. The transaction is queued for
+	 * writing but isn't necessarily durable when this method returns.</p>
+	 *
+	 * @return the sequence number to pass to {@link #awaitDurable(long)}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	long commit() throws IOException {
+		final PendingTransaction transaction;
+		synchronized (this) {
+			if (this.undo == null) {
+				throw new IllegalStateException("No active transaction");
+			}
+
+			if (this.ranges.isEmpty()) {
+				this.undo = null;
+				return 0L;
+			}
+
+			int payloadLength = 0;
+			long previousEnd = 0L;
+			for (final Entry<Long, Long> range : this.ranges.entrySet()) {
+				final long start = range.getKey().longValue();
+				final long end = range.getValue().longValue();
+				payloadLength += getVarLongSize(start - previousEnd) + getVarLongSize(end - start) + (int) (end - start);
+				previousEnd = end;
+			}
+
+			final int recordLength = TRANSACTION_HEADER_LENGTH + payloadLength + TRANSACTION_TRAILER_LENGTH;
+			if (this.writePosition + recordLength > this.getCapacity()) {
+				this.checkpoint();
+
+				if (recordLength > this.getCapacity()) {
+					LOGGER.warning(format("Transaction of %d byte(s) exceeds journal capacity of %d byte(s); writing in place",
+							Integer.valueOf(recordLength), Long.valueOf(this.getCapacity())));
+					this.writeThrough();
+					this.undo = null;
+					this.ranges.clear();
+					return 0L;
+				}
+			}
+
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer record = ByteBuffer.allocate(recordLength);
+			final long sequence = this.nextSequence++;
+			record.putInt(TRANSACTION_MAGIC);
+			record.putLong(sequence);
+			record.putInt(payloadLength);
+			previousEnd = 0L;
+			for (final Entry<Long, Long> range : this.ranges.entrySet()) {
+				final long start = range.getKey().longValue();
+				final long end = range.getValue().longValue();
+				putVarLong(record, start - previousEnd);
+				putVarLong(record, end - start);
+				this.copyFromPages(start, (int) (end - start), record);
+				previousEnd = end;
+			}
+			record.putInt(crc32(record.array(), 4, TRANSACTION_HEADER_LENGTH - 4 + payloadLength));
+			record.flip();
+
+			transaction = new PendingTransaction(sequence, this.writePosition, record);
+			this.writePosition += recordLength;
+			this.undo = null;
+			this.ranges.clear();
+		}
+
+		synchronized (this.commitLock) {
+			this.pending.add(transaction);
+			this.commitCount++;
+		}
+		return transaction.sequence;
+	}
+
+	/**
+	 * <p>Discards the changes made by the current transaction, if any.</p>
+	 */
+	synchronized void abort() {
+		final Map<Long, byte[]> undo0 = this.undo;
+		if (undo0 == null) {
+			return;
+		}
+
+		for (final Entry<Long, byte[]> entry : undo0.entrySet()) {
+			final byte before[] = entry.getValue();
+			if (before == ON_DISK) {
+				this.pages.remove(entry.getKey());
+			} else {
+				this.pages.put(entry.getKey(), before);
+			}
+		}
+		this.undo = null;
+		this.ranges.clear();
+	}
+
+	/**
+	 * <p>Blocks until the transaction denoted by {@code sequence} (and all
+	 * transactions committed before it) are durable. If no other thread
+	 * is writing the log, the calling thread writes all transactions
+	 * committed so far and forces them with a single call; otherwise it
+	 * waits for the thread which does.</p>
+	 *
+	 * @param sequence the value returned by {@link #commit()}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void awaitDurable(final long sequence) throws IOException {
+		while (true) {
+			final List<PendingTransaction> batch;
+			synchronized (this.commitLock) {
+				while (this.flushing && this.durableSequence < sequence) {
+					try {
+						this.commitLock.wait();
+					} catch (final InterruptedException ie) {
+						/*
+						 * Re-set the interrupted status.
+						 */
+						currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+				if (this.durableSequence >= sequence) {
+					return;
+				}
+
+				batch = new ArrayList<>(this.pending);
+				this.pending.clear();
+				this.flushing = true;
+			}
+
+			try {
+				this.writeBatch(batch);
+				this.channel.force(false);
+
+				synchronized (this.commitLock) {
+					this.durableSequence = batch.get(batch.size() - 1).sequence;
+					this.forceCount++;
+					this.flushing = false;
+					this.commitLock.notifyAll();
+				}
+			} catch (final IOException | RuntimeException e) {
+				synchronized (this.commitLock) {
+					this.pending.addAll(0, batch);
+					this.flushing = false;
+					this.commitLock.notifyAll();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * <p>Makes all transactions committed so far durable.</p>
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void flush() throws IOException {
+		final long lastSequence;
+		synchronized (this.commitLock) {
+			lastSequence = this.pending.isEmpty()
+					? this.durableSequence
+					: this.pending.get(this.pending.size() - 1).sequence;
+		}
+		this.awaitDurable(lastSequence);
+	}
+
+	/**
+	 * <p>Writes the committed state of the overlay in place and discards
+	 * the log. Pages touched by the current transaction (if any) stay in
+	 * the overlay.</p>
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void checkpoint() throws IOException {
+		this.flush();
+
+		if (this.pages.isEmpty() && this.writePosition == 0) {
+			return;
+		}
+
+		final Map<Long, byte[]> undo0 = this.undo;
+
+		long runStart = -1L;
+		final List<byte[]> run = new ArrayList<>();
+		for (final Entry<Long, byte[]> entry : this.pages.entrySet()) {
+			final long pageIndex = entry.getKey().longValue();
+			byte page[] = entry.getValue();
+			if (undo0 != null && undo0.containsKey(entry.getKey())) {
+				page = undo0.get(entry.getKey());
+				if (page == ON_DISK) {
+					continue;
+				}
+			}
+
+			if (!run.isEmpty() && runStart + run.size() != pageIndex) {
+				this.writePages(runStart, run);
+				run.clear();
+			}
+			if (run.isEmpty()) {
+				runStart = pageIndex;
+			}
+			run.add(page);
+		}
+		if (!run.isEmpty()) {
+			this.writePages(runStart, run);
+		}
+		this.channel.force(false);
+
+		this.writeHeader();
+		this.writePosition = 0L;
+
+		if (undo0 == null) {
+			this.pages.clear();
+		} else {
+			this.pages.keySet().retainAll(undo0.keySet());
+			/*
+			 * The committed state of the pages touched by the current
+			 * transaction is now on disk.
+			 */
+			for (final Entry<Long, byte[]> entry : undo0.entrySet()) {
+				entry.setValue(ON_DISK);
+			}
+		}
+
+		this.checkpointCount++;
+	}
+
+	/**
+	 * <p>Overwrites the bytes of {@code buffer} (between its position and
+	 * limit) which were read from the container at {@code position} with
+	 * the not yet checkpointed metadata updates. The position and limit of
+	 * {@code buffer} remain unchanged.</p>
+	 *
+	 * @param position the offset within the container {@code buffer}
+	 *        contents were read from.
+	 * @param buffer the buffer to patch.
+	 */
+	synchronized void patch(final long position, final ByteBuffer buffer) {
+		final int byteCount = buffer.remaining();
+		if (byteCount == 0 || this.pages.isEmpty()) {
+			return;
+		}
+
+		final long end = position + byteCount;
+		final NavigableMap<Long, byte[]> dirtyPages = this.pages.subMap(Long.valueOf(position / PAGE_SIZE), true, Long.valueOf((end - 1) / PAGE_SIZE), true);
+		for (final Entry<Long, byte[]> entry : dirtyPages.entrySet()) {
+			final long pageStart = entry.getKey().longValue() * PAGE_SIZE;
+			final long from = max(pageStart, position);
+			final long to = min(pageStart + PAGE_SIZE, end);
+
+			final ByteBuffer destination = buffer.duplicate();
+			destination.position(buffer.position() + (int) (from - position));
+			destination.put(entry.getValue(), (int) (from - pageStart), (int) (to - from));
+		}
+	}
+
+	/**
+	 * @param position the offset within the container.
+	 * @param byteCount the length of the range.
+	 * @return whether any of the bytes in the range have metadata updates
+	 *         which are not yet checkpointed.
+	 */
+	synchronized boolean isDirty(final long position, final long byteCount) {
+		if (byteCount <= 0 || this.pages.isEmpty()) {
+			return false;
+		}
+		return !this.pages.subMap(Long.valueOf(position / PAGE_SIZE), true, Long.valueOf((position + byteCount - 1) / PAGE_SIZE), true).isEmpty();
+	}
+
+	/**
+	 * @param position the offset within the container.
+	 * @param byteCount the length of the range.
+	 * @return the indices of the pages within the range which have metadata
+	 *         updates not yet checkpointed, in ascending order.
+	 * @see #PAGE_SIZE
+	 */
+	synchronized long[] getDirtyPages(final long position, final long byteCount) {
+		if (byteCount <= 0 || this.pages.isEmpty()) {
+			return new long[0];
+		}
+		return this.pages.subMap(Long.valueOf(position / PAGE_SIZE), true, Long.valueOf((position + byteCount - 1) / PAGE_SIZE), true)
+				.keySet().stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * @return how many bytes of the log (excluding the header) can be used
+	 *         for transaction records.
+	 */
+	long getCapacity() {
+		return this.length - PAGE_SIZE;
+	}
+
+	/**
+	 * @return the number of transactions committed since the journal was
+	 *         opened.
+	 */
+	long getCommitCount() {
+		synchronized (this.commitLock) {
+			return this.commitCount;
+		}
+	}
+
+	/**
+	 * @return the number of times the log was forced since the journal was
+	 *         opened. With group commit, this is usually less than the
+	 *         {@linkplain #getCommitCount() number of transactions}.
+	 */
+	long getForceCount() {
+		synchronized (this.commitLock) {
+			return this.forceCount;
+		}
+	}
+
+	/**
+	 * @return the number of checkpoints made since the journal was opened.
+	 */
+	long getCheckpointCount() {
+		return this.checkpointCount;
+	}
+
+	/**
+	 * @return the number of transactions replayed when the journal was
+	 *         opened.
+	 */
+	int getReplayedTransactionCount() {
+		return this.replayedTransactionCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Checkpoints the journal.</p>
+	 *
+	 * @see AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		this.checkpoint();
+	}
+
+	private synchronized void recover() throws IOException {
+		final long capacity = this.getCapacity();
+		final long recordsStart = this.offset + PAGE_SIZE;
+
+		long expectedSequence = this.nextSequence;
+		long position = 0L;
+		int replayed = 0;
+		final ByteBuffer header = ByteBuffer.allocate(TRANSACTION_HEADER_LENGTH);
+		while (position + TRANSACTION_HEADER_LENGTH + TRANSACTION_TRAILER_LENGTH <= capacity) {
+			header.clear();
+			readFully(this.channel, header, recordsStart + position);
+			header.flip();
+			final int magic = header.getInt();
+			final long sequence = header.getLong();
+			final int payloadLength = header.getInt();
+			if (magic != TRANSACTION_MAGIC
+					|| sequence != expectedSequence
+					|| payloadLength < 0
+					|| position + TRANSACTION_HEADER_LENGTH + payloadLength + TRANSACTION_TRAILER_LENGTH > capacity) {
+				break;
+			}
+
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer record = ByteBuffer.allocate(TRANSACTION_HEADER_LENGTH + payloadLength + TRANSACTION_TRAILER_LENGTH);
+			readFully(this.channel, record, recordsStart + position);
+			if (record.getInt(TRANSACTION_HEADER_LENGTH + payloadLength) != crc32(record.array(), 4, TRANSACTION_HEADER_LENGTH - 4 + payloadLength)) {
+				LOGGER.warning(format("Journal transaction %d is incomplete; ignoring", Long.valueOf(sequence)));
+				break;
+			}
+
+			record.position(TRANSACTION_HEADER_LENGTH).limit(TRANSACTION_HEADER_LENGTH + payloadLength);
+			long previousEnd = 0L;
+			while (record.hasRemaining()) {
+				final long start = previousEnd + getVarLong(record);
+				final int rangeLength = (int) getVarLong(record);
+				final ByteBuffer range = record.duplicate();
+				range.limit(range.position() + rangeLength);
+				writeFully(this.channel, range, start);
+				record.position(record.position() + rangeLength);
+				previousEnd = start + rangeLength;
+			}
+
+			replayed++;
+			expectedSequence++;
+			position += TRANSACTION_HEADER_LENGTH + payloadLength + TRANSACTION_TRAILER_LENGTH;
+		}
+
+		if (replayed != 0) {
+			LOGGER.info(format("Replayed %d journal transaction(s)", Integer.valueOf(replayed)));
+			this.channel.force(false);
+
+			this.nextSequence = expectedSequence;
+			synchronized (this.commitLock) {
+				this.durableSequence = expectedSequence - 1;
+			}
+			this.writeHeader();
+		}
+		this.replayedTransactionCount = replayed;
+	}
+
+	/**
+	 * <p>Writes the header and forces it.</p>
+	 */
+	private void writeHeader() throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+		header.putInt(HEADER_MAGIC);
+		header.putLong(this.nextSequence);
+		header.clear();
+		writeFully(this.channel, header, this.offset);
+		this.channel.force(false);
+	}
+
+	private void writeBatch(final List<PendingTransaction> batch) throws IOException {
+		if (batch.isEmpty()) {
+			throw new IllegalStateException("Nothing to write");
+		}
+
+		final long batchStart = batch.get(0).position;
+		int batchLength = 0;
+		for (final PendingTransaction transaction : batch) {
+			assert transaction.position == batchStart + batchLength : transaction.position;
+			batchLength += transaction.record.remaining();
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(batchLength);
+		for (final PendingTransaction transaction : batch) {
+			buffer.put(transaction.record.duplicate());
+		}
+		buffer.flip();
+		writeFully(this.channel, buffer, this.offset + PAGE_SIZE + batchStart);
+	}
+
+	/**
+	 * <p>Writes all pages in place and forces them, discarding the overlay.
+	 * Only used for transactions which don't fit into the log.</p>
+	 */
+	private void writeThrough() throws IOException {
+		final Iterator<Entry<Long, byte[]>> it = this.pages.entrySet().iterator();
+		while (it.hasNext()) {
+			final Entry<Long, byte[]> entry = it.next();
+			final List<byte[]> run = new ArrayList<>();
+			run.add(entry.getValue());
+			this.writePages(entry.getKey().longValue(), run);
+			it.remove();
+		}
+		this.channel.force(false);
+	}
+
+	private void writePages(final long firstPageIndex, final List<byte[]> run) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(run.size() * PAGE_SIZE);
+		for (final byte page[] : run) {
+			buffer.put(page);
+		}
+		buffer.flip();
+		writeFully(this.channel, buffer, firstPageIndex * PAGE_SIZE);
+	}
+
+	private byte[] readPage(final long pageIndex) throws IOException {
+		final byte page[] = new byte[PAGE_SIZE];
+		final ByteBuffer buffer = ByteBuffer.wrap(page);
+		final long position = pageIndex * PAGE_SIZE;
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, position + buffer.position()) == -1) {
+				/*
+				 * Beyond EOF: the rest of the page reads as zeroes.
+				 */
+				break;
+			}
+		}
+		return page;
+	}
+
+	private void copyFromPages(final long position, final int byteCount, final ByteBuffer destination) {
+		long currentPosition = position;
+		int remaining = byteCount;
+		while (remaining > 0) {
+			final byte page[] = this.pages.get(Long.valueOf(currentPosition / PAGE_SIZE));
+			assert page != null : currentPosition;
+			final int pageOffset = (int) (currentPosition % PAGE_SIZE);
+			final int chunkLength = min(PAGE_SIZE - pageOffset, remaining);
+			destination.put(page, pageOffset, chunkLength);
+			currentPosition += chunkLength;
+			remaining -= chunkLength;
+		}
+	}
+
+	private void addRange(final long start, final long end) {
+		long mergedStart = start;
+		long mergedEnd = end;
+
+		final Entry<Long, Long> floor = this.ranges.floorEntry(Long.valueOf(start));
+		if (floor != null && floor.getValue().longValue() >= start) {
+			mergedStart = floor.getKey().longValue();
+			mergedEnd = max(mergedEnd, floor.getValue().longValue());
+			this.ranges.remove(floor.getKey());
+		}
+
+		Entry<Long, Long> next;
+		while ((next = this.ranges.ceilingEntry(Long.valueOf(mergedStart))) != null && next.getKey().longValue() <= mergedEnd) {
+			mergedEnd = max(mergedEnd, next.getValue().longValue());
+			this.ranges.remove(next.getKey());
+		}
+
+		this.ranges.put(Long.valueOf(mergedStart), Long.valueOf(mergedEnd));
+	}
+
+	private static int crc32(final byte bytes[], final int off, final int len) {
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, off, len);
+		return (int) crc.getValue();
+	}
+
+	private static final class PendingTransaction {
+		final long sequence;
+
+		/**
+		 * Relative to the end of the journal header.
+		 */
+		final long position;
+
+		@Nonnull
+		final ByteBuffer record;
+
+		PendingTransaction(final long sequence, final long position, final ByteBuffer record) {
+			this.sequence = sequence;
+			this.position = position;
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A thread-safe histogram of latencies, in nanoseconds.</p>
+ *
+ * <p>Values are counted in log-linear buckets: each power of two is split
+ * into {@value #SUB_BUCKET_COUNT} equal sub-buckets, so percentiles are
+ * reported with a relative error under 12.5%, while the histogram itself
+ * occupies a fixed amount of memory regardless of how many values were
+ * recorded.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	@Nonnull
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKET_COUNT);
+
+	@Nonnull
+	private final LongAdder count = new LongAdder();
+
+	@Nonnull
+	private final LongAdder total = new LongAdder();
+
+	@Nonnull
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	/**
+	 * <p>Records a single value.</p>
+	 *
+	 * @param nanos the latency, in nanoseconds. Negative values are
+	 *        recorded as 0.
+	 */
+	public void record(final long nanos) {
+		final long value = nanos < 0 ? 0 : nanos;
+		this.buckets.incrementAndGet(getBucketIndex(value));
+		this.count.increment();
+		this.total.add(value);
+		this.max.accumulate(value);
+	}
+
+	/**
+	 * @return the number of values recorded.
+	 */
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * @return the sum of all values recorded, in nanoseconds.
+	 */
+	public long getTotal() {
+		return this.total.sum();
+	}
+
+	/**
+	 * @return the mean of the values recorded, in nanoseconds, or 0 if
+	 *         nothing has been recorded yet.
+	 */
+	public double getMean() {
+		final long count0 = this.getCount();
+		return count0 == 0 ? 0.0 : (double) this.getTotal() / count0;
+	}
+
+	/**
+	 * @return the largest value recorded, in nanoseconds.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * <p>Returns the (approximate) value below which the given percentage
+	 * of the recorded values fall.</p>
+	 *
+	 * @param percentile the percentile, from 0 to 100, e.g.: {@code 99.9}.
+	 * @return the upper bound of the bucket the percentile falls into, in
+	 *         nanoseconds, or 0 if nothing has been recorded yet.
+	 */
+	public long getPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException(String.valueOf(percentile));
+		}
+
+		long total0 = 0L;
+		final int length = this.buckets.length();
+		final long counts[] = new long[length];
+		for (int i = 0; i < length; i++) {
+			counts[i] = this.buckets.get(i);
+			total0 += counts[i];
+		}
+		if (total0 == 0) {
+			return 0L;
+		}
+
+		final long rank = Math.max(1L, (long) Math.ceil(percentile / 100 * total0));
+		long cumulative = 0L;
+		for (int i = 0; i < length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= rank) {
+				return Math.min(getBucketUpperBound(i), this.getMax());
+			}
+		}
+		return this.getMax();
+	}
+
+	/**
+	 * <p>Discards all values recorded so far.</p>
+	 */
+	public void reset() {
+		for (int i = 0, n = this.buckets.length(); i < n; i++) {
+			this.buckets.set(i, 0L);
+		}
+		this.count.reset();
+		this.total.reset();
+		this.max.reset();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final String s = format("count=%d mean=%.3f ms p50=%.3f ms p99=%.3f ms p99.9=%.3f ms max=%.3f ms",
+				Long.valueOf(this.getCount()),
+				Double.valueOf(this.getMean() / 1e6),
+				Double.valueOf(this.getPercentile(50) / 1e6),
+				Double.valueOf(this.getPercentile(99) / 1e6),
+				Double.valueOf(this.getPercentile(99.9) / 1e6),
+				Double.valueOf(this.getMax() / 1e6));
+		return s;
+	}
+
+	static int getBucketIndex(final long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKET_COUNT - 1;
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	static long getBucketUpperBound(final int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		final long subBucket = index % SUB_BUCKET_COUNT;
+		final long lowerBound = 1L << exponent | subBucket << exponent - SUB_BUCKET_BITS;
+		return lowerBound + (1L << exponent - SUB_BUCKET_BITS) - 1;
+	}
+}
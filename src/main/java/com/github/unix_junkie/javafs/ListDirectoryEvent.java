@@ -0,0 +1,36 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A directory listed, i.e.: its entries decoded.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@Name("com.github.unix_junkie.javafs.ListDirectory")
+@Label("List Directory")
+@Description("A directory listed.")
+@Category({"javafs"})
+@Enabled(false)
+@StackTrace(false)
+final class ListDirectoryEvent extends Event {
+	@Label("Directory")
+	@Description("The name of the directory.")
+	@Nullable
+	String directory;
+
+	@Label("Entries")
+	@Description("The number of entries decoded.")
+	long entries;
+}
@@ -0,0 +1,534 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>Runs a synthetic workload against a mounted file system for a fixed
+ * amount of time, and reports the throughput and latency percentiles. See
+ * {@code Main bench}.</p>
+ *
+ * <p>All files are created in the root directory, and removed once the
+ * run is over. Directory updates are serialized by the file system itself;
+ * listings are kept from overlapping with updates by a read-write lock, since
+ * a {@link Directory} instance is not thread-safe.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class LoadGenerator {
+	/**
+	 * <p>The workloads supported.</p>
+	 */
+	enum Workload {
+		/**
+		 * Reads the pre-created files from start to end.
+		 */
+		SEQREAD,
+		/**
+		 * Reads I/O size chunks at random offsets of the pre-created
+		 * files.
+		 */
+		RANDREAD,
+		/**
+		 * Creates files with random contents, then removes them.
+		 */
+		WRITE,
+		/**
+		 * Creates and immediately removes empty files, measuring the
+		 * metadata path alone.
+		 */
+		CREATE,
+		/**
+		 * Lists the root directory, which contains the pre-created
+		 * files.
+		 */
+		LIST,
+		/**
+		 * A mix of 60% random reads, 20% sequential reads, 15% creates
+		 * and 5% listings.
+		 */
+		MIXED,
+		;
+
+		static Workload parse(final String s) {
+			try {
+				return valueOf(s.toUpperCase(Locale.ENGLISH));
+			} catch (final IllegalArgumentException iae) {
+				throw new IllegalArgumentException(format("Unknown workload: %s", s), iae);
+			}
+		}
+	}
+
+	/**
+	 * <p>The individual operations whose latencies are reported.</p>
+	 */
+	private enum Operation {
+		READ,
+		CREATE,
+		UNLINK,
+		LIST,
+	}
+
+	/**
+	 * <p>A file size distribution: a comma-separated list of {@code
+	 * size[-maxSize][:weight]} entries, e.g.: {@code 4k-64k:90,16m:10}
+	 * (90% of files between 4k and 64k, and 10% of 16m files).</p>
+	 */
+	static final class SizeDistribution {
+		@Nonnull
+		private final long minSizes[];
+
+		@Nonnull
+		private final long maxSizes[];
+
+		@Nonnull
+		private final int cumulativeWeights[];
+
+		@Nonnull
+		private final String spec;
+
+		SizeDistribution(final String spec) {
+			final String entries[] = spec.split(",");
+			this.minSizes = new long[entries.length];
+			this.maxSizes = new long[entries.length];
+			this.cumulativeWeights = new int[entries.length];
+
+			int totalWeight = 0;
+			for (int i = 0; i < entries.length; i++) {
+				final String entry = entries[i].trim();
+				final int colon = entry.indexOf(':');
+				final String range = colon == -1 ? entry : entry.substring(0, colon);
+				final int weight = colon == -1 ? 1 : Integer.parseInt(entry.substring(colon + 1));
+				if (weight <= 0) {
+					throw new IllegalArgumentException(format("Weight negative or zero: %s", entry));
+				}
+
+				final int dash = range.indexOf('-');
+				this.minSizes[i] = SizeUnit.parseSize(dash == -1 ? range : range.substring(0, dash));
+				this.maxSizes[i] = dash == -1 ? this.minSizes[i] : SizeUnit.parseSize(range.substring(dash + 1));
+				if (this.minSizes[i] < 0 || this.maxSizes[i] < this.minSizes[i]) {
+					throw new IllegalArgumentException(format("Invalid size range: %s", range));
+				}
+
+				totalWeight += weight;
+				this.cumulativeWeights[i] = totalWeight;
+			}
+			this.spec = spec;
+		}
+
+		long next(final Random random) {
+			final int r = random.nextInt(this.cumulativeWeights[this.cumulativeWeights.length - 1]);
+			int i = 0;
+			while (r >= this.cumulativeWeights[i]) {
+				i++;
+			}
+			final long minSize = this.minSizes[i];
+			final long maxSize = this.maxSizes[i];
+			return minSize == maxSize
+					? minSize
+					: minSize + (long) (random.nextDouble() * (maxSize - minSize + 1));
+		}
+
+		/**
+		 * @see Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.spec;
+		}
+	}
+
+	/**
+	 * <p>An endless channel of pseudo-random data, limited to the file
+	 * size.</p>
+	 */
+	private static final class PatternChannel implements ReadableByteChannel {
+		private static final int PATTERN_LENGTH = 1024 * 1024;
+
+		@Nonnull
+		private static final ByteBuffer PATTERN;
+
+		static {
+			final byte pattern[] = new byte[PATTERN_LENGTH];
+			new Random(42).nextBytes(pattern);
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer pattern0 = ByteBuffer.wrap(pattern).asReadOnlyBuffer();
+			PATTERN = pattern0;
+		}
+
+		private long remaining;
+
+		private int offset;
+
+		PatternChannel(final long size, final int offset) {
+			this.remaining = size;
+			this.offset = offset % PATTERN_LENGTH;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see ReadableByteChannel#read(ByteBuffer)
+		 */
+		@Override
+		public int read(final ByteBuffer destination) {
+			if (this.remaining == 0) {
+				return -1;
+			}
+			final int length = (int) min(min(destination.remaining(), PATTERN_LENGTH - this.offset), this.remaining);
+			final ByteBuffer chunk = PATTERN.duplicate();
+			chunk.position(this.offset).limit(this.offset + length);
+			destination.put(chunk);
+			this.offset = (this.offset + length) % PATTERN_LENGTH;
+			this.remaining -= length;
+			return length;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see java.nio.channels.Channel#isOpen()
+		 */
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see java.nio.channels.Channel#close()
+		 */
+		@Override
+		public void close() {
+			// empty
+		}
+	}
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	@Nonnull
+	private final Workload workload;
+
+	private final int threadCount;
+
+	private final long durationNanos;
+
+	@Nonnull
+	private final SizeDistribution sizes;
+
+	private final int ioSize;
+
+	private final int fileCount;
+
+	@Nonnull
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+	@Nonnull
+	private final LongAdder bytesRead = new LongAdder();
+
+	@Nonnull
+	private final LongAdder bytesWritten = new LongAdder();
+
+	@Nonnull
+	private final AtomicLong nameCounter = new AtomicLong();
+
+	@Nonnull
+	private final ReadWriteLock directoryLock = new ReentrantReadWriteLock();
+
+	/**
+	 * The files read by the reading workloads.
+	 */
+	@Nonnull
+	private final List<FileSystemEntry> files = new ArrayList<>();
+
+	private Directory root;
+
+	/**
+	 * @param fileSystem the file system to run the workload against.
+	 * @param workload the workload.
+	 * @param threadCount the number of concurrent threads.
+	 * @param durationNanos the duration of the run.
+	 * @param sizes the distribution of file sizes.
+	 * @param ioSize the size of a single read.
+	 * @param fileCount the number of files created before the run (for
+	 *        the reading and listing workloads).
+	 */
+	LoadGenerator(final FileSystem fileSystem,
+			final Workload workload,
+			final int threadCount,
+			final long durationNanos,
+			final SizeDistribution sizes,
+			final int ioSize,
+			final int fileCount) {
+		if (threadCount <= 0 || durationNanos <= 0 || ioSize <= 0 || fileCount <= 0) {
+			throw new IllegalArgumentException(format("Thread count: %d, duration: %d ns, I/O size: %d, file count: %d",
+					Integer.valueOf(threadCount),
+					Long.valueOf(durationNanos),
+					Integer.valueOf(ioSize),
+					Integer.valueOf(fileCount)));
+		}
+
+		this.fileSystem = fileSystem;
+		this.workload = workload;
+		this.threadCount = threadCount;
+		this.durationNanos = durationNanos;
+		this.sizes = sizes;
+		this.ioSize = ioSize;
+		this.fileCount = fileCount;
+		for (final Operation operation : Operation.values()) {
+			this.latencies.put(operation, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * <p>Runs the workload and prints the report to {@code out}.</p>
+	 *
+	 * @param out the stream to print the report to.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void run(final PrintStream out) throws IOException {
+		this.root = this.fileSystem.getRoot();
+
+		out.println(format("Workload: %s, threads: %d, duration: %.1f s, file sizes: %s, I/O size: %s",
+				this.workload.name().toLowerCase(Locale.ENGLISH),
+				Integer.valueOf(this.threadCount),
+				Double.valueOf(this.durationNanos / 1e9),
+				this.sizes,
+				SizeUnit.toString(this.ioSize)));
+
+		try {
+			if (this.workload != Workload.WRITE && this.workload != Workload.CREATE) {
+				this.prepare();
+			}
+
+			final ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+			final long t0 = nanoTime();
+			try {
+				final long deadline = t0 + this.durationNanos;
+				final List<Future<?>> futures = new ArrayList<>();
+				for (int i = 0; i < this.threadCount; i++) {
+					futures.add(executor.submit(() -> {
+						this.runThread(deadline);
+						return null;
+					}));
+				}
+				for (final Future<?> future : futures) {
+					future.get();
+				}
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IOException(ie);
+			} catch (final ExecutionException ee) {
+				final Throwable cause = ee.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new IOException(cause);
+			} finally {
+				executor.shutdownNow();
+			}
+			this.report(out, nanoTime() - t0);
+		} finally {
+			this.cleanUp();
+		}
+	}
+
+	private void prepare() throws IOException {
+		final Random random = new Random(42);
+		for (int i = 0; i < this.fileCount; i++) {
+			this.create(random, this.sizes.next(random));
+		}
+		this.directoryLock.readLock().lock();
+		try {
+			this.files.addAll(this.root.list());
+		} finally {
+			this.directoryLock.readLock().unlock();
+		}
+		this.latencies.values().forEach(LatencyHistogram::reset);
+		this.bytesWritten.reset();
+	}
+
+	private void runThread(final long deadline) throws IOException {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(this.ioSize);
+		while (nanoTime() < deadline) {
+			switch (this.workload) {
+			case SEQREAD:
+				this.readSequentially(random, buffer, deadline);
+				break;
+			case RANDREAD:
+				this.readRandomly(random, buffer);
+				break;
+			case WRITE:
+				this.unlink(this.create(random, this.sizes.next(random)));
+				break;
+			case CREATE:
+				this.unlink(this.create(random, 0L));
+				break;
+			case LIST:
+				this.list();
+				break;
+			case MIXED:
+			default:
+				final int r = random.nextInt(100);
+				if (r < 60) {
+					this.readRandomly(random, buffer);
+				} else if (r < 80) {
+					this.readSequentially(random, buffer, deadline);
+				} else if (r < 95) {
+					this.unlink(this.create(random, this.sizes.next(random)));
+				} else {
+					this.list();
+				}
+				break;
+			}
+		}
+	}
+
+	private void readSequentially(final Random random, final ByteBuffer buffer, final long deadline) throws IOException {
+		final FileSystemEntry file = this.files.get(random.nextInt(this.files.size()));
+		try (final SeekableByteChannel channel = file.newByteChannel()) {
+			while (nanoTime() < deadline) {
+				buffer.clear();
+				final long t0 = nanoTime();
+				final int n = channel.read(buffer);
+				if (n == -1) {
+					break;
+				}
+				this.record(Operation.READ, nanoTime() - t0);
+				this.bytesRead.add(n);
+			}
+		}
+	}
+
+	private void readRandomly(final Random random, final ByteBuffer buffer) throws IOException {
+		final FileSystemEntry file = this.files.get(random.nextInt(this.files.size()));
+		final long size = file.getDataSize();
+		final long chunkCount = max(1L, size / this.ioSize);
+		try (final SeekableByteChannel channel = file.newByteChannel()) {
+			buffer.clear();
+			final long t0 = nanoTime();
+			channel.position((long) (random.nextDouble() * chunkCount) * this.ioSize);
+			final int n = channel.read(buffer);
+			this.record(Operation.READ, nanoTime() - t0);
+			this.bytesRead.add(max(n, 0));
+		}
+	}
+
+	/**
+	 * @return the name of the file created.
+	 */
+	private String create(final Random random, final long size) throws IOException {
+		final String name = format("bench-%d", Long.valueOf(this.nameCounter.incrementAndGet()));
+		final File file = new File(name, size, new PatternChannel(size, random.nextInt(PatternChannel.PATTERN_LENGTH)));
+
+		final long t0 = nanoTime();
+		this.directoryLock.writeLock().lock();
+		try {
+			this.root.addChild(file);
+		} finally {
+			this.directoryLock.writeLock().unlock();
+		}
+		this.record(Operation.CREATE, nanoTime() - t0);
+		this.bytesWritten.add(size);
+		return name;
+	}
+
+	private void unlink(final String name) throws IOException {
+		final long t0 = nanoTime();
+		this.directoryLock.writeLock().lock();
+		try {
+			this.root.unlink(name);
+		} finally {
+			this.directoryLock.writeLock().unlock();
+		}
+		this.record(Operation.UNLINK, nanoTime() - t0);
+	}
+
+	private void list() throws IOException {
+		final long t0 = nanoTime();
+		this.directoryLock.readLock().lock();
+		try {
+			this.root.list();
+		} finally {
+			this.directoryLock.readLock().unlock();
+		}
+		this.record(Operation.LIST, nanoTime() - t0);
+	}
+
+	private void record(final Operation operation, final long nanos) {
+		@Nonnull
+		@SuppressWarnings("null")
+		final LatencyHistogram latency = this.latencies.get(operation);
+		latency.record(nanos);
+	}
+
+	private void cleanUp() throws IOException {
+		for (final FileSystemEntry file : this.files) {
+			this.root.unlink(file.getName());
+		}
+		this.files.clear();
+	}
+
+	private void report(final PrintStream out, final long elapsedNanos) {
+		final double seconds = elapsedNanos / 1e9;
+		long operationCount = 0L;
+		for (final Operation operation : Operation.values()) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final LatencyHistogram latency = this.latencies.get(operation);
+			final long count = latency.getCount();
+			if (count == 0) {
+				continue;
+			}
+			operationCount += count;
+			out.println(format("%-6s %10d ops %10.1f ops/s  p50: %9.3f ms  p99: %9.3f ms  p99.9: %9.3f ms  max: %9.3f ms",
+					operation.name().toLowerCase(Locale.ENGLISH),
+					Long.valueOf(count),
+					Double.valueOf(count / seconds),
+					Double.valueOf(latency.getPercentile(50) / 1e6),
+					Double.valueOf(latency.getPercentile(99) / 1e6),
+					Double.valueOf(latency.getPercentile(99.9) / 1e6),
+					Double.valueOf(latency.getMax() / 1e6)));
+		}
+		out.println(format("Total: %d ops in %.1f s (%.1f ops/s); read: %.1f MiB/s, written: %.1f MiB/s",
+				Long.valueOf(operationCount),
+				Double.valueOf(seconds),
+				Double.valueOf(operationCount / seconds),
+				Double.valueOf(this.bytesRead.sum() / seconds / (1024 * 1024)),
+				Double.valueOf(this.bytesWritten.sum() / seconds / (1024 * 1024))));
+	}
+}
@@ -8,15 +8,24 @@ import static java.lang.String.format;
 import static java.lang.System.getProperty;
 import static java.nio.file.Paths.get;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Level.SEVERE;
 import static java.util.logging.Level.WARNING;
 import static java.util.stream.Collectors.joining;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -24,6 +33,9 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 
+import com.github.unix_junkie.javafs.LoadGenerator.SizeDistribution;
+import com.github.unix_junkie.javafs.LoadGenerator.Workload;
+
 /**
  * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
  */
@@ -43,6 +55,10 @@ abstract class Main {
 	@Nonnull
 	private static final String COMMANDS[] = {
 		"mkfs",
+		"bench",
+		"shell",
+		"serve",
+		"tar",
 	};
 
 	private Main() {
@@ -53,10 +69,41 @@ abstract class Main {
 		if (args.length == 1 && args[0].equals("help")) {
 			usageMkfs(0);
 			return 0;
-		} else if (args.length == 3 && args[0].equals("-l")) {
+		}
+
+		boolean preallocate = false;
+		boolean inlineData = false;
+		boolean compactMetadata = false;
+		boolean sortedDirectories = false;
+		boolean pathIndex = false;
+		int optionCount = 0;
+		for (; optionCount < args.length && !args[optionCount].equals("-l"); optionCount++) {
+			switch (args[optionCount]) {
+			case "-p":
+				preallocate = true;
+				break;
+			case "-i":
+				inlineData = true;
+				break;
+			case "-c":
+				compactMetadata = true;
+				break;
+			case "-s":
+				sortedDirectories = true;
+				break;
+			case "-n":
+				pathIndex = true;
+				break;
+			default:
+				usageMkfs(1);
+				return 1;
+			}
+		}
+		final String args0[] = Arrays.copyOfRange(args, optionCount, args.length);
+		if (args0.length == 3 && args0[0].equals("-l")) {
 			final Pattern pattern = Pattern.compile("(\\d+)%FREE");
-			final Matcher matcher = pattern.matcher(args[1]);
-			final Path path = Paths.get(args[2]);
+			final Matcher matcher = pattern.matcher(args0[1]);
+			final Path path = Paths.get(args0[2]);
 
 			final long length;
 			final Path parent = path.getParent();
@@ -68,12 +115,29 @@ abstract class Main {
 				}
 				length = usableSpace * pFree / 100;
 			} else {
-				length = parseSize(args[1]);
+				length = parseSize(args0[1]);
 				if (length > usableSpace) {
 					throw new IOException(format("Not enough free space: %s requested, %s available", SizeUnit.toString(length), SizeUnit.toString(usableSpace)));
 				}
 			}
-			FileSystem.create(path, length);
+			final Preallocation preallocation = preallocate ? Preallocation.FULL : Preallocation.SPARSE;
+			final List<FileSystemOption> options = new ArrayList<>();
+			options.add(preallocation);
+			if (inlineData) {
+				options.add(Feature.INLINE_DATA);
+			}
+			if (compactMetadata) {
+				options.add(Feature.COMPACT_METADATA);
+			}
+			if (sortedDirectories) {
+				options.add(Feature.SORTED_DIRECTORIES);
+			}
+			if (pathIndex) {
+				options.add(Feature.PATH_INDEX);
+			}
+			try (final FileSystem fileSystem = FileSystem.create(path, length, options.toArray(new FileSystemOption[0]))) {
+				fileSystem.printGeometry(System.out);
+			}
 			return 0;
 		} else {
 			usageMkfs(1);
@@ -86,7 +150,238 @@ abstract class Main {
 
 		System.err.println("Usage:");
 		System.err.println(format("\t%s mkfs help", className));
-		System.err.println(format("\t%s mkfs -l <size>[bBkKmMgGtTpPeE|%%FREE] <file>", className));
+		System.err.println(format("\t%s mkfs [-p] [-i] [-c] [-s] [-n] -l <size>[bBkKmMgGtTpPeE|%%FREE] <file>", className));
+		System.err.println();
+		System.err.println("\t-p fills the whole container with zeroes instead of creating a sparse file.");
+		System.err.println("\t-i stores small files and symbolic links inside their directory entries.");
+		System.err.println("\t-c uses the compact (version 1.1) directory entry encoding.");
+		System.err.println("\t-s keeps directory entries sorted by name, for faster lookups in large directories.");
+		System.err.println("\t-n maintains a volume-wide index of names, used by the shell's locate command.");
+		System.exit(status);
+	}
+
+	private static int bench(final String ... args) throws IOException {
+		if (args.length == 1 && args[0].equals("help")) {
+			usageBench(0);
+			return 0;
+		}
+		if (args.length == 0 || args.length % 2 == 0) {
+			usageBench(1);
+			return 1;
+		}
+
+		Workload workload = Workload.SEQREAD;
+		int threadCount = 1;
+		double duration = 10;
+		SizeDistribution sizes = new SizeDistribution("1m");
+		long ioSize = 64 * 1024;
+		int fileCount = 16;
+		for (int i = 0; i < args.length - 1; i += 2) {
+			final String value = args[i + 1];
+			switch (args[i]) {
+			case "-w":
+				workload = Workload.parse(value);
+				break;
+			case "-t":
+				threadCount = Integer.parseInt(value);
+				break;
+			case "-d":
+				duration = Double.parseDouble(value);
+				break;
+			case "-s":
+				sizes = new SizeDistribution(value);
+				break;
+			case "-b":
+				ioSize = parseSize(value);
+				break;
+			case "-n":
+				fileCount = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException(format("Unknown option: %s", args[i]));
+			}
+		}
+		if (ioSize <= 0 || ioSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(format("Invalid I/O size: %d", Long.valueOf(ioSize)));
+		}
+
+		final Path path = Paths.get(args[args.length - 1]);
+		try (final FileSystem fileSystem = FileSystem.mount(path)) {
+			new LoadGenerator(fileSystem, workload, threadCount, (long) (duration * 1e9), sizes, (int) ioSize, fileCount).run(System.out);
+		}
+		return 0;
+	}
+
+	private static void usageBench(final int status) {
+		final String className = Main.class.getName();
+
+		System.err.println("Usage:");
+		System.err.println(format("\t%s bench help", className));
+		System.err.println(format("\t%s bench [-w seqread|randread|write|create|list|mixed] [-t <threads>] [-d <seconds>] [-s <sizes>] [-b <I/O size>] [-n <files>] <file>", className));
+		System.err.println();
+		System.err.println("\t<sizes> is a comma-separated list of <size>[-<max size>][:<weight>],");
+		System.err.println("\te.g.: 4k-64k:90,16m:10 (defaults to 1m).");
+		System.exit(status);
+	}
+
+	private static int shell(final String ... args) throws IOException {
+		if (args.length == 1 && args[0].equals("help")) {
+			usageShell(0);
+			return 0;
+		}
+		if (args.length != 1 && args.length != 2) {
+			usageShell(1);
+			return 1;
+		}
+
+		final Path path = Paths.get(args[0]);
+		try (final FileSystem fileSystem = FileSystem.mount(path)) {
+			final Shell shell = new Shell(fileSystem, System.out, System.err);
+			if (args.length == 2) {
+				try (final BufferedReader in = Files.newBufferedReader(Paths.get(args[1]))) {
+					return shell.run(in, false);
+				}
+			}
+			final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			return shell.run(in, System.console() != null);
+		}
+	}
+
+	private static void usageShell(final int status) {
+		final String className = Main.class.getName();
+
+		System.err.println("Usage:");
+		System.err.println(format("\t%s shell help", className));
+		System.err.println(format("\t%s shell <file> [<script>]", className));
+		System.err.println();
+		System.err.println("\tRuns ls, cp, cat, rm, mkdir, df, du, stat, find and locate commands read from");
+		System.err.println("\t<script> (or the standard input) against a single mount of <file>.");
+		System.err.println(format("\tHost paths are prefixed with `%s', e.g.: cp %s/etc/hosts /", Shell.HOST_PREFIX, Shell.HOST_PREFIX));
+		System.exit(status);
+	}
+
+	private static int serve(final String ... args) throws IOException {
+		if (args.length == 1 && args[0].equals("help")) {
+			usageServe(0);
+			return 0;
+		}
+		if (args.length == 0 || args.length % 2 == 0) {
+			usageServe(1);
+			return 1;
+		}
+
+		String address = "127.0.0.1";
+		int port = 8080;
+		int threadCount = 4 * Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length - 1; i += 2) {
+			final String value = args[i + 1];
+			switch (args[i]) {
+			case "-a":
+				address = value;
+				break;
+			case "-p":
+				port = Integer.parseInt(value);
+				break;
+			case "-t":
+				threadCount = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException(format("Unknown option: %s", args[i]));
+			}
+		}
+
+		final Path path = Paths.get(args[args.length - 1]);
+		final CountDownLatch shutdownRequested = new CountDownLatch(1);
+		final CountDownLatch unmounted = new CountDownLatch(1);
+		try (final FileSystem fileSystem = FileSystem.mount(path);
+				final Server server = new Server(fileSystem, new InetSocketAddress(address, port), threadCount)) {
+			server.start();
+			System.out.println(format("Serving %s at http://%s:%d/", path, address, Integer.valueOf(server.getAddress().getPort())));
+
+			/*
+			 * Serve until interrupted, then let the file system be
+			 * unmounted before the VM halts.
+			 */
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				shutdownRequested.countDown();
+				try {
+					unmounted.await(10, SECONDS);
+				} catch (final InterruptedException ie) {
+					// ignore
+				}
+			}));
+			try {
+				shutdownRequested.await();
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			unmounted.countDown();
+		}
+		return 0;
+	}
+
+	private static void usageServe(final int status) {
+		final String className = Main.class.getName();
+
+		System.err.println("Usage:");
+		System.err.println(format("\t%s serve help", className));
+		System.err.println(format("\t%s serve [-a <address>] [-p <port>] [-t <threads>] <file>", className));
+		System.err.println();
+		System.err.println("\tServes the files from <file> over HTTP (read-only), at 127.0.0.1:8080");
+		System.err.println("\tby default, until interrupted.");
+		System.exit(status);
+	}
+
+	private static int tar(final String ... args) throws IOException {
+		if (args.length == 1 && args[0].equals("help")) {
+			usageTar(0);
+			return 0;
+		}
+		if (args.length != 2 && args.length != 3 || !args[0].equals("-x") && !args[0].equals("-c")) {
+			usageTar(1);
+			return 1;
+		}
+
+		final Path path = Paths.get(args[1]);
+		try (final FileSystem fileSystem = FileSystem.mount(path)) {
+			FileSystemEntry directory = fileSystem.getRoot();
+			if (args.length == 3) {
+				for (final String name : args[2].split("/")) {
+					if (name.isEmpty()) {
+						continue;
+					}
+					if (!(directory instanceof Directory) || (directory = ((Directory) directory).getChild(name)) == null) {
+						throw new IOException(format("%s: No such file or directory", args[2]));
+					}
+				}
+			}
+			if (!(directory instanceof Directory)) {
+				throw new IOException(format("%s: Not a directory", args[2]));
+			}
+
+			final long entryCount;
+			if (args[0].equals("-x")) {
+				entryCount = Tar.importFrom(new BufferedInputStream(System.in, 64 * 1024), (Directory) directory);
+			} else {
+				entryCount = Tar.exportTo((Directory) directory, new BufferedOutputStream(System.out, 64 * 1024));
+			}
+			System.err.println(format("%d entries %s", Long.valueOf(entryCount), args[0].equals("-x") ? "extracted" : "archived"));
+		}
+		return 0;
+	}
+
+	private static void usageTar(final int status) {
+		final String className = Main.class.getName();
+
+		System.err.println("Usage:");
+		System.err.println(format("\t%s tar help", className));
+		System.err.println(format("\t%s tar -x|-c <file> [<directory>]", className));
+		System.err.println();
+		System.err.println("\t-x extracts a tar archive read from the standard input into <directory>");
+		System.err.println("\t   (the root one by default);");
+		System.err.println("\t-c writes the contents of <directory> to the standard output as a tar");
+		System.err.println("\t   archive.");
 		System.exit(status);
 	}
 
@@ -108,13 +403,34 @@ abstract class Main {
 
 		switch (args[0]) {
 		case "mkfs":
+		case "bench":
+		case "shell":
+		case "serve":
+		case "tar":
 			try {
 				final ArrayList<String> commandArgs0 = new ArrayList<>(asList(args));
 				commandArgs0.remove(0);
 				@Nonnull
 				@SuppressWarnings("null")
 				final String commandArgs1[] = commandArgs0.toArray(new String[0]);
-				System.exit(mkfs(commandArgs1));
+				switch (args[0]) {
+				case "mkfs":
+					System.exit(mkfs(commandArgs1));
+					break;
+				case "bench":
+					System.exit(bench(commandArgs1));
+					break;
+				case "shell":
+					System.exit(shell(commandArgs1));
+					break;
+				case "serve":
+					System.exit(serve(commandArgs1));
+					break;
+				case "tar":
+				default:
+					System.exit(tar(commandArgs1));
+					break;
+				}
 			} catch (final IllegalArgumentException iae) {
 				System.err.println(iae.getMessage());
 				LOGGER.log(WARNING, "", iae);
@@ -0,0 +1,29 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A chain of blocks mapped into memory for writing.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@Name("com.github.unix_junkie.javafs.MapBlocks")
+@Label("Map Blocks")
+@Description("A chain of blocks mapped into memory.")
+@Category({"javafs"})
+@Enabled(false)
+@StackTrace(false)
+final class MapBlocksEvent extends Event {
+	@Label("Chain Length")
+	@Description("The number of blocks in the chain.")
+	long chainLength;
+}
@@ -0,0 +1,444 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.min;
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>A fixed-length {@link FileChannel} backed by off-heap memory rather
+ * than a file, for {@linkplain FileSystem#createInMemory(long, BlockSize,
+ * FileSystemOption...) in-memory} file systems.</p>
+ *
+ * <p>The memory is split into direct buffers of at most {@value
+ * #CHUNK_LENGTH} bytes each, allocated on first write (or writable mapping),
+ * so a sparse volume only occupies as much memory as it has used; unwritten
+ * regions read as zeroes. The first chunk spans the boot sector and the
+ * inode table (up to the {@code origin} of the data area), and the others
+ * start at a whole number of chunks past it: block sizes divide the chunk
+ * length, so that no block straddles two chunks, and {@linkplain
+ * #slice(MapMode, long, long) slicing} a block returns a view of the chunk
+ * rather than a copy, just like mapping a file does. Read-only slices which
+ * span chunks are served with a copy; writable ones are not supported. The
+ * channel can't be {@linkplain #map(MapMode, long, long) mapped}.</p>
+ *
+ * <p>Memory is released (to the garbage collector) when the channel is
+ * closed.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class MemoryChannel extends FileChannel {
+	static final int CHUNK_LENGTH = 1 << 30;
+
+	/**
+	 * What unallocated chunks are transferred as.
+	 */
+	private static final byte ZEROES[] = new byte[64 * 1024];
+
+	private final long length;
+
+	/**
+	 * The end of the first chunk.
+	 */
+	private final long origin;
+
+	private final int chunkLength;
+
+	@Nonnull
+	private final ByteBuffer chunks[];
+
+	private long position;
+
+	/**
+	 * @param length the length of the channel, in bytes.
+	 * @param origin the offset of the data area, which becomes the
+	 *        boundary of the first chunk.
+	 */
+	MemoryChannel(final long length, final long origin) {
+		this(length, origin, CHUNK_LENGTH);
+	}
+
+	/**
+	 * @param length the length of the channel, in bytes.
+	 * @param origin the offset of the data area, which becomes the
+	 *        boundary of the first chunk.
+	 * @param chunkLength the length of the other chunks; must be a
+	 *        multiple of the largest block size.
+	 */
+	MemoryChannel(final long length, final long origin, final int chunkLength) {
+		if (origin <= 0 || origin > Integer.MAX_VALUE || origin > length) {
+			throw new IllegalArgumentException(format("Data area offset %d out of range", Long.valueOf(origin)));
+		}
+		if (chunkLength <= 0 || chunkLength % BlockSize.getMaximum().getLength() != 0) {
+			throw new IllegalArgumentException(String.valueOf(chunkLength));
+		}
+
+		this.length = length;
+		this.origin = origin;
+		this.chunkLength = chunkLength;
+		final long chunkCount = 1 + (length - origin + chunkLength - 1) / chunkLength;
+		if (chunkCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.valueOf(length));
+		}
+		this.chunks = new ByteBuffer[(int) chunkCount];
+	}
+
+	private int chunkIndex(final long position0) {
+		return position0 < this.origin ? 0 : 1 + (int) ((position0 - this.origin) / this.chunkLength);
+	}
+
+	private long chunkStart(final int index) {
+		return index == 0 ? 0L : this.origin + (long) (index - 1) * this.chunkLength;
+	}
+
+	private long chunkEnd(final int index) {
+		return index == 0 ? this.origin : min(this.length, this.chunkStart(index) + this.chunkLength);
+	}
+
+	/**
+	 * @param index the index of the chunk.
+	 * @param allocate whether to allocate the chunk if it hasn't been
+	 *        yet.
+	 * @return a view of the chunk, or {@code null} if it hasn't been
+	 *         allocated and {@code allocate} is {@code false}.
+	 * @throws ClosedChannelException if this channel is closed.
+	 */
+	@Nullable
+	private synchronized ByteBuffer chunk(final int index, final boolean allocate) throws ClosedChannelException {
+		if (!this.isOpen()) {
+			throw new ClosedChannelException();
+		}
+
+		ByteBuffer chunk = this.chunks[index];
+		if (chunk == null) {
+			if (!allocate) {
+				return null;
+			}
+			chunk = ByteBuffer.allocateDirect((int) (this.chunkEnd(index) - this.chunkStart(index)));
+			this.chunks[index] = chunk;
+		}
+		return chunk.duplicate();
+	}
+
+	/**
+	 * @see FileChannel#read(ByteBuffer, long)
+	 */
+	@Override
+	public int read(final ByteBuffer dst, final long position0) throws IOException {
+		if (position0 < 0) {
+			throw new IllegalArgumentException(String.valueOf(position0));
+		}
+		if (position0 >= this.length) {
+			this.chunk(0, false);
+			return -1;
+		}
+
+		final int n = (int) min(dst.remaining(), this.length - position0);
+		long p = position0;
+		final long end = position0 + n;
+		while (p < end) {
+			final int index = this.chunkIndex(p);
+			final int count = (int) (min(end, this.chunkEnd(index)) - p);
+			final ByteBuffer chunk = this.chunk(index, false);
+			if (chunk == null) {
+				for (int i = 0; i < count; i++) {
+					dst.put((byte) 0);
+				}
+			} else {
+				final int offset = (int) (p - this.chunkStart(index));
+				chunk.limit(offset + count).position(offset);
+				dst.put(chunk);
+			}
+			p += count;
+		}
+		return n;
+	}
+
+	/**
+	 * @see FileChannel#write(ByteBuffer, long)
+	 */
+	@Override
+	public int write(final ByteBuffer src, final long position0) throws IOException {
+		if (position0 < 0) {
+			throw new IllegalArgumentException(String.valueOf(position0));
+		}
+		final int n = src.remaining();
+		if (position0 + n > this.length) {
+			throw new IOException(format("Writing %d byte(s) at %d past the end of a %d-byte volume",
+					Integer.valueOf(n),
+					Long.valueOf(position0),
+					Long.valueOf(this.length)));
+		}
+
+		long p = position0;
+		final long end = position0 + n;
+		while (p < end) {
+			final int index = this.chunkIndex(p);
+			final int count = (int) (min(end, this.chunkEnd(index)) - p);
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer chunk = this.chunk(index, true);
+			chunk.position((int) (p - this.chunkStart(index)));
+			final ByteBuffer part = src.duplicate();
+			part.limit(part.position() + count);
+			chunk.put(part);
+			src.position(src.position() + count);
+			p += count;
+		}
+		return n;
+	}
+
+	/**
+	 * @see FileChannel#read(ByteBuffer)
+	 */
+	@Override
+	public synchronized int read(final ByteBuffer dst) throws IOException {
+		final int n = this.read(dst, this.position);
+		if (n > 0) {
+			this.position += n;
+		}
+		return n;
+	}
+
+	/**
+	 * @see FileChannel#read(ByteBuffer[], int, int)
+	 */
+	@Override
+	public synchronized long read(final ByteBuffer dsts[], final int offset, final int length0) throws IOException {
+		long total = 0L;
+		for (int i = offset; i < offset + length0; i++) {
+			final int n = this.read(dsts[i]);
+			if (n == -1) {
+				return total == 0L ? -1L : total;
+			}
+			total += n;
+			if (dsts[i].hasRemaining()) {
+				break;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @see FileChannel#write(ByteBuffer)
+	 */
+	@Override
+	public synchronized int write(final ByteBuffer src) throws IOException {
+		final int n = this.write(src, this.position);
+		this.position += n;
+		return n;
+	}
+
+	/**
+	 * @see FileChannel#write(ByteBuffer[], int, int)
+	 */
+	@Override
+	public synchronized long write(final ByteBuffer srcs[], final int offset, final int length0) throws IOException {
+		long total = 0L;
+		for (int i = offset; i < offset + length0; i++) {
+			total += this.write(srcs[i]);
+		}
+		return total;
+	}
+
+	/**
+	 * @see FileChannel#position()
+	 */
+	@Override
+	public synchronized long position() throws IOException {
+		this.chunk(0, false);
+		return this.position;
+	}
+
+	/**
+	 * @see FileChannel#position(long)
+	 */
+	@Override
+	public synchronized FileChannel position(final long newPosition) throws IOException {
+		if (newPosition < 0) {
+			throw new IllegalArgumentException(String.valueOf(newPosition));
+		}
+		this.chunk(0, false);
+		this.position = newPosition;
+		return this;
+	}
+
+	/**
+	 * @see FileChannel#size()
+	 */
+	@Override
+	public long size() throws IOException {
+		this.chunk(0, false);
+		return this.length;
+	}
+
+	/**
+	 * <p>The length of an in-memory volume is fixed.</p>
+	 *
+	 * @see FileChannel#truncate(long)
+	 */
+	@Override
+	public FileChannel truncate(final long size) throws IOException {
+		throw new IOException("In-memory volumes can't be truncated");
+	}
+
+	/**
+	 * <p>A no-op: there's no storage to force the contents to.</p>
+	 *
+	 * @see FileChannel#force(boolean)
+	 */
+	@Override
+	public void force(final boolean metaData) throws IOException {
+		this.chunk(0, false);
+	}
+
+	/**
+	 * @see FileChannel#transferTo(long, long, WritableByteChannel)
+	 */
+	@Override
+	public long transferTo(final long position0, final long count, final WritableByteChannel target) throws IOException {
+		if (position0 >= this.length) {
+			return 0L;
+		}
+
+		final long end = min(this.length, position0 + count);
+		long p = position0;
+		while (p < end) {
+			final int index = this.chunkIndex(p);
+			final int n = (int) (min(end, this.chunkEnd(index)) - p);
+			final ByteBuffer part;
+			final ByteBuffer chunk = this.chunk(index, false);
+			if (chunk == null) {
+				part = ByteBuffer.wrap(ZEROES, 0, min(n, ZEROES.length));
+			} else {
+				final int offset = (int) (p - this.chunkStart(index));
+				chunk.limit(offset + n).position(offset);
+				part = chunk;
+			}
+			while (part.hasRemaining()) {
+				final int written = target.write(part);
+				if (written == 0) {
+					return p - position0;
+				}
+				p += written;
+			}
+		}
+		return p - position0;
+	}
+
+	/**
+	 * @see FileChannel#transferFrom(ReadableByteChannel, long, long)
+	 */
+	@Override
+	public long transferFrom(final ReadableByteChannel src, final long position0, final long count) throws IOException {
+		final long end = min(this.length, position0 + count);
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long p = position0;
+		while (p < end) {
+			buffer.clear().limit((int) min(buffer.capacity(), end - p));
+			final int n = src.read(buffer);
+			if (n <= 0) {
+				break;
+			}
+			buffer.flip();
+			p += this.write(buffer, p);
+		}
+		return p - position0;
+	}
+
+	/**
+	 * <p>Returns a view of the memory at {@code position0}, unless the
+	 * region spans chunks: a read-only region is then copied, and a
+	 * writable one can't be sliced. This is what {@link FileSystem} uses
+	 * in place of {@linkplain #map(MapMode, long, long) mapping}.</p>
+	 *
+	 * @param mode whether the view is read-only or writable.
+	 * @param position0 the offset of the region.
+	 * @param size the length of the region.
+	 * @return the view of the region.
+	 * @throws IOException if a writable region spans chunks, or this
+	 *         channel is closed.
+	 */
+	ByteBuffer slice(final MapMode mode, final long position0, final long size) throws IOException {
+		if (position0 < 0 || size < 0 || size > Integer.MAX_VALUE || position0 + size > this.length) {
+			throw new IllegalArgumentException(format("Region of %d byte(s) at %d out of range",
+					Long.valueOf(size),
+					Long.valueOf(position0)));
+		}
+
+		final int index = this.chunkIndex(position0);
+		if (position0 + size <= this.chunkEnd(index)) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer chunk = this.chunk(index, true);
+			final int offset = (int) (position0 - this.chunkStart(index));
+			chunk.limit(offset + (int) size).position(offset);
+			return mode == MapMode.READ_ONLY ? chunk.slice().asReadOnlyBuffer() : chunk.slice();
+		}
+
+		if (mode != MapMode.READ_ONLY) {
+			throw new IOException(format("Can't map %d byte(s) at %d for writing: the region spans chunks",
+					Long.valueOf(size),
+					Long.valueOf(position0)));
+		}
+		final ByteBuffer copy = ByteBuffer.allocateDirect((int) size);
+		this.read(copy, position0);
+		copy.flip();
+		return copy.asReadOnlyBuffer();
+	}
+
+	/**
+	 * <p>There's no file to map: a {@link MappedByteBuffer} can't be
+	 * created other than by mapping one. Use {@link #slice(MapMode, long,
+	 * long)} instead.</p>
+	 *
+	 * @see FileChannel#map(MapMode, long, long)
+	 */
+	@Override
+	public MappedByteBuffer map(final MapMode mode, final long position0, final long size) {
+		throw new UnsupportedOperationException("In-memory volumes can't be mapped");
+	}
+
+	/**
+	 * <p>There's nobody else to lock the volume against.</p>
+	 *
+	 * @see FileChannel#lock(long, long, boolean)
+	 */
+	@Override
+	public FileLock lock(final long position0, final long size, final boolean shared) throws IOException {
+		throw new UnsupportedOperationException("In-memory volumes can't be locked");
+	}
+
+	/**
+	 * @see FileChannel#tryLock(long, long, boolean)
+	 */
+	@Override
+	public FileLock tryLock(final long position0, final long size, final boolean shared) throws IOException {
+		throw new UnsupportedOperationException("In-memory volumes can't be locked");
+	}
+
+	/**
+	 * @see java.nio.channels.spi.AbstractInterruptibleChannel#implCloseChannel()
+	 */
+	@Override
+	protected synchronized void implCloseChannel() {
+		for (int i = 0; i < this.chunks.length; i++) {
+			this.chunks[i] = null;
+		}
+	}
+}
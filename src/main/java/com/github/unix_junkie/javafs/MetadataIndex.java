@@ -0,0 +1,290 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A columnar, in-memory index of entry attributes: sizes, mtimes, uids,
+ * types and permissions are kept in primitive arrays, one row per entry, so
+ * that a {@linkplain MetadataQuery query} is a sequence of branch-free scans
+ * (which the JIT compiler is free to vectorize) rather than a walk of the
+ * directory tree decoding every entry.</p>
+ *
+ * <p>The index is built by a single tree walk on first query, and then kept
+ * up to date as entries are linked, unlinked and directories are resized,
+ * for as long as the file system stays mounted. Rows are keyed by the first
+ * block of the parent directory and the name of an entry rather than by
+ * inode, as {@linkplain Feature#INLINE_DATA inline} entries have none of
+ * their own; matches are reported as paths, rebuilt from the rows of the
+ * directories.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#query(MetadataQuery)
+ */
+final class MetadataIndex {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The parent of the root directory.
+	 */
+	private static final long NO_PARENT = -1L;
+
+	private int rowCount;
+
+	/**
+	 * First blocks of the parent directories.
+	 */
+	@Nonnull
+	private long parents[] = new long[INITIAL_CAPACITY];
+
+	@Nonnull
+	private String names[] = new String[INITIAL_CAPACITY];
+
+	/**
+	 * First blocks of the entries (0 for inline ones).
+	 */
+	@Nonnull
+	private long inodes[] = new long[INITIAL_CAPACITY];
+
+	@Nonnull
+	private long sizes[] = new long[INITIAL_CAPACITY];
+
+	@Nonnull
+	private long modificationTimes[] = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Unsigned uids.
+	 */
+	@Nonnull
+	private int uids[] = new int[INITIAL_CAPACITY];
+
+	/**
+	 * {@linkplain FileType#ordinal() Ordinals} of entry types.
+	 */
+	@Nonnull
+	private byte types[] = new byte[INITIAL_CAPACITY];
+
+	@Nonnull
+	private short modes[] = new short[INITIAL_CAPACITY];
+
+	/**
+	 * Rows by {@linkplain #key(long, String) parent and name}.
+	 */
+	@Nonnull
+	private final Map<String, Integer> rows = new HashMap<>();
+
+	/**
+	 * Rows of the directories, by first block.
+	 */
+	@Nonnull
+	private final Map<Long, Integer> directories = new HashMap<>();
+
+	private MetadataIndex() {
+		// empty
+	}
+
+	/**
+	 * @param root the root directory.
+	 * @return the index of all entries reachable from {@code root}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static MetadataIndex build(final Directory root) throws IOException {
+		final MetadataIndex index = new MetadataIndex();
+		index.add(NO_PARENT, root);
+		index.addChildren(root);
+		return index;
+	}
+
+	private void addChildren(final Directory directory) throws IOException {
+		for (final FileSystemEntry child : directory.list()) {
+			this.add(directory.firstBlockId, child);
+			if (child instanceof Directory) {
+				this.addChildren((Directory) child);
+			}
+		}
+	}
+
+	private static String key(final long parent, final String name) {
+		return parent + "/" + name;
+	}
+
+	/**
+	 * @return the number of entries indexed.
+	 */
+	synchronized int size() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @param parent the first block of the directory containing {@code
+	 *        entry}.
+	 * @param entry the (attached) entry to index.
+	 */
+	synchronized void add(final long parent, final FileSystemEntry entry) {
+		if (this.rowCount == this.inodes.length) {
+			final int capacity = max(INITIAL_CAPACITY, this.rowCount * 2);
+			this.parents = Arrays.copyOf(this.parents, capacity);
+			this.names = Arrays.copyOf(this.names, capacity);
+			this.inodes = Arrays.copyOf(this.inodes, capacity);
+			this.sizes = Arrays.copyOf(this.sizes, capacity);
+			this.modificationTimes = Arrays.copyOf(this.modificationTimes, capacity);
+			this.uids = Arrays.copyOf(this.uids, capacity);
+			this.types = Arrays.copyOf(this.types, capacity);
+			this.modes = Arrays.copyOf(this.modes, capacity);
+		}
+
+		final int row = this.rowCount++;
+		final String name = parent == NO_PARENT ? "" : entry.getName();
+		this.parents[row] = parent;
+		this.names[row] = name;
+		this.inodes[row] = entry.firstBlockId;
+		this.sizes[row] = entry.getDataSize();
+		this.modificationTimes[row] = entry.getModificationTime().getTime();
+		this.uids[row] = entry.getUid() & 0xffff;
+		this.types[row] = (byte) entry.getType().ordinal();
+		this.modes[row] = entry.getAttributes().getValue();
+		this.rows.put(key(parent, name), Integer.valueOf(row));
+		if (entry instanceof Directory) {
+			this.directories.put(Long.valueOf(entry.firstBlockId), Integer.valueOf(row));
+		}
+	}
+
+	/**
+	 * <p>Removes the entry named {@code name} (if indexed), moving the last
+	 * row into its place.</p>
+	 *
+	 * @param parent the first block of the directory containing the entry.
+	 * @param name the name of the entry.
+	 */
+	synchronized void remove(final long parent, final String name) {
+		final Integer row = this.rows.remove(key(parent, name));
+		if (row == null) {
+			return;
+		}
+
+		final int hole = row.intValue();
+		if (this.types[hole] == FileType.DIRECTORY.ordinal()) {
+			this.directories.remove(Long.valueOf(this.inodes[hole]));
+		}
+		final int last = --this.rowCount;
+		if (hole != last) {
+			this.parents[hole] = this.parents[last];
+			this.names[hole] = this.names[last];
+			this.inodes[hole] = this.inodes[last];
+			this.sizes[hole] = this.sizes[last];
+			this.modificationTimes[hole] = this.modificationTimes[last];
+			this.uids[hole] = this.uids[last];
+			this.types[hole] = this.types[last];
+			this.modes[hole] = this.modes[last];
+			this.rows.put(key(this.parents[hole], this.names[hole]), row);
+			if (this.types[hole] == FileType.DIRECTORY.ordinal()) {
+				this.directories.put(Long.valueOf(this.inodes[hole]), row);
+			}
+		}
+		this.names[last] = null;
+	}
+
+	/**
+	 * @param inode the first block of a directory.
+	 * @param size the new size of the directory.
+	 */
+	synchronized void setSize(final long inode, final long size) {
+		final Integer row = this.directories.get(Long.valueOf(inode));
+		if (row != null) {
+			this.sizes[row.intValue()] = size;
+		}
+	}
+
+	/**
+	 * @param query the query.
+	 * @return the absolute paths of the entries matching {@code query},
+	 *         sorted.
+	 * @throws IOException if the index has no row for the parent of a
+	 *         matching entry.
+	 */
+	synchronized List<String> query(final MetadataQuery query) throws IOException {
+		final int n = this.rowCount;
+		final boolean matches[] = new boolean[n];
+		Arrays.fill(matches, true);
+
+		if (query.minSize != Long.MIN_VALUE || query.maxSize != Long.MAX_VALUE) {
+			final long sizes0[] = this.sizes;
+			final long minSize = query.minSize;
+			final long maxSize = query.maxSize;
+			for (int i = 0; i < n; i++) {
+				matches[i] &= sizes0[i] >= minSize & sizes0[i] <= maxSize;
+			}
+		}
+		if (query.minModificationTime != Long.MIN_VALUE || query.maxModificationTime != Long.MAX_VALUE) {
+			final long modificationTimes0[] = this.modificationTimes;
+			final long minModificationTime = query.minModificationTime;
+			final long maxModificationTime = query.maxModificationTime;
+			for (int i = 0; i < n; i++) {
+				matches[i] &= modificationTimes0[i] >= minModificationTime & modificationTimes0[i] <= maxModificationTime;
+			}
+		}
+		if (query.uid != -1) {
+			final int uids0[] = this.uids;
+			final int uid = query.uid;
+			for (int i = 0; i < n; i++) {
+				matches[i] &= uids0[i] == uid;
+			}
+		}
+		if (query.permissions != 0) {
+			final short modes0[] = this.modes;
+			final short permissions = query.permissions;
+			for (int i = 0; i < n; i++) {
+				matches[i] &= (modes0[i] & permissions) == permissions;
+			}
+		}
+		final FileType type = query.type;
+		if (type != null) {
+			final byte types0[] = this.types;
+			final byte ordinal = (byte) type.ordinal();
+			for (int i = 0; i < n; i++) {
+				matches[i] &= types0[i] == ordinal;
+			}
+		}
+
+		final List<String> paths = new ArrayList<>();
+		final StringBuilder path = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (matches[i]) {
+				path.setLength(0);
+				this.appendPath(i, path);
+				paths.add(path.length() == 0 ? "/" : path.toString());
+			}
+		}
+		paths.sort(null);
+		return paths;
+	}
+
+	/**
+	 * <p>Appends the path of the entry at {@code row} to {@code path}; the
+	 * root directory's is empty.</p>
+	 */
+	private void appendPath(final int row, final StringBuilder path) throws IOException {
+		final long parent = this.parents[row];
+		if (parent == NO_PARENT) {
+			return;
+		}
+		final Integer parentRow = this.directories.get(Long.valueOf(parent));
+		if (parentRow == null) {
+			throw new IOException(format("Directory at block %d is not indexed", Long.valueOf(parent)));
+		}
+		this.appendPath(parentRow.intValue(), path);
+		path.append('/').append(this.names[row]);
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import java.util.Date;
+
+import javax.annotation.Nullable;
+
+/**
+ * <p>A conjunction of predicates over entry attributes, evaluated against
+ * the {@linkplain MetadataIndex metadata index} by {@link
+ * FileSystem#query(MetadataQuery)}. Queries are immutable: each predicate
+ * method returns a new query.</p>
+ *
+ * <pre>
+ * MetadataQuery.all().ofType(FileType.FILE).modifiedAfter(date).largerThan(1L &lt;&lt; 20).ownedBy((short) 1000)
+ * </pre>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class MetadataQuery {
+	private static final MetadataQuery ALL = new MetadataQuery(Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, -1, null, (short) 0);
+
+	/**
+	 * The smallest size matched, inclusive.
+	 */
+	final long minSize;
+
+	/**
+	 * The largest size matched, inclusive.
+	 */
+	final long maxSize;
+
+	/**
+	 * The earliest mtime matched, in milliseconds, inclusive.
+	 */
+	final long minModificationTime;
+
+	/**
+	 * The latest mtime matched, in milliseconds, inclusive.
+	 */
+	final long maxModificationTime;
+
+	/**
+	 * The uid matched (as an unsigned value), or -1 for any.
+	 */
+	final int uid;
+
+	@Nullable
+	final FileType type;
+
+	/**
+	 * The permission bits which must all be set.
+	 */
+	final short permissions;
+
+	private MetadataQuery(final long minSize, final long maxSize,
+			final long minModificationTime, final long maxModificationTime,
+			final int uid,
+			@Nullable final FileType type,
+			final short permissions) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.minModificationTime = minModificationTime;
+		this.maxModificationTime = maxModificationTime;
+		this.uid = uid;
+		this.type = type;
+		this.permissions = permissions;
+	}
+
+	/**
+	 * @return the query matching all entries.
+	 */
+	public static MetadataQuery all() {
+		return ALL;
+	}
+
+	/**
+	 * @param size the size, in bytes.
+	 * @return the query additionally matching entries larger than {@code
+	 *         size} only.
+	 */
+	public MetadataQuery largerThan(final long size) {
+		return size == Long.MAX_VALUE
+				? new MetadataQuery(Long.MAX_VALUE, Long.MIN_VALUE, this.minModificationTime, this.maxModificationTime, this.uid, this.type, this.permissions)
+				: new MetadataQuery(Math.max(this.minSize, size + 1), this.maxSize, this.minModificationTime, this.maxModificationTime, this.uid, this.type, this.permissions);
+	}
+
+	/**
+	 * @param size the size, in bytes.
+	 * @return the query additionally matching entries smaller than {@code
+	 *         size} only.
+	 */
+	public MetadataQuery smallerThan(final long size) {
+		return size == Long.MIN_VALUE
+				? new MetadataQuery(Long.MAX_VALUE, Long.MIN_VALUE, this.minModificationTime, this.maxModificationTime, this.uid, this.type, this.permissions)
+				: new MetadataQuery(this.minSize, Math.min(this.maxSize, size - 1), this.minModificationTime, this.maxModificationTime, this.uid, this.type, this.permissions);
+	}
+
+	/**
+	 * @param time the time.
+	 * @return the query additionally matching entries modified after
+	 *         {@code time} only.
+	 */
+	public MetadataQuery modifiedAfter(final Date time) {
+		final long millis = time.getTime();
+		return millis == Long.MAX_VALUE
+				? new MetadataQuery(this.minSize, this.maxSize, Long.MAX_VALUE, Long.MIN_VALUE, this.uid, this.type, this.permissions)
+				: new MetadataQuery(this.minSize, this.maxSize, Math.max(this.minModificationTime, millis + 1), this.maxModificationTime, this.uid, this.type, this.permissions);
+	}
+
+	/**
+	 * @param time the time.
+	 * @return the query additionally matching entries modified before
+	 *         {@code time} only.
+	 */
+	public MetadataQuery modifiedBefore(final Date time) {
+		final long millis = time.getTime();
+		return millis == Long.MIN_VALUE
+				? new MetadataQuery(this.minSize, this.maxSize, Long.MAX_VALUE, Long.MIN_VALUE, this.uid, this.type, this.permissions)
+				: new MetadataQuery(this.minSize, this.maxSize, this.minModificationTime, Math.min(this.maxModificationTime, millis - 1), this.uid, this.type, this.permissions);
+	}
+
+	/**
+	 * @param owner the uid of the owner.
+	 * @return the query matching entries owned by {@code owner} only
+	 *         (rather than by the owner given previously, if any).
+	 */
+	public MetadataQuery ownedBy(final short owner) {
+		return new MetadataQuery(this.minSize, this.maxSize, this.minModificationTime, this.maxModificationTime, owner & 0xffff, this.type, this.permissions);
+	}
+
+	/**
+	 * @param type the type of entries.
+	 * @return the query matching entries of {@code type} only (rather
+	 *         than of the type given previously, if any).
+	 */
+	public MetadataQuery ofType(final FileType type) {
+		return new MetadataQuery(this.minSize, this.maxSize, this.minModificationTime, this.maxModificationTime, this.uid, type, this.permissions);
+	}
+
+	/**
+	 * @param permissions the permission bits, e.g. {@code 04000} for
+	 *        set-user-ID files.
+	 * @return the query additionally matching entries which have all of
+	 *         {@code permissions} set only.
+	 */
+	public MetadataQuery withPermissions(final short permissions) {
+		return new MetadataQuery(this.minSize, this.maxSize, this.minModificationTime, this.maxModificationTime, this.uid, this.type, (short) (this.permissions | permissions));
+	}
+}
@@ -0,0 +1,126 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A Bloom filter over the encoded names of a directory's children, which
+ * lets a lookup of a name the directory doesn't contain skip reading the
+ * directory altogether.</p>
+ *
+ * <p>Filters are never persisted: a filter is built from the directory
+ * contents on first access, and cached by the {@link FileSystem} for as long
+ * as it stays mounted. Names are only ever added; an unlinked name remains a
+ * (harmless) false positive until the filter has seen twice as many names as
+ * it was sized for and is rebuilt.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class NameFilter {
+	/**
+	 * The number of bits per expected name: with {@value #HASH_COUNT}
+	 * hash functions, the false positive rate stays around 1%.
+	 */
+	private static final int BITS_PER_NAME = 10;
+
+	private static final int HASH_COUNT = 7;
+
+	private static final int MIN_CAPACITY = 64;
+
+	@Nonnull
+	private final long bits[];
+
+	private final int mask;
+
+	private final int capacity;
+
+	private int size;
+
+	/**
+	 * @param capacity the expected number of names.
+	 */
+	NameFilter(final int capacity) {
+		this.capacity = max(MIN_CAPACITY, capacity);
+		final int bitCount = Integer.highestOneBit(this.capacity * BITS_PER_NAME * 2 - 1);
+		this.bits = new long[bitCount >>> 6];
+		this.mask = bitCount - 1;
+	}
+
+	/**
+	 * @param children the entries to build the filter from.
+	 * @return a filter containing the names of {@code children}, sized for
+	 *         twice as many names.
+	 * @throws IOException if a name can't be encoded.
+	 */
+	static NameFilter of(final Collection<FileSystemEntry> children) throws IOException {
+		final NameFilter filter = new NameFilter(children.size() * 2);
+		for (final FileSystemEntry child : children) {
+			filter.add(child.getEncodedName());
+		}
+		return filter;
+	}
+
+	/**
+	 * @param name the encoded name.
+	 */
+	synchronized void add(final ByteBuffer name) {
+		final long hash = hash(name);
+		final int hash1 = (int) hash;
+		final int hash2 = (int) (hash >>> 32);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			final int index = hash1 + i * hash2 & this.mask;
+			this.bits[index >>> 6] |= 1L << index;
+		}
+		this.size++;
+	}
+
+	/**
+	 * @param name the encoded name.
+	 * @return {@code false} if {@code name} has definitely never been
+	 *         added, {@code true} if it might have been.
+	 */
+	synchronized boolean mightContain(final ByteBuffer name) {
+		final long hash = hash(name);
+		final int hash1 = (int) hash;
+		final int hash2 = (int) (hash >>> 32);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			final int index = hash1 + i * hash2 & this.mask;
+			if ((this.bits[index >>> 6] & 1L << index) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether more names have been added than the filter was
+	 *         sized for, so that it should be rebuilt.
+	 */
+	synchronized boolean isSaturated() {
+		return this.size > this.capacity;
+	}
+
+	/**
+	 * <p>64-bit FNV-1a, with the halves of the result used as the two
+	 * hashes of double hashing.</p>
+	 */
+	private static long hash(final ByteBuffer name) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = name.position(); i < name.limit(); i++) {
+			hash ^= name.get(i) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		/*
+		 * An even second hash would only ever probe half of the bits.
+		 */
+		return hash | 1L << 32;
+	}
+}
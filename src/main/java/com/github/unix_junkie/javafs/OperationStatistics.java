@@ -0,0 +1,106 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * <p>An immutable summary of a {@link LatencyHistogram}, as exposed via
+ * {@link FileSystemMetricsMXBean}. Latencies are in milliseconds.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class OperationStatistics {
+	private final long count;
+
+	private final double meanMillis;
+
+	private final double medianMillis;
+
+	private final double p99Millis;
+
+	private final double maxMillis;
+
+	/**
+	 * @param count the number of operations.
+	 * @param meanMillis the mean latency.
+	 * @param medianMillis the median latency.
+	 * @param p99Millis the 99th percentile of latency.
+	 * @param maxMillis the maximum latency.
+	 */
+	@ConstructorParameters({"count", "meanMillis", "medianMillis", "p99Millis", "maxMillis"})
+	public OperationStatistics(final long count,
+			final double meanMillis,
+			final double medianMillis,
+			final double p99Millis,
+			final double maxMillis) {
+		this.count = count;
+		this.meanMillis = meanMillis;
+		this.medianMillis = medianMillis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * @param histogram the histogram to summarize.
+	 * @return the summary of {@code histogram}.
+	 */
+	static OperationStatistics of(final LatencyHistogram histogram) {
+		return new OperationStatistics(histogram.getCount(),
+				histogram.getMean() / 1e6,
+				histogram.getPercentile(50) / 1e6,
+				histogram.getPercentile(99) / 1e6,
+				histogram.getMax() / 1e6);
+	}
+
+	/**
+	 * @return the number of operations.
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return the mean latency.
+	 */
+	public double getMeanMillis() {
+		return this.meanMillis;
+	}
+
+	/**
+	 * @return the median latency.
+	 */
+	public double getMedianMillis() {
+		return this.medianMillis;
+	}
+
+	/**
+	 * @return the 99th percentile of latency.
+	 */
+	public double getP99Millis() {
+		return this.p99Millis;
+	}
+
+	/**
+	 * @return the maximum latency.
+	 */
+	public double getMaxMillis() {
+		return this.maxMillis;
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return format("count: %d, mean: %.3f ms, median: %.3f ms, p99: %.3f ms, max: %.3f ms",
+				Long.valueOf(this.count),
+				Double.valueOf(this.meanMillis),
+				Double.valueOf(this.medianMillis),
+				Double.valueOf(this.p99Millis),
+				Double.valueOf(this.maxMillis));
+	}
+}
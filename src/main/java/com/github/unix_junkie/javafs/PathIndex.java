@@ -0,0 +1,420 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>The volume-wide {@linkplain Feature#PATH_INDEX index} of entry names.
+ * </p>
+ *
+ * <p>On disk, the index is a log of records, each either linking an entry
+ * (given its name, its first block and the first block of its parent
+ * directory) or unlinking one, stored in a chain of blocks which starts at
+ * block {@value #FIRST_BLOCK_ID}, right after the root directory. A record
+ * is laid out as follows:</p>
+ * <ul>
+ * <li>4 bytes: the length of the rest of the record,</li>
+ * <li>1 byte: {@value #LINK} (link) or {@value #UNLINK} (unlink),</li>
+ * <li>1 byte: {@value #DIRECTORY_FLAG} if the entry is a directory,</li>
+ * <li>8 bytes: the first block of the parent directory,</li>
+ * <li>8 bytes: the first block of the entry (0 if it's {@linkplain
+ *     Feature#INLINE_DATA inline}),</li>
+ * <li>the UTF-8 encoded name of the entry.</li>
+ * </ul>
+ * <p>Records may span blocks; the log ends with a zero length. Each record
+ * is appended as a part of the metadata update which links (or unlinks) the
+ * entry, so that the log never disagrees with the directory tree. Once most
+ * of the log consists of unlinked entries, it's rewritten.</p>
+ *
+ * <p>The log is replayed into memory on first access, after which a lookup
+ * by name is a search in a sorted map, and a path is rebuilt by following
+ * the parent directories up to the root one.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#find(String)
+ */
+final class PathIndex {
+	/**
+	 * The first block of the index, the root directory occupying block
+	 * 0.
+	 */
+	static final long FIRST_BLOCK_ID = 1L;
+
+	private static final byte LINK = 1;
+
+	private static final byte UNLINK = 2;
+
+	private static final byte DIRECTORY_FLAG = 0x1;
+
+	private static final int LENGTH_LENGTH = 4;
+
+	/**
+	 * The length of a record w/o the name, including the length itself.
+	 */
+	private static final int HEADER_LENGTH = LENGTH_LENGTH + 1 + 1 + 8 + 8;
+
+	/**
+	 * <p>An indexed entry.</p>
+	 */
+	private static final class Node {
+		final long parent;
+
+		final long inode;
+
+		@Nonnull
+		final String name;
+
+		final boolean directory;
+
+		Node(final long parent, final long inode, final String name, final boolean directory) {
+			this.parent = parent;
+			this.inode = inode;
+			this.name = name;
+			this.directory = directory;
+		}
+	}
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	private final int blockLength;
+
+	@Nonnull
+	private final List<Long> blockIds;
+
+	/**
+	 * The length of the log, w/o the trailing zero length.
+	 */
+	private long length;
+
+	private long recordCount;
+
+	/**
+	 * Indexed entries, by name.
+	 */
+	@Nonnull
+	private final NavigableMap<String, List<Node>> names = new TreeMap<>();
+
+	/**
+	 * Indexed directories, by their first block.
+	 */
+	@Nonnull
+	private final Map<Long, Node> directories = new HashMap<>();
+
+	private long size;
+
+	private PathIndex(final FileSystem fileSystem, final List<Long> blockIds) {
+		this.fileSystem = fileSystem;
+		this.blockLength = fileSystem.getBlockSize().getLength();
+		this.blockIds = blockIds;
+	}
+
+	/**
+	 * <p>Writes an empty log to block {@value #FIRST_BLOCK_ID}, which
+	 * must be already allocated.</p>
+	 *
+	 * @param fileSystem the file system being created.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static void create(final FileSystem fileSystem) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer end = ByteBuffer.allocate(LENGTH_LENGTH);
+		fileSystem.writeMetadata(fileSystem.getBlockOffset(FIRST_BLOCK_ID), end);
+	}
+
+	/**
+	 * @param fileSystem the file system the index belongs to.
+	 * @return the index, with the log replayed.
+	 * @throws IOException if the log is corrupt, or an I/O error occurs.
+	 */
+	static PathIndex load(final FileSystem fileSystem) throws IOException {
+		final PathIndex index = new PathIndex(fileSystem, fileSystem.getBlockIds(FIRST_BLOCK_ID));
+		index.replay();
+		return index;
+	}
+
+	private void replay() throws IOException {
+		final long capacity = (long) this.blockIds.size() * this.blockLength;
+		if (capacity > Integer.MAX_VALUE) {
+			// XXX: Implement for indices larger than 2G.
+			throw new IOException(format("Path indices larger than 2G are not supported: %d", Long.valueOf(capacity)));
+		}
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer log = ByteBuffer.allocate((int) capacity);
+		for (final Long blockId : this.blockIds) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer block = log.slice();
+			block.limit(this.blockLength);
+			this.fileSystem.readBlock(blockId.longValue(), 0, block);
+			log.position(log.position() + this.blockLength);
+		}
+		log.flip();
+
+		while (true) {
+			if (log.remaining() < LENGTH_LENGTH) {
+				throw new IOException(format("Path index is corrupt: no end of log at %d", Integer.valueOf(log.position())));
+			}
+			final int start = log.position();
+			final int recordLength = log.getInt();
+			if (recordLength == 0) {
+				log.position(start);
+				break;
+			}
+			if (recordLength < HEADER_LENGTH - LENGTH_LENGTH || recordLength > log.remaining()) {
+				throw new IOException(format("Path index is corrupt: record of %d byte(s) at %d", Integer.valueOf(recordLength), Integer.valueOf(start)));
+			}
+			final byte operation = log.get();
+			final boolean directory = (log.get() & DIRECTORY_FLAG) != 0;
+			final long parent = log.getLong();
+			final long inode = log.getLong();
+			final String name = new String(log.array(), log.position(), start + LENGTH_LENGTH + recordLength - log.position(), UTF_8);
+			log.position(start + LENGTH_LENGTH + recordLength);
+
+			switch (operation) {
+			case LINK:
+				this.link0(new Node(parent, inode, name, directory));
+				break;
+			case UNLINK:
+				this.unlink0(parent, name);
+				break;
+			default:
+				throw new IOException(format("Path index is corrupt: unknown operation %d at %d", Byte.valueOf(operation), Integer.valueOf(start)));
+			}
+			this.recordCount++;
+		}
+		this.length = log.position();
+	}
+
+	/**
+	 * @return the number of entries indexed.
+	 */
+	synchronized long size() {
+		return this.size;
+	}
+
+	/**
+	 * @param parent the first block of the parent directory.
+	 * @param child the entry just linked to the parent directory.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void link(final long parent, final FileSystemEntry child) throws IOException {
+		final Node node = new Node(parent, child.firstBlockId, child.getName(), child instanceof Directory);
+		this.append(LINK, node);
+		this.link0(node);
+	}
+
+	/**
+	 * @param parent the first block of the parent directory.
+	 * @param name the name of the entry just unlinked from the parent
+	 *        directory.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	synchronized void unlink(final long parent, final String name) throws IOException {
+		final Node node = this.unlink0(parent, name);
+		if (node == null) {
+			throw new IOException(format("%s is not indexed", name));
+		}
+		this.append(UNLINK, node);
+
+		/*
+		 * A log fitting into a single block is never rewritten, as
+		 * there's nothing to free.
+		 */
+		if (this.recordCount > 2 * this.size && this.blockIds.size() > 1) {
+			this.compact();
+		}
+	}
+
+	/**
+	 * @param glob the shell pattern (see {@link FileUtilities#globToPattern(String)})
+	 *        names are matched against.
+	 * @return the absolute paths of the entries whose names match {@code
+	 *         glob}, sorted.
+	 * @throws IOException if the index is inconsistent.
+	 */
+	synchronized List<String> find(final String glob) throws IOException {
+		final Pattern pattern = FileUtilities.globToPattern(glob);
+
+		/*
+		 * Only the names sharing the literal prefix of the pattern need
+		 * to be matched.
+		 */
+		int prefixLength = 0;
+		while (prefixLength < glob.length() && "*?[{\\".indexOf(glob.charAt(prefixLength)) == -1) {
+			prefixLength++;
+		}
+		final String prefix = glob.substring(0, prefixLength);
+		final Map<String, List<Node>> candidates = prefix.isEmpty()
+				? this.names
+				: this.names.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+
+		final List<String> paths = new ArrayList<>();
+		for (final Map.Entry<String, List<Node>> candidate : candidates.entrySet()) {
+			if (pattern.matcher(candidate.getKey()).matches()) {
+				for (final Node node : candidate.getValue()) {
+					paths.add(this.getPath(node));
+				}
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	private String getPath(final Node node) throws IOException {
+		final Deque<String> path = new ArrayDeque<>();
+		for (Node ancestor = node; ; ) {
+			path.addFirst(ancestor.name);
+			if (ancestor.parent == 0L) {
+				break;
+			}
+			final Node parent = this.directories.get(Long.valueOf(ancestor.parent));
+			if (parent == null || path.size() > this.directories.size()) {
+				throw new IOException(format("Path index is inconsistent: parent of %s not found", ancestor.name));
+			}
+			ancestor = parent;
+		}
+		return '/' + String.join("/", path);
+	}
+
+	private void link0(final Node node) {
+		this.names.computeIfAbsent(node.name, key -> new ArrayList<>(1)).add(node);
+		if (node.directory) {
+			this.directories.put(Long.valueOf(node.inode), node);
+		}
+		this.size++;
+	}
+
+	@Nullable
+	private Node unlink0(final long parent, final String name) {
+		final List<Node> nodes = this.names.get(name);
+		if (nodes == null) {
+			return null;
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			final Node node = nodes.get(i);
+			if (node.parent == parent) {
+				nodes.remove(i);
+				if (nodes.isEmpty()) {
+					this.names.remove(name);
+				}
+				if (node.directory) {
+					this.directories.remove(Long.valueOf(node.inode));
+				}
+				this.size--;
+				return node;
+			}
+		}
+		return null;
+	}
+
+	private void append(final byte operation, final Node node) throws IOException {
+		final ByteBuffer record = encode(operation, node, LENGTH_LENGTH);
+		this.write(this.length, record);
+		this.length += record.capacity() - LENGTH_LENGTH;
+		this.recordCount++;
+	}
+
+	/**
+	 * <p>Rewrites the log with a single record per indexed entry, and
+	 * frees the blocks no longer needed.</p>
+	 */
+	private void compact() throws IOException {
+		final List<ByteBuffer> records = new ArrayList<>();
+		long newLength = 0L;
+		for (final Collection<Node> nodes : this.names.values()) {
+			for (final Node node : nodes) {
+				final ByteBuffer record = encode(LINK, node, 0);
+				records.add(record);
+				newLength += record.capacity();
+			}
+		}
+
+		long position = 0L;
+		for (final ByteBuffer record : records) {
+			this.write(position, record);
+			position += record.capacity();
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer end = ByteBuffer.allocate(LENGTH_LENGTH);
+		this.write(position, end);
+
+		final long blockCount = (newLength + LENGTH_LENGTH + this.blockLength - 1) / this.blockLength;
+		for (int i = this.blockIds.size() - 1; i >= blockCount; i--) {
+			this.fileSystem.removeBlock(this.blockIds.get(i - 1).longValue(), this.blockIds.get(i).longValue());
+			this.blockIds.remove(i);
+		}
+
+		this.length = newLength;
+		this.recordCount = records.size();
+	}
+
+	/**
+	 * @param padding the number of zero bytes to append to the record.
+	 */
+	private static ByteBuffer encode(final byte operation, final Node node, final int padding) {
+		final byte name[] = node.name.getBytes(UTF_8);
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + name.length + padding);
+		record.putInt(HEADER_LENGTH - LENGTH_LENGTH + name.length);
+		record.put(operation);
+		record.put(node.directory ? DIRECTORY_FLAG : 0);
+		record.putLong(node.parent);
+		record.putLong(node.inode);
+		record.put(name);
+		record.rewind();
+		return record;
+	}
+
+	/**
+	 * <p>Writes {@code source} to the log at {@code position}, growing
+	 * the block chain as necessary.</p>
+	 */
+	private void write(final long position, final ByteBuffer source) throws IOException {
+		final long end = position + source.remaining();
+		while ((long) this.blockIds.size() * this.blockLength < end) {
+			final long lastBlockId = this.blockIds.get(this.blockIds.size() - 1).longValue();
+			this.blockIds.add(Long.valueOf(this.fileSystem.insertBlock(lastBlockId)));
+		}
+
+		long offset = position;
+		while (source.hasRemaining()) {
+			final int blockIndex = (int) (offset / this.blockLength);
+			final int offsetInBlock = (int) (offset % this.blockLength);
+			final int chunkLength = min(source.remaining(), this.blockLength - offsetInBlock);
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer chunk = source.duplicate();
+			chunk.limit(chunk.position() + chunkLength);
+			this.fileSystem.writeMetadata(this.fileSystem.getBlockOffset(this.blockIds.get(blockIndex).longValue()) + offsetInBlock, chunk);
+			source.position(source.position() + chunkLength);
+			offset += chunkLength;
+		}
+	}
+}
@@ -28,6 +28,8 @@ public final class PosixAttributes {
 	@SuppressWarnings("null")
 	private static final Logger LOGGER = Logger.getLogger(PosixAttributes.class.getName());
 
+	private static final char PERMISSIONS[] = {'r', 'w', 'x', 'r', 'w', 'x', 'r', 'w', 'x'};
+
 	private final short value;
 
 	/**
@@ -69,30 +71,38 @@ public final class PosixAttributes {
 	 */
 	@Override
 	public String toString() {
-		final StringBuilder builder = new StringBuilder();
-
-		final char permissions[] = {'r', 'w', 'x', 'r', 'w', 'x', 'r', 'w', 'x'};
-		for (int i = 0, n = permissions.length; i < n; i++) {
-			if ((this.value & 1 << n - i - 1) == 0) {
-				permissions[i] = '-';
-			}
-		}
-		if ((this.value >> 11 & 1) == 1) {
-			permissions[2] = 's';
-		}
-		if ((this.value >> 10 & 1) == 1) {
-			permissions[5] = 's';
-		}
-		if ((this.value >> 9 & 1) == 1) {
-			permissions[8] = 't';
-		}
-
 		@Nonnull
 		@SuppressWarnings("null")
-		final String s = builder.append(permissions).toString();
+		final String s = appendTo(new StringBuilder(), this.value).toString();
 		return s;
 	}
 
+	/**
+	 * <p>Appends the symbolic ({@code rwxr-xr-x}) form of POSIX attributes
+	 * to {@code destination}.</p>
+	 *
+	 * @param destination the builder to append to.
+	 * @param value POSIX attributes in octal form.
+	 * @return {@code destination}.
+	 */
+	static StringBuilder appendTo(final StringBuilder destination, final short value) {
+		for (int i = 0; i < 9; i++) {
+			final char c;
+			if (i == 2 && (value >> 11 & 1) == 1
+					|| i == 5 && (value >> 10 & 1) == 1) {
+				c = 's';
+			} else if (i == 8 && (value >> 9 & 1) == 1) {
+				c = 't';
+			} else if ((value & 1 << 8 - i) == 0) {
+				c = '-';
+			} else {
+				c = PERMISSIONS[i];
+			}
+			destination.append(c);
+		}
+		return destination;
+	}
+
 	/**
 	 * <p>Returns the {@code int} value with at most 12 lowest bits set,
 	 * representing POSIX attributes of a {@code path}.</p>
@@ -119,6 +129,25 @@ public final class PosixAttributes {
 	}
 
 	private static int defaultValue(final Path path) {
-		return isSymbolicLink(path) ? 0777 : isDirectory(path, NOFOLLOW_LINKS) ? 0755 : 0744;
+		return defaultValue(isSymbolicLink(path)
+				? FileType.SYMBOLIC_LINK
+				: isDirectory(path, NOFOLLOW_LINKS) ? FileType.DIRECTORY : FileType.FILE);
+	}
+
+	/**
+	 * @param type the type of an entry.
+	 * @return the attributes assumed for entries of {@code type} if the
+	 *         external file system has no notion of POSIX attributes.
+	 */
+	static int defaultValue(final FileType type) {
+		switch (type) {
+		case SYMBOLIC_LINK:
+			return 0777;
+		case DIRECTORY:
+			return 0755;
+		case FILE:
+		default:
+			return 0744;
+		}
 	}
 }
@@ -0,0 +1,34 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+/**
+ * <p>Defines how the space of a new file system container is reserved at
+ * the host file system. Can only be passed to {@link
+ * FileSystem#create(java.nio.file.Path, long, FileSystemOption...)}; not
+ * recorded in the container.</p>
+ *
+ * <p>Either way, the inode table is never written (nor read) when a file
+ * system is created, except for the entry of the root directory: the rest
+ * of the table reads as zeroes, i.e.: free blocks, so creating a file
+ * system takes the same time regardless of its size.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public enum Preallocation implements FileSystemOption {
+	/**
+	 * The container is created as a sparse file, the space being
+	 * allocated by the host file system as blocks are written to. This is
+	 * the default.
+	 */
+	SPARSE,
+	/**
+	 * The whole container is filled with zeroes at creation time, so that
+	 * the host file system allocates (and, hopefully, keeps contiguous)
+	 * all of its space up front. Takes time proportional to the container
+	 * length.
+	 */
+	FULL,
+	;
+}
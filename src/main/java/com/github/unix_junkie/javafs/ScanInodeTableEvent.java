@@ -0,0 +1,29 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A full sequential scan of the inode table, e.g.: while counting free blocks.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@Name("com.github.unix_junkie.javafs.ScanInodeTable")
+@Label("Scan Inode Table")
+@Description("A full scan of the inode table.")
+@Category({"javafs"})
+@Enabled(false)
+@StackTrace(false)
+final class ScanInodeTableEvent extends Event {
+	@Label("Blocks Scanned")
+	@Description("The number of inode table entries read.")
+	long blocksScanned;
+}
@@ -0,0 +1,503 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Serves the files of a mounted file system over HTTP, read-only. See
+ * {@code Main serve}.</p>
+ *
+ * <p>Both {@code GET} and {@code HEAD} requests are supported, including
+ * single-range {@code Range} requests and conditional requests ({@code
+ * If-None-Match}, {@code If-Modified-Since} and {@code If-Range}) based on
+ * the modification time of the file. A directory is served as a plain
+ * text listing of its entries.</p>
+ *
+ * <p>Since the file system is not modified while being served, resolved
+ * entries are cached (along with the chains of blocks they occupy), so
+ * that small reads from the same file don't walk the directory tree and
+ * the inode table over and over again. Responses are {@linkplain
+ * EntryChannel#transferTo(long, long, WritableByteChannel) transferred}
+ * one run of adjacent blocks at a time.</p>
+ *
+ * <p>Requests are handled by a fixed pool of threads; once its queue is
+ * full, the thread accepting connections handles the request itself, thus
+ * slowing down the clients.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class Server implements AutoCloseable {
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+	private static final int QUEUE_LENGTH_PER_THREAD = 64;
+
+	private static final int CACHE_SIZE = 4096;
+
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	@Nonnull
+	private final HttpServer server;
+
+	@Nonnull
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Resolved entries, by normalized path, in the access order.
+	 */
+	@Nonnull
+	private final Map<String, Resource> cache = new LinkedHashMap<String, Resource>(16, 0.75f, true) {
+		private static final long serialVersionUID = -5384327195547417367L;
+
+		@Override
+		protected boolean removeEldestEntry(@Nullable final Entry<String, Resource> eldest) {
+			return this.size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * @param fileSystem the mounted file system.
+	 * @param address the address to listen at.
+	 * @param threadCount the number of threads handling requests.
+	 * @throws IOException if the address can't be bound.
+	 */
+	Server(final FileSystem fileSystem, final InetSocketAddress address, final int threadCount) throws IOException {
+		if (threadCount <= 0) {
+			throw new IllegalArgumentException(format("Invalid thread count: %d", Integer.valueOf(threadCount)));
+		}
+
+		this.fileSystem = fileSystem;
+
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threadCount, threadCount,
+				60, SECONDS,
+				new ArrayBlockingQueue<>(threadCount * QUEUE_LENGTH_PER_THREAD),
+				runnable -> {
+					final Thread thread = new Thread(runnable, "javafs-http-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final HttpServer server0 = HttpServer.create(address, threadCount * QUEUE_LENGTH_PER_THREAD);
+		this.server = server0;
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", this::handle);
+	}
+
+	/**
+	 * <p>Starts accepting connections.</p>
+	 */
+	void start() {
+		this.server.start();
+	}
+
+	/**
+	 * @return the address the server listens at.
+	 */
+	InetSocketAddress getAddress() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final InetSocketAddress address = this.server.getAddress();
+		return address;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Stops accepting connections and waits (up to a second) for the
+	 * requests being handled to complete.</p>
+	 *
+	 * @see AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		this.server.stop(1);
+		this.executor.shutdown();
+	}
+
+	private void handle(final HttpExchange exchange) {
+		try {
+			final String method = exchange.getRequestMethod();
+			final boolean head = method.equals("HEAD");
+			if (!head && !method.equals("GET")) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				sendError(exchange, HTTP_BAD_METHOD, method);
+				return;
+			}
+
+			final String path = normalize(exchange.getRequestURI().getPath());
+			final Resource resource;
+			try {
+				resource = this.resolve(path);
+			} catch (final IOException ioe) {
+				LOGGER.log(WARNING, path, ioe);
+				sendError(exchange, HTTP_INTERNAL_ERROR, ioe.getMessage());
+				return;
+			}
+			if (resource == null) {
+				sendError(exchange, HTTP_NOT_FOUND, path);
+				return;
+			}
+
+			if (resource.entry instanceof Directory) {
+				this.sendListing(exchange, head, (Directory) resource.entry);
+			} else if (resource.entry instanceof File) {
+				sendFile(exchange, head, resource);
+			} else {
+				sendError(exchange, HTTP_FORBIDDEN, path);
+			}
+		} catch (final IOException | RuntimeException e) {
+			/*
+			 * Most probably, the client has gone away.
+			 */
+			LOGGER.log(FINE, "", e);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @param path the absolute, normalized path.
+	 * @return the entry denoted by {@code path}, or {@code null} if there's
+	 *         no such entry.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Nullable
+	private Resource resolve(final String path) throws IOException {
+		synchronized (this.cache) {
+			final Resource resource = this.cache.get(path);
+			if (resource != null) {
+				return resource;
+			}
+		}
+
+		FileSystemEntry entry = this.fileSystem.getRoot();
+		for (final String name : path.split("/")) {
+			if (name.isEmpty()) {
+				continue;
+			}
+			if (!(entry instanceof Directory)) {
+				return null;
+			}
+			entry = ((Directory) entry).getChild(name);
+			if (entry == null) {
+				return null;
+			}
+		}
+
+		final Resource resource = new Resource(entry);
+		synchronized (this.cache) {
+			this.cache.put(path, resource);
+		}
+		return resource;
+	}
+
+	private void sendListing(final HttpExchange exchange, final boolean head, final Directory directory) throws IOException {
+		final StringBuilder listing = new StringBuilder();
+		for (final FileSystemEntry child : directory.list()) {
+			listing.append(child.getName()).append(child instanceof Directory ? "/" : "").append('\n');
+		}
+		final byte body[] = listing.toString().getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		if (head) {
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+			exchange.sendResponseHeaders(HTTP_OK, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(HTTP_OK, body.length == 0 ? -1 : body.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void sendFile(final HttpExchange exchange, final boolean head, final Resource resource) throws IOException {
+		final Headers requestHeaders = exchange.getRequestHeaders();
+		final Headers responseHeaders = exchange.getResponseHeaders();
+		final long size = resource.entry.getDataSize();
+
+		responseHeaders.set("Accept-Ranges", "bytes");
+		responseHeaders.set("Last-Modified", resource.lastModified);
+		responseHeaders.set("ETag", resource.etag);
+
+		if (resource.isNotModified(requestHeaders.getFirst("If-None-Match"), requestHeaders.getFirst("If-Modified-Since"))) {
+			exchange.sendResponseHeaders(HTTP_NOT_MODIFIED, -1);
+			return;
+		}
+
+		final String ifRange = requestHeaders.getFirst("If-Range");
+		final long range[] = ifRange == null || resource.isCurrent(ifRange)
+				? parseRange(requestHeaders.getFirst("Range"), size)
+				: null;
+		if (range != null && range.length == 0) {
+			responseHeaders.set("Content-Range", format("bytes */%d", Long.valueOf(size)));
+			sendError(exchange, 416, "Range Not Satisfiable");
+			return;
+		}
+
+		final long from = range == null ? 0L : range[0];
+		final long length = range == null ? size : range[1] - range[0] + 1;
+		if (range != null) {
+			responseHeaders.set("Content-Range", format("bytes %d-%d/%d", Long.valueOf(range[0]), Long.valueOf(range[1]), Long.valueOf(size)));
+		}
+		responseHeaders.set("Content-Type", resource.contentType);
+		final int status = range == null ? HTTP_OK : HTTP_PARTIAL;
+		if (head || length == 0) {
+			responseHeaders.set("Content-Length", String.valueOf(length));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+
+		exchange.sendResponseHeaders(status, length);
+		try (final WritableByteChannel body = Channels.newChannel(exchange.getResponseBody())) {
+			final long transferred = resource.channel.transferTo(from, length, body);
+			if (transferred != length) {
+				throw new IOException(format("%d byte(s) transferred while %d expected", Long.valueOf(transferred), Long.valueOf(length)));
+			}
+		}
+	}
+
+	private static void sendError(final HttpExchange exchange, final int status, @Nullable final String message) throws IOException {
+		final byte body[] = (status + " " + message + '\n').getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * <p>Parses a {@code Range} header. Only a single byte range is
+	 * supported; multiple ranges are ignored, as permitted by RFC 7233,
+	 * and the whole file is sent instead.</p>
+	 *
+	 * @param header the {@code Range} header value.
+	 * @param size the size of the file.
+	 * @return {@code null} if the whole file should be sent, an empty array
+	 *         if the range is not satisfiable, or the first and the last
+	 *         (inclusive) positions of the range otherwise.
+	 */
+	@Nullable
+	static long[] parseRange(@Nullable final String header, final long size) {
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') != -1) {
+			return null;
+		}
+		final String spec = header.substring("bytes=".length()).trim();
+		final int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
+
+		final long first;
+		final long last;
+		try {
+			if (dash == 0) {
+				/*
+				 * The suffix: the last N bytes.
+				 */
+				final long suffixLength = Long.parseLong(spec.substring(1));
+				if (suffixLength == 0 || size == 0) {
+					return new long[0];
+				}
+				first = Math.max(0L, size - suffixLength);
+				last = size - 1;
+			} else {
+				first = Long.parseLong(spec.substring(0, dash));
+				if (dash == spec.length() - 1) {
+					last = size - 1;
+				} else {
+					final long requestedLast = Long.parseLong(spec.substring(dash + 1));
+					if (requestedLast < first) {
+						/*
+						 * Syntactically invalid: ignored.
+						 */
+						return null;
+					}
+					last = min(size - 1, requestedLast);
+				}
+			}
+		} catch (final NumberFormatException nfe) {
+			return null;
+		}
+		if (first < 0 || first >= size) {
+			return new long[0];
+		}
+		return new long[] {first, last};
+	}
+
+	/**
+	 * @param path the decoded request path.
+	 * @return the absolute path w/o {@code .} and {@code ..} components
+	 *         (which can't lead outside the root directory).
+	 */
+	static String normalize(final String path) {
+		final List<String> names = new ArrayList<>();
+		for (final String name : path.split("/")) {
+			switch (name) {
+			case "":
+			case ".":
+				break;
+			case "..":
+				if (!names.isEmpty()) {
+					names.remove(names.size() - 1);
+				}
+				break;
+			default:
+				names.add(name);
+				break;
+			}
+		}
+		return '/' + String.join("/", names);
+	}
+
+	/**
+	 * <p>A resolved entry, along with the response headers derived from
+	 * its metadata.</p>
+	 */
+	private static final class Resource {
+		@Nonnull
+		final FileSystemEntry entry;
+
+		/**
+		 * The channel shared by all the requests for this entry, so
+		 * that the chain of blocks is only resolved once.
+		 */
+		@Nonnull
+		final EntryChannel channel;
+
+		/**
+		 * The modification time, truncated to seconds.
+		 */
+		private final long modificationTime;
+
+		@Nonnull
+		final String lastModified;
+
+		@Nonnull
+		final String etag;
+
+		@Nonnull
+		final String contentType;
+
+		Resource(final FileSystemEntry entry) {
+			this.entry = entry;
+			this.channel = (EntryChannel) entry.newByteChannel();
+			this.modificationTime = entry.getModificationTime().getTime() / 1000;
+			@Nonnull
+			@SuppressWarnings("null")
+			final String lastModified0 = HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochSecond(this.modificationTime), ZoneOffset.UTC));
+			this.lastModified = lastModified0;
+			this.etag = format("\"%x-%x-%x\"",
+					Long.valueOf(entry.getFirstBlockId()),
+					Long.valueOf(entry.getModificationTime().getTime()),
+					Long.valueOf(entry.getDataSize()));
+			final String guessedType = URLConnection.guessContentTypeFromName(entry.getName());
+			this.contentType = guessedType == null ? "application/octet-stream" : guessedType;
+		}
+
+		/**
+		 * @param ifNoneMatch the {@code If-None-Match} header value.
+		 * @param ifModifiedSince the {@code If-Modified-Since} header
+		 *        value, only taken into account if {@code ifNoneMatch}
+		 *        is absent.
+		 * @return whether the client's copy is up to date.
+		 */
+		boolean isNotModified(@Nullable final String ifNoneMatch, @Nullable final String ifModifiedSince) {
+			if (ifNoneMatch != null) {
+				for (final String tag : ifNoneMatch.split(",")) {
+					final String tag0 = tag.trim();
+					if (tag0.equals("*") || tag0.equals(this.etag) || tag0.equals("W/" + this.etag)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (ifModifiedSince != null) {
+				final Long since = parseDate(ifModifiedSince);
+				return since != null && this.modificationTime <= since.longValue();
+			}
+			return false;
+		}
+
+		/**
+		 * @param ifRange the {@code If-Range} header value, either an
+		 *        entity tag or a date.
+		 * @return whether the range requested can be sent.
+		 */
+		boolean isCurrent(final String ifRange) {
+			if (ifRange.startsWith("\"")) {
+				return ifRange.equals(this.etag);
+			}
+			final Long date = parseDate(ifRange);
+			return date != null && date.longValue() == this.modificationTime;
+		}
+
+		/**
+		 * @return the date in seconds since the epoch, or {@code null} if
+		 *         {@code date} can't be parsed.
+		 */
+		@Nullable
+		private static Long parseDate(final String date) {
+			try {
+				return Long.valueOf(ZonedDateTime.parse(date.trim(), HTTP_DATE).toEpochSecond());
+			} catch (final DateTimeParseException dtpe) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,721 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>Runs file management commands ({@code ls}, {@code cp}, {@code cat},
+ * {@code rm}, {@code mkdir}, {@code df}, {@code du}, {@code stat},
+ * {@code find}, {@code locate}, etc.) read from a script or from the
+ * standard input against a single mounted file system, so that the mount
+ * cost is only paid once. See {@code Main shell}.</p>
+ *
+ * <p>Paths are resolved from the root directory for every command, either
+ * absolute or relative to the working directory ({@code cd}). Host paths
+ * (the sources and targets of {@code cp}) carry the {@value #HOST_PREFIX}
+ * prefix.</p>
+ *
+ * <p>A failed command doesn't terminate the script; the error is reported,
+ * and the script is continued.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class Shell {
+	/**
+	 * The prefix which denotes a path at the host file system.
+	 */
+	static final String HOST_PREFIX = "file:";
+
+	private static final String PROMPT = "javafs> ";
+
+	private static final int BUFFER_LENGTH = 64 * 1024;
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	@Nonnull
+	private final PrintStream out;
+
+	@Nonnull
+	private final PrintStream err;
+
+	/**
+	 * The names leading from the root directory to the working one.
+	 */
+	@Nonnull
+	private List<String> workingDirectory = new ArrayList<>();
+
+	private boolean exitRequested;
+
+	/**
+	 * Reused by {@code ls -l}.
+	 */
+	@Nonnull
+	private final StatBuffer stats = new StatBuffer();
+
+	@Nonnull
+	private final StatFormatter statFormatter = new StatFormatter();
+
+	@Nonnull
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * @param fileSystem the mounted file system.
+	 * @param out the stream command output is printed to.
+	 * @param err the stream errors are reported to.
+	 */
+	Shell(final FileSystem fileSystem, final PrintStream out, final PrintStream err) {
+		this.fileSystem = fileSystem;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * <p>Runs commands read from {@code in}, one per line, until either
+	 * the end of input or {@code exit} is reached.</p>
+	 *
+	 * @param in the source of the commands.
+	 * @param interactive whether to print a prompt before each command.
+	 * @return 0 if all commands have succeeded, 1 otherwise.
+	 * @throws IOException if {@code in} can't be read.
+	 */
+	int run(final BufferedReader in, final boolean interactive) throws IOException {
+		int status = 0;
+		int lineNumber = 0;
+		while (!this.exitRequested) {
+			if (interactive) {
+				this.out.print(PROMPT);
+				this.out.flush();
+			}
+			final String line = in.readLine();
+			if (line == null) {
+				break;
+			}
+			lineNumber++;
+
+			try {
+				final List<String> words = split(line);
+				if (!words.isEmpty()) {
+					this.execute(words);
+				}
+			} catch (final IOException | IllegalArgumentException | IllegalStateException e) {
+				this.err.println(interactive
+						? e.getMessage()
+						: format("%d: %s", Integer.valueOf(lineNumber), e.getMessage()));
+				status = 1;
+			}
+			this.out.flush();
+		}
+		return status;
+	}
+
+	/**
+	 * <p>Runs a single command.</p>
+	 *
+	 * @param words the command name, followed by its arguments.
+	 * @throws IOException if the command fails.
+	 */
+	void execute(final List<String> words) throws IOException {
+		final String command = words.get(0);
+		final List<String> args = new ArrayList<>(words.subList(1, words.size()));
+		switch (command) {
+		case "ls":
+			this.ls(args);
+			break;
+		case "cp":
+			this.cp(args);
+			break;
+		case "cat":
+			this.cat(args);
+			break;
+		case "rm":
+			this.rm(args);
+			break;
+		case "mkdir":
+			this.mkdir(args);
+			break;
+		case "df":
+			this.fileSystem.printStats(this.out);
+			break;
+		case "du":
+			this.du(args);
+			break;
+		case "stat":
+			this.stat(args);
+			break;
+		case "find":
+			this.find(args);
+			break;
+		case "locate":
+			this.locate(args);
+			break;
+		case "cd":
+			this.cd(args);
+			break;
+		case "pwd":
+			this.out.println(toString(this.workingDirectory));
+			break;
+		case "help":
+			this.help();
+			break;
+		case "exit":
+		case "quit":
+			this.exitRequested = true;
+			break;
+		default:
+			throw new IllegalArgumentException(format("%s: command not found", command));
+		}
+	}
+
+	private void ls(final List<String> args) throws IOException {
+		final boolean longFormat = options(args, "l").contains(Character.valueOf('l'));
+		if (args.isEmpty()) {
+			args.add(".");
+		}
+
+		for (final String path : args) {
+			final FileSystemEntry entry = this.resolve(path);
+			if (entry instanceof Directory) {
+				if (args.size() > 1) {
+					this.out.println(format("%s:", path));
+				}
+				if (longFormat) {
+					final Directory directory = (Directory) entry;
+					final int n = directory.stat(this.stats);
+					for (int i = 0; i < n; i++) {
+						this.line.setLength(0);
+						this.statFormatter.format(this.stats, i, this.line);
+						if (this.stats.getType(i) == FileType.SYMBOLIC_LINK) {
+							/*
+							 * Link targets are stored as data,
+							 * and are not part of the attributes.
+							 */
+							final FileSystemEntry link = directory.getChild(this.stats.getName(i));
+							if (link instanceof SymbolicLink) {
+								this.line.append(" -> ").append(((SymbolicLink) link).getTarget());
+							}
+						}
+						this.out.println(this.line);
+					}
+				} else {
+					for (final FileSystemEntry child : ((Directory) entry).list()) {
+						this.out.println(child.getName());
+					}
+				}
+			} else {
+				this.out.println(longFormat ? entry.toString() : path);
+			}
+		}
+	}
+
+	private void cp(final List<String> args) throws IOException {
+		options(args, "");
+		if (args.size() != 2) {
+			throw new IllegalArgumentException("Usage: cp <source> <target>");
+		}
+
+		final String source = args.get(0);
+		final String target = args.get(1);
+		final boolean hostSource = source.startsWith(HOST_PREFIX);
+		final boolean hostTarget = target.startsWith(HOST_PREFIX);
+		if (hostSource && hostTarget) {
+			throw new IllegalArgumentException("cp: either the source or the target should reside on the mounted file system");
+		}
+
+		if (hostTarget) {
+			final FileSystemEntry entry = this.resolve(source);
+			if (entry.getType() != FileType.FILE) {
+				throw new IOException(format("cp: %s: not a regular file", source));
+			}
+			final Path hostPath = toHostPath(target);
+			final Path destination = Files.isDirectory(hostPath)
+					? hostPath.resolve(entry.getName())
+					: hostPath;
+			try (final SeekableByteChannel channel = entry.newByteChannel()) {
+				Files.copy(Channels.newInputStream(channel), destination, REPLACE_EXISTING);
+			}
+			return;
+		}
+
+		/*
+		 * Copying into the mounted file system: either into an existing
+		 * directory (keeping the source name), or under a new name.
+		 */
+		final List<String> targetNames = this.normalize(target);
+		final FileSystemEntry existingTarget = this.lookup(targetNames);
+		final Directory directory;
+		@Nullable
+		final String name;
+		if (existingTarget instanceof Directory) {
+			directory = (Directory) existingTarget;
+			name = null;
+		} else {
+			directory = this.resolveDirectory(targetNames.subList(0, targetNames.size() - 1));
+			name = targetNames.get(targetNames.size() - 1);
+		}
+
+		if (hostSource) {
+			final Path hostPath = toHostPath(source);
+			if (Files.isDirectory(hostPath)) {
+				throw new IOException(format("cp: omitting directory %s", source));
+			}
+			if (name == null) {
+				directory.addChild(new File(hostPath));
+			} else {
+				try (final SeekableByteChannel channel = Files.newByteChannel(hostPath)) {
+					directory.addChild(new File(name, channel.size(), channel));
+				}
+			}
+		} else {
+			final FileSystemEntry entry = this.resolve(source);
+			if (entry.getType() != FileType.FILE) {
+				throw new IOException(format("cp: %s: not a regular file", source));
+			}
+			try (final SeekableByteChannel channel = entry.newByteChannel()) {
+				directory.addChild(new File(name == null ? entry.getName() : name, entry.getDataSize(), channel));
+			}
+		}
+	}
+
+	private void cat(final List<String> args) throws IOException {
+		options(args, "");
+
+		final WritableByteChannel destination = Channels.newChannel(this.out);
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+		for (final String path : args) {
+			final FileSystemEntry entry = this.resolve(path);
+			if (entry instanceof Directory) {
+				throw new IOException(format("cat: %s: Is a directory", path));
+			}
+			try (final SeekableByteChannel channel = entry.newByteChannel()) {
+				while (channel.read(buffer) != -1) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						destination.write(buffer);
+					}
+					buffer.clear();
+				}
+			}
+		}
+		this.out.flush();
+	}
+
+	private void rm(final List<String> args) throws IOException {
+		final boolean recursive = options(args, "r").contains(Character.valueOf('r'));
+
+		for (final String path : args) {
+			final List<String> names = this.normalize(path);
+			if (names.isEmpty()) {
+				throw new IllegalArgumentException("rm: refusing to remove /");
+			}
+			final Directory parent = this.resolveDirectory(names.subList(0, names.size() - 1));
+			final String name = names.get(names.size() - 1);
+			final FileSystemEntry entry = parent.getChild(name);
+			if (entry == null) {
+				throw new IOException(format("rm: cannot remove `%s': No such file or directory", path));
+			}
+			if (entry instanceof Directory) {
+				if (!recursive) {
+					throw new IOException(format("rm: cannot remove `%s': Is a directory", path));
+				}
+				removeChildren((Directory) entry);
+			}
+			parent.unlink(name);
+		}
+	}
+
+	private static void removeChildren(final Directory directory) throws IOException {
+		for (final FileSystemEntry child : directory.list()) {
+			if (child instanceof Directory) {
+				removeChildren((Directory) child);
+			}
+			directory.unlink(child.getName());
+		}
+	}
+
+	private void mkdir(final List<String> args) throws IOException {
+		final boolean parents = options(args, "p").contains(Character.valueOf('p'));
+
+		for (final String path : args) {
+			final List<String> names = this.normalize(path);
+			if (names.isEmpty()) {
+				if (parents) {
+					continue;
+				}
+				throw new IOException("mkdir: cannot create directory `/': File exists");
+			}
+
+			Directory directory = this.fileSystem.getRoot();
+			for (int i = 0; i < names.size(); i++) {
+				final String name = names.get(i);
+				final FileSystemEntry child = directory.getChild(name);
+				final boolean last = i == names.size() - 1;
+				if (child == null) {
+					if (!parents && !last) {
+						throw new IOException(format("mkdir: cannot create directory `%s': No such file or directory", path));
+					}
+					directory.addChild(new Directory(name));
+					directory = (Directory) directory.getChild(name);
+				} else if (child instanceof Directory && (parents || !last)) {
+					directory = (Directory) child;
+				} else {
+					throw new IOException(format("mkdir: cannot create directory `%s': File exists", path));
+				}
+			}
+		}
+	}
+
+	private void stat(final List<String> args) throws IOException {
+		options(args, "");
+
+		final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS Z");
+		for (final String path : args) {
+			final FileSystemEntry entry = this.resolve(path);
+			this.out.println(format("  File: %s", toString(this.normalize(path))));
+			this.out.println(format("  Type: %s", entry.getType().name().toLowerCase(Locale.ENGLISH).replace('_', ' ')));
+			this.out.println(format("  Size: %d\tBlocks: %d\tInode: %d",
+					Long.valueOf(entry.getDataSize()),
+					Long.valueOf(entry.getBlockCount()),
+					Long.valueOf(entry.getFirstBlockId())));
+			this.out.println(format("Access: (%04o/%c%s)\tLinks: %d\tUid: %d\tGid: %d",
+					Short.valueOf(entry.getAttributes().getValue()),
+					Character.valueOf(entry.getType().getType()),
+					entry.getAttributes(),
+					Byte.valueOf(entry.getNumberOfLinks()),
+					Integer.valueOf(entry.getUid() & 0xffff),
+					Integer.valueOf(entry.getGid() & 0xffff)));
+			this.out.println(format("Access: %s", dateFormat.format(entry.getAccessTime())));
+			this.out.println(format("Modify: %s", dateFormat.format(entry.getModificationTime())));
+			this.out.println(format(" Birth: %s", dateFormat.format(entry.getCreationTime())));
+		}
+	}
+
+	/**
+	 * <p>{@code du [path...]}: prints the total size, in bytes, of each
+	 * path and everything under it, summed by a parallel {@linkplain
+	 * FileSystem#walk(Directory, TreeVisitor, int) walk}.</p>
+	 */
+	private void du(final List<String> args) throws IOException {
+		options(args, "");
+		if (args.isEmpty()) {
+			args.add(".");
+		}
+
+		for (final String path : args) {
+			final FileSystemEntry entry = this.resolve(path);
+			final LongAdder total = new LongAdder();
+			total.add(entry.getDataSize());
+			if (entry instanceof Directory) {
+				this.fileSystem.walk((Directory) entry, (directory, stats, row, depth) -> {
+					total.add(stats.getSize(row));
+					return true;
+				}, Integer.MAX_VALUE);
+			}
+			this.out.println(format("%d\t%s", Long.valueOf(total.sum()), path));
+		}
+	}
+
+	/**
+	 * <p>{@code find [path...] [-name <glob>] [-type f|d|l]}</p>
+	 */
+	private void find(final List<String> args) throws IOException {
+		final List<String> paths = new ArrayList<>();
+		Pattern namePattern = null;
+		FileType type = null;
+		for (int i = 0; i < args.size(); i++) {
+			final String arg = args.get(i);
+			switch (arg) {
+			case "-name":
+				if (++i == args.size()) {
+					throw new IllegalArgumentException("find: missing argument to `-name'");
+				}
+				namePattern = FileUtilities.globToPattern(args.get(i));
+				break;
+			case "-type":
+				if (++i == args.size()) {
+					throw new IllegalArgumentException("find: missing argument to `-type'");
+				}
+				type = parseType(args.get(i));
+				break;
+			default:
+				if (arg.startsWith("-")) {
+					throw new IllegalArgumentException(format("find: unknown predicate `%s'", arg));
+				}
+				paths.add(arg);
+				break;
+			}
+		}
+		if (paths.isEmpty()) {
+			paths.add(".");
+		}
+
+		for (final String path : paths) {
+			this.find(path, this.resolve(path), namePattern, type);
+		}
+	}
+
+	private void find(final String path,
+			final FileSystemEntry entry,
+			@Nullable final Pattern namePattern,
+			@Nullable final FileType type) throws IOException {
+		if ((namePattern == null || namePattern.matcher(entry.getName()).matches())
+				&& (type == null || entry.getType() == type)) {
+			this.out.println(path);
+		}
+
+		if (entry instanceof Directory) {
+			final String prefix = path.endsWith("/") ? path : path + '/';
+			for (final FileSystemEntry child : ((Directory) entry).list()) {
+				this.find(prefix + child.getName(), child, namePattern, type);
+			}
+		}
+	}
+
+	/**
+	 * <p>{@code locate <glob>...}: looks the names up in the {@linkplain
+	 * Feature#PATH_INDEX path index} instead of walking the tree.</p>
+	 */
+	private void locate(final List<String> args) throws IOException {
+		if (args.isEmpty()) {
+			throw new IllegalArgumentException("locate: no pattern to search for specified");
+		}
+		if (!this.fileSystem.getFeatures().contains(Feature.PATH_INDEX)) {
+			throw new IllegalArgumentException("locate: file system has no path index");
+		}
+		for (final String glob : args) {
+			for (final String path : this.fileSystem.find(glob)) {
+				this.out.println(path);
+			}
+		}
+	}
+
+	private void cd(final List<String> args) throws IOException {
+		if (args.size() > 1) {
+			throw new IllegalArgumentException("Usage: cd [<directory>]");
+		}
+		final List<String> names = args.isEmpty() ? new ArrayList<>() : this.normalize(args.get(0));
+		this.resolveDirectory(names);
+		this.workingDirectory = names;
+	}
+
+	private void help() {
+		this.out.println("ls [-l] [<path>...]");
+		this.out.println("cp <source> <target>");
+		this.out.println("cat <path>...");
+		this.out.println("rm [-r] <path>...");
+		this.out.println("mkdir [-p] <path>...");
+		this.out.println("df");
+		this.out.println("du [<path>...]");
+		this.out.println("stat <path>...");
+		this.out.println("find [<path>...] [-name <pattern>] [-type f|d|l]");
+		this.out.println("locate <pattern>...");
+		this.out.println("cd [<directory>]");
+		this.out.println("pwd");
+		this.out.println("exit");
+		this.out.println();
+		this.out.println(format("Host paths (cp only) are prefixed with `%s'.", HOST_PREFIX));
+	}
+
+	/**
+	 * @param path the path, either absolute, or relative to the working
+	 *        directory.
+	 * @return the names leading from the root directory to {@code path},
+	 *         with {@code .} and {@code ..} resolved.
+	 */
+	List<String> normalize(final String path) {
+		if (path.startsWith(HOST_PREFIX)) {
+			throw new IllegalArgumentException(format("%s: host paths are not supported here", path));
+		}
+
+		final List<String> names = path.startsWith("/")
+				? new ArrayList<>()
+				: new ArrayList<>(this.workingDirectory);
+		for (final String name : path.split("/")) {
+			switch (name) {
+			case "":
+			case ".":
+				break;
+			case "..":
+				if (!names.isEmpty()) {
+					names.remove(names.size() - 1);
+				}
+				break;
+			default:
+				names.add(name);
+				break;
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @param path the path to resolve.
+	 * @return the file system entry denoted by {@code path}.
+	 * @throws IOException if there's no such entry, or an I/O error occurs.
+	 */
+	FileSystemEntry resolve(final String path) throws IOException {
+		final FileSystemEntry entry = this.lookup(this.normalize(path));
+		if (entry == null) {
+			throw new IOException(format("%s: No such file or directory", path));
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the entry denoted by {@code names}, or {@code null} if
+	 *         there's no such entry.
+	 */
+	@Nullable
+	private FileSystemEntry lookup(final List<String> names) throws IOException {
+		FileSystemEntry entry = this.fileSystem.getRoot();
+		for (final String name : names) {
+			if (!(entry instanceof Directory)) {
+				throw new IOException(format("%s: Not a directory", toString(names)));
+			}
+			entry = ((Directory) entry).getChild(name);
+			if (entry == null) {
+				return null;
+			}
+		}
+		return entry;
+	}
+
+	private Directory resolveDirectory(final List<String> names) throws IOException {
+		final FileSystemEntry entry = this.lookup(names);
+		if (entry == null) {
+			throw new IOException(format("%s: No such file or directory", toString(names)));
+		}
+		if (!(entry instanceof Directory)) {
+			throw new IOException(format("%s: Not a directory", toString(names)));
+		}
+		return (Directory) entry;
+	}
+
+	private static String toString(final List<String> names) {
+		return '/' + String.join("/", names);
+	}
+
+	private static Path toHostPath(final String path) {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path hostPath = Paths.get(path.substring(HOST_PREFIX.length()));
+		return hostPath;
+	}
+
+	/**
+	 * <p>Removes the leading options (e.g.: {@code -l}, {@code -rf})
+	 * from {@code args}.</p>
+	 *
+	 * @param args the command arguments.
+	 * @param allowed the option characters the command supports.
+	 * @return the options found.
+	 */
+	private static Set<Character> options(final List<String> args, final String allowed) {
+		final Set<Character> options = new HashSet<>();
+		while (!args.isEmpty() && args.get(0).startsWith("-") && args.get(0).length() > 1) {
+			final String arg = args.remove(0);
+			if (arg.equals("--")) {
+				break;
+			}
+			for (final char option : arg.substring(1).toCharArray()) {
+				if (allowed.indexOf(option) == -1) {
+					throw new IllegalArgumentException(format("invalid option -- '%c'", Character.valueOf(option)));
+				}
+				options.add(Character.valueOf(option));
+			}
+		}
+		return options;
+	}
+
+	private static FileType parseType(final String type) {
+		switch (type) {
+		case "f":
+			return FileType.FILE;
+		case "d":
+			return FileType.DIRECTORY;
+		case "l":
+			return FileType.SYMBOLIC_LINK;
+		default:
+			throw new IllegalArgumentException(format("find: Unknown argument to -type: %s", type));
+		}
+	}
+
+	/**
+	 * <p>Splits a command line into words. Words may be quoted with
+	 * single or double quotes; a backslash escapes the next character;
+	 * a {@code #} at the beginning of a word starts a comment.</p>
+	 *
+	 * @param line the command line.
+	 * @return the words of {@code line}.
+	 */
+	static List<String> split(final String line) {
+		final List<String> words = new ArrayList<>();
+		final StringBuilder word = new StringBuilder();
+		boolean inWord = false;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+					word.append(line.charAt(++i));
+				} else {
+					word.append(c);
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (inWord) {
+					words.add(word.toString());
+					word.setLength(0);
+					inWord = false;
+				}
+			} else if (c == '#' && !inWord) {
+				break;
+			} else {
+				inWord = true;
+				if (c == '\'' || c == '"') {
+					quote = c;
+				} else if (c == '\\' && i + 1 < line.length()) {
+					word.append(line.charAt(++i));
+				} else {
+					word.append(c);
+				}
+			}
+		}
+		if (quote != 0) {
+			throw new IllegalArgumentException(format("Unterminated quoted string: %s", line));
+		}
+		if (inWord) {
+			words.add(word.toString());
+		}
+		return words;
+	}
+}
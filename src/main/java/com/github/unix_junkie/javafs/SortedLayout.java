@@ -0,0 +1,447 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>The data of a directory on a file system with {@linkplain
+ * Feature#SORTED_DIRECTORIES sorted directories}.</p>
+ *
+ * <p>Each block of such a directory starts with a {@value #HEADER_LENGTH}-byte
+ * header holding the number of bytes the entries in the block occupy.
+ * Entries never span blocks, and are ordered by their UTF-8 encoded names
+ * (compared as unsigned bytes), both within a block and along the chain.
+ * The name of the first entry of a block is the key of the block, so that
+ * a lookup is a binary search over the blocks followed by a scan of a
+ * single block.</p>
+ *
+ * <p>An entry is inserted into the block it belongs to, shifting the
+ * entries after it; if the block overflows, it's split, and the new blocks
+ * are linked into the chain right after it. A block left empty by a removal
+ * is unlinked from the chain and freed.</p>
+ *
+ * <p>The size of a sorted directory is the total length of its blocks, or
+ * 0 if the directory has no entries (while still occupying a block).</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class SortedLayout {
+	static final int HEADER_LENGTH = 4;
+
+	@Nonnull
+	private final Directory directory;
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	private final int blockLength;
+
+	private final long baseTime;
+
+	/**
+	 * The blocks of the directory, resolved once per operation.
+	 */
+	@Nonnull
+	private final List<Long> blockIds;
+
+	/**
+	 * @param directory the (attached) sorted directory.
+	 * @param fileSystem the file system the directory belongs to.
+	 * @param baseTime the base time the entries are encoded with.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	SortedLayout(final Directory directory, final FileSystem fileSystem, final long baseTime) throws IOException {
+		this.directory = directory;
+		this.fileSystem = fileSystem;
+		this.blockLength = fileSystem.getBlockSize().getLength();
+		this.baseTime = baseTime;
+		this.blockIds = fileSystem.getBlockIds(directory.firstBlockId);
+	}
+
+	/**
+	 * @return the entries of the directory, ordered by name.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	Set<FileSystemEntry> list() throws IOException {
+		final Set<FileSystemEntry> children = new LinkedHashSet<>();
+		for (int i = 0; i < this.blockIds.size(); i++) {
+			for (final Slot slot : this.readBlock(i)) {
+				children.add(this.directory.attach(slot.entry, slot.inode));
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * @param destination the buffer to append the attributes of the
+	 *        entries of the directory to, ordered by name.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void stat(final StatBuffer destination) throws IOException {
+		if (this.directory.dataSize == 0) {
+			return;
+		}
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer block = ByteBuffer.allocate(this.blockLength);
+		for (int i = 0; i < this.blockIds.size(); i++) {
+			block.clear();
+			this.readUsed(i, block);
+			while (block.hasRemaining()) {
+				final long inode = this.fileSystem.readInode(block);
+				FileSystemEntry.readStatFrom(block, this.baseTime, inode, destination);
+			}
+		}
+	}
+
+	/**
+	 * @param name the name of the entry.
+	 * @return the entry named {@code name}, or {@code null}.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Nullable
+	FileSystemEntry find(final String name) throws IOException {
+		final Slot slot = this.findSlot(FileSystemEntry.encodeName(name));
+		return slot == null ? null : this.directory.attach(slot.entry, slot.inode);
+	}
+
+	/**
+	 * @param child the detached child, whose encoding is already chosen.
+	 * @param childInode the first block of the child.
+	 * @throws IOException if the entry is too long to fit into a block,
+	 *         there're no free blocks left to split a block, or an I/O
+	 *         error occurs.
+	 */
+	void insert(final FileSystemEntry child, final long childInode) throws IOException {
+		final ByteBuffer raw = this.encode(child, childInode);
+
+		final ByteBuffer key = child.getEncodedName();
+		final int index = this.findBlock(key);
+		final List<Slot> slots = this.readBlock(index);
+		int position = 0;
+		while (position < slots.size() && compare(slots.get(position).getName(), key) < 0) {
+			position++;
+		}
+		slots.add(position, new Slot(childInode, child, raw));
+
+		this.store(index, slots);
+	}
+
+	/**
+	 * <p>Replaces the entry with the same name as {@code child}. Should
+	 * the block need to be split and there be no free blocks left, the
+	 * directory is left intact.</p>
+	 *
+	 * @param child the detached child, whose encoding is already chosen.
+	 * @param childInode the first block of the child.
+	 * @throws IOException if there's no such entry, the entry is too long
+	 *         to fit into a block, there're no free blocks left to split a
+	 *         block, or an I/O error occurs.
+	 */
+	void replace(final FileSystemEntry child, final long childInode) throws IOException {
+		final ByteBuffer raw = this.encode(child, childInode);
+
+		final ByteBuffer key = child.getEncodedName();
+		final int index = this.findBlock(key);
+		final List<Slot> slots = this.readBlock(index);
+		for (int position = 0; position < slots.size(); position++) {
+			if (compare(slots.get(position).getName(), key) == 0) {
+				slots.set(position, new Slot(childInode, child, raw));
+				this.store(index, slots);
+				return;
+			}
+		}
+		throw new IOException(format("Directory %s has no child named %s", this.directory.getName(), child.getName()));
+	}
+
+	private ByteBuffer encode(final FileSystemEntry child, final long childInode) throws IOException {
+		final int entryLength = this.fileSystem.getBlockAddressSize() + child.getMetadataSize();
+		if (entryLength > this.blockLength - HEADER_LENGTH) {
+			throw new IOException(format("%s: name too long (%d byte(s) per entry, %d available)",
+					child.getName(),
+					Integer.valueOf(entryLength),
+					Integer.valueOf(this.blockLength - HEADER_LENGTH)));
+		}
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer raw = ByteBuffer.allocate(entryLength);
+		this.fileSystem.writeInode(childInode, raw);
+		child.writeMetadataTo(raw);
+		raw.flip();
+		return raw;
+	}
+
+	/**
+	 * <p>Writes {@code slots} to the block at {@code index}, splitting
+	 * it if they don't fit. The blocks the split takes are allocated
+	 * before anything is written.</p>
+	 *
+	 * @param index the index of the block.
+	 * @param slots the entries of the block, ordered by name.
+	 * @throws IOException if there're no free blocks left to split the
+	 *         block, or an I/O error occurs.
+	 */
+	private void store(final int index, final List<Slot> slots) throws IOException {
+		/*
+		 * Split greedily: the block was full enough to hold whatever
+		 * it held before, so at most two more blocks are needed.
+		 */
+		final List<List<Slot>> chunks = new ArrayList<>();
+		List<Slot> chunk = new ArrayList<>();
+		int chunkLength = 0;
+		for (final Slot slot : slots) {
+			if (chunkLength + slot.raw.remaining() > this.blockLength - HEADER_LENGTH) {
+				chunks.add(chunk);
+				chunk = new ArrayList<>();
+				chunkLength = 0;
+			}
+			chunk.add(slot);
+			chunkLength += slot.raw.remaining();
+		}
+		chunks.add(chunk);
+
+		for (int i = 1; i < chunks.size(); i++) {
+			try {
+				final long blockId = this.fileSystem.insertBlock(this.getBlockId(index + i - 1));
+				this.blockIds.add(index + i, Long.valueOf(blockId));
+			} catch (final IOException ioe) {
+				for (int j = i - 1; j >= 1; j--) {
+					this.fileSystem.removeBlock(this.getBlockId(index + j - 1), this.getBlockId(index + j));
+					this.blockIds.remove(index + j);
+				}
+				throw ioe;
+			}
+		}
+		for (int i = 0; i < chunks.size(); i++) {
+			this.writeBlock(index + i, chunks.get(i));
+		}
+
+		this.directory.dataSize = (long) this.blockIds.size() * this.blockLength;
+	}
+
+	/**
+	 * @param name the name of the entry to remove.
+	 * @throws IOException if there's no such entry, or an I/O error occurs.
+	 */
+	void remove(final String name) throws IOException {
+		final ByteBuffer key = FileSystemEntry.encodeName(name);
+		final int index = this.findBlock(key);
+		final List<Slot> slots = this.readBlock(index);
+		if (!slots.removeIf(slot -> compare(slot.getName(), key) == 0)) {
+			throw new IOException(format("Directory %s has no child named %s", this.directory.getName(), name));
+		}
+
+		final boolean empty = slots.isEmpty() && this.blockIds.size() == 1;
+		if (!slots.isEmpty() || empty) {
+			this.writeBlock(index, slots);
+		} else if (index != 0) {
+			this.fileSystem.removeBlock(this.getBlockId(index - 1), this.getBlockId(index));
+			this.blockIds.remove(index);
+		} else {
+			/*
+			 * The first block is referenced by the parent, so it's
+			 * the second one which is actually removed.
+			 */
+			this.writeBlock(0, this.readBlock(1));
+			this.fileSystem.removeBlock(this.getBlockId(0), this.getBlockId(1));
+			this.blockIds.remove(1);
+		}
+
+		this.directory.dataSize = empty ? 0L : (long) this.blockIds.size() * this.blockLength;
+	}
+
+	/**
+	 * <p>Overwrites the size stored in the entry of the child directory
+	 * named {@code name}.</p>
+	 *
+	 * @param name the name of the child directory.
+	 * @param childSize the new size of the child.
+	 * @throws IOException if there's no such entry, or an I/O error occurs.
+	 */
+	void writeChildSize(final String name, final long childSize) throws IOException {
+		final ByteBuffer key = FileSystemEntry.encodeName(name);
+		final int index = this.findBlock(key);
+		for (final Slot slot : this.readBlock(index)) {
+			if (compare(slot.getName(), key) == 0) {
+				final ByteBuffer metadata = slot.raw.duplicate();
+				metadata.position(this.fileSystem.getBlockAddressSize());
+				final long position = this.fileSystem.getBlockOffset(this.getBlockId(index))
+						+ HEADER_LENGTH
+						+ slot.offset
+						+ this.fileSystem.getBlockAddressSize()
+						+ FileSystemEntry.getSizeOffset(metadata, this.baseTime);
+				this.fileSystem.writeMetadata(position, FileSystemEntry.encodeDirectorySize(childSize, this.baseTime));
+				return;
+			}
+		}
+		throw new IOException(format("Directory %s has no child named %s", this.directory.getName(), name));
+	}
+
+	@Nullable
+	private Slot findSlot(final ByteBuffer key) throws IOException {
+		for (final Slot slot : this.readBlock(this.findBlock(key))) {
+			final int comparison = compare(slot.getName(), key);
+			if (comparison == 0) {
+				return slot;
+			}
+			if (comparison > 0) {
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the index of the last block whose key doesn't exceed {@code
+	 *         key}, or 0 if there's no such block.
+	 */
+	private int findBlock(final ByteBuffer key) throws IOException {
+		int low = 1;
+		int high = this.blockIds.size() - 1;
+		int index = 0;
+		while (low <= high) {
+			final int middle = low + high >>> 1;
+			final List<Slot> slots = this.readBlock(middle);
+			if (slots.isEmpty()) {
+				throw new IOException(format("Block %d of directory %s is empty", this.blockIds.get(middle), this.directory.getName()));
+			}
+			if (compare(slots.get(0).getName(), key) <= 0) {
+				index = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return index;
+	}
+
+	private List<Slot> readBlock(final int index) throws IOException {
+		final List<Slot> slots = new ArrayList<>();
+		if (this.directory.dataSize == 0) {
+			return slots;
+		}
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer block = ByteBuffer.allocate(this.blockLength);
+		this.readUsed(index, block);
+
+		while (block.hasRemaining()) {
+			final int start = block.position();
+			final long inode = this.fileSystem.readInode(block);
+			final FileSystemEntry entry = FileSystemEntry.readMetadataFrom(block, this.baseTime);
+			final ByteBuffer raw = block.duplicate();
+			raw.position(start).limit(block.position());
+			@Nonnull
+			@SuppressWarnings("null")
+			final ByteBuffer raw0 = raw.slice();
+			slots.add(new Slot(inode, entry, raw0, start - HEADER_LENGTH));
+		}
+		return slots;
+	}
+
+	/**
+	 * @param index the index of the block within the chain.
+	 * @param block the (cleared) buffer to read the block into, which is
+	 *        left positioned at the first entry and limited to the last.
+	 * @throws IOException if the block is corrupt, or an I/O error occurs.
+	 */
+	private void readUsed(final int index, final ByteBuffer block) throws IOException {
+		this.fileSystem.readBlock(this.getBlockId(index), 0, block);
+		block.flip();
+		final int used = block.getInt();
+		if (used < 0 || used > this.blockLength - HEADER_LENGTH) {
+			throw new IOException(format("Block %d of directory %s is corrupt: %d byte(s) used",
+					this.blockIds.get(index),
+					this.directory.getName(),
+					Integer.valueOf(used)));
+		}
+		block.limit(HEADER_LENGTH + used);
+	}
+
+	private void writeBlock(final int index, final List<Slot> slots) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer block = ByteBuffer.allocate(this.blockLength);
+		block.putInt(0);
+		for (final Slot slot : slots) {
+			block.put(slot.raw.duplicate());
+		}
+		block.putInt(0, block.position() - HEADER_LENGTH);
+		block.flip();
+		this.fileSystem.writeMetadata(this.fileSystem.getBlockOffset(this.getBlockId(index)), block);
+	}
+
+	private long getBlockId(final int index) {
+		return this.blockIds.get(index).longValue();
+	}
+
+	/**
+	 * <p>Compares two encoded names as sequences of unsigned bytes (which,
+	 * for UTF-8, is the order of code points).</p>
+	 */
+	static int compare(final ByteBuffer name1, final ByteBuffer name2) {
+		final int length1 = name1.remaining();
+		final int length2 = name2.remaining();
+		for (int i = 0; i < length1 && i < length2; i++) {
+			final int comparison = Integer.compare(name1.get(name1.position() + i) & 0xff, name2.get(name2.position() + i) & 0xff);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(length1, length2);
+	}
+
+	/**
+	 * <p>An entry as stored in a block: its address followed by its
+	 * metadata.</p>
+	 */
+	private static final class Slot {
+		final long inode;
+
+		@Nonnull
+		final FileSystemEntry entry;
+
+		@Nonnull
+		final ByteBuffer raw;
+
+		@Nonnull
+		private final ByteBuffer name;
+
+		/**
+		 * The offset of the entry within the block, past the header;
+		 * -1 for a new entry.
+		 */
+		final int offset;
+
+		Slot(final long inode, final FileSystemEntry entry, final ByteBuffer raw) throws IOException {
+			this(inode, entry, raw, -1);
+		}
+
+		Slot(final long inode, final FileSystemEntry entry, final ByteBuffer raw, final int offset) throws IOException {
+			this.inode = inode;
+			this.entry = entry;
+			this.raw = raw;
+			this.offset = offset;
+			this.name = entry.getEncodedName();
+		}
+
+		ByteBuffer getName() {
+			return this.name;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A channel writing the contents of a regular file right into the
+ * blocks of a file system, before the file is {@linkplain #link(Directory,
+ * String) linked} into a directory. Since file contents can't be modified
+ * in place, this is how a file is written piecewise, or replaced.</p>
+ *
+ * <p>Until the file is linked, its blocks belong to no entry: closing the
+ * channel frees them. The chain of blocks grows (at least) twofold, and is
+ * trimmed once the file is linked. The ids of the blocks are kept, so that
+ * neither growing the chain nor writing to it has to walk it; consecutive
+ * writes are coalesced in a {@value #BUFFER_LENGTH}-byte buffer.</p>
+ *
+ * <p>The channel is not thread-safe.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class StagingChannel implements SeekableByteChannel {
+	private static final int BUFFER_LENGTH = 256 * 1024;
+
+	@Nonnull
+	private final FileSystem fileSystem;
+
+	private final int blockLength;
+
+	@Nonnull
+	private final ByteBuffer buffer;
+
+	/**
+	 * The offset the contents of {@link #buffer} are to be written at.
+	 */
+	private long bufferPosition;
+
+	/**
+	 * The ids of the blocks staged, in the chain order.
+	 */
+	@Nonnull
+	private final List<Long> blockIds = new ArrayList<>();
+
+	/**
+	 * The number of bytes written to the blocks.
+	 */
+	private long size;
+
+	private long position;
+
+	private boolean open = true;
+
+	/**
+	 * @param fileSystem the file system to stage the contents at.
+	 */
+	public StagingChannel(final FileSystem fileSystem) {
+		this.fileSystem = fileSystem;
+		this.blockLength = fileSystem.getBlockSize().getLength();
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer0 = ByteBuffer.allocate(BUFFER_LENGTH);
+		this.buffer = buffer0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#read(ByteBuffer)
+	 */
+	@Override
+	public int read(final ByteBuffer dst) {
+		throw new NonReadableChannelException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#write(ByteBuffer)
+	 */
+	@Override
+	public int write(final ByteBuffer src) throws IOException {
+		this.ensureOpen();
+
+		int written = 0;
+		while (src.hasRemaining()) {
+			if (this.buffer.position() == 0) {
+				this.bufferPosition = this.position;
+			} else if (this.position != this.bufferPosition + this.buffer.position() || !this.buffer.hasRemaining()) {
+				this.flush();
+				continue;
+			}
+
+			final ByteBuffer chunk = src.duplicate();
+			final int length = min(chunk.remaining(), this.buffer.remaining());
+			chunk.limit(chunk.position() + length);
+			this.buffer.put(chunk);
+			src.position(src.position() + length);
+			this.position += length;
+			written += length;
+		}
+		return written;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#position()
+	 */
+	@Override
+	public long position() throws IOException {
+		this.ensureOpen();
+		return this.position;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Positioning beyond the end of file and writing there leaves a gap
+	 * of zeroes.</p>
+	 *
+	 * @see SeekableByteChannel#position(long)
+	 */
+	@Override
+	public StagingChannel position(final long newPosition) throws IOException {
+		if (newPosition < 0) {
+			throw new IllegalArgumentException(String.valueOf(newPosition));
+		}
+		this.ensureOpen();
+		this.position = newPosition;
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#size()
+	 */
+	@Override
+	public long size() throws IOException {
+		this.ensureOpen();
+		return this.buffer.position() == 0
+				? this.size
+				: max(this.size, this.bufferPosition + this.buffer.position());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#truncate(long)
+	 */
+	@Override
+	public StagingChannel truncate(final long newSize) throws IOException {
+		if (newSize < 0) {
+			throw new IllegalArgumentException(String.valueOf(newSize));
+		}
+		this.ensureOpen();
+		this.flush();
+		this.size = min(this.size, newSize);
+		this.position = min(this.position, newSize);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#isOpen()
+	 */
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Discards the contents written, unless already {@linkplain
+	 * #link(Directory, String) linked}.</p>
+	 *
+	 * @see SeekableByteChannel#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.open) {
+			return;
+		}
+		this.open = false;
+		this.buffer.clear();
+
+		if (!this.blockIds.isEmpty()) {
+			final long firstBlockId = this.getFirstBlockId();
+			this.blockIds.clear();
+			this.fileSystem.update(() -> this.fileSystem.freeBlocks(firstBlockId));
+		}
+	}
+
+	/**
+	 * <p>Links the contents written as a regular file named {@code name}
+	 * into {@code parent}, and closes this channel. A regular file with
+	 * the same name is {@linkplain Directory#replaceChild(FileSystemEntry)
+	 * replaced}: should there be not enough free space (or a failure
+	 * otherwise), it's left intact, and this channel remains open.</p>
+	 *
+	 * @param parent the directory to link the file into.
+	 * @param name the file name.
+	 * @throws IOException if {@code parent} has an entry named {@code name}
+	 *         other than a regular file, there's not enough free space on
+	 *         the file system, or an I/O error occurs.
+	 */
+	public void link(final Directory parent, final String name) throws IOException {
+		this.ensureOpen();
+		this.flush();
+
+		/*
+		 * Even an empty file occupies a block, unless stored inline.
+		 */
+		final long size0 = this.size;
+		this.fileSystem.update(() -> this.reserve(size0));
+
+		final long firstBlockId = this.getFirstBlockId();
+		try {
+			this.fileSystem.update(() -> {
+				this.fileSystem.shrinkInode(firstBlockId, FileUtilities.getBlockCount(size0, this.blockLength));
+
+				final File file = new File(name, size0, firstBlockId);
+				final FileSystemEntry existing = parent.getChild(name);
+				if (existing == null) {
+					parent.addChild(file);
+				} else if (existing instanceof File) {
+					parent.replaceChild(file);
+				} else {
+					throw new IOException(format("%s: not a regular file", name));
+				}
+
+				if (file.isInline()) {
+					this.fileSystem.freeBlocks(firstBlockId);
+				}
+			});
+		} catch (final IOException | RuntimeException e) {
+			/*
+			 * Whether trimming the chain has been rolled back or not
+			 * depends on the journal.
+			 */
+			this.blockIds.clear();
+			this.blockIds.addAll(this.fileSystem.getBlockIds(firstBlockId));
+			throw e;
+		}
+
+		this.blockIds.clear();
+		this.open = false;
+	}
+
+	/**
+	 * <p>Writes the buffered contents to the blocks, allocating the blocks
+	 * needed.</p>
+	 *
+	 * @throws IOException if there's not enough free space on the file
+	 *         system, or an I/O error occurs. The buffered contents are
+	 *         discarded either way.
+	 */
+	public void flush() throws IOException {
+		this.ensureOpen();
+		if (this.buffer.position() == 0) {
+			return;
+		}
+
+		this.buffer.flip();
+		try {
+			final long start = this.bufferPosition;
+			final long end = start + this.buffer.remaining();
+
+			/*
+			 * Allocation is a separate update, so that a failed
+			 * write never rolls back blocks already accounted for.
+			 */
+			this.fileSystem.update(() -> this.reserve(end));
+			this.fileSystem.update(() -> {
+				/*
+				 * Blocks are reused as is: zero the gap, if any.
+				 */
+				long offset = this.size;
+				while (offset < start) {
+					@Nonnull
+					@SuppressWarnings("null")
+					final ByteBuffer zeroes = ByteBuffer.allocate((int) min(start - offset, BUFFER_LENGTH));
+					final int length = zeroes.remaining();
+					this.fileSystem.writeTo(this.blockIds, zeroes, offset);
+					offset += length;
+				}
+
+				this.fileSystem.writeTo(this.blockIds, this.buffer, start);
+			});
+			this.size = max(this.size, end);
+		} finally {
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * <p>Makes sure the chain of blocks can hold {@code length} bytes,
+	 * growing it twofold if possible, or as much as needed otherwise.</p>
+	 *
+	 * @param length the number of bytes.
+	 * @throws IOException if there's not enough free space on the file
+	 *         system, or an I/O error occurs.
+	 */
+	private void reserve(final long length) throws IOException {
+		final int blockCount = this.blockIds.size();
+		final long increment = FileUtilities.getBlockCount(length, this.blockLength) - blockCount;
+		if (increment <= 0) {
+			return;
+		}
+
+		final long preferredIncrement = max(increment, blockCount);
+		if (preferredIncrement > increment) {
+			try {
+				this.grow(preferredIncrement);
+				return;
+			} catch (final IOException ioe) {
+				// fall back to the increment needed
+			}
+		}
+		this.grow(increment);
+	}
+
+	private void grow(final long increment) throws IOException {
+		final long extentStart = this.blockIds.isEmpty()
+				? this.fileSystem.allocateBlocks(increment)
+				: this.fileSystem.appendBlocks(this.blockIds.get(this.blockIds.size() - 1).longValue(), increment);
+		this.blockIds.addAll(this.fileSystem.getBlockIds(extentStart));
+	}
+
+	private long getFirstBlockId() {
+		return this.blockIds.get(0).longValue();
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!this.open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A reusable buffer of entry attributes, filled by {@link
+ * Directory#stat(StatBuffer)} with the attributes of all the entries of a
+ * directory at once, in the fashion of NFS {@code READDIRPLUS}.</p>
+ *
+ * <p>Attributes are stored in primitive arrays, one row per entry, and
+ * names in a shared pool of UTF-8 bytes, so that, once the buffer has grown
+ * to the size of the largest directory listed, listing a directory doesn't
+ * allocate any per-entry objects. Names are only decoded if {@linkplain
+ * #getName(int) asked for}.</p>
+ *
+ * <p>A {@code StatBuffer} is not thread-safe; use one per thread.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see StatFormatter
+ */
+public final class StatBuffer {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private static final int AVERAGE_NAME_LENGTH = 16;
+
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final FileType TYPES[] = FileType.values();
+
+	private int rowCount;
+
+	@Nonnull
+	private byte types[];
+
+	@Nonnull
+	private short modes[];
+
+	@Nonnull
+	private byte numberOfLinks[];
+
+	@Nonnull
+	private short uids[];
+
+	@Nonnull
+	private short gids[];
+
+	@Nonnull
+	private long sizes[];
+
+	@Nonnull
+	private long creationTimes[];
+
+	@Nonnull
+	private long modificationTimes[];
+
+	@Nonnull
+	private long accessTimes[];
+
+	@Nonnull
+	private long inodes[];
+
+	@Nonnull
+	private int nameOffsets[];
+
+	@Nonnull
+	private int nameLengths[];
+
+	/**
+	 * UTF-8 encoded names of all the rows, back to back.
+	 */
+	@Nonnull
+	private byte names[];
+
+	private int namesLength;
+
+	public StatBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of entries to allocate room for
+	 *        initially.
+	 */
+	public StatBuffer(final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException(String.valueOf(capacity));
+		}
+
+		this.types = new byte[capacity];
+		this.modes = new short[capacity];
+		this.numberOfLinks = new byte[capacity];
+		this.uids = new short[capacity];
+		this.gids = new short[capacity];
+		this.sizes = new long[capacity];
+		this.creationTimes = new long[capacity];
+		this.modificationTimes = new long[capacity];
+		this.accessTimes = new long[capacity];
+		this.inodes = new long[capacity];
+		this.nameOffsets = new int[capacity];
+		this.nameLengths = new int[capacity];
+		this.names = new byte[capacity * AVERAGE_NAME_LENGTH];
+	}
+
+	/**
+	 * @return the number of entries in this buffer.
+	 */
+	public int size() {
+		return this.rowCount;
+	}
+
+	/**
+	 * <p>Empties this buffer, retaining the memory allocated.</p>
+	 */
+	public void clear() {
+		this.rowCount = 0;
+		this.namesLength = 0;
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the type of the entry.
+	 */
+	public FileType getType(final int row) {
+		this.checkRow(row);
+		@Nonnull
+		@SuppressWarnings("null")
+		final FileType type = TYPES[this.types[row]];
+		return type;
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the POSIX attributes of the entry, as 12 lowest bits.
+	 * @see PosixAttributes#getValue()
+	 */
+	public short getAttributes(final int row) {
+		this.checkRow(row);
+		return this.modes[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the number of links to the entry.
+	 */
+	public byte getNumberOfLinks(final int row) {
+		this.checkRow(row);
+		return this.numberOfLinks[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the uid of the owner of the entry.
+	 */
+	public short getUid(final int row) {
+		this.checkRow(row);
+		return this.uids[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the gid of the owner of the entry.
+	 */
+	public short getGid(final int row) {
+		this.checkRow(row);
+		return this.gids[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the size of the entry, in bytes.
+	 */
+	public long getSize(final int row) {
+		this.checkRow(row);
+		return this.sizes[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the ctime of the entry, in milliseconds.
+	 */
+	public long getCreationTime(final int row) {
+		this.checkRow(row);
+		return this.creationTimes[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the mtime of the entry, in milliseconds.
+	 */
+	public long getModificationTime(final int row) {
+		this.checkRow(row);
+		return this.modificationTimes[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the atime of the entry, in milliseconds.
+	 */
+	public long getAccessTime(final int row) {
+		this.checkRow(row);
+		return this.accessTimes[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the first block of the entry, or 0 if its contents are
+	 *         stored {@linkplain Feature#INLINE_DATA inline}.
+	 */
+	public long getInode(final int row) {
+		this.checkRow(row);
+		return this.inodes[row];
+	}
+
+	/**
+	 * @param row the row index.
+	 * @return the name of the entry, decoded.
+	 */
+	public String getName(final int row) {
+		this.checkRow(row);
+		return new String(this.names, this.nameOffsets[row], this.nameLengths[row], UTF_8);
+	}
+
+	/**
+	 * <p>Appends a row, copying the name from {@code source}.</p>
+	 *
+	 * @param type the entry type.
+	 * @param mode the POSIX attributes.
+	 * @param numberOfLinks0 the number of links.
+	 * @param uid the uid.
+	 * @param gid the gid.
+	 * @param size the size.
+	 * @param creationTime the ctime, in milliseconds.
+	 * @param modificationTime the mtime, in milliseconds.
+	 * @param accessTime the atime, in milliseconds.
+	 * @param inode the first block of the entry.
+	 * @param source the buffer positioned at the encoded name, which is
+	 *        advanced past it.
+	 * @param nameLength the length of the encoded name.
+	 */
+	void add(final FileType type, final short mode, final byte numberOfLinks0,
+			final short uid, final short gid, final long size,
+			final long creationTime, final long modificationTime, final long accessTime,
+			final long inode,
+			final ByteBuffer source, final int nameLength) {
+		if (this.rowCount == this.inodes.length) {
+			this.grow();
+		}
+		if (this.namesLength + nameLength > this.names.length) {
+			this.names = Arrays.copyOf(this.names, max(this.names.length * 2, this.namesLength + nameLength));
+		}
+
+		final int row = this.rowCount++;
+		this.types[row] = (byte) type.ordinal();
+		this.modes[row] = mode;
+		this.numberOfLinks[row] = numberOfLinks0;
+		this.uids[row] = uid;
+		this.gids[row] = gid;
+		this.sizes[row] = size;
+		this.creationTimes[row] = creationTime;
+		this.modificationTimes[row] = modificationTime;
+		this.accessTimes[row] = accessTime;
+		this.inodes[row] = inode;
+		this.nameOffsets[row] = this.namesLength;
+		this.nameLengths[row] = nameLength;
+		source.get(this.names, this.namesLength, nameLength);
+		this.namesLength += nameLength;
+	}
+
+	private void grow() {
+		final int capacity = max(DEFAULT_CAPACITY, this.rowCount * 2);
+		this.types = Arrays.copyOf(this.types, capacity);
+		this.modes = Arrays.copyOf(this.modes, capacity);
+		this.numberOfLinks = Arrays.copyOf(this.numberOfLinks, capacity);
+		this.uids = Arrays.copyOf(this.uids, capacity);
+		this.gids = Arrays.copyOf(this.gids, capacity);
+		this.sizes = Arrays.copyOf(this.sizes, capacity);
+		this.creationTimes = Arrays.copyOf(this.creationTimes, capacity);
+		this.modificationTimes = Arrays.copyOf(this.modificationTimes, capacity);
+		this.accessTimes = Arrays.copyOf(this.accessTimes, capacity);
+		this.inodes = Arrays.copyOf(this.inodes, capacity);
+		this.nameOffsets = Arrays.copyOf(this.nameOffsets, capacity);
+		this.nameLengths = Arrays.copyOf(this.nameLengths, capacity);
+	}
+
+	private void checkRow(final int row) {
+		if (row < 0 || row >= this.rowCount) {
+			throw new IndexOutOfBoundsException(String.valueOf(row));
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.FileUtilities.gidToString;
+import static com.github.unix_junkie.javafs.FileUtilities.uidToString;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>Formats the rows of a {@link StatBuffer} the way {@code ls -l} does
+ * (and as {@link FileSystemEntry#toString()} does for a single entry):</p>
+ *
+ * <pre>
+ * -rw-r--r-- 1 root root 1024 2014-01-31 name
+ * </pre>
+ *
+ * <p>Symbolic link targets are stored as link data rather than attributes,
+ * so, unlike {@link SymbolicLink#toString()}, the formatter doesn't print
+ * them.</p>
+ *
+ * <p>Unlike {@link java.text.SimpleDateFormat}, a {@code StatFormatter} is
+ * immutable, and a single instance may be shared by any number of threads.
+ * uids and gids are resolved via the caches of {@link FileUtilities}.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class StatFormatter {
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+	@Nonnull
+	private final DateTimeFormatter dateFormat;
+
+	/**
+	 * <p>Creates a formatter which prints dates in the default time zone
+	 * (as of the moment of creation).</p>
+	 */
+	public StatFormatter() {
+		this(ZoneId.systemDefault());
+	}
+
+	/**
+	 * @param zone the time zone to print dates in.
+	 */
+	public StatFormatter(final ZoneId zone) {
+		@Nonnull
+		@SuppressWarnings("null")
+		final DateTimeFormatter dateFormat0 = DATE_FORMAT.withZone(zone);
+		this.dateFormat = dateFormat0;
+	}
+
+	/**
+	 * <p>Appends the long listing of a single entry to {@code destination}
+	 * (with no line separator).</p>
+	 *
+	 * @param stats the attributes.
+	 * @param row the row of the entry within {@code stats}.
+	 * @param destination the builder to append to.
+	 * @return {@code destination}.
+	 */
+	public StringBuilder format(final StatBuffer stats, final int row, final StringBuilder destination) {
+		destination.append(stats.getType(row).getType());
+		PosixAttributes.appendTo(destination, stats.getAttributes(row)).append(' ');
+		destination.append(stats.getNumberOfLinks(row)).append(' ');
+		destination.append(uidToString(stats.getUid(row))).append(' ');
+		destination.append(gidToString(stats.getGid(row))).append(' ');
+		destination.append(stats.getSize(row)).append(' ');
+		this.appendDate(stats.getModificationTime(row), destination).append(' ');
+		destination.append(stats.getName(row));
+		return destination;
+	}
+
+	/**
+	 * @param time the time, in milliseconds.
+	 * @param destination the builder to append to.
+	 * @return {@code destination}.
+	 */
+	StringBuilder appendDate(final long time, final StringBuilder destination) {
+		this.dateFormat.formatTo(Instant.ofEpochMilli(time), destination);
+		return destination;
+	}
+}
@@ -6,9 +6,7 @@ package com.github.unix_junkie.javafs;
 import static com.github.unix_junkie.javafs.FileType.SYMBOLIC_LINK;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.Files.readAttributes;
 import static java.nio.file.Files.readSymbolicLink;
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.Paths.get;
 import static java.util.logging.Level.WARNING;
 
@@ -17,7 +15,6 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Date;
 import java.util.logging.Logger;
 
@@ -35,13 +32,24 @@ public final class SymbolicLink extends FileSystemEntry {
 	@SuppressWarnings("null")
 	private static final Logger LOGGER = Logger.getLogger(SymbolicLink.class.getName());
 
+	/**
+	 * <p>The target of a symbolic link created from scratch (rather than
+	 * from an external {@link #source}); {@code null} once written.</p>
+	 */
+	@Nullable
+	private ByteBuffer target;
+
 	public SymbolicLink(final Path source) throws IOException {
-		super(source);
+		this(source, HostAttributes.read(source));
+	}
+
+	SymbolicLink(final Path source, final HostAttributes attrs) throws IOException {
+		super(source, attrs);
 
 		/*
 		 * Windows-specific: symbolic link size reported is 0.
 		 */
-		final long reportedSize = readAttributes(source, BasicFileAttributes.class, NOFOLLOW_LINKS).size();
+		final long reportedSize = attrs.size;
 		final String targetPath = readSymbolicLink(source).toString();
 		final ByteBuffer targetPathBytes = UTF_8.newEncoder().encode(CharBuffer.wrap(targetPath));
 		final int targetPathLength = targetPathBytes.limit() - targetPathBytes.position();
@@ -66,6 +74,35 @@ public final class SymbolicLink extends FileSystemEntry {
 				accessTime, name, null);
 	}
 
+	/**
+	 * <p>Creates a detached symbolic link pointing to {@code target}.</p>
+	 *
+	 * @param attributes POSIX attributes.
+	 * @param uid owner Id (UID).
+	 * @param gid group Id (GID).
+	 * @param modificationTime modification time, also used as the creation
+	 *        and access time.
+	 * @param name the name of the link.
+	 * @param target the link target.
+	 * @throws CharacterCodingException if {@code target} can't be encoded.
+	 */
+	public SymbolicLink(final PosixAttributes attributes,
+			final short uid,
+			final short gid,
+			final Date modificationTime,
+			final String name,
+			final String target) throws CharacterCodingException {
+		this(attributes, (byte) 1, uid, gid, 0L,
+				modificationTime,
+				modificationTime,
+				modificationTime, name);
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer target0 = UTF_8.newEncoder().encode(CharBuffer.wrap(target));
+		this.target = target0;
+		this.dataSize = target0.remaining();
+	}
+
 	protected SymbolicLink(final PosixAttributes attributes,
 			final byte numberOfLinks,
 			final short uid,
@@ -93,6 +130,10 @@ public final class SymbolicLink extends FileSystemEntry {
 	@CheckForNull
 	public Path getTarget() throws IOException {
 		if (this.isDetached()) {
+			final ByteBuffer target0 = this.target;
+			if (target0 != null) {
+				return get(UTF_8.newDecoder().decode(target0.duplicate()).toString());
+			}
 			return this.source == null ? null : readSymbolicLink(this.source);
 		}
 
@@ -133,6 +174,13 @@ public final class SymbolicLink extends FileSystemEntry {
 	protected void writeData() throws CharacterCodingException, IOException {
 		this.requireNotDetached();
 
+		final ByteBuffer target0 = this.target;
+		if (target0 != null) {
+			this.target = null;
+			this.writeContents(target0);
+			return;
+		}
+
 		if (this.source == null) {
 			return;
 		}
@@ -144,7 +192,7 @@ public final class SymbolicLink extends FileSystemEntry {
 		@Nonnull
 		@SuppressWarnings("null")
 		final ByteBuffer contents = UTF_8.newEncoder().encode(CharBuffer.wrap(readSymbolicLink(this.source).toString()));
-		this.fileSystem.writeTo(this.firstBlockId, contents);
+		this.writeContents(contents);
 	}
 
 	/**
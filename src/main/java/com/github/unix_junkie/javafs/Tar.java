@@ -0,0 +1,725 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.logging.Level.WARNING;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>Imports the contents of a tar archive into a directory, and exports a
+ * directory tree as a tar archive, in a single pass: file contents are
+ * streamed between the archive and the blocks allocated for the files,
+ * w/o being stored anywhere else.</p>
+ *
+ * <p>Both POSIX ustar and pax archives are read, as well as GNU long names.
+ * Regular files, directories, symbolic and hard links are imported (a hard
+ * link results in a copy of the file it points to); other entries (devices,
+ * FIFOs) are skipped. Archives are written in the ustar format, with pax
+ * extended headers for the names, link targets and sizes ustar can't
+ * represent.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class Tar {
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final Logger LOGGER = Logger.getLogger(Tar.class.getName());
+
+	private static final int RECORD_LENGTH = 512;
+
+	private static final int NAME_LENGTH = 100;
+
+	private static final int PREFIX_LENGTH = 155;
+
+	/**
+	 * The largest value an 11-digit octal field can hold.
+	 */
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+	private static final byte REGULAR = '0';
+
+	private static final byte HARD_LINK = '1';
+
+	private static final byte SYMBOLIC_LINK = '2';
+
+	private static final byte DIRECTORY = '5';
+
+	private static final byte PAX_HEADER = 'x';
+
+	private static final byte PAX_GLOBAL_HEADER = 'g';
+
+	private static final byte GNU_LONG_NAME = 'L';
+
+	private static final byte GNU_LONG_LINK = 'K';
+
+	private Tar() {
+		assert false;
+	}
+
+	/**
+	 * <p>Extracts a tar archive into {@code target}. Missing parent
+	 * directories are created; existing files are replaced.</p>
+	 *
+	 * @param in the archive (not closed).
+	 * @param target the directory to extract the archive into.
+	 * @return the number of entries extracted.
+	 * @throws IOException if the archive is malformed, or an I/O error
+	 *         occurs.
+	 */
+	public static long importFrom(final InputStream in, final Directory target) throws IOException {
+		return new Importer(in, target).run();
+	}
+
+	/**
+	 * <p>Writes the contents of {@code source} (but not {@code source}
+	 * itself) to {@code out} as a tar archive.</p>
+	 *
+	 * @param source the directory to archive.
+	 * @param out the stream to write the archive to (flushed, but not
+	 *        closed).
+	 * @return the number of entries archived.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static long exportTo(final Directory source, final OutputStream out) throws IOException {
+		final Exporter exporter = new Exporter(out);
+		exporter.export(source, "");
+		exporter.finish();
+		return exporter.entryCount;
+	}
+
+	/**
+	 * <p>Reads an archive, one header at a time.</p>
+	 */
+	private static final class Importer {
+		@Nonnull
+		private final InputStream in;
+
+		@Nonnull
+		private final ReadableByteChannel channel;
+
+		@Nonnull
+		private final byte header[] = new byte[RECORD_LENGTH];
+
+		/**
+		 * The directories created or looked up so far, by their path
+		 * relative to the target directory. Every directory is only
+		 * modified via a single instance, so that the sizes it keeps
+		 * are up to date.
+		 */
+		@Nonnull
+		private final Map<String, Directory> directories = new HashMap<>();
+
+		private long entryCount;
+
+		Importer(final InputStream in, final Directory target) {
+			this.in = in;
+			@Nonnull
+			@SuppressWarnings("null")
+			final ReadableByteChannel channel0 = Channels.newChannel(in);
+			this.channel = channel0;
+			this.directories.put("", target);
+		}
+
+		long run() throws IOException {
+			final Map<String, String> extendedHeader = new HashMap<>();
+			while (this.readRecord()) {
+				if (isZero(this.header)) {
+					/*
+					 * The end-of-archive marker.
+					 */
+					break;
+				}
+				verifyChecksum(this.header);
+
+				final byte type = this.header[156];
+				final long size = parseNumber(this.header, 124, 12);
+				switch (type) {
+				case PAX_HEADER:
+					extendedHeader.putAll(parsePaxRecords(this.readData(size)));
+					continue;
+				case GNU_LONG_NAME:
+					extendedHeader.put("path", parseString(this.readData(size), 0, (int) size));
+					continue;
+				case GNU_LONG_LINK:
+					extendedHeader.put("linkpath", parseString(this.readData(size), 0, (int) size));
+					continue;
+				case PAX_GLOBAL_HEADER:
+					this.skip(padded(size));
+					continue;
+				default:
+					break;
+				}
+
+				final String path = extendedHeader.containsKey("path")
+						? extendedHeader.get("path")
+						: getPath(this.header);
+				final String linkPath = extendedHeader.containsKey("linkpath")
+						? extendedHeader.get("linkpath")
+						: parseString(this.header, 157, NAME_LENGTH);
+				final long size0 = extendedHeader.containsKey("size")
+						? Long.parseLong(extendedHeader.get("size"))
+						: size;
+				final long modificationTime = extendedHeader.containsKey("mtime")
+						? (long) (Double.parseDouble(extendedHeader.get("mtime")) * 1000)
+						: parseNumber(this.header, 136, 12) * 1000;
+				extendedHeader.clear();
+
+				final PosixAttributes attributes = new PosixAttributes((int) parseNumber(this.header, 100, 8));
+				final short uid = (short) parseNumber(this.header, 108, 8);
+				final short gid = (short) parseNumber(this.header, 116, 8);
+				final Date mtime = new Date(modificationTime);
+
+				final List<String> names = split(path);
+				if (names.isEmpty()) {
+					/*
+					 * The target directory itself, e.g.: "./".
+					 */
+					this.skip(padded(size0));
+					continue;
+				}
+				final String name = names.get(names.size() - 1);
+				final List<String> parentNames = names.subList(0, names.size() - 1);
+
+				switch (type) {
+				case REGULAR:
+				case 0:
+				case '7': {
+					final Directory parent = this.mkdirs(parentNames);
+					replace(parent, name);
+					final EntryContents contents = new EntryContents(this.channel, size0);
+					parent.addChild(new File(attributes, uid, gid, mtime, name, size0, contents));
+					contents.skipRemaining();
+					this.skip(padded(size0) - size0);
+					break;
+				}
+				case DIRECTORY: {
+					this.skip(padded(size0));
+					final String key = String.join("/", names);
+					if (!this.directories.containsKey(key)) {
+						final Directory parent = this.mkdirs(parentNames);
+						final FileSystemEntry existing = parent.getChild(name);
+						if (existing instanceof Directory) {
+							this.directories.put(key, (Directory) existing);
+						} else {
+							replace(parent, name);
+							final Directory directory = new Directory(attributes, (byte) 1, uid, gid, 0L, mtime, mtime, mtime, name);
+							parent.addChild(directory);
+							this.directories.put(key, directory);
+						}
+					}
+					break;
+				}
+				case SYMBOLIC_LINK: {
+					this.skip(padded(size0));
+					final Directory parent = this.mkdirs(parentNames);
+					replace(parent, name);
+					parent.addChild(new SymbolicLink(attributes, uid, gid, mtime, name, linkPath));
+					break;
+				}
+				case HARD_LINK: {
+					this.skip(padded(size0));
+					final FileSystemEntry linked = this.lookup(split(linkPath));
+					if (!(linked instanceof File)) {
+						throw new IOException(format("%s: hard link target %s is not a regular file", path, linkPath));
+					}
+					final Directory parent = this.mkdirs(parentNames);
+					replace(parent, name);
+					try (final ReadableByteChannel contents = linked.newByteChannel()) {
+						parent.addChild(new File(attributes, uid, gid, mtime, name, linked.getDataSize(), contents));
+					}
+					break;
+				}
+				default:
+					LOGGER.log(WARNING, () -> format("%s: entry type '%c' not supported; skipped", path, Character.valueOf((char) type)));
+					this.skip(padded(size0));
+					continue;
+				}
+				this.entryCount++;
+			}
+			return this.entryCount;
+		}
+
+		/**
+		 * @return whether a complete record has been read, {@code false}
+		 *         if the end of stream has been reached instead.
+		 */
+		private boolean readRecord() throws IOException {
+			final int n = this.in.readNBytes(this.header, 0, RECORD_LENGTH);
+			if (n == 0) {
+				return false;
+			}
+			if (n != RECORD_LENGTH) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			return true;
+		}
+
+		/**
+		 * <p>Reads the (padded) data of an extended header.</p>
+		 */
+		private byte[] readData(final long size) throws IOException {
+			if (size > Integer.MAX_VALUE - RECORD_LENGTH) {
+				throw new IOException(format("Extended header too large: %d", Long.valueOf(size)));
+			}
+			final byte data[] = new byte[(int) padded(size)];
+			if (this.in.readNBytes(data, 0, data.length) != data.length) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			return data;
+		}
+
+		private void skip(final long n) throws IOException {
+			long remaining = n;
+			while (remaining > 0) {
+				final long skipped = this.in.skip(remaining);
+				if (skipped > 0) {
+					remaining -= skipped;
+				} else if (this.in.read() == -1) {
+					throw new EOFException("Unexpected end of archive");
+				} else {
+					remaining--;
+				}
+			}
+		}
+
+		/**
+		 * @param names the path relative to the target directory.
+		 * @return the directory denoted by {@code names}, created (along
+		 *         with the missing parents) if necessary.
+		 */
+		private Directory mkdirs(final List<String> names) throws IOException {
+			final String key = String.join("/", names);
+			final Directory cached = this.directories.get(key);
+			if (cached != null) {
+				return cached;
+			}
+
+			final Directory parent = this.mkdirs(names.subList(0, names.size() - 1));
+			final String name = names.get(names.size() - 1);
+			final FileSystemEntry existing = parent.getChild(name);
+			final Directory directory;
+			if (existing == null) {
+				directory = new Directory(name);
+				parent.addChild(directory);
+			} else if (existing instanceof Directory) {
+				directory = (Directory) existing;
+			} else {
+				throw new IOException(format("%s: not a directory", key));
+			}
+			this.directories.put(key, directory);
+			return directory;
+		}
+
+		@Nullable
+		private FileSystemEntry lookup(final List<String> names) throws IOException {
+			if (names.isEmpty()) {
+				return this.directories.get("");
+			}
+			final Directory parent = this.mkdirs(names.subList(0, names.size() - 1));
+			return parent.getChild(names.get(names.size() - 1));
+		}
+
+		/**
+		 * <p>Removes a non-directory entry named {@code name}, if any, so
+		 * that it can be replaced.</p>
+		 */
+		private static void replace(final Directory parent, final String name) throws IOException {
+			final FileSystemEntry existing = parent.getChild(name);
+			if (existing instanceof Directory) {
+				throw new IOException(format("%s: is a directory", name));
+			}
+			if (existing != null) {
+				parent.unlink(name);
+			}
+		}
+	}
+
+	/**
+	 * <p>The contents of a single archive entry: exactly {@code size} bytes
+	 * of the underlying channel.</p>
+	 */
+	private static final class EntryContents implements ReadableByteChannel {
+		@Nonnull
+		private final ReadableByteChannel in;
+
+		private long remaining;
+
+		EntryContents(final ReadableByteChannel in, final long size) {
+			this.in = in;
+			this.remaining = size;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see ReadableByteChannel#read(ByteBuffer)
+		 */
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+			if (this.remaining == 0) {
+				return -1;
+			}
+			final int limit = dst.limit();
+			if (dst.remaining() > this.remaining) {
+				dst.limit(dst.position() + (int) this.remaining);
+			}
+			final int n;
+			try {
+				n = this.in.read(dst);
+			} finally {
+				dst.limit(limit);
+			}
+			if (n == -1) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			this.remaining -= n;
+			return n;
+		}
+
+		/**
+		 * <p>Consumes whatever hasn't been read, so that the underlying
+		 * channel is positioned at the end of the entry.</p>
+		 */
+		void skipRemaining() throws IOException {
+			final ByteBuffer buffer = ByteBuffer.allocate((int) min(this.remaining, 64 * 1024));
+			while (this.remaining != 0) {
+				buffer.clear();
+				this.read(buffer);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see ReadableByteChannel#isOpen()
+		 */
+		@Override
+		public boolean isOpen() {
+			return this.in.isOpen();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * <p>The underlying channel is left open.</p>
+		 *
+		 * @see ReadableByteChannel#close()
+		 */
+		@Override
+		public void close() {
+			// empty
+		}
+	}
+
+	/**
+	 * <p>Writes an archive, one entry at a time.</p>
+	 */
+	private static final class Exporter {
+		@Nonnull
+		private final OutputStream out;
+
+		@Nonnull
+		private final WritableByteChannel channel;
+
+		long entryCount;
+
+		Exporter(final OutputStream out) {
+			this.out = out;
+			@Nonnull
+			@SuppressWarnings("null")
+			final WritableByteChannel channel0 = Channels.newChannel(out);
+			this.channel = channel0;
+		}
+
+		void export(final Directory directory, final String prefix) throws IOException {
+			for (final FileSystemEntry child : directory.list()) {
+				final String path = prefix + child.getName();
+				if (child instanceof Directory) {
+					this.writeHeader(child, path + '/', DIRECTORY, 0L, "");
+					this.export((Directory) child, path + '/');
+				} else if (child instanceof SymbolicLink) {
+					this.writeHeader(child, path, SYMBOLIC_LINK, 0L, String.valueOf(((SymbolicLink) child).getTarget()));
+				} else {
+					final long size = child.getDataSize();
+					this.writeHeader(child, path, REGULAR, size, "");
+					try (final EntryChannel contents = (EntryChannel) child.newByteChannel()) {
+						if (contents.transferTo(0L, size, this.channel) != size) {
+							throw new IOException(format("%s: unexpected end of file", path));
+						}
+					}
+					this.out.write(new byte[(int) (padded(size) - size)]);
+				}
+				this.entryCount++;
+			}
+		}
+
+		void finish() throws IOException {
+			this.out.write(new byte[2 * RECORD_LENGTH]);
+			this.out.flush();
+		}
+
+		private void writeHeader(final FileSystemEntry entry,
+				final String path,
+				final byte type,
+				final long size,
+				final String linkPath) throws IOException {
+			final byte header[] = new byte[RECORD_LENGTH];
+			final Map<String, String> extendedHeader = new LinkedHashMap<>();
+
+			final byte pathBytes[] = path.getBytes(UTF_8);
+			if (pathBytes.length <= NAME_LENGTH) {
+				System.arraycopy(pathBytes, 0, header, 0, pathBytes.length);
+			} else {
+				final int split = findPrefixSplit(pathBytes);
+				if (split == -1) {
+					extendedHeader.put("path", path);
+					System.arraycopy(pathBytes, pathBytes.length - NAME_LENGTH, header, 0, NAME_LENGTH);
+				} else {
+					System.arraycopy(pathBytes, split + 1, header, 0, pathBytes.length - split - 1);
+					System.arraycopy(pathBytes, 0, header, 345, split);
+				}
+			}
+
+			final byte linkPathBytes[] = linkPath.getBytes(UTF_8);
+			if (linkPathBytes.length > NAME_LENGTH) {
+				extendedHeader.put("linkpath", linkPath);
+			}
+			System.arraycopy(linkPathBytes, 0, header, 157, min(NAME_LENGTH, linkPathBytes.length));
+
+			if (size > MAX_OCTAL_SIZE) {
+				extendedHeader.put("size", Long.toString(size));
+			}
+
+			putOctal(header, 100, 8, entry.getAttributes().getValue());
+			putOctal(header, 108, 8, entry.getUid() & 0xffff);
+			putOctal(header, 116, 8, entry.getGid() & 0xffff);
+			putOctal(header, 124, 12, size > MAX_OCTAL_SIZE ? 0L : size);
+			putOctal(header, 136, 12, entry.getModificationTime().getTime() / 1000);
+			header[156] = type;
+			System.arraycopy("ustar\u000000".getBytes(US_ASCII), 0, header, 257, 8);
+
+			if (!extendedHeader.isEmpty()) {
+				final byte records[] = formatPaxRecords(extendedHeader);
+				final byte paxHeader[] = new byte[RECORD_LENGTH];
+				final byte paxName[] = "././@PaxHeader".getBytes(US_ASCII);
+				System.arraycopy(paxName, 0, paxHeader, 0, paxName.length);
+				System.arraycopy(header, 100, paxHeader, 100, 36);
+				putOctal(paxHeader, 124, 12, records.length);
+				System.arraycopy(header, 136, paxHeader, 136, 12);
+				paxHeader[156] = PAX_HEADER;
+				System.arraycopy(header, 257, paxHeader, 257, 8);
+				putChecksum(paxHeader);
+				this.out.write(paxHeader);
+				this.out.write(records);
+				this.out.write(new byte[(int) (padded(records.length) - records.length)]);
+			}
+
+			putChecksum(header);
+			this.out.write(header);
+		}
+
+		/**
+		 * @return the index of the slash separating the ustar prefix from
+		 *         the name, or {@code -1} if the path can't be split.
+		 */
+		private static int findPrefixSplit(final byte path[]) {
+			for (int i = min(PREFIX_LENGTH, path.length - 1); i > 0; i--) {
+				if (path[i] == '/' && path.length - i - 1 <= NAME_LENGTH && path.length - i - 1 > 0) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * @param size the size of the data.
+	 * @return {@code size} rounded up to the record length.
+	 */
+	private static long padded(final long size) {
+		return (size + RECORD_LENGTH - 1) / RECORD_LENGTH * RECORD_LENGTH;
+	}
+
+	private static boolean isZero(final byte record[]) {
+		for (final byte b : record) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * <p>Parses a numeric field, either octal or (a GNU extension)
+	 * base-256.</p>
+	 */
+	static long parseNumber(final byte header[], final int offset, final int length) throws IOException {
+		if ((header[offset] & 0x80) != 0) {
+			long value = header[offset] & 0x7f;
+			for (int i = offset + 1; i < offset + length; i++) {
+				value = value << 8 | header[i] & 0xff;
+			}
+			return value;
+		}
+
+		final String s = new String(header, offset, length, US_ASCII).trim();
+		final int nul = s.indexOf('\0');
+		final String digits = (nul == -1 ? s : s.substring(0, nul)).trim();
+		if (digits.isEmpty()) {
+			return 0L;
+		}
+		try {
+			return Long.parseLong(digits, 8);
+		} catch (final NumberFormatException nfe) {
+			throw new IOException(format("Malformed numeric field: %s", digits), nfe);
+		}
+	}
+
+	private static void putOctal(final byte header[], final int offset, final int length, final long value) {
+		final String s = Long.toOctalString(value);
+		final byte digits[] = s.getBytes(US_ASCII);
+		Arrays.fill(header, offset, offset + length - 1, (byte) '0');
+		System.arraycopy(digits, 0, header, offset + length - 1 - digits.length, digits.length);
+		header[offset + length - 1] = 0;
+	}
+
+	private static void verifyChecksum(final byte header[]) throws IOException {
+		final long expected = parseNumber(header, 148, 8);
+		long actual = 0L;
+		for (int i = 0; i < RECORD_LENGTH; i++) {
+			actual += 148 <= i && i < 156 ? ' ' : header[i] & 0xff;
+		}
+		if (actual != expected) {
+			throw new IOException(format("Header checksum mismatch: expected %o, actual %o", Long.valueOf(expected), Long.valueOf(actual)));
+		}
+	}
+
+	private static void putChecksum(final byte header[]) {
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		long checksum = 0L;
+		for (final byte b : header) {
+			checksum += b & 0xff;
+		}
+		final byte digits[] = format("%06o", Long.valueOf(checksum)).getBytes(US_ASCII);
+		System.arraycopy(digits, 0, header, 148, 6);
+		header[154] = 0;
+	}
+
+	private static String parseString(final byte data[], final int offset, final int length) {
+		int end = offset;
+		while (end < offset + length && data[end] != 0) {
+			end++;
+		}
+		return new String(data, offset, end - offset, UTF_8);
+	}
+
+	/**
+	 * @return the path, joined with the ustar prefix, if any.
+	 */
+	private static String getPath(final byte header[]) {
+		final String name = parseString(header, 0, NAME_LENGTH);
+		final boolean ustar = new String(header, 257, 5, US_ASCII).equals("ustar") && header[262] == 0;
+		final String prefix = ustar ? parseString(header, 345, PREFIX_LENGTH) : "";
+		return prefix.isEmpty() ? name : prefix + '/' + name;
+	}
+
+	/**
+	 * @param path the path within the archive.
+	 * @return the names the path consists of, w/o the empty and {@code .}
+	 *         components.
+	 * @throws IOException if the path contains {@code ..}.
+	 */
+	static List<String> split(final String path) throws IOException {
+		final List<String> names = new ArrayList<>();
+		for (final String name : path.split("/")) {
+			switch (name) {
+			case "":
+			case ".":
+				break;
+			case "..":
+				throw new IOException(format("Refusing to extract %s", path));
+			default:
+				names.add(name);
+				break;
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * <p>Parses the records of a pax extended header: {@code <length>
+	 * <key>=<value>\n}.</p>
+	 */
+	static Map<String, String> parsePaxRecords(final byte data[]) throws IOException {
+		final Map<String, String> records = new HashMap<>();
+		int offset = 0;
+		while (offset < data.length && data[offset] != 0) {
+			int space = offset;
+			while (space < data.length && data[space] != ' ') {
+				space++;
+			}
+			final int length;
+			try {
+				length = Integer.parseInt(new String(data, offset, space - offset, US_ASCII));
+			} catch (final NumberFormatException nfe) {
+				throw new IOException("Malformed extended header", nfe);
+			}
+			if (length <= 0 || offset + length > data.length || data[offset + length - 1] != '\n') {
+				throw new IOException("Malformed extended header");
+			}
+			final String record = new String(data, space + 1, offset + length - space - 2, UTF_8);
+			final int equals = record.indexOf('=');
+			if (equals == -1) {
+				throw new IOException(format("Malformed extended header record: %s", record));
+			}
+			records.put(record.substring(0, equals), record.substring(equals + 1));
+			offset += length;
+		}
+		return records;
+	}
+
+	static byte[] formatPaxRecords(final Map<String, String> records) {
+		final StringBuilder builder = new StringBuilder();
+		for (final Entry<String, String> record : records.entrySet()) {
+			final String keyValue = ' ' + record.getKey() + '=' + record.getValue() + '\n';
+			final int keyValueLength = keyValue.getBytes(UTF_8).length;
+			/*
+			 * The length includes its own decimal representation.
+			 */
+			int length = keyValueLength + 1;
+			while (length != keyValueLength + Integer.toString(length).length()) {
+				length = keyValueLength + Integer.toString(length).length();
+			}
+			builder.append(length).append(keyValue);
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final byte bytes[] = builder.toString().getBytes(UTF_8);
+		return bytes;
+	}
+}
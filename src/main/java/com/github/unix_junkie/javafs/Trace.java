@@ -0,0 +1,216 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.Integer.highestOneBit;
+import static java.lang.String.format;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>A low-overhead trace of per-block operations (allocation, freeing),
+ * too frequent to be logged.</p>
+ *
+ * <p>Trace records are binary (a timestamp, a thread id, a {@linkplain
+ * Point trace point} and up to two {@code long} arguments), and are stored
+ * into a lock-free in-memory ring buffer, overwriting the oldest ones.
+ * Records are only formatted when {@linkplain #dump(PrintStream) dumped}.
+ * When tracing is disabled (the default), recording a trace point costs a
+ * single volatile read.</p>
+ *
+ * <p>Tracing can be enabled at startup with the {@value
+ * #CAPACITY_PROPERTY} system property, set to the ring buffer capacity (in
+ * records), or at runtime with {@link #enable(int)}.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class Trace {
+	/**
+	 * The system property which enables tracing at startup.
+	 */
+	public static final String CAPACITY_PROPERTY = "javafs.trace";
+
+	/**
+	 * <p>Trace points, along with the formats of their records.</p>
+	 */
+	enum Point {
+		ALLOCATE_FIRST("Initial block available is %d"),
+		ALLOCATE_LINK("Referencing block %2$d from block %1$d"),
+		ALLOCATE_EOF("Writing EOF marker to block %d"),
+		FREE_BLOCK("Freeing block %d"),
+		;
+
+		@Nonnull
+		private final String format;
+
+		private Point(final String format) {
+			this.format = format;
+		}
+
+		String format(final long arg0, final long arg1) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final String s = String.format(this.format, Long.valueOf(arg0), Long.valueOf(arg1));
+			return s;
+		}
+	}
+
+	@Nullable
+	private static volatile Ring ring = createRing(Integer.getInteger(CAPACITY_PROPERTY, 0).intValue());
+
+	private Trace() {
+		assert false;
+	}
+
+	/**
+	 * <p>Records a trace point, if tracing is enabled.</p>
+	 *
+	 * @param point the trace point.
+	 * @param arg0 the 1st argument.
+	 * @param arg1 the 2nd argument.
+	 */
+	static void record(final Point point, final long arg0, final long arg1) {
+		final Ring ring0 = ring;
+		if (ring0 != null) {
+			ring0.add(point, arg0, arg1);
+		}
+	}
+
+	/**
+	 * @return whether tracing is enabled.
+	 */
+	public static boolean isEnabled() {
+		return ring != null;
+	}
+
+	/**
+	 * <p>Enables tracing, discarding the records collected so far.</p>
+	 *
+	 * @param capacity the maximum number of records retained, rounded up
+	 *        to a power of two.
+	 */
+	public static void enable(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(format("Capacity negative or zero: %d", Integer.valueOf(capacity)));
+		}
+		ring = createRing(capacity);
+	}
+
+	/**
+	 * <p>Disables tracing, discarding the records collected so far.</p>
+	 */
+	public static void disable() {
+		ring = null;
+	}
+
+	/**
+	 * @return the total number of records made since tracing was enabled,
+	 *         including the ones already overwritten.
+	 */
+	public static long getRecordCount() {
+		final Ring ring0 = ring;
+		return ring0 == null ? 0L : ring0.next.get();
+	}
+
+	/**
+	 * <p>Prints the records retained, oldest first, to {@code out}.
+	 * Records being written concurrently with the dump are skipped.</p>
+	 *
+	 * @param out the stream to print the records to.
+	 */
+	public static void dump(final PrintStream out) {
+		final Ring ring0 = ring;
+		if (ring0 != null) {
+			ring0.dump(out);
+		}
+	}
+
+	@Nullable
+	private static Ring createRing(final int capacity) {
+		if (capacity <= 0) {
+			return null;
+		}
+		return new Ring(capacity <= 1 ? 1 : highestOneBit(capacity - 1) << 1);
+	}
+
+	/**
+	 * <p>The ring buffer. Each record occupies {@value #RECORD_LENGTH}
+	 * consecutive slots: the sequence number, the timestamp, the thread
+	 * id and the trace point ordinal, and the two arguments. The sequence
+	 * number is written last, and is {@code -1} while the record is being
+	 * written, so that readers can detect torn records.</p>
+	 */
+	private static final class Ring {
+		private static final int RECORD_LENGTH = 5;
+
+		private static final int POINT_BITS = 8;
+
+		private final int mask;
+
+		@Nonnull
+		final AtomicLong next = new AtomicLong();
+
+		@Nonnull
+		private final AtomicLongArray slots;
+
+		Ring(final int capacity) {
+			this.mask = capacity - 1;
+			this.slots = new AtomicLongArray(capacity * RECORD_LENGTH);
+			for (int i = 0; i < capacity; i++) {
+				this.slots.set(i * RECORD_LENGTH, -1L);
+			}
+		}
+
+		void add(final Point point, final long arg0, final long arg1) {
+			final long sequence = this.next.getAndIncrement();
+			final int base = (int) (sequence & this.mask) * RECORD_LENGTH;
+
+			this.slots.set(base, -1L);
+			this.slots.lazySet(base + 1, System.nanoTime());
+			this.slots.lazySet(base + 2, Thread.currentThread().getId() << POINT_BITS | point.ordinal());
+			this.slots.lazySet(base + 3, arg0);
+			this.slots.lazySet(base + 4, arg1);
+			this.slots.set(base, sequence);
+		}
+
+		void dump(final PrintStream out) {
+			final long last = this.next.get();
+			final long first = Math.max(0L, last - (this.mask + 1));
+			final Point points[] = Point.values();
+
+			long startTime = Long.MIN_VALUE;
+			for (long sequence = first; sequence < last; sequence++) {
+				final int base = (int) (sequence & this.mask) * RECORD_LENGTH;
+				if (this.slots.get(base) != sequence) {
+					continue;
+				}
+				final long timestamp = this.slots.get(base + 1);
+				final long threadAndPoint = this.slots.get(base + 2);
+				final long arg0 = this.slots.get(base + 3);
+				final long arg1 = this.slots.get(base + 4);
+				if (this.slots.get(base) != sequence) {
+					/*
+					 * Overwritten while being read.
+					 */
+					continue;
+				}
+
+				if (startTime == Long.MIN_VALUE) {
+					startTime = timestamp;
+				}
+				final int ordinal = (int) (threadAndPoint & (1 << POINT_BITS) - 1);
+				out.println(format("%d +%.3f us [%d] %s",
+						Long.valueOf(sequence),
+						Double.valueOf((timestamp - startTime) / 1e3),
+						Long.valueOf(threadAndPoint >>> POINT_BITS),
+						points[ordinal].format(arg0, arg1)));
+			}
+		}
+	}
+}
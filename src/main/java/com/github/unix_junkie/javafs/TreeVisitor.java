@@ -0,0 +1,36 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+/**
+ * <p>Receives the entries of a directory tree {@linkplain
+ * FileSystem#walk(Directory, TreeVisitor, int) walked} by a file system.</p>
+ *
+ * <p>Sibling subdirectories are walked in parallel, so a visitor is called
+ * concurrently from multiple threads and must be thread-safe (e.g.: sum into
+ * a {@link java.util.concurrent.atomic.LongAdder}). Entries of a single
+ * directory are visited by a single thread, in the directory order, and
+ * before any of its subdirectories are walked.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@FunctionalInterface
+public interface TreeVisitor {
+	/**
+	 * <p>Visits a single entry. Entries are passed as rows of a {@link
+	 * StatBuffer} holding the whole directory rather than as {@link
+	 * FileSystemEntry} instances; the buffer is only valid for the
+	 * duration of the call, and is reused afterwards.</p>
+	 *
+	 * @param directory the absolute path of the directory containing the
+	 *        entry.
+	 * @param stats the attributes of the entries of {@code directory}.
+	 * @param row the row of the entry within {@code stats}.
+	 * @param depth the depth of the entry, 1 for the children of the
+	 *        directory the walk has started at.
+	 * @return whether to descend into the entry, if it's a directory
+	 *         (ignored for other entries, and beyond the maximum depth).
+	 */
+	boolean visit(String directory, StatBuffer stats, int row, int depth);
+}
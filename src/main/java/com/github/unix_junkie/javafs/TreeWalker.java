@@ -0,0 +1,94 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.FileType.DIRECTORY;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A fork-join task walking a single directory: its entries are
+ * {@linkplain Directory#stat(StatBuffer) read in bulk} and passed to the
+ * visitor, and then a subtask is forked for each subdirectory the visitor
+ * hasn't pruned, so that sibling subtrees are read in parallel and idle
+ * workers steal whole subtrees from busy ones.</p>
+ *
+ * <p>Each worker thread reuses a single {@link StatBuffer}: a directory is
+ * done with the buffer before any of its subtasks run, so nothing is
+ * allocated per file, only per subdirectory descended into.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see FileSystem#walk(Directory, TreeVisitor, int)
+ */
+final class TreeWalker extends RecursiveAction {
+	private static final long serialVersionUID = 1270352733520342150L;
+
+	@Nonnull
+	@SuppressWarnings("null")
+	private static final ThreadLocal<StatBuffer> STATS = ThreadLocal.withInitial(StatBuffer::new);
+
+	@Nonnull
+	private final transient Directory directory;
+
+	@Nonnull
+	private final String path;
+
+	private final int depth;
+
+	@Nonnull
+	private final transient TreeVisitor visitor;
+
+	private final int maxDepth;
+
+	/**
+	 * @param directory the (attached) directory to walk.
+	 * @param path the absolute path of {@code directory}.
+	 * @param depth the depth of the entries of {@code directory}.
+	 * @param visitor the visitor.
+	 * @param maxDepth the depth of the deepest entries visited.
+	 */
+	TreeWalker(final Directory directory, final String path, final int depth,
+			final TreeVisitor visitor, final int maxDepth) {
+		this.directory = directory;
+		this.path = path;
+		this.depth = depth;
+		this.visitor = visitor;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UncheckedIOException if an I/O error occurs.
+	 * @see RecursiveAction#compute()
+	 */
+	@Override
+	protected void compute() {
+		final StatBuffer stats = STATS.get();
+		final List<TreeWalker> subtasks = new ArrayList<>();
+		try {
+			final int n = this.directory.stat(stats);
+			for (int i = 0; i < n; i++) {
+				final boolean descend = this.visitor.visit(this.path, stats, i, this.depth);
+				if (descend && this.depth < this.maxDepth && stats.getType(i) == DIRECTORY) {
+					final Directory child = this.directory.getChildDirectory(stats, i);
+					final String childPath = this.path.endsWith("/")
+							? this.path + child.getName()
+							: this.path + '/' + child.getName();
+					subtasks.add(new TreeWalker(child, childPath, this.depth + 1, this.visitor, this.maxDepth));
+				}
+			}
+		} catch (final IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+
+		invokeAll(subtasks);
+	}
+}
@@ -0,0 +1,41 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A directory entry removed, and the directory contents rewritten.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@Name("com.github.unix_junkie.javafs.Unlink")
+@Label("Unlink")
+@Description("A directory entry removed.")
+@Category({"javafs"})
+@Enabled(false)
+@StackTrace(false)
+final class UnlinkEvent extends Event {
+	@Label("Directory")
+	@Description("The name of the directory.")
+	@Nullable
+	String directory;
+
+	@Label("Child")
+	@Description("The name of the entry removed.")
+	@Nullable
+	String child;
+
+	@Label("Bytes Rewritten")
+	@Description("The number of directory contents bytes rewritten.")
+	long bytesRewritten;
+}
@@ -0,0 +1,121 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Variable-length integers, as used by the {@linkplain
+ * Feature#COMPACT_METADATA compact} entry encoding: 7 bits per byte, least
+ * significant group first, with the most significant bit set in every byte
+ * but the last one. Signed values are zigzag-encoded first, so that small
+ * negative values are short, too.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class Varint {
+	/**
+	 * The length of the longest varint, i.e. of a 64-bit value.
+	 */
+	static final int MAX_LENGTH = 10;
+
+	private Varint() {
+		assert false;
+	}
+
+	/**
+	 * @param value the value, treated as unsigned.
+	 * @return the number of bytes {@code value} is encoded with.
+	 */
+	static int getLength(final long value) {
+		int length = 1;
+		for (long rest = value >>> 7; rest != 0; rest >>>= 7) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * @param value the signed value.
+	 * @return the number of bytes {@code value} is encoded with.
+	 */
+	static int getSignedLength(final long value) {
+		return getLength(zigzag(value));
+	}
+
+	/**
+	 * @param destination the buffer to write {@code value} to.
+	 * @param value the value, treated as unsigned.
+	 */
+	static void put(final ByteBuffer destination, final long value) {
+		put(destination, value, getLength(value));
+	}
+
+	/**
+	 * <p>Writes {@code value} padded to exactly {@code length} bytes, so
+	 * that it can later be overwritten in place with any other value of
+	 * (at most) the same length.</p>
+	 *
+	 * @param destination the buffer to write {@code value} to.
+	 * @param value the value, treated as unsigned.
+	 * @param length the number of bytes to write, not less than {@link
+	 *        #getLength(long)}.
+	 */
+	static void put(final ByteBuffer destination, final long value, final int length) {
+		if (length < getLength(value) || length > MAX_LENGTH) {
+			throw new IllegalArgumentException(format("%d can't be written as %d byte(s)", Long.valueOf(value), Integer.valueOf(length)));
+		}
+
+		long rest = value;
+		for (int i = 0; i < length - 1; i++) {
+			destination.put((byte) (rest & 0x7f | 0x80));
+			rest >>>= 7;
+		}
+		destination.put((byte) rest);
+	}
+
+	/**
+	 * @param destination the buffer to write {@code value} to.
+	 * @param value the signed value.
+	 */
+	static void putSigned(final ByteBuffer destination, final long value) {
+		put(destination, zigzag(value));
+	}
+
+	/**
+	 * @param source the buffer to read the value from.
+	 * @return the value read, unsigned.
+	 * @throws IOException if the value is longer than {@value #MAX_LENGTH}
+	 *         bytes.
+	 */
+	static long get(final ByteBuffer source) throws IOException {
+		long value = 0L;
+		for (int i = 0; i < MAX_LENGTH; i++) {
+			final byte b = source.get();
+			value |= (long) (b & 0x7f) << 7 * i;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException(format("Varint at %d is longer than %d bytes", Integer.valueOf(source.position() - MAX_LENGTH), Integer.valueOf(MAX_LENGTH)));
+	}
+
+	/**
+	 * @param source the buffer to read the value from.
+	 * @return the value read, signed.
+	 * @throws IOException if the value is longer than {@value #MAX_LENGTH}
+	 *         bytes.
+	 */
+	static long getSigned(final ByteBuffer source) throws IOException {
+		final long value = get(source);
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private static long zigzag(final long value) {
+		return value << 1 ^ value >> 63;
+	}
+}
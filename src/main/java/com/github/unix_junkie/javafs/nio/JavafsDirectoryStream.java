@@ -0,0 +1,104 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.unix_junkie.javafs.FileSystemEntry;
+
+/**
+ * <p>Iterates over the entries of a directory listed once, when the
+ * iterator is requested. The filter is applied lazily, as the iteration
+ * advances.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class JavafsDirectoryStream implements DirectoryStream<Path> {
+	@Nonnull
+	private final JavafsPath directory;
+
+	@Nonnull
+	private final Iterable<FileSystemEntry> children;
+
+	@Nonnull
+	private final Filter<? super Path> filter;
+
+	private boolean iteratorRequested;
+
+	private volatile boolean closed;
+
+	JavafsDirectoryStream(final JavafsPath directory, final Iterable<FileSystemEntry> children, final Filter<? super Path> filter) {
+		this.directory = directory;
+		this.children = children;
+		this.filter = filter;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see DirectoryStream#iterator()
+	 */
+	@Override
+	public synchronized Iterator<Path> iterator() {
+		if (this.closed) {
+			throw new IllegalStateException("Directory stream closed");
+		}
+		if (this.iteratorRequested) {
+			throw new IllegalStateException("Iterator already obtained");
+		}
+		this.iteratorRequested = true;
+
+		final Iterator<FileSystemEntry> entries = this.children.iterator();
+		return new Iterator<Path>() {
+			@Nullable
+			private Path next;
+
+			@Override
+			public boolean hasNext() {
+				while (this.next == null && !JavafsDirectoryStream.this.closed && entries.hasNext()) {
+					final Path candidate = JavafsDirectoryStream.this.directory.resolve(entries.next().getName());
+					try {
+						if (JavafsDirectoryStream.this.filter.accept(candidate)) {
+							this.next = candidate;
+						}
+					} catch (final IOException ioe) {
+						throw new DirectoryIteratorException(ioe);
+					} catch (final UncheckedIOException uioe) {
+						throw new DirectoryIteratorException(uioe.getCause());
+					}
+				}
+				return this.next != null;
+			}
+
+			@Override
+			public Path next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final Path next0 = this.next;
+				this.next = null;
+				return next0;
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see DirectoryStream#close()
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+	}
+}
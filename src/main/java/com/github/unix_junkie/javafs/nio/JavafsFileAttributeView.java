@@ -0,0 +1,107 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>A read-only view of the attributes of a javafs entry: the on-disk
+ * format has no means to update the metadata of an existing entry.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class JavafsFileAttributeView implements PosixFileAttributeView {
+	@Nonnull
+	private final JavafsPath path;
+
+	private final boolean posix;
+
+	JavafsFileAttributeView(final JavafsPath path, final boolean posix) {
+		this.path = path;
+		this.posix = posix;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributeView#name()
+	 */
+	@Override
+	public String name() {
+		return this.posix ? "posix" : "basic";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributeView#readAttributes()
+	 */
+	@Override
+	public JavafsFileAttributes readAttributes() throws IOException {
+		return this.path.getFileSystem().provider().readAttributes(this.path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributeView#setTimes(FileTime, FileTime, FileTime)
+	 */
+	@Override
+	public void setTimes(@Nullable final FileTime lastModifiedTime,
+			@Nullable final FileTime lastAccessTime,
+			@Nullable final FileTime createTime) {
+		if (lastModifiedTime != null || lastAccessTime != null || createTime != null) {
+			throw new UnsupportedOperationException("Attributes are read-only");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.FileOwnerAttributeView#getOwner()
+	 */
+	@Override
+	public UserPrincipal getOwner() throws IOException {
+		return this.readAttributes().owner();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.FileOwnerAttributeView#setOwner(UserPrincipal)
+	 */
+	@Override
+	public void setOwner(final UserPrincipal owner) {
+		throw new UnsupportedOperationException("Attributes are read-only");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributeView#setPermissions(Set)
+	 */
+	@Override
+	public void setPermissions(final Set<PosixFilePermission> permissions) {
+		throw new UnsupportedOperationException("Attributes are read-only");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributeView#setGroup(GroupPrincipal)
+	 */
+	@Override
+	public void setGroup(final GroupPrincipal group) {
+		throw new UnsupportedOperationException("Attributes are read-only");
+	}
+}
@@ -0,0 +1,332 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static java.lang.String.format;
+import static java.nio.file.attribute.PosixFilePermission.GROUP_EXECUTE;
+import static java.nio.file.attribute.PosixFilePermission.GROUP_READ;
+import static java.nio.file.attribute.PosixFilePermission.GROUP_WRITE;
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_EXECUTE;
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_READ;
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_WRITE;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_EXECUTE;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_READ;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE;
+
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.unix_junkie.javafs.Directory;
+import com.github.unix_junkie.javafs.FileSystemEntry;
+import com.github.unix_junkie.javafs.FileUtilities;
+import com.github.unix_junkie.javafs.SymbolicLink;
+
+/**
+ * <p>A snapshot of the attributes of a javafs entry.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class JavafsFileAttributes implements PosixFileAttributes {
+	/**
+	 * Permissions, from the most significant bit to the least significant
+	 * one.
+	 */
+	private static final PosixFilePermission PERMISSIONS[] = {
+		OWNER_READ, OWNER_WRITE, OWNER_EXECUTE,
+		GROUP_READ, GROUP_WRITE, GROUP_EXECUTE,
+		OTHERS_READ, OTHERS_WRITE, OTHERS_EXECUTE,
+	};
+
+	private static final Set<String> BASIC_ATTRIBUTES = Set.of(
+			"lastModifiedTime", "lastAccessTime", "creationTime", "size",
+			"isRegularFile", "isDirectory", "isSymbolicLink", "isOther",
+			"fileKey");
+
+	private static final Set<String> POSIX_ATTRIBUTES = Set.of("permissions", "owner", "group");
+
+	@Nonnull
+	private final FileSystemEntry entry;
+
+	JavafsFileAttributes(final FileSystemEntry entry) {
+		this.entry = entry;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#lastModifiedTime()
+	 */
+	@Override
+	public FileTime lastModifiedTime() {
+		return toFileTime(this.entry.getModificationTime().getTime());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#lastAccessTime()
+	 */
+	@Override
+	public FileTime lastAccessTime() {
+		return toFileTime(this.entry.getAccessTime().getTime());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#creationTime()
+	 */
+	@Override
+	public FileTime creationTime() {
+		return toFileTime(this.entry.getCreationTime().getTime());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#isRegularFile()
+	 */
+	@Override
+	public boolean isRegularFile() {
+		return this.entry instanceof com.github.unix_junkie.javafs.File;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#isDirectory()
+	 */
+	@Override
+	public boolean isDirectory() {
+		return this.entry instanceof Directory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#isSymbolicLink()
+	 */
+	@Override
+	public boolean isSymbolicLink() {
+		return this.entry instanceof SymbolicLink;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#isOther()
+	 */
+	@Override
+	public boolean isOther() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#size()
+	 */
+	@Override
+	public long size() {
+		return this.entry.getDataSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>File keys are not supported.</p>
+	 *
+	 * @see java.nio.file.attribute.BasicFileAttributes#fileKey()
+	 */
+	@Override
+	@Nullable
+	public Object fileKey() {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributes#owner()
+	 */
+	@Override
+	public UserPrincipal owner() {
+		return new Principal(FileUtilities.uidToString(this.entry.getUid()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributes#group()
+	 */
+	@Override
+	public GroupPrincipal group() {
+		return new Principal(FileUtilities.gidToString(this.entry.getGid()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see PosixFileAttributes#permissions()
+	 */
+	@Override
+	public Set<PosixFilePermission> permissions() {
+		final short value = this.entry.getAttributes().getValue();
+		final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+		for (int i = 0; i < PERMISSIONS.length; i++) {
+			if ((value & 1 << PERMISSIONS.length - i - 1) != 0) {
+				permissions.add(PERMISSIONS[i]);
+			}
+		}
+		return permissions;
+	}
+
+	/**
+	 * <p>Returns the attributes requested, as in {@link
+	 * java.nio.file.Files#readAttributes(java.nio.file.Path, String,
+	 * java.nio.file.LinkOption...)}.</p>
+	 *
+	 * @param attributes the attributes to read, e.g.: {@code
+	 *        posix:permissions,size} or {@code *}.
+	 * @return the map of attribute names to their values.
+	 */
+	Map<String, Object> toMap(final String attributes) {
+		final int colon = attributes.indexOf(':');
+		final String view = colon == -1 ? "basic" : attributes.substring(0, colon);
+		final Set<String> supported;
+		switch (view) {
+		case "basic":
+			supported = BASIC_ATTRIBUTES;
+			break;
+		case "posix":
+			final Set<String> posix = new HashSet<>(BASIC_ATTRIBUTES);
+			posix.addAll(POSIX_ATTRIBUTES);
+			supported = posix;
+			break;
+		default:
+			throw new UnsupportedOperationException(format("View not supported: %s", view));
+		}
+
+		final Map<String, Object> map = new LinkedHashMap<>();
+		for (final String name : attributes.substring(colon + 1).split(",")) {
+			if (name.equals("*")) {
+				for (final String supportedName : supported) {
+					map.put(supportedName, this.get(supportedName));
+				}
+			} else if (supported.contains(name)) {
+				map.put(name, this.get(name));
+			} else {
+				throw new IllegalArgumentException(format("Attribute not supported: %s:%s", view, name));
+			}
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final Map<String, Object> unmodifiableMap = Collections.unmodifiableMap(map);
+		return unmodifiableMap;
+	}
+
+	@Nullable
+	private Object get(final String name) {
+		switch (name) {
+		case "lastModifiedTime":
+			return this.lastModifiedTime();
+		case "lastAccessTime":
+			return this.lastAccessTime();
+		case "creationTime":
+			return this.creationTime();
+		case "size":
+			return Long.valueOf(this.size());
+		case "isRegularFile":
+			return Boolean.valueOf(this.isRegularFile());
+		case "isDirectory":
+			return Boolean.valueOf(this.isDirectory());
+		case "isSymbolicLink":
+			return Boolean.valueOf(this.isSymbolicLink());
+		case "isOther":
+			return Boolean.valueOf(this.isOther());
+		case "fileKey":
+			return this.fileKey();
+		case "permissions":
+			return this.permissions();
+		case "owner":
+			return this.owner();
+		case "group":
+			return this.group();
+		default:
+			throw new IllegalArgumentException(name);
+		}
+	}
+
+	private static FileTime toFileTime(final long millis) {
+		@Nonnull
+		@SuppressWarnings("null")
+		final FileTime fileTime = FileTime.fromMillis(millis);
+		return fileTime;
+	}
+
+	/**
+	 * <p>A user or a group, by name (or by numeric id, if the id is not
+	 * known to the host).</p>
+	 */
+	private static final class Principal implements GroupPrincipal {
+		@Nonnull
+		private final String name;
+
+		Principal(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see java.security.Principal#getName()
+		 */
+		@Override
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see Object#equals(Object)
+		 */
+		@Override
+		public boolean equals(@Nullable final Object obj) {
+			return obj instanceof Principal && ((Principal) obj).name.equals(this.name);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return this.name.hashCode();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static java.lang.Math.min;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.Nonnull;
+
+/**
+ * <p>A {@link FileChannel} view of a javafs file, opened either for
+ * reading or for {@linkplain WriteChannel writing}. Positional reads and
+ * writes are served by moving the position of the underlying channel back
+ * and forth, so all operations are serialized.</p>
+ *
+ * <p>javafs files can be neither mapped nor locked. Since the contents
+ * written only replace the file once the channel is closed, {@link
+ * #force(boolean)} is a no-op.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class JavafsFileChannel extends FileChannel {
+	private static final int TRANSFER_LENGTH = 64 * 1024;
+
+	@Nonnull
+	private final SeekableByteChannel delegate;
+
+	/**
+	 * @param delegate the channel to read from or write to.
+	 */
+	JavafsFileChannel(final SeekableByteChannel delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @see FileChannel#read(ByteBuffer)
+	 */
+	@Override
+	public synchronized int read(final ByteBuffer dst) throws IOException {
+		return this.delegate.read(dst);
+	}
+
+	/**
+	 * @see FileChannel#read(ByteBuffer[], int, int)
+	 */
+	@Override
+	public synchronized long read(final ByteBuffer dsts[], final int offset, final int length) throws IOException {
+		long total = 0L;
+		for (int i = offset; i < offset + length; i++) {
+			final int n = this.delegate.read(dsts[i]);
+			if (n == -1) {
+				return total == 0L ? -1L : total;
+			}
+			total += n;
+			if (dsts[i].hasRemaining()) {
+				break;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @see FileChannel#write(ByteBuffer)
+	 */
+	@Override
+	public synchronized int write(final ByteBuffer src) throws IOException {
+		return this.delegate.write(src);
+	}
+
+	/**
+	 * @see FileChannel#write(ByteBuffer[], int, int)
+	 */
+	@Override
+	public synchronized long write(final ByteBuffer srcs[], final int offset, final int length) throws IOException {
+		long total = 0L;
+		for (int i = offset; i < offset + length; i++) {
+			total += this.delegate.write(srcs[i]);
+		}
+		return total;
+	}
+
+	/**
+	 * @see FileChannel#position()
+	 */
+	@Override
+	public synchronized long position() throws IOException {
+		return this.delegate.position();
+	}
+
+	/**
+	 * @see FileChannel#position(long)
+	 */
+	@Override
+	public synchronized FileChannel position(final long newPosition) throws IOException {
+		this.delegate.position(newPosition);
+		return this;
+	}
+
+	/**
+	 * @see FileChannel#size()
+	 */
+	@Override
+	public synchronized long size() throws IOException {
+		return this.delegate.size();
+	}
+
+	/**
+	 * @see FileChannel#truncate(long)
+	 */
+	@Override
+	public synchronized FileChannel truncate(final long size) throws IOException {
+		this.delegate.truncate(size);
+		return this;
+	}
+
+	/**
+	 * <p>A no-op: the file is only replaced once the channel is
+	 * closed.</p>
+	 *
+	 * @see FileChannel#force(boolean)
+	 */
+	@Override
+	public void force(final boolean metaData) {
+		// nothing to force
+	}
+
+	/**
+	 * @see FileChannel#transferTo(long, long, WritableByteChannel)
+	 */
+	@Override
+	public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_LENGTH);
+		long p = position;
+		final long end = position + count;
+		while (p < end) {
+			buffer.clear().limit((int) min(buffer.capacity(), end - p));
+			if (this.read(buffer, p) <= 0) {
+				break;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				final int written = target.write(buffer);
+				if (written == 0) {
+					return p - position;
+				}
+				p += written;
+			}
+		}
+		return p - position;
+	}
+
+	/**
+	 * @see FileChannel#transferFrom(ReadableByteChannel, long, long)
+	 */
+	@Override
+	public long transferFrom(final ReadableByteChannel src, final long position, final long count) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_LENGTH);
+		long p = position;
+		final long end = position + count;
+		while (p < end) {
+			buffer.clear().limit((int) min(buffer.capacity(), end - p));
+			if (src.read(buffer) <= 0) {
+				break;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				p += this.write(buffer, p);
+			}
+		}
+		return p - position;
+	}
+
+	/**
+	 * @see FileChannel#read(ByteBuffer, long)
+	 */
+	@Override
+	public synchronized int read(final ByteBuffer dst, final long position) throws IOException {
+		if (position < 0) {
+			throw new IllegalArgumentException(String.valueOf(position));
+		}
+		final long originalPosition = this.delegate.position();
+		try {
+			this.delegate.position(position);
+			return this.delegate.read(dst);
+		} finally {
+			this.delegate.position(originalPosition);
+		}
+	}
+
+	/**
+	 * @see FileChannel#write(ByteBuffer, long)
+	 */
+	@Override
+	public synchronized int write(final ByteBuffer src, final long position) throws IOException {
+		if (position < 0) {
+			throw new IllegalArgumentException(String.valueOf(position));
+		}
+		final long originalPosition = this.delegate.position();
+		try {
+			this.delegate.position(position);
+			return this.delegate.write(src);
+		} finally {
+			this.delegate.position(originalPosition);
+		}
+	}
+
+	/**
+	 * <p>File contents don't necessarily occupy adjacent blocks, and are
+	 * never modified in place.</p>
+	 *
+	 * @see FileChannel#map(MapMode, long, long)
+	 */
+	@Override
+	public MappedByteBuffer map(final MapMode mode, final long position, final long size) {
+		throw new UnsupportedOperationException("javafs files can't be mapped");
+	}
+
+	/**
+	 * @see FileChannel#lock(long, long, boolean)
+	 */
+	@Override
+	public FileLock lock(final long position, final long size, final boolean shared) {
+		throw new UnsupportedOperationException("javafs files can't be locked");
+	}
+
+	/**
+	 * @see FileChannel#tryLock(long, long, boolean)
+	 */
+	@Override
+	public FileLock tryLock(final long position, final long size, final boolean shared) {
+		throw new UnsupportedOperationException("javafs files can't be locked");
+	}
+
+	/**
+	 * @see java.nio.channels.spi.AbstractInterruptibleChannel#implCloseChannel()
+	 */
+	@Override
+	protected void implCloseChannel() throws IOException {
+		this.delegate.close();
+	}
+}
@@ -0,0 +1,154 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.unix_junkie.javafs.FileSystem;
+
+/**
+ * <p>The (only) file store of a {@link JavafsFileSystem}. Querying the free
+ * space results in a full inode table scan.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class JavafsFileStore extends FileStore {
+	@Nonnull
+	private final JavafsFileSystem fileSystem;
+
+	JavafsFileStore(final JavafsFileSystem fileSystem) {
+		this.fileSystem = fileSystem;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#name()
+	 */
+	@Override
+	public String name() {
+		return String.valueOf(this.fileSystem.getContainer().getFileName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#type()
+	 */
+	@Override
+	public String type() {
+		return JavafsFileSystemProvider.SCHEME;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#isReadOnly()
+	 */
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#getTotalSpace()
+	 */
+	@Override
+	public long getTotalSpace() {
+		return this.fileSystem.getVolume().getDataAreaLength();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#getUsableSpace()
+	 */
+	@Override
+	public long getUsableSpace() throws IOException {
+		return this.getUnallocatedSpace();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#getUnallocatedSpace()
+	 */
+	@Override
+	public long getUnallocatedSpace() throws IOException {
+		final FileSystem volume = this.fileSystem.getVolume();
+		return this.fileSystem.read(() -> Long.valueOf(volume.getFreeBlockCount() * volume.getBlockSize().getLength())).longValue();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#supportsFileAttributeView(Class)
+	 */
+	@Override
+	public boolean supportsFileAttributeView(final Class<? extends FileAttributeView> type) {
+		return type == BasicFileAttributeView.class || type == PosixFileAttributeView.class;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#supportsFileAttributeView(String)
+	 */
+	@Override
+	public boolean supportsFileAttributeView(final String name) {
+		return this.fileSystem.supportedFileAttributeViews().contains(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#getFileStoreAttributeView(Class)
+	 */
+	@Override
+	@Nullable
+	public <V extends FileStoreAttributeView> V getFileStoreAttributeView(final Class<V> type) {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileStore#getAttribute(String)
+	 */
+	@Override
+	public Object getAttribute(final String attribute) throws IOException {
+		switch (attribute) {
+		case "totalSpace":
+			return Long.valueOf(this.getTotalSpace());
+		case "usableSpace":
+			return Long.valueOf(this.getUsableSpace());
+		case "unallocatedSpace":
+			return Long.valueOf(this.getUnallocatedSpace());
+		default:
+			throw new UnsupportedOperationException(format("Attribute not supported: %s", attribute));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return this.name();
+	}
+}
@@ -0,0 +1,378 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.unix_junkie.javafs.Directory;
+import com.github.unix_junkie.javafs.FileSystem;
+import com.github.unix_junkie.javafs.FileSystemEntry;
+import com.github.unix_junkie.javafs.FileUtilities;
+
+/**
+ * <p>A {@link java.nio.file.FileSystem} view of a mounted javafs container.
+ * Closing it unmounts the container.</p>
+ *
+ * <p>Entries are looked up from the root directory for every operation.
+ * Directory updates are serialized with respect to lookups and listings
+ * by a read-write lock, since {@link Directory} instances are not
+ * thread-safe.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class JavafsFileSystem extends java.nio.file.FileSystem {
+	@Nonnull
+	private final JavafsFileSystemProvider provider;
+
+	/**
+	 * The real path of the container at the host file system.
+	 */
+	@Nonnull
+	private final Path container;
+
+	@Nonnull
+	private final FileSystem volume;
+
+	@Nonnull
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	@Nonnull
+	private final JavafsFileStore fileStore;
+
+	private volatile boolean open = true;
+
+	JavafsFileSystem(final JavafsFileSystemProvider provider, final Path container, final FileSystem volume) {
+		this.provider = provider;
+		this.container = container;
+		this.volume = volume;
+		this.fileStore = new JavafsFileStore(this);
+	}
+
+	/**
+	 * @return the mounted volume.
+	 */
+	public FileSystem getVolume() {
+		return this.volume;
+	}
+
+	/**
+	 * @return the real path of the container at the host file system.
+	 */
+	public Path getContainer() {
+		return this.container;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#provider()
+	 */
+	@Override
+	public JavafsFileSystemProvider provider() {
+		return this.provider;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Unmounts the container.</p>
+	 *
+	 * @see java.nio.file.FileSystem#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		final Lock writeLock = this.lock.writeLock();
+		writeLock.lock();
+		try {
+			if (!this.open) {
+				return;
+			}
+			this.open = false;
+			this.provider.remove(this);
+			this.volume.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#isOpen()
+	 */
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#isReadOnly()
+	 */
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#getSeparator()
+	 */
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#getRootDirectories()
+	 */
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Iterable<Path> rootDirectories = List.of(new JavafsPath(this, "/"));
+		return rootDirectories;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#getFileStores()
+	 */
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Iterable<FileStore> fileStores = List.of(this.fileStore);
+		return fileStores;
+	}
+
+	JavafsFileStore getFileStore() {
+		return this.fileStore;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#supportedFileAttributeViews()
+	 */
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Set<String> views = Set.of("basic", "posix");
+		return views;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#getPath(String, String[])
+	 */
+	@Override
+	public JavafsPath getPath(final String first, final String ... more) {
+		if (more.length == 0) {
+			return new JavafsPath(this, first);
+		}
+
+		final StringBuilder path = new StringBuilder(first);
+		for (final String name : more) {
+			if (!name.isEmpty()) {
+				if (path.length() != 0) {
+					path.append('/');
+				}
+				path.append(name);
+			}
+		}
+		return new JavafsPath(this, path.toString());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Both {@code glob} and {@code regex} syntaxes are supported.</p>
+	 *
+	 * @see java.nio.file.FileSystem#getPathMatcher(String)
+	 */
+	@Override
+	public PathMatcher getPathMatcher(final String syntaxAndPattern) {
+		final int colon = syntaxAndPattern.indexOf(':');
+		if (colon <= 0) {
+			throw new IllegalArgumentException(syntaxAndPattern);
+		}
+		final String syntax = syntaxAndPattern.substring(0, colon);
+		final String pattern = syntaxAndPattern.substring(colon + 1);
+		final Pattern regex;
+		switch (syntax) {
+		case "glob":
+			regex = FileUtilities.globToPattern(pattern);
+			break;
+		case "regex":
+			regex = Pattern.compile(pattern);
+			break;
+		default:
+			throw new UnsupportedOperationException(format("Syntax not supported: %s", syntax));
+		}
+		return path -> regex.matcher(path.toString()).matches();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#getUserPrincipalLookupService()
+	 */
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.nio.file.FileSystem#newWatchService()
+	 */
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @param path the absolute, normalized path within this file system.
+	 * @return the URI of {@code path}.
+	 */
+	URI toUri(final String path) {
+		try {
+			return new URI(JavafsFileSystemProvider.SCHEME, this.container.toUri().toString() + '!' + path, null);
+		} catch (final URISyntaxException use) {
+			throw new IllegalStateException(use);
+		}
+	}
+
+	/**
+	 * <p>Runs a lookup or a listing.</p>
+	 */
+	<T> T read(final Operation<T> operation) throws IOException {
+		final Lock readLock = this.lock.readLock();
+		readLock.lock();
+		try {
+			this.ensureOpen();
+			return operation.apply();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Runs an update, exclusively.</p>
+	 */
+	<T> T write(final Operation<T> operation) throws IOException {
+		final Lock writeLock = this.lock.writeLock();
+		writeLock.lock();
+		try {
+			this.ensureOpen();
+			return operation.apply();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void ensureOpen() {
+		if (!this.open) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	/**
+	 * @param path the path to look up.
+	 * @return the entry denoted by {@code path}, or {@code null} if there's
+	 *         no such entry.
+	 * @throws IOException if one of the parents of {@code path} is not a
+	 *         directory, or an I/O error occurs.
+	 */
+	@Nullable
+	FileSystemEntry find(final JavafsPath path) throws IOException {
+		FileSystemEntry entry = this.volume.getRoot();
+		for (final String name : path.toAbsolutePath().normalize().getNames()) {
+			if (!(entry instanceof Directory)) {
+				throw new NotDirectoryException(path.toString());
+			}
+			entry = ((Directory) entry).getChild(name);
+			if (entry == null) {
+				return null;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @param path the path to look up.
+	 * @return the entry denoted by {@code path}.
+	 * @throws NoSuchFileException if there's no such entry.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	FileSystemEntry lookup(final JavafsPath path) throws IOException {
+		final FileSystemEntry entry = this.find(path);
+		if (entry == null) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return entry;
+	}
+
+	/**
+	 * @param path the path whose parent directory is requested.
+	 * @return the directory which contains (or is to contain) {@code path}.
+	 * @throws IOException if the parent doesn't exist, is not a directory,
+	 *         or an I/O error occurs.
+	 */
+	Directory lookupParent(final JavafsPath path) throws IOException {
+		final JavafsPath parent = path.toAbsolutePath().normalize().getParent();
+		if (parent == null) {
+			throw new IllegalArgumentException(format("%s has no parent", path));
+		}
+		final FileSystemEntry entry = this.lookup(parent);
+		if (!(entry instanceof Directory)) {
+			throw new NotDirectoryException(parent.toString());
+		}
+		return (Directory) entry;
+	}
+
+	/**
+	 * <p>An operation run under the lock.</p>
+	 *
+	 * @param <T> the result type.
+	 */
+	@FunctionalInterface
+	interface Operation<T> {
+		/**
+		 * @return the result of the operation.
+		 * @throws IOException if an I/O error occurs.
+		 */
+		T apply() throws IOException;
+	}
+}
@@ -0,0 +1,604 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static com.github.unix_junkie.javafs.nio.JavafsPath.toJavafsPath;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.NotLinkException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileOwnerAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.unix_junkie.javafs.Directory;
+import com.github.unix_junkie.javafs.File;
+import com.github.unix_junkie.javafs.FileSystem;
+import com.github.unix_junkie.javafs.FileSystemEntry;
+import com.github.unix_junkie.javafs.SizeUnit;
+import com.github.unix_junkie.javafs.SymbolicLink;
+
+/**
+ * <p>Exposes javafs containers via the {@code java.nio.file} API, so that
+ * {@link Files} and the code built on top of it (e.g.: {@link
+ * Files#walk(Path, java.nio.file.FileVisitOption...)}) can operate on a
+ * mounted container.</p>
+ *
+ * <p>A container is mounted with either {@link
+ * java.nio.file.FileSystems#newFileSystem(URI, Map)} (where the URI is
+ * {@code javafs:<container URI>}) or {@link
+ * java.nio.file.FileSystems#newFileSystem(Path, ClassLoader)}, and is
+ * unmounted when the resulting file system is closed. The following
+ * environment properties are recognized by {@link #newFileSystem(URI,
+ * Map)}:</p>
+ * <ul>
+ * <li>{@code create}: if {@code "true"} and the container doesn't exist,
+ * it is created;</li>
+ * <li>{@code size}: the size of the container to create, either as a
+ * {@link Number} or as a string like {@code 64m}.</li>
+ * </ul>
+ *
+ * <p>Symbolic links are never followed. Attributes are read-only. Files
+ * can't be opened for reading and writing at once, and file channels can't
+ * be mapped or locked.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+public final class JavafsFileSystemProvider extends FileSystemProvider {
+	/**
+	 * The URI scheme of this provider.
+	 */
+	public static final String SCHEME = "javafs";
+
+	private static final String HEADER = "Java File System";
+
+	/**
+	 * Mounted file systems, by the real path of the container.
+	 */
+	private final Map<Path, JavafsFileSystem> fileSystems = new HashMap<>();
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#getScheme()
+	 */
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#newFileSystem(URI, Map)
+	 */
+	@Override
+	public JavafsFileSystem newFileSystem(final URI uri, final Map<String, ?> env) throws IOException {
+		final Path container = getContainer(uri);
+		final boolean create = Boolean.parseBoolean(String.valueOf(env.get("create")));
+		if (Files.notExists(container) && create) {
+			final Object size = env.get("size");
+			if (size == null) {
+				throw new IllegalArgumentException(format("Container size not specified for %s", container));
+			}
+			final long length = size instanceof Number ? ((Number) size).longValue() : SizeUnit.parseSize(size.toString());
+			FileSystem.create(container, length).close();
+		}
+		return this.mount(container);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Only files starting with a javafs header are recognized.</p>
+	 *
+	 * @see FileSystemProvider#newFileSystem(Path, Map)
+	 */
+	@Override
+	public JavafsFileSystem newFileSystem(final Path path, final Map<String, ?> env) throws IOException {
+		final byte header[] = new byte[HEADER.length()];
+		try (final InputStream in = Files.newInputStream(path)) {
+			if (in.readNBytes(header, 0, header.length) != header.length || !new String(header, US_ASCII).equals(HEADER)) {
+				throw new UnsupportedOperationException(format("%s is not a javafs container", path));
+			}
+		}
+		return this.mount(path);
+	}
+
+	private JavafsFileSystem mount(final Path container) throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path realPath = container.toRealPath();
+		synchronized (this.fileSystems) {
+			if (this.fileSystems.containsKey(realPath)) {
+				throw new FileSystemAlreadyExistsException(realPath.toString());
+			}
+			final JavafsFileSystem fileSystem = new JavafsFileSystem(this, realPath, FileSystem.mount(realPath));
+			this.fileSystems.put(realPath, fileSystem);
+			return fileSystem;
+		}
+	}
+
+	void remove(final JavafsFileSystem fileSystem) {
+		synchronized (this.fileSystems) {
+			this.fileSystems.remove(fileSystem.getContainer());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#getFileSystem(URI)
+	 */
+	@Override
+	public JavafsFileSystem getFileSystem(final URI uri) {
+		final Path container = getContainer(uri);
+		final Path realPath;
+		try {
+			realPath = container.toRealPath();
+		} catch (final IOException ioe) {
+			throw new FileSystemNotFoundException(container.toString());
+		}
+		synchronized (this.fileSystems) {
+			final JavafsFileSystem fileSystem = this.fileSystems.get(realPath);
+			if (fileSystem == null) {
+				throw new FileSystemNotFoundException(realPath.toString());
+			}
+			return fileSystem;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#getPath(URI)
+	 */
+	@Override
+	public JavafsPath getPath(final URI uri) {
+		final String schemeSpecificPart = checkScheme(uri).getRawSchemeSpecificPart();
+		final int separator = schemeSpecificPart.indexOf('!');
+		final String path = separator == -1 ? "/" : URI.create(schemeSpecificPart.substring(separator + 1)).getPath();
+		return this.getFileSystem(uri).getPath(path.isEmpty() ? "/" : path);
+	}
+
+	private static URI checkScheme(final URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException(format("URI scheme is not %s: %s", SCHEME, uri));
+		}
+		return uri;
+	}
+
+	/**
+	 * @param uri the {@code javafs:} URI.
+	 * @return the path of the container at the host file system.
+	 */
+	private static Path getContainer(final URI uri) {
+		final String schemeSpecificPart = checkScheme(uri).getRawSchemeSpecificPart();
+		final int separator = schemeSpecificPart.indexOf('!');
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path container = Paths.get(URI.create(separator == -1 ? schemeSpecificPart : schemeSpecificPart.substring(0, separator)));
+		return container;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>A file opened for writing is replaced (or created) when the
+	 * channel is closed. Files can't be opened for both reading and
+	 * writing.</p>
+	 *
+	 * @see FileSystemProvider#newByteChannel(Path, Set, FileAttribute[])
+	 */
+	@Override
+	public SeekableByteChannel newByteChannel(final Path path,
+			final Set<? extends OpenOption> options,
+			final FileAttribute<?> ... attrs) throws IOException {
+		final JavafsPath p = toJavafsPath(path);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		if (attrs.length != 0) {
+			throw new UnsupportedOperationException(format("Initial attributes not supported: %s", Arrays.asList(attrs)));
+		}
+
+		final boolean append = options.contains(APPEND);
+		if (!options.contains(WRITE) && !append) {
+			return fileSystem.read(() -> {
+				final FileSystemEntry entry = fileSystem.lookup(p);
+				if (entry instanceof Directory) {
+					throw new FileSystemException(p.toString(), null, "Is a directory");
+				}
+				return entry.newByteChannel();
+			});
+		}
+
+		if (append && (options.contains(READ) || options.contains(TRUNCATE_EXISTING))) {
+			throw new IllegalArgumentException(format("APPEND not allowed with either READ or TRUNCATE_EXISTING: %s", options));
+		}
+		if (options.contains(READ)) {
+			throw new UnsupportedOperationException(format("READ not supported with WRITE: %s", options));
+		}
+		return fileSystem.read(() -> {
+			final FileSystemEntry entry = fileSystem.lookupParent(p).getChild(getName(p));
+			if (entry == null) {
+				if (!options.contains(CREATE) && !options.contains(CREATE_NEW)) {
+					throw new NoSuchFileException(p.toString());
+				}
+				return new WriteChannel(p, null, append);
+			}
+			if (options.contains(CREATE_NEW)) {
+				throw new FileAlreadyExistsException(p.toString());
+			}
+			if (!(entry instanceof File)) {
+				throw new FileSystemException(p.toString(), null, "Not a regular file");
+			}
+			return new WriteChannel(p, options.contains(TRUNCATE_EXISTING) ? null : entry.newByteChannel(), append);
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>The same as {@link #newByteChannel(Path, Set, FileAttribute[])},
+	 * except that the channel can't be mapped or locked.</p>
+	 *
+	 * @see FileSystemProvider#newFileChannel(Path, Set, FileAttribute[])
+	 */
+	@Override
+	public FileChannel newFileChannel(final Path path,
+			final Set<? extends OpenOption> options,
+			final FileAttribute<?> ... attrs) throws IOException {
+		return new JavafsFileChannel(this.newByteChannel(path, options, attrs));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>The directory is listed in full when the stream is opened: javafs
+	 * directory contents are decoded as a whole anyway, and the stream
+	 * reflects no changes made afterwards.</p>
+	 *
+	 * @see FileSystemProvider#newDirectoryStream(Path, Filter)
+	 */
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(final Path dir, final Filter<? super Path> filter) throws IOException {
+		final JavafsPath p = toJavafsPath(dir);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		return fileSystem.read(() -> {
+			final FileSystemEntry entry = fileSystem.lookup(p);
+			if (!(entry instanceof Directory)) {
+				throw new NotDirectoryException(p.toString());
+			}
+			return new JavafsDirectoryStream(p, ((Directory) entry).list(), filter);
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#createDirectory(Path, FileAttribute[])
+	 */
+	@Override
+	public void createDirectory(final Path dir, final FileAttribute<?> ... attrs) throws IOException {
+		final JavafsPath p = toJavafsPath(dir);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		if (attrs.length != 0) {
+			throw new UnsupportedOperationException(format("Initial attributes not supported: %s", Arrays.asList(attrs)));
+		}
+		fileSystem.write(() -> {
+			if (isRoot(p)) {
+				throw new FileAlreadyExistsException(p.toString());
+			}
+			final Directory parent = fileSystem.lookupParent(p);
+			final String name = getName(p);
+			if (parent.getChild(name) != null) {
+				throw new FileAlreadyExistsException(p.toString());
+			}
+			parent.addChild(new Directory(name));
+			return null;
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#delete(Path)
+	 */
+	@Override
+	public void delete(final Path path) throws IOException {
+		final JavafsPath p = toJavafsPath(path);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		fileSystem.write(() -> {
+			if (isRoot(p)) {
+				throw new FileSystemException(p.toString(), null, "Can't remove the root directory");
+			}
+			final Directory parent = fileSystem.lookupParent(p);
+			final String name = getName(p);
+			final FileSystemEntry entry = parent.getChild(name);
+			if (entry == null) {
+				throw new NoSuchFileException(p.toString());
+			}
+			if (entry instanceof Directory && !((Directory) entry).list().isEmpty()) {
+				throw new DirectoryNotEmptyException(p.toString());
+			}
+			parent.unlink(name);
+			return null;
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Directories are copied empty, symbolic links can't be copied, and
+	 * attributes are never copied. A file replacing an existing one is
+	 * {@linkplain Directory#replaceChild(FileSystemEntry) replaced}
+	 * atomically: should the copy fail, the target is left intact.</p>
+	 *
+	 * @see FileSystemProvider#copy(Path, Path, CopyOption[])
+	 */
+	@Override
+	public void copy(final Path source, final Path target, final CopyOption ... options) throws IOException {
+		final JavafsPath from = toJavafsPath(source);
+		final JavafsPath to = toJavafsPath(target);
+		if (this.isSameFile(from, to)) {
+			return;
+		}
+
+		final boolean replaceExisting = Arrays.asList(options).contains(REPLACE_EXISTING);
+		final JavafsFileSystem sourceFileSystem = from.getFileSystem();
+		final FileSystemEntry sourceEntry = sourceFileSystem.read(() -> sourceFileSystem.lookup(from));
+		if (sourceEntry instanceof SymbolicLink) {
+			throw new UnsupportedOperationException(format("Can't copy a symbolic link: %s", from));
+		}
+
+		final JavafsFileSystem targetFileSystem = to.getFileSystem();
+		targetFileSystem.write(() -> {
+			if (isRoot(to)) {
+				throw new FileAlreadyExistsException(to.toString());
+			}
+			final Directory parent = targetFileSystem.lookupParent(to);
+			final String name = getName(to);
+			final FileSystemEntry targetEntry = parent.getChild(name);
+			if (targetEntry != null) {
+				if (!replaceExisting) {
+					throw new FileAlreadyExistsException(to.toString());
+				}
+				if (targetEntry instanceof Directory && !((Directory) targetEntry).list().isEmpty()) {
+					throw new DirectoryNotEmptyException(to.toString());
+				}
+				if (!(targetEntry instanceof Directory || sourceEntry instanceof Directory)) {
+					/*
+					 * Left intact should the copy fail.
+					 */
+					try (final SeekableByteChannel contents = sourceEntry.newByteChannel()) {
+						parent.replaceChild(new File(name, sourceEntry.getDataSize(), contents));
+					}
+					return null;
+				}
+				parent.unlink(name);
+			}
+
+			if (sourceEntry instanceof Directory) {
+				parent.addChild(new Directory(name));
+			} else {
+				try (final SeekableByteChannel contents = sourceEntry.newByteChannel()) {
+					parent.addChild(new File(name, sourceEntry.getDataSize(), contents));
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Implemented as a copy followed by a deletion, so only files and
+	 * empty directories can be moved.</p>
+	 *
+	 * @see FileSystemProvider#move(Path, Path, CopyOption[])
+	 */
+	@Override
+	public void move(final Path source, final Path target, final CopyOption ... options) throws IOException {
+		final JavafsPath from = toJavafsPath(source);
+		if (Arrays.asList(options).contains(ATOMIC_MOVE)) {
+			throw new AtomicMoveNotSupportedException(from.toString(), target.toString(), null);
+		}
+		if (this.isSameFile(from, target)) {
+			return;
+		}
+
+		final JavafsFileSystem fileSystem = from.getFileSystem();
+		final FileSystemEntry entry = fileSystem.read(() -> fileSystem.lookup(from));
+		if (entry instanceof Directory && !fileSystem.read(() -> ((Directory) entry).list()).isEmpty()) {
+			throw new DirectoryNotEmptyException(from.toString());
+		}
+		this.copy(from, target, options);
+		this.delete(from);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#isSameFile(Path, Path)
+	 */
+	@Override
+	public boolean isSameFile(final Path path, final Path path2) {
+		return path instanceof JavafsPath
+				&& path2 instanceof JavafsPath
+				&& ((JavafsPath) path).toAbsolutePath().normalize().equals(((JavafsPath) path2).toAbsolutePath().normalize());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#isHidden(Path)
+	 */
+	@Override
+	public boolean isHidden(final Path path) {
+		final Path fileName = toJavafsPath(path).getFileName();
+		return fileName != null && fileName.toString().startsWith(".");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#getFileStore(Path)
+	 */
+	@Override
+	public FileStore getFileStore(final Path path) throws IOException {
+		this.checkAccess(path);
+		return toJavafsPath(path).getFileSystem().getFileStore();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Only checks whether the file exists: permissions are not
+	 * enforced.</p>
+	 *
+	 * @see FileSystemProvider#checkAccess(Path, AccessMode[])
+	 */
+	@Override
+	public void checkAccess(final Path path, final AccessMode ... modes) throws IOException {
+		final JavafsPath p = toJavafsPath(path);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		fileSystem.read(() -> fileSystem.lookup(p));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#getFileAttributeView(Path, Class, LinkOption[])
+	 */
+	@Override
+	@Nullable
+	public <V extends FileAttributeView> V getFileAttributeView(final Path path, final Class<V> type, final LinkOption ... options) {
+		final JavafsPath p = toJavafsPath(path);
+		if (type == BasicFileAttributeView.class) {
+			return type.cast(new JavafsFileAttributeView(p, false));
+		}
+		if (type == PosixFileAttributeView.class || type == FileOwnerAttributeView.class) {
+			return type.cast(new JavafsFileAttributeView(p, true));
+		}
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#readAttributes(Path, Class, LinkOption[])
+	 */
+	@Override
+	public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> type, final LinkOption ... options) throws IOException {
+		if (type != BasicFileAttributes.class && type != PosixFileAttributes.class) {
+			throw new UnsupportedOperationException(format("Attributes not supported: %s", type.getName()));
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final A attributes = type.cast(this.readAttributes(path));
+		return attributes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#readAttributes(Path, String, LinkOption[])
+	 */
+	@Override
+	public Map<String, Object> readAttributes(final Path path, final String attributes, final LinkOption ... options) throws IOException {
+		return this.readAttributes(path).toMap(attributes);
+	}
+
+	JavafsFileAttributes readAttributes(final Path path) throws IOException {
+		final JavafsPath p = toJavafsPath(path);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		return fileSystem.read(() -> new JavafsFileAttributes(fileSystem.lookup(p)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#setAttribute(Path, String, Object, LinkOption[])
+	 */
+	@Override
+	public void setAttribute(final Path path, final String attribute, final Object value, final LinkOption ... options) {
+		throw new UnsupportedOperationException("Attributes are read-only");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see FileSystemProvider#readSymbolicLink(Path)
+	 */
+	@Override
+	public JavafsPath readSymbolicLink(final Path link) throws IOException {
+		final JavafsPath p = toJavafsPath(link);
+		final JavafsFileSystem fileSystem = p.getFileSystem();
+		return fileSystem.read(() -> {
+			final FileSystemEntry entry = fileSystem.lookup(p);
+			if (!(entry instanceof SymbolicLink)) {
+				throw new NotLinkException(p.toString());
+			}
+			return fileSystem.getPath(String.valueOf(((SymbolicLink) entry).getTarget()));
+		});
+	}
+
+	private static boolean isRoot(final JavafsPath path) {
+		return path.toAbsolutePath().normalize().getNameCount() == 0;
+	}
+
+	private static String getName(final JavafsPath path) {
+		final List<String> names = path.toAbsolutePath().normalize().getNames();
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException(format("%s has no name", path));
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final String name = names.get(names.size() - 1);
+		return name;
+	}
+}
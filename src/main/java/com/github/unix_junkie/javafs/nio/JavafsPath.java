@@ -0,0 +1,385 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchEvent.Modifier;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * <p>A path within a {@link JavafsFileSystem}. Names are separated with
+ * {@code /}; the working directory is always the root one.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class JavafsPath implements Path {
+	@Nonnull
+	private final JavafsFileSystem fileSystem;
+
+	/**
+	 * The path w/o duplicate or trailing slashes (except for the root
+	 * directory itself).
+	 */
+	@Nonnull
+	private final String path;
+
+	@Nonnull
+	private final String names[];
+
+	JavafsPath(final JavafsFileSystem fileSystem, final String path) {
+		if (path.indexOf('\0') != -1) {
+			throw new IllegalArgumentException(format("Nul character not allowed: %s", path));
+		}
+		this.fileSystem = fileSystem;
+		this.path = canonicalize(path);
+		this.names = this.path.isEmpty()
+				? new String[] {""}
+				: this.path.equals("/")
+						? new String[0]
+						: (this.path.startsWith("/") ? this.path.substring(1) : this.path).split("/");
+	}
+
+	private JavafsPath(final JavafsFileSystem fileSystem, final boolean absolute, final List<String> names) {
+		this(fileSystem, (absolute ? "/" : "") + String.join("/", names));
+	}
+
+	private static String canonicalize(final String path) {
+		final StringBuilder builder = new StringBuilder(path.length());
+		char previous = 0;
+		for (final char c : path.toCharArray()) {
+			if (c != '/' || previous != '/') {
+				builder.append(c);
+			}
+			previous = c;
+		}
+		if (builder.length() > 1 && builder.charAt(builder.length() - 1) == '/') {
+			builder.setLength(builder.length() - 1);
+		}
+		@Nonnull
+		@SuppressWarnings("null")
+		final String s = builder.toString();
+		return s;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#getFileSystem()
+	 */
+	@Override
+	public JavafsFileSystem getFileSystem() {
+		return this.fileSystem;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#isAbsolute()
+	 */
+	@Override
+	public boolean isAbsolute() {
+		return this.path.startsWith("/");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#getRoot()
+	 */
+	@Override
+	@Nullable
+	public JavafsPath getRoot() {
+		return this.isAbsolute() ? new JavafsPath(this.fileSystem, "/") : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#getFileName()
+	 */
+	@Override
+	@Nullable
+	public JavafsPath getFileName() {
+		return this.names.length == 0 ? null : new JavafsPath(this.fileSystem, this.names[this.names.length - 1]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#getParent()
+	 */
+	@Override
+	@Nullable
+	public JavafsPath getParent() {
+		if (this.names.length == 0 || this.names.length == 1 && !this.isAbsolute()) {
+			return null;
+		}
+		return new JavafsPath(this.fileSystem, this.isAbsolute(), this.getNames().subList(0, this.names.length - 1));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#getNameCount()
+	 */
+	@Override
+	public int getNameCount() {
+		return this.names.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#getName(int)
+	 */
+	@Override
+	public JavafsPath getName(final int index) {
+		if (index < 0 || index >= this.names.length) {
+			throw new IllegalArgumentException(String.valueOf(index));
+		}
+		return new JavafsPath(this.fileSystem, this.names[index]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#subpath(int, int)
+	 */
+	@Override
+	public JavafsPath subpath(final int beginIndex, final int endIndex) {
+		if (beginIndex < 0 || beginIndex >= this.names.length || endIndex <= beginIndex || endIndex > this.names.length) {
+			throw new IllegalArgumentException(format("[%d, %d)", Integer.valueOf(beginIndex), Integer.valueOf(endIndex)));
+		}
+		return new JavafsPath(this.fileSystem, false, this.getNames().subList(beginIndex, endIndex));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#startsWith(Path)
+	 */
+	@Override
+	public boolean startsWith(final Path other) {
+		if (!(other instanceof JavafsPath) || other.getFileSystem() != this.fileSystem) {
+			return false;
+		}
+		final JavafsPath that = (JavafsPath) other;
+		if (that.isAbsolute() != this.isAbsolute() || that.names.length > this.names.length) {
+			return false;
+		}
+		if (that.path.isEmpty()) {
+			return this.path.isEmpty();
+		}
+		return Arrays.equals(this.names, 0, that.names.length, that.names, 0, that.names.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#endsWith(Path)
+	 */
+	@Override
+	public boolean endsWith(final Path other) {
+		if (!(other instanceof JavafsPath) || other.getFileSystem() != this.fileSystem) {
+			return false;
+		}
+		final JavafsPath that = (JavafsPath) other;
+		if (that.isAbsolute()) {
+			return this.equals(that);
+		}
+		if (that.path.isEmpty()) {
+			return this.path.isEmpty();
+		}
+		final int offset = this.names.length - that.names.length;
+		return offset >= 0 && Arrays.equals(this.names, offset, this.names.length, that.names, 0, that.names.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#normalize()
+	 */
+	@Override
+	public JavafsPath normalize() {
+		final List<String> normalized = new ArrayList<>();
+		for (final String name : this.names) {
+			switch (name) {
+			case "":
+			case ".":
+				break;
+			case "..":
+				if (!normalized.isEmpty() && !normalized.get(normalized.size() - 1).equals("..")) {
+					normalized.remove(normalized.size() - 1);
+				} else if (!this.isAbsolute()) {
+					normalized.add(name);
+				}
+				break;
+			default:
+				normalized.add(name);
+				break;
+			}
+		}
+		return new JavafsPath(this.fileSystem, this.isAbsolute(), normalized);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#resolve(Path)
+	 */
+	@Override
+	public JavafsPath resolve(final Path other) {
+		final JavafsPath that = toJavafsPath(other);
+		if (that.isAbsolute() || this.path.isEmpty()) {
+			return that;
+		}
+		if (that.path.isEmpty()) {
+			return this;
+		}
+		return new JavafsPath(this.fileSystem, this.path + '/' + that.path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#relativize(Path)
+	 */
+	@Override
+	public JavafsPath relativize(final Path other) {
+		final JavafsPath that = toJavafsPath(other);
+		if (that.isAbsolute() != this.isAbsolute()) {
+			throw new IllegalArgumentException(format("%s and %s should be either both absolute, or both relative", this, that));
+		}
+
+		final List<String> these = this.normalize().getNames();
+		final List<String> those = that.normalize().getNames();
+		int common = 0;
+		while (common < these.size() && common < those.size() && these.get(common).equals(those.get(common))) {
+			common++;
+		}
+		final List<String> relative = new ArrayList<>();
+		for (int i = common; i < these.size(); i++) {
+			relative.add("..");
+		}
+		relative.addAll(those.subList(common, those.size()));
+		return new JavafsPath(this.fileSystem, false, relative);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#toUri()
+	 */
+	@Override
+	public URI toUri() {
+		return this.fileSystem.toUri(this.toAbsolutePath().normalize().path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#toAbsolutePath()
+	 */
+	@Override
+	public JavafsPath toAbsolutePath() {
+		return this.isAbsolute() ? this : new JavafsPath(this.fileSystem, '/' + this.path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Symbolic links are never followed.</p>
+	 *
+	 * @see Path#toRealPath(LinkOption[])
+	 */
+	@Override
+	public JavafsPath toRealPath(final LinkOption ... options) throws IOException {
+		final JavafsPath realPath = this.toAbsolutePath().normalize();
+		this.fileSystem.provider().checkAccess(realPath);
+		return realPath;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#register(WatchService, Kind[], Modifier[])
+	 */
+	@Override
+	public WatchKey register(final WatchService watcher, final Kind<?>[] events, final Modifier ... modifiers) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Path#compareTo(Path)
+	 */
+	@Override
+	public int compareTo(final Path other) {
+		return this.path.compareTo(((JavafsPath) other).path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(@Nullable final Object obj) {
+		return obj instanceof JavafsPath
+				&& ((JavafsPath) obj).fileSystem == this.fileSystem
+				&& ((JavafsPath) obj).path.equals(this.path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return this.path.hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return this.path;
+	}
+
+	/**
+	 * @return the names this path consists of, w/o the root component.
+	 */
+	List<String> getNames() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final List<String> names0 = this.path.isEmpty() ? List.of() : Arrays.asList(this.names);
+		return names0;
+	}
+
+	static JavafsPath toJavafsPath(final Path path) {
+		if (!(path instanceof JavafsPath)) {
+			throw new ProviderMismatchException(String.valueOf(path));
+		}
+		return (JavafsPath) path;
+	}
+}
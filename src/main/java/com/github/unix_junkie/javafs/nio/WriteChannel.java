@@ -0,0 +1,165 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.github.unix_junkie.javafs.StagingChannel;
+
+/**
+ * <p>A channel writing to a javafs file. Since file contents can't be
+ * modified in place, the data written is {@linkplain StagingChannel staged}
+ * in the blocks of the volume, and the javafs file is replaced with the
+ * staged contents when the channel is closed.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+final class WriteChannel implements SeekableByteChannel {
+	private static final int TRANSFER_LENGTH = 64 * 1024;
+
+	@Nonnull
+	private final JavafsPath path;
+
+	@Nonnull
+	private final StagingChannel contents;
+
+	private final boolean append;
+
+	/**
+	 * @param path the file to write to.
+	 * @param initialContents the contents to start with, or {@code null}
+	 *        if the file is to be written from scratch.
+	 * @param append whether every write should go to the end of file.
+	 * @throws IOException if there's not enough free space on the volume
+	 *         to copy {@code initialContents}, or an I/O error occurs.
+	 */
+	WriteChannel(final JavafsPath path,
+			@Nullable final ReadableByteChannel initialContents,
+			final boolean append) throws IOException {
+		this.path = path;
+		this.append = append;
+		this.contents = new StagingChannel(path.getFileSystem().getVolume());
+
+		if (initialContents != null) {
+			try (final ReadableByteChannel source = initialContents) {
+				@Nonnull
+				@SuppressWarnings("null")
+				final ByteBuffer transfer = ByteBuffer.allocate(TRANSFER_LENGTH);
+				while (source.read(transfer) != -1) {
+					transfer.flip();
+					this.contents.write(transfer);
+					transfer.clear();
+				}
+			} catch (final IOException | RuntimeException e) {
+				this.contents.close();
+				throw e;
+			}
+			this.contents.position(append ? this.contents.size() : 0L);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#read(ByteBuffer)
+	 */
+	@Override
+	public int read(final ByteBuffer dst) {
+		throw new NonReadableChannelException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#write(ByteBuffer)
+	 */
+	@Override
+	public int write(final ByteBuffer src) throws IOException {
+		if (this.append) {
+			this.contents.position(this.contents.size());
+		}
+		return this.contents.write(src);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#position()
+	 */
+	@Override
+	public long position() throws IOException {
+		return this.contents.position();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#position(long)
+	 */
+	@Override
+	public WriteChannel position(final long newPosition) throws IOException {
+		this.contents.position(newPosition);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#size()
+	 */
+	@Override
+	public long size() throws IOException {
+		return this.contents.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#truncate(long)
+	 */
+	@Override
+	public WriteChannel truncate(final long size) throws IOException {
+		this.contents.truncate(size);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SeekableByteChannel#isOpen()
+	 */
+	@Override
+	public boolean isOpen() {
+		return this.contents.isOpen();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Replaces the javafs file with the contents written.</p>
+	 *
+	 * @see SeekableByteChannel#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.contents.isOpen()) {
+			return;
+		}
+
+		try (final StagingChannel contents0 = this.contents) {
+			final JavafsFileSystem fileSystem = this.path.getFileSystem();
+			fileSystem.write(() -> {
+				contents0.link(fileSystem.lookupParent(this.path), String.valueOf(this.path.getFileName()));
+				return null;
+			});
+		}
+	}
+}
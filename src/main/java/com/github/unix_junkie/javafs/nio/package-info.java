@@ -0,0 +1,19 @@
+/*-
+ * $Id$
+ */
+
+/**
+ * <p>A {@link java.nio.file.spi.FileSystemProvider} for the {@code javafs:}
+ * URI scheme, which exposes a mounted container through the {@code
+ * java.nio.file} API ({@link java.nio.file.Files}, {@link
+ * java.nio.file.Files#walk(java.nio.file.Path, java.nio.file.FileVisitOption...)},
+ * etc.). URIs have the form {@code javafs:<container URI>!/<path>}, e.g.:
+ * {@code javafs:file:///var/tmp/volume.javafs!/a/b}.</p>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ * @see com.github.unix_junkie.javafs.nio.JavafsFileSystemProvider
+ */
+@ParametersAreNonnullByDefault
+package com.github.unix_junkie.javafs.nio;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -3,6 +3,13 @@
  */
 
 /**
+ * <p>Expensive internal operations (inode table scans, block allocation,
+ * directory listing, etc.) are reported as Flight Recorder events in the
+ * {@code javafs} category, e.g.: {@code
+ * com.github.unix_junkie.javafs.ScanInodeTable}. The events are disabled by
+ * default, so that they cost next to nothing unless explicitly enabled in a
+ * recording's settings.</p>
+ *
  * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
  */
 @ParametersAreNonnullByDefault
@@ -0,0 +1,118 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures block allocation and the free block count scan on file
+ * systems of different sizes, block sizes and fill levels. Run with:</p>
+ *
+ * <pre>
+ * mvn -P jmh test -Djmh.args=AllocationBenchmark
+ * </pre>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+public class AllocationBenchmark {
+	/**
+	 * The number of blocks pre-allocated at a time while filling the file
+	 * system.
+	 */
+	private static final int FILL_EXTENT = 16;
+
+	@Param({"B512", "K4"})
+	public BlockSize blockSize;
+
+	/**
+	 * The container size, in MiB.
+	 */
+	@Param({"1", "16", "64"})
+	public int containerSize;
+
+	/**
+	 * The share of blocks allocated before the measurement, in percent.
+	 */
+	@Param({"0", "50", "90"})
+	public int fillLevel;
+
+	@Param({"8"})
+	public int blockCount;
+
+	private Path path;
+
+	private FileSystem fileSystem;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void setUp() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path path0 = createTempFile(null, ".javafs");
+		this.path = path0;
+		final FileSystem fileSystem0 = FileSystem.create(path0, this.containerSize * 1024L * 1024 - 1, this.blockSize);
+		this.fileSystem = fileSystem0;
+
+		final long fillBlockCount = fileSystem0.getTotalBlockCount() * this.fillLevel / 100;
+		fileSystem0.update(() -> {
+			for (long allocated = fileSystem0.getTotalBlockCount() - fileSystem0.getFreeBlockCount();
+					allocated < fillBlockCount;
+					allocated += FILL_EXTENT) {
+				fileSystem0.allocateBlocks(FILL_EXTENT);
+			}
+		});
+	}
+
+	@TearDown(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws IOException {
+		this.fileSystem.close();
+		delete(this.path);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public long allocateAndFree() throws IOException {
+		final FileSystem fileSystem0 = this.fileSystem;
+		final long firstBlockId[] = new long[1];
+		fileSystem0.update(() -> {
+			firstBlockId[0] = fileSystem0.allocateBlocks(this.blockCount);
+			fileSystem0.freeBlocks(firstBlockId[0]);
+		});
+		return firstBlockId[0];
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public long getFreeBlockCount() throws IOException {
+		return this.fileSystem.getFreeBlockCount();
+	}
+}
@@ -0,0 +1,211 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class BlockCacheTest {
+	private static final int BLOCK_LENGTH = 512;
+
+	/**
+	 * <p>Fills each block with its id (modulo 256) and logs write-backs.
+	 * </p>
+	 */
+	private static final class MemoryStorage implements BlockCache.Storage {
+		final Map<Long, byte[]> blocks = new HashMap<>();
+
+		final List<Long> stores = new ArrayList<>();
+
+		MemoryStorage() {
+			// empty
+		}
+
+		@Override
+		public void load(final long blockId, final ByteBuffer destination) {
+			final byte block[] = this.blocks.get(Long.valueOf(blockId));
+			if (block == null) {
+				final byte contents[] = new byte[BLOCK_LENGTH];
+				Arrays.fill(contents, (byte) blockId);
+				destination.put(contents);
+			} else {
+				destination.put(block);
+			}
+			destination.flip();
+		}
+
+		@Override
+		public void store(final long blockId, final ByteBuffer source) {
+			final byte block[] = new byte[BLOCK_LENGTH];
+			source.get(block);
+			this.blocks.put(Long.valueOf(blockId), block);
+			this.stores.add(Long.valueOf(blockId));
+		}
+	}
+
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testHitsAndMisses() throws IOException {
+		final BlockCache cache = new BlockCache(new MemoryStorage(), BLOCK_LENGTH, 16);
+		assertEquals(16L * BLOCK_LENGTH, cache.getCapacity());
+
+		final ByteBuffer block = cache.read(7);
+		assertEquals(BLOCK_LENGTH, block.remaining());
+		assertEquals(7, block.get(BLOCK_LENGTH - 1));
+		cache.read(7);
+		cache.read(7);
+
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testWriteBackOrder() throws IOException {
+		final MemoryStorage storage = new MemoryStorage();
+		final BlockCache cache = new BlockCache(storage, BLOCK_LENGTH, 16);
+
+		for (final long blockId : new long[] {9, 3, 12, 1, 5}) {
+			cache.write(blockId, 10, ByteBuffer.wrap(new byte[] {42}));
+		}
+		assertEquals(5, cache.getDirtyCount());
+		assertEquals(0, storage.stores.size());
+
+		final ByteBuffer patched = ByteBuffer.allocate(4);
+		cache.patch(3, 8, patched);
+		assertArrayEquals(new byte[] {3, 3, 42, 3}, patched.array());
+
+		cache.flush();
+		assertEquals(Arrays.asList(Long.valueOf(1), Long.valueOf(3), Long.valueOf(5), Long.valueOf(9), Long.valueOf(12)), storage.stores);
+		assertEquals(0, cache.getDirtyCount());
+		assertEquals(5, cache.getWriteBackCount());
+
+		final byte block[] = storage.blocks.get(Long.valueOf(12));
+		assertNotNull(block);
+		assertEquals(42, block[10]);
+		assertEquals(12, block[11]);
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testDirtyEviction() throws IOException {
+		final MemoryStorage storage = new MemoryStorage();
+		final BlockCache cache = new BlockCache(storage, BLOCK_LENGTH, 4);
+
+		cache.write(100, 0, ByteBuffer.wrap(new byte[] {42}));
+		for (long blockId = 0; blockId < 16; blockId++) {
+			cache.read(blockId);
+		}
+		assertEquals(4, cache.getSize());
+		assertThat(Long.valueOf(cache.getEvictionCount()), greaterThan(Long.valueOf(0L)));
+
+		/*
+		 * Evicted or not, the write is never lost.
+		 */
+		cache.flush();
+		final byte block[] = storage.blocks.get(Long.valueOf(100));
+		assertNotNull(block);
+		assertEquals(42, block[0]);
+
+		cache.invalidate(100, false);
+		cache.write(200, 0, ByteBuffer.wrap(new byte[] {42}));
+		cache.invalidate(200, false);
+		cache.flush();
+		assertNull(storage.blocks.get(Long.valueOf(200)));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testScanResistance() throws IOException {
+		final BlockCache cache = new BlockCache(new MemoryStorage(), BLOCK_LENGTH, 64);
+
+		/*
+		 * A few hot blocks...
+		 */
+		for (int i = 0; i < 8; i++) {
+			for (long blockId = 0; blockId < 8; blockId++) {
+				cache.read(blockId);
+			}
+		}
+
+		/*
+		 * ... still accessed every now and then during a long
+		 * sequential scan.
+		 */
+		long hotMissCount = 0L;
+		for (long blockId = 1000; blockId < 11000; blockId++) {
+			cache.read(blockId);
+
+			if (blockId % 100 == 0) {
+				final long missCount = cache.getMissCount();
+				for (long hotBlockId = 0; hotBlockId < 8; hotBlockId++) {
+					cache.read(hotBlockId);
+				}
+				hotMissCount += cache.getMissCount() - missCount;
+			}
+		}
+		assertEquals(0, hotMissCount);
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFileSystem() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			final BlockCache cache = fs.getBlockCache();
+			assertNotNull(cache);
+
+			final Directory root = fs.getRoot();
+			for (int i = 0; i < 100; i++) {
+				root.addChild(new Directory("dir" + i));
+			}
+			root.unlink("dir50");
+			assertThat(Integer.valueOf(cache.getDirtyCount()), greaterThan(Integer.valueOf(0)));
+
+			final long hitCount = cache.getHitCount();
+			assertEquals(99, fs.getRoot().list().size());
+			assertThat(Long.valueOf(cache.getHitCount()), greaterThan(Long.valueOf(hitCount)));
+		}
+
+		try (final FileSystem fs = FileSystem.mount(p, CacheSize.DISABLED)) {
+			assertNull(fs.getBlockCache());
+			assertEquals(99, fs.getRoot().list().size());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures walking (mapping and reading) long block chains, both
+ * contiguous and fragmented. Run with:</p>
+ *
+ * <pre>
+ * mvn -P jmh test -Djmh.args=ChainBenchmark
+ * </pre>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+public class ChainBenchmark {
+	@Param({"B512", "K4"})
+	public BlockSize blockSize;
+
+	/**
+	 * The number of blocks in the chain.
+	 */
+	@Param({"16", "256", "4096"})
+	public int chainLength;
+
+	/**
+	 * Whether every other block of the chain is taken by another chain.
+	 */
+	@Param({"false", "true"})
+	public boolean fragmented;
+
+	private Path path;
+
+	private FileSystem fileSystem;
+
+	private long firstBlockId;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void setUp() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path path0 = createTempFile(null, ".javafs");
+		this.path = path0;
+
+		final long length = (this.chainLength + 16L) * this.blockSize.getLength() * 3;
+		final FileSystem fileSystem0 = FileSystem.create(path0, length, this.blockSize);
+		this.fileSystem = fileSystem0;
+
+		fileSystem0.update(() -> {
+			if (this.fragmented) {
+				/*
+				 * Allocate two chains of interleaving blocks,
+				 * then free the 1st one.
+				 */
+				final long spacers[] = new long[this.chainLength];
+				for (int i = 0; i < this.chainLength; i++) {
+					spacers[i] = fileSystem0.allocateBlocks(1);
+					fileSystem0.allocateBlocks(1);
+				}
+				for (final long spacer : spacers) {
+					fileSystem0.freeBlocks(spacer);
+				}
+			}
+			this.firstBlockId = fileSystem0.allocateBlocks(this.chainLength);
+		});
+	}
+
+	@TearDown(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws IOException {
+		this.fileSystem.close();
+		delete(this.path);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public List<ByteBuffer> mapBlocks() throws IOException {
+		return this.fileSystem.mapBlocks(this.firstBlockId);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public List<ByteBuffer> readBlocks() throws IOException {
+		return this.fileSystem.readBlocks(this.firstBlockId);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public long getLastBlockId() throws IOException {
+		return this.fileSystem.getLastBlockId(this.firstBlockId);
+	}
+}
@@ -0,0 +1,130 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.CHECKSUMS;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.size;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class ChecksumTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testCorruption() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{CHECKSUMS}, {CHECKSUMS, JOURNAL}}) {
+			final byte contents[] = new byte[100 * 1024];
+			new Random(42).nextBytes(contents);
+
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path file = createTempFile(null, null);
+			write(file, contents);
+
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+			final long corruptedBlockId;
+			final long corruptedBlockOffset;
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				assertTrue(fs.getChecksumAreaLength() > 0);
+
+				fs.getRoot().addChild(new Directory("dir"));
+				fs.getRoot().addChild(new File(file));
+				fs.getRoot().unlink("dir");
+				assertEquals(0, fs.scrub().length);
+
+				final FileSystemEntry child = fs.getRoot().list().iterator().next();
+				assertArrayEquals(contents, child.getData().array());
+
+				/*
+				 * The 3rd block of the file.
+				 */
+				try (final EntryChannel channel = (EntryChannel) child.newByteChannel()) {
+					channel.position(2L * fs.getBlockSize().getLength());
+					channel.read(ByteBuffer.allocate(1));
+				}
+				corruptedBlockId = fs.getNextBlockId(fs.getNextBlockId(child.firstBlockId));
+				corruptedBlockOffset = fs.getBlockOffset(corruptedBlockId);
+
+				assertEquals(fs.getLength(), size(p));
+			}
+
+			try (final FileChannel channel = FileChannel.open(p, READ, WRITE)) {
+				final ByteBuffer b = ByteBuffer.allocate(1);
+				channel.read(b, corruptedBlockOffset + 17);
+				b.put(0, (byte) ~b.get(0));
+				channel.write(b.rewind(), corruptedBlockOffset + 17);
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				assertArrayEquals(new long[] {corruptedBlockId}, fs.scrub());
+
+				final FileSystemEntry child = fs.getRoot().list().iterator().next();
+				try {
+					child.getData();
+					fail("Expecting a ChecksumException");
+				} catch (final AssertionError ae) {
+					throw ae;
+				} catch (final Throwable t) {
+					assertThat(t, IsInstanceOf.instanceOf(ChecksumException.class));
+					assertEquals(corruptedBlockId, ((ChecksumException) t).getBlockId());
+				}
+
+				/*
+				 * Blocks before the corrupted one are still readable.
+				 */
+				try (final EntryChannel channel = (EntryChannel) child.newByteChannel()) {
+					final ByteBuffer buffer = ByteBuffer.allocate(2 * fs.getBlockSize().getLength());
+					assertEquals(buffer.capacity(), channel.read(buffer));
+				}
+				assertEquals(2, fs.getChecksumErrorCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testNoChecksums() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			assertEquals(0, fs.getChecksumAreaLength());
+			assertEquals(0, fs.scrub().length);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.COMPACT_METADATA;
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class CompactMetadataTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testVarint() throws IOException {
+		final long values[] = {0L, 1L, 127L, 128L, 300L, 16383L, 16384L, Integer.MAX_VALUE, Long.MAX_VALUE, -1L, Long.MIN_VALUE};
+		final ByteBuffer buffer = ByteBuffer.allocate(Varint.MAX_LENGTH);
+		for (final long value : values) {
+			buffer.clear();
+			Varint.put(buffer, value);
+			assertEquals(Varint.getLength(value), buffer.position());
+			buffer.flip();
+			assertEquals(value, Varint.get(buffer));
+			assertTrue(!buffer.hasRemaining());
+
+			buffer.clear();
+			Varint.putSigned(buffer, value);
+			assertEquals(Varint.getSignedLength(value), buffer.position());
+			buffer.flip();
+			assertEquals(value, Varint.getSigned(buffer));
+		}
+
+		assertEquals(1, Varint.getLength(127L));
+		assertEquals(2, Varint.getLength(128L));
+		assertEquals(9, Varint.getLength(Long.MAX_VALUE));
+		assertEquals(10, Varint.getLength(-1L));
+		assertEquals(1, Varint.getSignedLength(-1L));
+		assertEquals(1, Varint.getSignedLength(63L));
+		assertEquals(2, Varint.getSignedLength(64L));
+
+		/*
+		 * Padded values are read back as is.
+		 */
+		buffer.clear();
+		Varint.put(buffer, 5L, FileSystemEntry.DIRECTORY_SIZE_LENGTH);
+		assertEquals(FileSystemEntry.DIRECTORY_SIZE_LENGTH, buffer.position());
+		buffer.flip();
+		assertEquals(5L, Varint.get(buffer));
+		assertTrue(!buffer.hasRemaining());
+
+		/*
+		 * Overlong values are rejected.
+		 */
+		final ByteBuffer overlong = ByteBuffer.allocate(Varint.MAX_LENGTH + 1);
+		while (overlong.hasRemaining()) {
+			overlong.put((byte) 0x80);
+		}
+		overlong.flip();
+		try {
+			Varint.get(overlong);
+			throw new AssertionError("Expecting an IOException");
+		} catch (final IOException ioe) {
+			// expected
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testRoundTrip() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{COMPACT_METADATA}, {COMPACT_METADATA, INLINE_DATA, JOURNAL}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+
+			final byte contents[] = "Hello, World!\n".getBytes(US_ASCII);
+			final Date past = new Date(0L);
+			final Date future = new Date(4102444800000L);
+
+			final long freeBlockCount;
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				freeBlockCount = fs.getFreeBlockCount();
+
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("a"));
+				final Directory a = (Directory) root.getChild("a");
+				assertNotNull(a);
+				a.addChild(new Directory("b"));
+				final Directory b = (Directory) a.getChild("b");
+				assertNotNull(b);
+				for (int i = 0; i < 40; i++) {
+					b.addChild(new File(new PosixAttributes((short) 0640), (short) 1000, (short) 100,
+							i % 2 == 0 ? past : future,
+							"file" + i, contents.length,
+							Channels.newChannel(new ByteArrayInputStream(contents))));
+				}
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				final Directory a = (Directory) fs.getRoot().getChild("a");
+				assertNotNull(a);
+				final Directory b = (Directory) a.getChild("b");
+				assertNotNull(b);
+				assertEquals(40, b.list().size());
+
+				/*
+				 * The size of "b", updated in place as its children
+				 * were added, matches its contents.
+				 */
+				long dataSize = 0L;
+				for (final FileSystemEntry child : b.list()) {
+					dataSize += fs.getBlockAddressSize() + child.getMetadataSize();
+				}
+				assertEquals(dataSize, b.getDataSize());
+
+				final FileSystemEntry file = b.getChild("file3");
+				assertNotNull(file);
+				assertEquals(future, file.getModificationTime());
+				assertEquals(future, file.getCreationTime());
+				assertEquals((short) 1000, file.getUid());
+				assertEquals((short) 100, file.getGid());
+				assertEquals((short) 0640, file.getAttributes().getValue());
+				assertArrayEquals(contents, file.getData().array());
+				assertEquals(past, b.getChild("file4").getModificationTime());
+
+				/*
+				 * Well under the 43 bytes of the fixed-length header,
+				 * even with the timestamps far from the base time.
+				 */
+				assertTrue(file.getMetadataSize() - "file3".length() - (file.isInline() ? contents.length : 0) < 43);
+
+				for (int i = 0; i < 40; i++) {
+					b.unlink("file" + i);
+				}
+				assertEquals(0L, b.getDataSize());
+				a.unlink("b");
+				fs.getRoot().unlink("a");
+				assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFormatVersion() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{}, {COMPACT_METADATA}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				fs.getRoot().addChild(new Directory("dir"));
+			}
+
+			try (final FileChannel channel = FileChannel.open(p, READ)) {
+				final ByteBuffer version = ByteBuffer.allocate(2);
+				channel.read(version, 17L);
+				assertEquals(1, version.get(0));
+				assertEquals(options.length, version.get(1));
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				assertNotNull(fs.getRoot().getChild("dir"));
+			}
+		}
+	}
+}
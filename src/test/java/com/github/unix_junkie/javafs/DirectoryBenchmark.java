@@ -0,0 +1,102 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures directory listing, and adding and unlinking a child, for
+ * directories of different sizes. Run with:</p>
+ *
+ * <pre>
+ * mvn -P jmh test -Djmh.args=DirectoryBenchmark
+ * </pre>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+public class DirectoryBenchmark {
+	@Param({"B512", "K4"})
+	public BlockSize blockSize;
+
+	/**
+	 * The number of entries in the directory.
+	 */
+	@Param({"10", "100", "1000"})
+	public int directorySize;
+
+	private Path path;
+
+	private FileSystem fileSystem;
+
+	private Directory root;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void setUp() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path path0 = createTempFile(null, ".javafs");
+		this.path = path0;
+
+		/*
+		 * Each child directory occupies a single block.
+		 */
+		final long length = (this.directorySize + 16L) * this.blockSize.getLength() * 2;
+		final FileSystem fileSystem0 = FileSystem.create(path0, length, this.blockSize);
+		this.fileSystem = fileSystem0;
+		this.root = fileSystem0.getRoot();
+
+		for (int i = 0; i < this.directorySize; i++) {
+			this.root.addChild(new Directory("directory-" + i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws IOException {
+		this.fileSystem.close();
+		delete(this.path);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<FileSystemEntry> list() throws IOException {
+		return this.root.list();
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public void addChildAndUnlink() throws IOException {
+		this.root.addChild(new Directory("new-directory"));
+		this.root.unlink("new-directory");
+	}
+}
@@ -0,0 +1,208 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.createTempFile;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class DurabilityPolicyTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testDefaults() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			assertEquals(DurabilityPolicy.ASYNC, fs.getDurabilityPolicy());
+		}
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL)) {
+			assertEquals(DurabilityPolicy.PER_OPERATION, fs.getDurabilityPolicy());
+		}
+		try (final FileSystem fs = FileSystem.mount(p, DurabilityPolicy.PER_BATCH)) {
+			assertEquals(DurabilityPolicy.PER_BATCH, fs.getDurabilityPolicy());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFeatureAtMount() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		FileSystem.create(p, 1024L * 1024 - 1).close();
+
+		try {
+			FileSystem.mount(p, JOURNAL).close();
+			fail("Expecting an IllegalArgumentException");
+		} catch (final AssertionError ae) {
+			throw ae;
+		} catch (final Throwable t) {
+			assertThat(t, IsInstanceOf.instanceOf(IllegalArgumentException.class));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testPerOperation() throws IOException {
+		for (final FileSystemOption features[] : new FileSystemOption[][] {{}, {JOURNAL}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+			FileSystem.create(p, 1024L * 1024 - 1, features).close();
+
+			try (final FileSystem fs = FileSystem.mount(p, DurabilityPolicy.PER_OPERATION)) {
+				final Directory root = fs.getRoot();
+				for (int i = 0; i < 10; i++) {
+					root.addChild(new Directory("dir" + i));
+				}
+				final LatencyHistogram operationLatency = fs.getOperationLatency();
+				assertEquals(10, operationLatency.getCount());
+				assertThat(Long.valueOf(operationLatency.getMax()), greaterThan(Long.valueOf(0L)));
+				assertThat(Long.valueOf(operationLatency.getPercentile(50)), lessThanOrEqualTo(Long.valueOf(operationLatency.getPercentile(100))));
+				assertEquals(0, fs.getSyncLatency().getCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testPerBatch() throws IOException {
+		for (final FileSystemOption features[] : new FileSystemOption[][] {{}, {JOURNAL}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+			FileSystem.create(p, 1024L * 1024 - 1, features).close();
+
+			try (final FileSystem fs = FileSystem.mount(p, DurabilityPolicy.PER_BATCH)) {
+				final Directory root = fs.getRoot();
+				for (int i = 0; i < 4; i++) {
+					final FileSystem.Batch batch = fs.beginBatch();
+					try {
+						for (int j = 0; j < 5; j++) {
+							root.addChild(new Directory("dir" + i + '.' + j));
+						}
+					} finally {
+						batch.close();
+					}
+				}
+				assertEquals(20, fs.getOperationLatency().getCount());
+				assertEquals(4, fs.getBatchLatency().getCount());
+				assertThat(Long.valueOf(fs.getBatchLatency().getMax()), greaterThan(Long.valueOf(0L)));
+				assertEquals(4, fs.getSyncLatency().getCount());
+
+				final Journal journal = fs.getJournal();
+				if (journal != null) {
+					assertThat(Long.valueOf(journal.getForceCount()), lessThanOrEqualTo(Long.valueOf(4L)));
+				}
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				assertEquals(20, fs.getRoot().list().size());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testPeriodic() throws IOException, InterruptedException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL, DurabilityPolicy.periodic(10, MILLISECONDS))) {
+			assertEquals(10, fs.getDurabilityPolicy().getInterval(MILLISECONDS));
+
+			fs.getRoot().addChild(new Directory("dir"));
+
+			final long deadline = nanoTime() + SECONDS.toNanos(10);
+			while (fs.getSyncLatency().getCount() == 0 && nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(Long.valueOf(fs.getSyncLatency().getCount()), greaterThan(Long.valueOf(0L)));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testAsync() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL, DurabilityPolicy.ASYNC)) {
+			final Journal journal = fs.getJournal();
+			assertNotNull(journal);
+			final long forceCount = journal.getForceCount();
+
+			final Directory root = fs.getRoot();
+			for (int i = 0; i < 10; i++) {
+				root.addChild(new Directory("dir" + i));
+			}
+			assertEquals(forceCount, journal.getForceCount());
+
+			fs.sync();
+			assertThat(Long.valueOf(journal.getForceCount()), greaterThanOrEqualTo(Long.valueOf(forceCount + 1)));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testLatencyHistogram() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99));
+
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000L * 1000, histogram.getMax());
+		assertEquals(500500.0, histogram.getMean(), 0.0);
+
+		final long median = histogram.getPercentile(50);
+		assertThat(Long.valueOf(median), greaterThanOrEqualTo(Long.valueOf(500L * 1000)));
+		assertThat(Long.valueOf(median), lessThanOrEqualTo(Long.valueOf(500L * 1000 * 9 / 8)));
+		assertEquals(histogram.getMax(), histogram.getPercentile(100));
+
+		for (long value = 0; value < 1L << 20; value = value * 3 / 2 + 1) {
+			final int index = LatencyHistogram.getBucketIndex(value);
+			assertThat(Long.valueOf(LatencyHistogram.getBucketUpperBound(index)), greaterThanOrEqualTo(Long.valueOf(value)));
+			if (index > 0) {
+				assertThat(Long.valueOf(LatencyHistogram.getBucketUpperBound(index - 1)), lessThanOrEqualTo(Long.valueOf(value - 1)));
+			}
+		}
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+	}
+}
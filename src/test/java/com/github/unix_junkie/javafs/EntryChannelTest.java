@@ -0,0 +1,162 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.write;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class EntryChannelTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testSequentialRead() throws IOException, InterruptedException {
+		final byte contents[] = new byte[600 * 1024 + 123];
+		new Random(42).nextBytes(contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path file = createTempFile(null, null);
+		write(file, contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			fs.getRoot().addChild(new File(file));
+			final FileSystemEntry child = fs.getRoot().list().iterator().next();
+
+			try (final EntryChannel channel = (EntryChannel) child.newByteChannel()) {
+				assertEquals(contents.length, channel.size());
+
+				final ByteBuffer actual = ByteBuffer.allocate(contents.length);
+				final ByteBuffer buffer = ByteBuffer.allocate(4096);
+				while (channel.read(buffer) != -1) {
+					buffer.flip();
+					actual.put(buffer);
+					buffer.clear();
+				}
+				assertArrayEquals(contents, actual.array());
+				assertThat(Integer.valueOf(channel.getWindow()), greaterThan(Integer.valueOf(EntryChannel.INITIAL_WINDOW)));
+
+				final long deadline = nanoTime() + SECONDS.toNanos(10);
+				while (channel.getPrefetchedBlockCount() == 0 && nanoTime() < deadline) {
+					Thread.sleep(10);
+				}
+				assertThat(Long.valueOf(channel.getPrefetchedBlockCount()), greaterThan(Long.valueOf(0L)));
+
+				/*
+				 * Random access resets the window.
+				 */
+				final int position = 300 * 1024 + 17;
+				channel.position(position);
+				final ByteBuffer chunk = ByteBuffer.allocate(10000);
+				assertEquals(10000, channel.read(chunk));
+				assertEquals(EntryChannel.INITIAL_WINDOW, channel.getWindow());
+				for (int i = 0; i < chunk.capacity(); i++) {
+					assertEquals(contents[position + i], chunk.get(i));
+				}
+			}
+
+			assertArrayEquals(contents, child.getData().array());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testTransferTo() throws IOException {
+		final byte contents[] = new byte[200 * 1024 + 77];
+		new Random(42).nextBytes(contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path file = createTempFile(null, null);
+		write(file, contents);
+
+		for (final Feature[] features : new Feature[][] {{}, {Feature.CHECKSUMS}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, features)) {
+				/*
+				 * Interleave two files, so that neither is contiguous.
+				 */
+				fs.getRoot().addChild(new File("small", 1, Channels.newChannel(new ByteArrayInputStream(new byte[1]))));
+				fs.getRoot().addChild(new File(file));
+				fs.getRoot().unlink("small");
+				fs.getRoot().addChild(new File("other", contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+
+				for (final FileSystemEntry child : fs.getRoot().list()) {
+					final EntryChannel channel = (EntryChannel) child.newByteChannel();
+					final Random random = new Random(42);
+					for (int i = 0; i < 100; i++) {
+						final int position = random.nextInt(contents.length);
+						final int count = random.nextInt(20000);
+						final ByteArrayOutputStream out = new ByteArrayOutputStream();
+						final long transferred = channel.transferTo(position, count, Channels.newChannel(out));
+						assertEquals(Math.min(count, contents.length - position), transferred);
+						assertArrayEquals(Arrays.copyOfRange(contents, position, position + (int) transferred), out.toByteArray());
+					}
+					assertEquals(0L, channel.position());
+				}
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testReadOnly() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1);
+				final SeekableByteChannel channel = fs.getRoot().newByteChannel()) {
+			assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+			try {
+				channel.write(ByteBuffer.allocate(1));
+				fail("Expecting a NonWritableChannelException");
+			} catch (final AssertionError ae) {
+				throw ae;
+			} catch (final Throwable t) {
+				assertThat(t, IsInstanceOf.instanceOf(NonWritableChannelException.class));
+			}
+		}
+	}
+}
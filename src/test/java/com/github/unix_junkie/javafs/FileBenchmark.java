@@ -0,0 +1,159 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.CHECKSUMS;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.write;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the end-to-end import of a file from the local file system,
+ * and reading it back, with and without {@linkplain Feature#CHECKSUMS
+ * checksums}. Run with:</p>
+ *
+ * <pre>
+ * mvn -P jmh test -Djmh.args=FileBenchmark
+ * </pre>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+public class FileBenchmark {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@Param({"B512", "K4"})
+	public BlockSize blockSize;
+
+	/**
+	 * The file size, in KiB.
+	 */
+	@Param({"64", "1024", "16384"})
+	public int fileSize;
+
+	@Param({"false", "true"})
+	public boolean checksums;
+
+	private Path directory;
+
+	/**
+	 * The local file imported by {@link #importFile()}.
+	 */
+	private Path source;
+
+	private Path path;
+
+	private FileSystem fileSystem;
+
+	private Directory root;
+
+	/**
+	 * The entry read by {@link #readFile()}.
+	 */
+	private FileSystemEntry entry;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void setUp() throws IOException {
+		final byte contents[] = new byte[this.fileSize * 1024];
+		new Random(42).nextBytes(contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path directory0 = createTempDirectory(null);
+		this.directory = directory0;
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path source0 = directory0.resolve("source");
+		this.source = source0;
+		write(source0, contents);
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path target = directory0.resolve("target");
+		write(target, contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path path0 = createTempFile(null, ".javafs");
+		this.path = path0;
+
+		/*
+		 * Room for two copies of the file, plus the inode table.
+		 */
+		final long length = 3L * contents.length + 1024L * 1024;
+		final FileSystem fileSystem0 = this.checksums
+				? FileSystem.create(path0, length, this.blockSize, CHECKSUMS)
+				: FileSystem.create(path0, length, this.blockSize);
+		this.fileSystem = fileSystem0;
+		this.root = fileSystem0.getRoot();
+
+		this.root.addChild(new File(target));
+		this.entry = this.root.list().iterator().next();
+	}
+
+	@TearDown(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws IOException {
+		this.fileSystem.close();
+		delete(this.path);
+		delete(this.source);
+		delete(this.directory.resolve("target"));
+		delete(this.directory);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public void importFile() throws IOException {
+		this.root.addChild(new File(this.source));
+		this.root.unlink("source");
+	}
+
+	/**
+	 * @return the number of bytes read.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	public long readFile() throws IOException {
+		long bytesRead = 0L;
+		try (final SeekableByteChannel channel = this.entry.newByteChannel()) {
+			int n;
+			while ((n = channel.read(this.buffer)) != -1) {
+				bytesRead += n;
+				this.buffer.clear();
+			}
+		}
+		return bytesRead;
+	}
+}
@@ -156,6 +156,26 @@ public final class FileSystemTest {
 		assertEquals(8, getBlockAddressSize(Long.MAX_VALUE));
 	}
 
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testInodeRoundtrip() {
+		final Random random = new Random(42);
+		for (byte blockAddressSize = 1; blockAddressSize <= 8; blockAddressSize++) {
+			final long eofMarker = FileSystem.getEofMarker(blockAddressSize);
+			assertEquals(blockAddressSize == 8 ? -1L : (1L << 8 * blockAddressSize) - 1, eofMarker);
+
+			final ByteBuffer buffer = ByteBuffer.allocate(blockAddressSize);
+			for (int i = 0; i < 1000; i++) {
+				final long inode = i == 0 ? eofMarker : random.nextLong() & eofMarker;
+				buffer.clear();
+				FileSystem.writeInode(inode, buffer, blockAddressSize);
+				assertFalse(buffer.hasRemaining());
+				buffer.flip();
+				assertEquals(inode, FileSystem.readInode(buffer, blockAddressSize));
+			}
+		}
+	}
+
 	@Test
 	@SuppressWarnings({ "static-method", "javadoc" })
 	public void testAddDirectory() throws IOException {
@@ -225,6 +245,97 @@ public final class FileSystemTest {
 		}
 	}
 
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testAllocationFailure() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			fs.getRoot().addChild(new Directory("a"));
+			final long freeBlockCount = fs.getFreeBlockCount();
+
+			try {
+				fs.update(() -> fs.allocateBlocks(freeBlockCount + 1));
+				fail("Expecting an IOException");
+			} catch (final AssertionError ae) {
+				throw ae;
+			} catch (final Throwable t) {
+				assertThat(t, IsInstanceOf.instanceOf(IOException.class));
+			}
+
+			/*
+			 * The blocks linked before the inode table was
+			 * exhausted have been released.
+			 */
+			assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			assertEquals(2, fs.getFileCount());
+
+			fs.update(() -> fs.freeBlocks(fs.allocateBlocks(freeBlockCount)));
+			assertEquals(freeBlockCount, fs.getFreeBlockCount());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testNestedDirectories() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		final long freeBlockCount;
+		final long dataSize;
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			freeBlockCount = fs.getFreeBlockCount();
+
+			fs.getRoot().addChild(new Directory("a"));
+			final Directory a = (Directory) fs.getRoot().getChild("a");
+			assertNotNull(a);
+			a.addChild(new Directory("b"));
+			final Directory b = (Directory) a.getChild("b");
+			assertNotNull(b);
+
+			/*
+			 * Grow the innermost directory beyond a single block.
+			 */
+			for (int i = 0; i < 3; i++) {
+				b.addChild(new Directory(newUniqueName(fs.getBlockSize().getLength())));
+			}
+			b.unlink(b.list().iterator().next().getName());
+			dataSize = b.getDataSize();
+			assertEquals(2, b.list().size());
+
+			try {
+				fs.getRoot().unlink("a");
+				fail("Expecting an IOException");
+			} catch (final AssertionError ae) {
+				throw ae;
+			} catch (final Throwable t) {
+				assertThat(t, IsInstanceOf.instanceOf(IOException.class));
+			}
+		}
+
+		/*
+		 * Directory sizes are persisted in the parents' data areas.
+		 */
+		try (final FileSystem fs = FileSystem.mount(p)) {
+			final Directory a = (Directory) fs.getRoot().getChild("a");
+			assertNotNull(a);
+			final Directory b = (Directory) a.getChild("b");
+			assertNotNull(b);
+			assertEquals(dataSize, b.getDataSize());
+			assertEquals(2, b.list().size());
+
+			for (final FileSystemEntry child : b.list()) {
+				b.unlink(child.getName());
+			}
+			assertEquals(0, ((Directory) fs.getRoot().getChild("a")).getChild("b").getDataSize());
+			a.unlink("b");
+			fs.getRoot().unlink("a");
+			assertEquals(0, fs.getRoot().getDataSize());
+			assertEquals(freeBlockCount, fs.getFreeBlockCount());
+		}
+	}
+
 	@Test
 	@SuppressWarnings({ "static-method", "javadoc" })
 	public void testAddReadFile() throws IOException, NoSuchAlgorithmException {
@@ -235,7 +346,7 @@ public final class FileSystemTest {
 		@Nonnull
 		@SuppressWarnings("null")
 		final Path p = createTempFile(null, ".javafs");
-		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+		try (final FileSystem fs = FileSystem.create(p, 4L * 1024 * 1024 - 1)) {
 			walkFileTree(get(getProperty("user.dir", ".")), new SimpleFileVisitor<Path>() {
 				@Override
 				public FileVisitResult visitFile(@Nullable final Path file,
@@ -249,7 +360,12 @@ public final class FileSystemTest {
 					}
 
 					final String fileName = file.getFileName().toString();
-					if (isRegularFile(file, NOFOLLOW_LINKS) && fileName.endsWith(".java")) {
+					/*
+					 * Source files from different packages may share
+					 * a name (e.g.: package-info.java); only the first one
+					 * is added.
+					 */
+					if (isRegularFile(file, NOFOLLOW_LINKS) && fileName.endsWith(".java") && !sha1sums.containsKey(fileName)) {
 						md.reset();
 						md.update(readAllBytes(file));
 						@Nonnull
@@ -389,7 +505,7 @@ public final class FileSystemTest {
 		@Nonnull
 		@SuppressWarnings("null")
 		final Path p = createTempFile(null, ".javafs");
-		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+		try (final FileSystem fs = FileSystem.create(p, 4L * 1024 * 1024 - 1)) {
 			walkFileTree(get(getProperty("user.dir", ".")), new SimpleFileVisitor<Path>() {
 				@Override
 				public FileVisitResult visitFile(@Nullable final Path file,
@@ -403,7 +519,7 @@ public final class FileSystemTest {
 					}
 
 					final String fileName = file.getFileName().toString();
-					if (isRegularFile(file, NOFOLLOW_LINKS) && fileName.endsWith(".java")) {
+					if (isRegularFile(file, NOFOLLOW_LINKS) && fileName.endsWith(".java") && fs.getRoot().getChild(fileName) == null) {
 						fs.getRoot().addChild(new File(file));
 					}
 					return CONTINUE;
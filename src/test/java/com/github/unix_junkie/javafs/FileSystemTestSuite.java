@@ -7,16 +7,43 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.github.unix_junkie.javafs.nio.JavafsFileSystemProviderTest;
+
 /**
  * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
 	FileSystemTest.class,
+	BlockCacheTest.class,
 	BlockSizeTest.class,
+	ChecksumTest.class,
+	CompactMetadataTest.class,
+	DurabilityPolicyTest.class,
+	EntryChannelTest.class,
 	FileSystemEntryTest.class,
+	FlightRecorderTest.class,
+	HostAttributesTest.class,
+	InMemoryTest.class,
+	InlineDataTest.class,
+	JavafsFileSystemProviderTest.class,
+	JournalTest.class,
+	LoadGeneratorTest.class,
+	MetadataIndexTest.class,
+	MetricsTest.class,
+	NameFilterTest.class,
+	PathIndexTest.class,
 	PosixAttributesTest.class,
+	PreallocationTest.class,
+	ServerTest.class,
+	ShellTest.class,
 	SizeUnitTest.class,
+	SortedDirectoryTest.class,
+	StagingChannelTest.class,
+	StatBufferTest.class,
+	TarTest.class,
+	TraceTest.class,
+	TreeWalkerTest.class,
 })
 public final class FileSystemTestSuite {
 	// empty
@@ -0,0 +1,110 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class FlightRecorderTest {
+	private static final List<Class<? extends Event>> EVENT_TYPES = List.of(
+			ScanInodeTableEvent.class,
+			AllocateBlocksEvent.class,
+			FreeBlocksEvent.class,
+			MapBlocksEvent.class,
+			ListDirectoryEvent.class,
+			UnlinkEvent.class);
+
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testDisabledByDefault() {
+		for (final Class<? extends Event> eventType : EVENT_TYPES) {
+			assertFalse(eventType.getName(), EventType.getEventType(eventType).isEnabled());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testEvents() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path dump = createTempFile(null, ".jfr");
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path file = createTempFile(null, null);
+		write(file, new byte[10000]);
+
+		try (final Recording recording = new Recording()) {
+			for (final Class<? extends Event> eventType : EVENT_TYPES) {
+				recording.enable(eventType).withoutThreshold();
+			}
+			recording.start();
+
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+				fs.getRoot().addChild(new Directory("a"));
+				fs.getRoot().addChild(new File(file));
+				fs.getRoot().unlink("a");
+				fs.getFreeBlockCount();
+			}
+
+			recording.stop();
+			recording.dump(dump);
+		}
+
+		final Map<String, RecordedEvent> lastEvents = new HashMap<>();
+		for (final RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+			lastEvents.put(event.getEventType().getName(), event);
+		}
+		delete(dump);
+
+		for (final Class<? extends Event> eventType : EVENT_TYPES) {
+			final String name = EventType.getEventType(eventType).getName();
+			assertTrue(name, lastEvents.containsKey(name));
+		}
+
+		final RecordedEvent unlink = lastEvents.get("com.github.unix_junkie.javafs.Unlink");
+		assertEquals("a", unlink.getString("child"));
+		assertTrue(unlink.getLong("bytesRewritten") > 0);
+
+		final RecordedEvent allocate = lastEvents.get("com.github.unix_junkie.javafs.AllocateBlocks");
+		assertEquals(3L, allocate.getLong("allocated"));
+		assertEquals(1L, allocate.getLong("fragments"));
+	}
+}
@@ -0,0 +1,93 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.FileUtilities.symbolicLinksSupported;
+import static java.nio.file.Files.createSymbolicLink;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.write;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class HostAttributesTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFromHost() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path directory = createTempDirectory(null);
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path file = directory.resolve("file");
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path link = directory.resolve("link");
+		try {
+			write(file, new byte[1234]);
+
+			final FileSystemEntry fileEntry = FileSystemEntry.fromHost(file);
+			assertTrue(fileEntry instanceof File);
+			assertEquals("file", fileEntry.getName());
+			assertEquals(1234L, fileEntry.getDataSize());
+			assertEquals(FileUtilities.getUid(file), fileEntry.getUid());
+			assertEquals(FileUtilities.getGid(file), fileEntry.getGid());
+			assertEquals(FileUtilities.getPosixAttributes(file).getValue(), fileEntry.getAttributes().getValue());
+			assertEquals(FileUtilities.getNlinks(file), fileEntry.getNumberOfLinks());
+			final BasicFileAttributes attrs = readAttributes(file, BasicFileAttributes.class, NOFOLLOW_LINKS);
+			assertEquals(attrs.lastModifiedTime().toMillis(), fileEntry.getModificationTime().getTime());
+			assertEquals(attrs.creationTime().toMillis(), fileEntry.getCreationTime().getTime());
+
+			final FileSystemEntry directoryEntry = FileSystemEntry.fromHost(directory);
+			assertTrue(directoryEntry instanceof Directory);
+			assertEquals(0L, directoryEntry.getDataSize());
+
+			if (symbolicLinksSupported()) {
+				createSymbolicLink(link, file.getFileName());
+				final FileSystemEntry linkEntry = FileSystemEntry.fromHost(link);
+				assertTrue(linkEntry instanceof SymbolicLink);
+				assertEquals(4L, linkEntry.getDataSize());
+			}
+
+			/*
+			 * The type is checked.
+			 */
+			try {
+				new Directory(file);
+				throw new AssertionError("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+		} finally {
+			deleteIfExists(link);
+			delete(file);
+			delete(directory);
+		}
+	}
+}
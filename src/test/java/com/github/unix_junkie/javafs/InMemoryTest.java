@@ -0,0 +1,189 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.CHECKSUMS;
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.size;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class InMemoryTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testSnapshot() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {
+				{},
+				{JOURNAL, CHECKSUMS},
+				{SORTED_DIRECTORIES, INLINE_DATA}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path snapshot = createTempFile(null, ".javafs");
+			try {
+				final byte contents[] = contents(5000);
+				try (final FileSystem fs = FileSystem.createInMemory(1024L * 1024 - 1, options)) {
+					assertTrue(fs.getMetrics().getPath().startsWith("memory:"));
+					final Directory root = fs.getRoot();
+					root.addChild(new Directory("a"));
+					final Directory a = (Directory) root.getChild("a");
+					assertNotNull(a);
+					a.addChild(new File("b", contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+					assertEquals(3, fs.getFileCount());
+
+					fs.snapshot(snapshot);
+					assertEquals(fs.getLength(), size(snapshot));
+				}
+
+				/*
+				 * The snapshot is a regular container.
+				 */
+				try (final FileSystem fs = FileSystem.mount(snapshot)) {
+					assertContents(fs, contents);
+					fs.getRoot().addChild(new Directory("c"));
+				}
+
+				/*
+				 * Loading it doesn't modify it.
+				 */
+				final long fileCount;
+				try (final FileSystem fs = FileSystem.loadInMemory(snapshot)) {
+					assertContents(fs, contents);
+					fileCount = fs.getFileCount();
+					fs.getRoot().addChild(new Directory("d"));
+					assertEquals(fileCount + 1, fs.getFileCount());
+				}
+				try (final FileSystem fs = FileSystem.mount(snapshot)) {
+					assertEquals(fileCount, fs.getFileCount());
+					assertEquals(null, fs.getRoot().getChild("d"));
+				}
+			} finally {
+				delete(snapshot);
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testMemoryChannel() throws IOException {
+		final long origin = 1024;
+		final int chunkLength = BlockSize.getMaximum().getLength();
+		final long length = origin + 2 * chunkLength + 4096;
+		try (final MemoryChannel channel = new MemoryChannel(length, origin, chunkLength)) {
+			assertEquals(length, channel.size());
+
+			/*
+			 * Unwritten memory reads as zeroes.
+			 */
+			final ByteBuffer buffer = ByteBuffer.allocate(16);
+			assertEquals(16, channel.read(buffer, length - 8 - chunkLength));
+			assertArrayEquals(new byte[16], buffer.array());
+
+			/*
+			 * Writes and reads across chunk boundaries.
+			 */
+			final byte contents[] = contents(4096);
+			final long position = origin + chunkLength - 1000;
+			assertEquals(contents.length, channel.write(ByteBuffer.wrap(contents), position));
+			final ByteBuffer copy = ByteBuffer.allocate(contents.length);
+			assertEquals(contents.length, channel.read(copy, position));
+			assertArrayEquals(contents, copy.array());
+
+			/*
+			 * Writable slices are views.
+			 */
+			final ByteBuffer block = channel.slice(MapMode.READ_WRITE, origin, 512);
+			block.put(0, (byte) 42);
+			final ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, origin);
+			assertEquals(42, b.get(0));
+
+			/*
+			 * Read-only slices across chunks are copies.
+			 */
+			final ByteBuffer region = channel.slice(MapMode.READ_ONLY, position, contents.length);
+			final byte mapped[] = new byte[contents.length];
+			region.get(mapped);
+			assertArrayEquals(contents, mapped);
+			try {
+				channel.slice(MapMode.READ_WRITE, position, contents.length);
+				throw new AssertionError("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+
+			/*
+			 * There's no file to map.
+			 */
+			try {
+				channel.map(MapMode.READ_ONLY, origin, 512);
+				throw new AssertionError("Expecting an UnsupportedOperationException");
+			} catch (final UnsupportedOperationException uoe) {
+				// expected
+			}
+
+			assertEquals(-1, channel.read(ByteBuffer.allocate(1), length));
+			try {
+				channel.write(ByteBuffer.allocate(2), length - 1);
+				throw new AssertionError("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+		}
+	}
+
+	private static void assertContents(final FileSystem fs, final byte expected[]) throws IOException {
+		final Directory a = (Directory) fs.getRoot().getChild("a");
+		assertNotNull(a);
+		final FileSystemEntry b = a.getChild("b");
+		assertNotNull(b);
+		assertEquals(expected.length, b.getDataSize());
+		final ByteBuffer actual = ByteBuffer.allocate(expected.length);
+		try (final SeekableByteChannel channel = b.newByteChannel()) {
+			while (actual.hasRemaining() && channel.read(actual) != -1) {
+				// read on
+			}
+		}
+		assertArrayEquals(expected, actual.array());
+	}
+
+	private static byte[] contents(final int length) {
+		final byte contents[] = new byte[length];
+		for (int i = 0; i < length; i++) {
+			contents[i] = (byte) (i * 31);
+		}
+		return contents;
+	}
+}
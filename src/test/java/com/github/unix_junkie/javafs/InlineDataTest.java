@@ -0,0 +1,171 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Paths.get;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class InlineDataTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testThreshold() throws IOException {
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, BlockSize.B512, INLINE_DATA)) {
+			assertEquals(128, fs.getInlineDataThreshold());
+		}
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, BlockSize.K4, INLINE_DATA)) {
+			assertEquals(256, fs.getInlineDataThreshold());
+		}
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1)) {
+			assertEquals(-1, fs.getInlineDataThreshold());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testRoundTrip() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{INLINE_DATA}, {INLINE_DATA, JOURNAL}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+
+			final byte small[] = "Hello, World!\n".getBytes(US_ASCII);
+			final byte large[] = new byte[1000];
+			new Random(42).nextBytes(large);
+			final Date mtime = new Date(1234567890000L);
+
+			final long freeBlockCount;
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				final int threshold = fs.getInlineDataThreshold();
+				assertTrue(small.length <= threshold);
+				assertTrue(large.length > threshold);
+
+				freeBlockCount = fs.getFreeBlockCount();
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("dir"));
+				final Directory dir = (Directory) root.getChild("dir");
+				assertNotNull(dir);
+				dir.addChild(new File("small", small.length, Channels.newChannel(new ByteArrayInputStream(small))));
+				dir.addChild(new File("empty", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+				dir.addChild(new File("large", large.length, Channels.newChannel(new ByteArrayInputStream(large))));
+				dir.addChild(new SymbolicLink(new PosixAttributes((short) 0777), (short) 0, (short) 0, mtime, "link", "small"));
+
+				/*
+				 * Only the directory and the large file occupy blocks.
+				 */
+				assertEquals(freeBlockCount - 1 - FileUtilities.getBlockCount(large.length, fs.getBlockSize().getLength()), fs.getFreeBlockCount());
+				assertEquals(6, fs.getFileCount());
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				final Directory dir = (Directory) fs.getRoot().getChild("dir");
+				assertNotNull(dir);
+
+				final FileSystemEntry smallEntry = dir.getChild("small");
+				assertNotNull(smallEntry);
+				assertTrue(smallEntry.isInline());
+				assertEquals(0, smallEntry.getBlockCount());
+				assertArrayEquals(small, smallEntry.getData().array());
+
+				final FileSystemEntry emptyEntry = dir.getChild("empty");
+				assertNotNull(emptyEntry);
+				assertTrue(emptyEntry.isInline());
+				assertEquals(0, emptyEntry.getData().remaining());
+
+				final FileSystemEntry largeEntry = dir.getChild("large");
+				assertNotNull(largeEntry);
+				assertFalse(largeEntry.isInline());
+				assertArrayEquals(large, largeEntry.getData().array());
+
+				final SymbolicLink link = (SymbolicLink) dir.getChild("link");
+				assertNotNull(link);
+				assertTrue(link.isInline());
+				assertEquals(get("small"), link.getTarget());
+				assertEquals(mtime, link.getModificationTime());
+
+				try (final SeekableByteChannel channel = smallEntry.newByteChannel()) {
+					channel.position(7L);
+					final ByteBuffer buffer = ByteBuffer.allocate(100);
+					assertEquals(small.length - 7, channel.read(buffer));
+					assertEquals(-1, channel.read(buffer));
+					assertEquals("World!\n", new String(buffer.array(), 0, buffer.position(), US_ASCII));
+				}
+				try (final EntryChannel channel = (EntryChannel) smallEntry.newByteChannel()) {
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+					assertEquals(5, channel.transferTo(7L, 5L, Channels.newChannel(out)));
+					assertEquals("World", new String(out.toByteArray(), US_ASCII));
+				}
+
+				/*
+				 * Unlinking an inline entry frees nothing, yet preserves
+				 * the remaining inline contents.
+				 */
+				final long oldFreeBlockCount = fs.getFreeBlockCount();
+				dir.unlink("small");
+				assertEquals(oldFreeBlockCount, fs.getFreeBlockCount());
+				final SymbolicLink remainingLink = (SymbolicLink) dir.getChild("link");
+				assertNotNull(remainingLink);
+				assertEquals(get("small"), remainingLink.getTarget());
+
+				dir.unlink("empty");
+				dir.unlink("large");
+				dir.unlink("link");
+				fs.getRoot().unlink("dir");
+				assertEquals(freeBlockCount, fs.getFreeBlockCount());
+				assertEquals(1, fs.getFileCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testUnsupportedFeature() throws IOException {
+		/*
+		 * W/o the feature, even the smallest files occupy a block.
+		 */
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1)) {
+			final long freeBlockCount = fs.getFreeBlockCount();
+			fs.getRoot().addChild(new File("empty", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+			final FileSystemEntry entry = fs.getRoot().getChild("empty");
+			assertNotNull(entry);
+			assertFalse(entry.isInline());
+			assertEquals(freeBlockCount - 1, fs.getFreeBlockCount());
+		}
+	}
+}
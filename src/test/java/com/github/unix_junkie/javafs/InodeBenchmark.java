@@ -0,0 +1,93 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the sequential scan of an inode table for each block address
+ * size. Run with:</p>
+ *
+ * <pre>
+ * mvn -P jmh test -Djmh.args=InodeBenchmark
+ * </pre>
+ *
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+public class InodeBenchmark {
+	private static final int INODE_COUNT = 64 * 1024;
+
+	@Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+	public byte blockAddressSize;
+
+	/**
+	 * The share of free (zero) inodes, in percent.
+	 */
+	@Param({"10", "90"})
+	public int freeShare;
+
+	@Nonnull
+	@SuppressWarnings("null")
+	private ByteBuffer inodeTable = ByteBuffer.allocate(0);
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		final long eofMarker = FileSystem.getEofMarker(this.blockAddressSize);
+		final Random random = new Random(42);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer inodeTable0 = ByteBuffer.allocateDirect(INODE_COUNT * this.blockAddressSize);
+		for (int i = 0; i < INODE_COUNT; i++) {
+			final long inode = random.nextInt(100) < this.freeShare
+					? 0L
+					: random.nextLong() & eofMarker | 1L;
+			FileSystem.writeInode(inode, inodeTable0, this.blockAddressSize);
+		}
+		inodeTable0.flip();
+		this.inodeTable = inodeTable0;
+	}
+
+	/**
+	 * @return the number of free inodes.
+	 */
+	@Benchmark
+	public int countFree() {
+		@Nonnull
+		@SuppressWarnings("null")
+		final ByteBuffer source = this.inodeTable.duplicate();
+		int freeCount = 0;
+		while (source.hasRemaining()) {
+			if (FileSystem.readInode(source, this.blockAddressSize) == 0) {
+				freeCount++;
+			}
+		}
+		return freeCount;
+	}
+}
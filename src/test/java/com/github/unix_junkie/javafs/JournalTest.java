@@ -0,0 +1,208 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class JournalTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testCreateMount() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		final long length;
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL)) {
+			assertTrue(fs.getFeatures().contains(JOURNAL));
+			assertTrue(fs.getJournalLength() > 0);
+			length = fs.getLength();
+
+			final Directory root = fs.getRoot();
+			for (int i = 0; i < 10; i++) {
+				root.addChild(new Directory("dir" + i));
+			}
+			root.unlink("dir3");
+		}
+		assertEquals(length, size(p));
+
+		try (final FileSystem fs = FileSystem.mount(p)) {
+			assertTrue(fs.getFeatures().contains(JOURNAL));
+
+			final Set<FileSystemEntry> children = fs.getRoot().list();
+			assertEquals(9, children.size());
+			assertFalse(children.stream().anyMatch(child -> child.getName().equals("dir3")));
+			assertEquals(10, fs.getFileCount());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testReplay() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path crashed = createTempFile(null, ".javafs");
+		final long freeBlockCount;
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL)) {
+			final Directory root = fs.getRoot();
+			for (int i = 0; i < 20; i++) {
+				root.addChild(new Directory("dir" + i));
+			}
+			root.unlink("dir0");
+			freeBlockCount = fs.getFreeBlockCount();
+
+			/*
+			 * Committed transactions are durable, but not yet
+			 * checkpointed: the copy is what a crash would leave
+			 * behind.
+			 */
+			copy(p, crashed, REPLACE_EXISTING);
+		}
+
+		try (final FileSystem fs = FileSystem.mount(crashed)) {
+			final Journal journal = fs.getJournal();
+			assertNotNull(journal);
+			assertTrue(journal.getReplayedTransactionCount() > 0);
+
+			final Directory root = fs.getRoot();
+			assertEquals(19, root.list().size());
+			assertEquals(freeBlockCount, fs.getFreeBlockCount());
+		}
+
+		/*
+		 * Nothing is left to replay once the journal is checkpointed.
+		 */
+		try (final FileSystem fs = FileSystem.mount(crashed)) {
+			final Journal journal = fs.getJournal();
+			assertNotNull(journal);
+			assertEquals(0, journal.getReplayedTransactionCount());
+			assertEquals(19, fs.getRoot().list().size());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testRollback() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL)) {
+			final Directory root = fs.getRoot();
+			root.addChild(new Directory("dir"));
+			final long freeBlockCount = fs.getFreeBlockCount();
+
+			try {
+				fs.update(() -> {
+					fs.allocateBlocks(10);
+					throw new IOException("Simulated failure");
+				});
+				fail("Expecting an IOException");
+			} catch (final AssertionError ae) {
+				throw ae;
+			} catch (final Throwable t) {
+				assertThat(t, IsInstanceOf.instanceOf(IOException.class));
+			}
+
+			assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			assertEquals(1, fs.getRoot().list().size());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testGroupCommit() throws Exception {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, JOURNAL)) {
+			final Journal journal = fs.getJournal();
+			assertNotNull(journal);
+			final long commitCount = journal.getCommitCount();
+			final long forceCount = journal.getForceCount();
+
+			/*
+			 * Each thread commits a transaction (transactions are
+			 * serialized by the caller), then all of them wait for
+			 * their transactions to become durable at once. The
+			 * first one to get there writes and forces the whole
+			 * batch.
+			 */
+			final int threadCount = 8;
+			final long position = fs.getBlockOffset(fs.getTotalBlockCount() - 1);
+			final Object transactionLock = new Object();
+			final CountDownLatch committed = new CountDownLatch(threadCount);
+			final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+			try {
+				final List<Future<?>> futures = new ArrayList<>();
+				for (int i = 0; i < threadCount; i++) {
+					final int thread = i;
+					futures.add(executor.submit(() -> {
+						final long sequence;
+						synchronized (transactionLock) {
+							journal.begin();
+							journal.write(position + thread, ByteBuffer.wrap(new byte[] {(byte) thread}));
+							sequence = journal.commit();
+						}
+						committed.countDown();
+						committed.await();
+						journal.awaitDurable(sequence);
+						return null;
+					}));
+				}
+				for (final Future<?> future : futures) {
+					future.get();
+				}
+			} finally {
+				executor.shutdown();
+				executor.awaitTermination(10, SECONDS);
+			}
+
+			assertEquals(threadCount, journal.getCommitCount() - commitCount);
+			assertEquals(1, journal.getForceCount() - forceCount);
+		}
+	}
+}
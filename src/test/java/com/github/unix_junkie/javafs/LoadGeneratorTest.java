@@ -0,0 +1,119 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.github.unix_junkie.javafs.LoadGenerator.SizeDistribution;
+import com.github.unix_junkie.javafs.LoadGenerator.Workload;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class LoadGeneratorTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testSizeDistribution() {
+		final Random random = new Random(42);
+
+		final SizeDistribution fixed = new SizeDistribution("4k");
+		assertEquals(4096, fixed.next(random));
+
+		final SizeDistribution mix = new SizeDistribution("1k-2k:3,1m:1");
+		int large = 0;
+		for (int i = 0; i < 10000; i++) {
+			final long size = mix.next(random);
+			if (size == 1024 * 1024) {
+				large++;
+			} else {
+				assertTrue(String.valueOf(size), 1024 <= size && size <= 2048);
+			}
+		}
+		assertTrue(String.valueOf(large), 2000 < large && large < 3000);
+
+		for (final String spec : new String[] {"2k-1k", "1k:0", "1x"}) {
+			try {
+				new SizeDistribution(spec);
+				fail("Expecting an IllegalArgumentException for " + spec);
+			} catch (final AssertionError ae) {
+				throw ae;
+			} catch (final Throwable t) {
+				assertThat(t, IsInstanceOf.instanceOf(IllegalArgumentException.class));
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFileFromChannel() throws IOException {
+		final byte contents[] = new byte[10000];
+		new Random(42).nextBytes(contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			fs.getRoot().addChild(new File("file", contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+			final FileSystemEntry child = fs.getRoot().list().iterator().next();
+			assertEquals("file", child.getName());
+			assertArrayEquals(contents, child.getData().array());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testWorkloads() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 16L * 1024 * 1024)) {
+			for (final Workload workload : Workload.values()) {
+				final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				try (final PrintStream out = new PrintStream(buffer, true, UTF_8)) {
+					new LoadGenerator(fs, workload, 2, MILLISECONDS.toNanos(200), new SizeDistribution("1k-64k:9,256k:1"), 16 * 1024, 8).run(out);
+				}
+				final String report = new String(buffer.toByteArray(), UTF_8);
+				assertThat(report, containsString("p99.9:"));
+				assertThat(report, containsString("Total:"));
+
+				/*
+				 * Everything created is removed.
+				 */
+				assertEquals(0, fs.getRoot().list().size());
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.file.Files.createTempFile;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Date;
+import java.util.logging.LogManager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class MetadataIndexTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testQuery() throws IOException {
+		final Date old = new Date(1000000000000L);
+		final Date recent = new Date(1600000000000L);
+
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1)) {
+			final Directory root = fs.getRoot();
+			root.addChild(new Directory("dir"));
+			final Directory dir = (Directory) root.getChild("dir");
+			assertNotNull(dir);
+			dir.addChild(newFile("old-small", (short) 1000, (short) 0644, old, 10));
+			dir.addChild(newFile("old-large", (short) 1000, (short) 0644, old, 10000));
+			dir.addChild(newFile("recent-large", (short) 1000, (short) 04755, recent, 20000));
+
+			/*
+			 * The index is built on first query...
+			 */
+			assertEquals(asList("/dir/old-large", "/dir/recent-large"), fs.query(MetadataQuery.all().ofType(FileType.FILE).largerThan(100L)));
+			assertEquals(asList("/dir/recent-large"), fs.query(MetadataQuery.all().largerThan(100L).modifiedAfter(new Date(1500000000000L)).ownedBy((short) 1000)));
+			assertEquals(asList("/dir/recent-large"), fs.query(MetadataQuery.all().withPermissions((short) 04000)));
+			assertEquals(emptyList(), fs.query(MetadataQuery.all().ownedBy((short) 0).ofType(FileType.FILE)));
+			assertEquals(asList("/", "/dir"), fs.query(MetadataQuery.all().ofType(FileType.DIRECTORY)));
+			assertEquals(emptyList(), fs.query(MetadataQuery.all().largerThan(Long.MAX_VALUE)));
+
+			/*
+			 * ... and then kept up to date.
+			 */
+			dir.unlink("recent-large");
+			dir.addChild(newFile("huge", (short) 0, (short) 0600, recent, 100000));
+			assertEquals(asList("/dir/huge", "/dir/old-large"), fs.query(MetadataQuery.all().ofType(FileType.FILE).largerThan(100L)));
+			assertEquals(asList("/dir/huge"), fs.query(MetadataQuery.all().ownedBy((short) 0).ofType(FileType.FILE)));
+			assertEquals(asList("/dir/old-large"), fs.query(MetadataQuery.all().modifiedBefore(recent).smallerThan(10001L).largerThan(10L)));
+
+			/*
+			 * Directory sizes, too.
+			 */
+			final Directory dir1 = (Directory) root.getChild("dir");
+			assertNotNull(dir1);
+			assertEquals(asList("/dir"), fs.query(MetadataQuery.all().ofType(FileType.DIRECTORY).largerThan(fs.getRoot().getDataSize()).smallerThan(dir1.getDataSize() + 1)));
+			for (final FileSystemEntry child : dir1.list()) {
+				dir1.unlink(child.getName());
+			}
+			assertEquals(asList("/dir"), fs.query(MetadataQuery.all().ofType(FileType.DIRECTORY).smallerThan(1L)));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testInlineData() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{INLINE_DATA}, {INLINE_DATA, SORTED_DIRECTORIES}}) {
+			try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, options)) {
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("dir"));
+				final Directory dir = (Directory) root.getChild("dir");
+				assertNotNull(dir);
+				dir.addChild(newFile("empty", (short) 0, (short) 0644, new Date(), 0));
+				dir.addChild(newFile("small", (short) 0, (short) 0644, new Date(), 10));
+				root.addChild(newFile("large", (short) 0, (short) 0644, new Date(), 10000));
+				final FileSystemEntry small = dir.getChild("small");
+				assertNotNull(small);
+				assertTrue(small.isInline());
+
+				/*
+				 * Inline entries are indexed, both when the index is
+				 * built...
+				 */
+				assertEquals(asList("/dir/empty", "/dir/small", "/large"), fs.query(MetadataQuery.all().ofType(FileType.FILE)));
+				assertEquals(asList("/dir/empty"), fs.query(MetadataQuery.all().ofType(FileType.FILE).smallerThan(1L)));
+
+				/*
+				 * ... and as they're linked and unlinked.
+				 */
+				dir.addChild(newFile("tiny", (short) 0, (short) 0644, new Date(), 1));
+				dir.unlink("small");
+				assertEquals(asList("/dir/empty", "/dir/tiny"), fs.query(MetadataQuery.all().ofType(FileType.FILE).smallerThan(100L)));
+			}
+		}
+	}
+
+	private static File newFile(final String name, final short uid, final short mode, final Date mtime, final int size) throws IOException {
+		return new File(new PosixAttributes(mode), uid, (short) 0, mtime, name, size, Channels.newChannel(new ByteArrayInputStream(new byte[size])));
+	}
+}
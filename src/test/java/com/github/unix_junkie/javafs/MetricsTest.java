@@ -0,0 +1,127 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.write;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.github.unix_junkie.javafs.FileSystemMetrics.Operation;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class MetricsTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testCounters() throws IOException {
+		final byte contents[] = new byte[10000];
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path file = createTempFile(null, null);
+		write(file, contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			final FileSystemMetrics metrics = fs.getMetrics();
+			assertEquals(1, metrics.getLatency(Operation.MOUNT).getCount());
+			metrics.reset();
+
+			fs.getRoot().addChild(new File(file));
+			final FileSystemEntry child = fs.getRoot().list().iterator().next();
+			assertEquals(contents.length, child.getData().remaining());
+			fs.getRoot().unlink(child.getName());
+
+			assertEquals(1, metrics.getLatency(Operation.ADD_CHILD).getCount());
+			assertEquals(1, metrics.getLatency(Operation.UNLINK).getCount());
+			assertThat(Long.valueOf(metrics.getLatency(Operation.LIST).getCount()), greaterThan(Long.valueOf(1L)));
+			assertThat(Long.valueOf(metrics.getLatency(Operation.ALLOCATE).getCount()), greaterThan(Long.valueOf(0L)));
+			assertThat(Long.valueOf(metrics.getLatency(Operation.FREE).getCount()), greaterThan(Long.valueOf(0L)));
+			assertThat(Long.valueOf(metrics.getLatency(Operation.MAP).getCount()), greaterThan(Long.valueOf(0L)));
+
+			assertEquals(contents.length, metrics.getBytesWritten());
+			assertThat(Long.valueOf(metrics.getBytesRead()), greaterThan(Long.valueOf(contents.length - 1L)));
+			assertThat(Long.valueOf(metrics.getMapCount()), greaterThan(Long.valueOf(0L)));
+			assertThat(Long.valueOf(metrics.getInodeReadCount()), greaterThan(Long.valueOf(0L)));
+			assertThat(Long.valueOf(metrics.getInodeWriteCount()), greaterThan(Long.valueOf(0L)));
+
+			final long tableScanCount = metrics.getTableScanCount();
+			fs.getFreeBlockCount();
+			assertEquals(tableScanCount + 1, metrics.getTableScanCount());
+			assertThat(Long.valueOf(metrics.getScannedInodeCount()), greaterThan(Long.valueOf(fs.getTotalBlockCount() - 1)));
+
+			metrics.reset();
+			assertEquals(0, metrics.getLatency(Operation.ADD_CHILD).getCount());
+			assertEquals(0, metrics.getBytesWritten());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testMXBean() throws IOException, JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		final ObjectName name;
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			fs.getRoot().addChild(new Directory("dir"));
+
+			name = fs.getMetrics().getObjectName();
+			assertNotNull(name);
+			assertTrue(server.isRegistered(name));
+			assertEquals(p.toAbsolutePath().toString(), server.getAttribute(name, "Path"));
+
+			final TabularData operations = (TabularData) server.getAttribute(name, "Operations");
+			final CompositeData addChild = (CompositeData) operations.get(new Object[] {Operation.ADD_CHILD.name()}).get("value");
+			assertEquals(Long.valueOf(1L), addChild.get("count"));
+
+			/*
+			 * The same container mounted twice is only registered
+			 * once.
+			 */
+			try (final FileSystem fs2 = FileSystem.mount(p)) {
+				assertNull(fs2.getMetrics().getObjectName());
+			}
+			assertTrue(server.isRegistered(name));
+
+			server.invoke(name, "reset", new Object[0], new String[0]);
+			assertEquals(0, fs.getMetrics().getLatency(Operation.ADD_CHILD).getCount());
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
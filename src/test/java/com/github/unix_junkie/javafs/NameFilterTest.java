@@ -0,0 +1,176 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.file.Files.createTempFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class NameFilterTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFalsePositiveRate() throws IOException {
+		final int capacity = 1000;
+		final NameFilter filter = new NameFilter(capacity);
+		for (int i = 0; i < capacity; i++) {
+			filter.add(FileSystemEntry.encodeName("file" + i));
+		}
+		assertFalse(filter.isSaturated());
+
+		/*
+		 * No false negatives.
+		 */
+		for (int i = 0; i < capacity; i++) {
+			assertTrue(filter.mightContain(FileSystemEntry.encodeName("file" + i)));
+		}
+
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain(FileSystemEntry.encodeName("other" + i))) {
+				falsePositives++;
+			}
+		}
+		assertTrue(String.valueOf(falsePositives), falsePositives < 300);
+
+		filter.add(FileSystemEntry.encodeName("one more"));
+		assertTrue(filter.isSaturated());
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testLookups() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{}, {SORTED_DIRECTORIES}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("dir"));
+				final Directory dir = (Directory) root.getChild("dir");
+				assertNotNull(dir);
+
+				/*
+				 * More children than the initial filter is sized
+				 * for, so that it's rebuilt on the way.
+				 */
+				for (int i = 0; i < 150; i++) {
+					dir.addChild(new File("file" + i, 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+				}
+				assertNotNull(dir.getChild("file0"));
+				assertNotNull(dir.getChild("file149"));
+				assertNull(dir.getChild("file150"));
+
+				try {
+					dir.addChild(new File("file42", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+					throw new AssertionError("Expecting an IOException");
+				} catch (final IOException ioe) {
+					// expected
+				}
+
+				dir.unlink("file42");
+				assertNull(dir.getChild("file42"));
+				dir.addChild(new File("file42", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+				assertNotNull(dir.getChild("file42"));
+			}
+
+			/*
+			 * Filters are rebuilt after a remount.
+			 */
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				final Directory dir = (Directory) fs.getRoot().getChild("dir");
+				assertNotNull(dir);
+				assertEquals(150, dir.list().size());
+				assertNotNull(dir.getChild("file7"));
+				assertNull(dir.getChild("file-7"));
+				try {
+					dir.addChild(new File("file7", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+					throw new AssertionError("Expecting an IOException");
+				} catch (final IOException ioe) {
+					// expected
+				}
+
+				/*
+				 * A directory re-created in the blocks of a removed one
+				 * doesn't inherit its filter.
+				 */
+				for (int i = 0; i < 150; i++) {
+					dir.unlink("file" + i);
+				}
+				fs.getRoot().unlink("dir");
+				fs.getRoot().addChild(new Directory("dir"));
+				final Directory newDir = (Directory) fs.getRoot().getChild("dir");
+				assertNotNull(newDir);
+				assertNull(newDir.getChild("file7"));
+				newDir.addChild(new File("file7", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+				assertNotNull(newDir.getChild("file7"));
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testStaleHandle() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {{}, {SORTED_DIRECTORIES}}) {
+			try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, options)) {
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("dir"));
+				final Directory stale = (Directory) root.getChild("dir");
+				final Directory dir = (Directory) root.getChild("dir");
+				assertNotNull(stale);
+				assertNotNull(dir);
+
+				/*
+				 * Saturate the filter (sized for 64 names) through
+				 * one handle, and have it rebuilt through the other,
+				 * which has seen none of the children.
+				 */
+				for (int i = 0; i < 65; i++) {
+					dir.addChild(new File("file" + i, 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+				}
+				assertEquals(0L, stale.getDataSize());
+				assertNull(stale.getChild("file65"));
+
+				final Directory fresh = (Directory) fs.getRoot().getChild("dir");
+				assertNotNull(fresh);
+				assertNotNull(fresh.getChild("file0"));
+				assertNotNull(fresh.getChild("file64"));
+				try {
+					fresh.addChild(new File("file7", 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+					throw new AssertionError("Expecting an IOException");
+				} catch (final IOException ioe) {
+					// expected
+				}
+				assertEquals(65, fresh.list().size());
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static com.github.unix_junkie.javafs.Feature.PATH_INDEX;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class PathIndexTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFind() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {
+				{PATH_INDEX},
+				{PATH_INDEX, INLINE_DATA, SORTED_DIRECTORIES},
+				{PATH_INDEX, JOURNAL}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+
+			final long freeBlockCount;
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				freeBlockCount = fs.getFreeBlockCount();
+				assertEquals(1L, fs.getFileCount());
+
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("usr"));
+				final Directory usr = (Directory) root.getChild("usr");
+				assertNotNull(usr);
+				usr.addChild(new Directory("lib"));
+				final Directory lib = (Directory) usr.getChild("lib");
+				assertNotNull(lib);
+				lib.addChild(newFile("libc.so"));
+				lib.addChild(newFile("libm.so"));
+				lib.addChild(newFile("README"));
+				root.addChild(newFile("README"));
+
+				assertEquals(asList("/README", "/usr/lib/README"), fs.find("README"));
+				assertEquals(asList("/usr/lib/libc.so", "/usr/lib/libm.so"), fs.find("lib*.so"));
+				assertEquals(asList("/usr/lib"), fs.find("l?b"));
+				assertEquals(emptyList(), fs.find("*.txt"));
+				assertEquals(7L, fs.getFileCount());
+			}
+
+			/*
+			 * The index is persistent, and kept up to date by unlinks.
+			 */
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				assertEquals(asList("/README", "/usr/lib/README"), fs.find("README"));
+
+				final Directory usr = (Directory) fs.getRoot().getChild("usr");
+				assertNotNull(usr);
+				final Directory lib = (Directory) usr.getChild("lib");
+				assertNotNull(lib);
+				lib.unlink("README");
+				assertEquals(asList("/README"), fs.find("README"));
+				assertEquals(asList("/usr/lib/libc.so", "/usr/lib/libm.so"), fs.find("lib*.so"));
+
+				/*
+				 * Enough churn to have the log rewritten.
+				 */
+				for (int i = 0; i < 2000; i++) {
+					lib.addChild(new Directory("tmp" + i % 2));
+					lib.unlink("tmp" + i % 2);
+				}
+				assertEquals(asList("/usr/lib", "/usr/lib/libc.so", "/usr/lib/libm.so"), fs.find("lib*"));
+				assertEquals(emptyList(), fs.find("tmp*"));
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				assertEquals(asList("/usr/lib", "/usr/lib/libc.so", "/usr/lib/libm.so"), fs.find("lib*"));
+				assertEquals(asList("/usr"), fs.find("usr"));
+
+				final Directory usr = (Directory) fs.getRoot().getChild("usr");
+				assertNotNull(usr);
+				final Directory lib = (Directory) usr.getChild("lib");
+				assertNotNull(lib);
+				lib.unlink("libc.so");
+				lib.unlink("libm.so");
+				usr.unlink("lib");
+				fs.getRoot().unlink("usr");
+				fs.getRoot().unlink("README");
+				assertEquals(emptyList(), fs.find("*"));
+				assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFailedUpdate() throws IOException {
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, PATH_INDEX, JOURNAL)) {
+			fs.getRoot().addChild(newFile("a"));
+			try {
+				fs.getRoot().addChild(newFile("a"));
+				throw new AssertionError("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+			assertEquals(asList("/a"), fs.find("a"));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testLocate() throws IOException {
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, PATH_INDEX)) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final ByteArrayOutputStream err = new ByteArrayOutputStream();
+			final Shell shell = new Shell(fs, new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+			assertEquals(0, shell.run(new BufferedReader(new StringReader("mkdir -p /a/b\nlocate b '*'\n")), false));
+			assertEquals(String.join(System.lineSeparator(), "/a/b", "/a", "/a/b", ""), new String(out.toByteArray(), UTF_8));
+		}
+
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1)) {
+			try {
+				fs.find("*");
+				throw new AssertionError("Expecting an UnsupportedOperationException");
+			} catch (final UnsupportedOperationException uoe) {
+				// expected
+			}
+		}
+	}
+
+	private static File newFile(final String name) throws IOException {
+		final byte contents[] = name.getBytes(UTF_8);
+		return new File(name, contents.length, Channels.newChannel(new ByteArrayInputStream(contents)));
+	}
+}
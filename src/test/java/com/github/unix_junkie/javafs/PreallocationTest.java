@@ -0,0 +1,81 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.size;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class PreallocationTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	/**
+	 * <p>Creating a file system neither writes nor scans the inode table,
+	 * so a large container is created as fast as a small one.</p>
+	 */
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testSparse() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		delete(p);
+		try (final FileSystem fs = FileSystem.create(p, 16L * 1024 * 1024 * 1024, BlockSize.B512, Preallocation.SPARSE)) {
+			assertEquals(fs.getLength(), size(p));
+			assertEquals(0, fs.getMetrics().getTableScanCount());
+			/*
+			 * Only the root directory entry has been read.
+			 */
+			assertEquals(1, fs.getMetrics().getScannedInodeCount());
+
+			fs.getRoot().addChild(new Directory("a"));
+			assertEquals(1, fs.getRoot().list().size());
+		} finally {
+			delete(p);
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFull() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		delete(p);
+		final long freeBlockCount;
+		try (final FileSystem fs = FileSystem.create(p, 4L * 1024 * 1024, Preallocation.FULL, Feature.JOURNAL)) {
+			assertEquals(fs.getLength(), size(p));
+			freeBlockCount = fs.getFreeBlockCount();
+			assertEquals(fs.getTotalBlockCount() - 1, freeBlockCount);
+			fs.getRoot().addChild(new Directory("a"));
+		}
+
+		try (final FileSystem fs = FileSystem.mount(p)) {
+			assertEquals("a", fs.getRoot().list().iterator().next().getName());
+			assertEquals(freeBlockCount - 1, fs.getFreeBlockCount());
+		} finally {
+			delete(p);
+		}
+	}
+}
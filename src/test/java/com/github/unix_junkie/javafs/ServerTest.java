@@ -0,0 +1,201 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class ServerTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testParseRange() {
+		assertNull(Server.parseRange(null, 100));
+		assertNull(Server.parseRange("bytes=0-1,5-6", 100));
+		assertNull(Server.parseRange("bytes=5-1", 100));
+		assertNull(Server.parseRange("items=0-1", 100));
+		assertArrayEquals(new long[] {0, 9}, Server.parseRange("bytes=0-9", 100));
+		assertArrayEquals(new long[] {90, 99}, Server.parseRange("bytes=90-", 100));
+		assertArrayEquals(new long[] {90, 99}, Server.parseRange("bytes=90-1000", 100));
+		assertArrayEquals(new long[] {80, 99}, Server.parseRange("bytes=-20", 100));
+		assertArrayEquals(new long[] {0, 99}, Server.parseRange("bytes=-200", 100));
+		assertArrayEquals(new long[0], Server.parseRange("bytes=100-", 100));
+		assertArrayEquals(new long[0], Server.parseRange("bytes=-0", 100));
+
+		assertEquals("/", Server.normalize("/../.."));
+		assertEquals("/a/c", Server.normalize("//a/./b/../c/"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testRequests() throws IOException {
+		final byte contents[] = new byte[100000];
+		new Random(42).nextBytes(contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1);
+				final Server server = newServer(fs)) {
+			final Directory dir = new Directory("dir");
+			fs.getRoot().addChild(dir);
+			dir.addChild(new File("file.bin", contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+			server.start();
+
+			final URL url = url(server, "/dir/file.bin");
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			assertEquals(HTTP_OK, connection.getResponseCode());
+			assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+			assertArrayEquals(contents, readAll(connection));
+			final String etag = connection.getHeaderField("ETag");
+			final String lastModified = connection.getHeaderField("Last-Modified");
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("Range", "bytes=1000-1999");
+			assertEquals(HTTP_PARTIAL, connection.getResponseCode());
+			assertEquals("bytes 1000-1999/100000", connection.getHeaderField("Content-Range"));
+			assertArrayEquals(Arrays.copyOfRange(contents, 1000, 2000), readAll(connection));
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("Range", "bytes=100000-");
+			assertEquals(416, connection.getResponseCode());
+			assertEquals("bytes */100000", connection.getHeaderField("Content-Range"));
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("If-None-Match", etag);
+			assertEquals(HTTP_NOT_MODIFIED, connection.getResponseCode());
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+			assertEquals(HTTP_NOT_MODIFIED, connection.getResponseCode());
+
+			/*
+			 * A stale If-Range results in the whole file.
+			 */
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestProperty("Range", "bytes=0-9");
+			connection.setRequestProperty("If-Range", "\"stale\"");
+			assertEquals(HTTP_OK, connection.getResponseCode());
+			assertArrayEquals(contents, readAll(connection));
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("HEAD");
+			assertEquals(HTTP_OK, connection.getResponseCode());
+			assertEquals(contents.length, connection.getContentLengthLong());
+
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("DELETE");
+			assertEquals(HTTP_BAD_METHOD, connection.getResponseCode());
+
+			connection = (HttpURLConnection) url(server, "/dir/missing").openConnection();
+			assertEquals(HTTP_NOT_FOUND, connection.getResponseCode());
+
+			connection = (HttpURLConnection) url(server, "/").openConnection();
+			assertEquals(HTTP_OK, connection.getResponseCode());
+			assertEquals("dir/\n", new String(readAll(connection), UTF_8));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testConcurrentRanges() throws Exception {
+		final byte contents[] = new byte[512 * 1024];
+		new Random(42).nextBytes(contents);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		final ExecutorService clients = Executors.newFixedThreadPool(16);
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, Feature.CHECKSUMS);
+				final Server server = newServer(fs)) {
+			fs.getRoot().addChild(new File("file", contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+			server.start();
+
+			final URL url = url(server, "/file");
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				final long seed = i;
+				futures.add(clients.submit(() -> {
+					final Random random = new Random(seed);
+					for (int j = 0; j < 50; j++) {
+						final int from = random.nextInt(contents.length);
+						final int to = Math.min(contents.length - 1, from + random.nextInt(8192));
+						final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+						connection.setRequestProperty("Range", "bytes=" + from + '-' + to);
+						assertEquals(HTTP_PARTIAL, connection.getResponseCode());
+						assertArrayEquals(Arrays.copyOfRange(contents, from, to + 1), readAll(connection));
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get(60, SECONDS);
+			}
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	private static Server newServer(final FileSystem fs) throws IOException {
+		return new Server(fs, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+	}
+
+	private static URL url(final Server server, final String path) throws IOException {
+		return new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), path);
+	}
+
+	private static byte[] readAll(final HttpURLConnection connection) throws IOException {
+		assertNotNull(connection.getContentType());
+		try (final InputStream in = connection.getInputStream()) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final byte bytes[] = in.readAllBytes();
+			return bytes;
+		}
+	}
+}
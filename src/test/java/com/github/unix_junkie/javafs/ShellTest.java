@@ -0,0 +1,125 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.write;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class ShellTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testSplit() {
+		assertEquals(asList(), Shell.split("  # comment"));
+		assertEquals(asList("ls", "-l", "/"), Shell.split("ls  -l\t/ # comment"));
+		assertEquals(asList("cat", "a b", "c'd", "e f", "#g"), Shell.split("cat 'a b' \"c'd\" e\\ f \\#g"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testGlob() {
+		assertTrue(FileUtilities.globToPattern("*.java").matcher("Shell.java").matches());
+		assertFalse(FileUtilities.globToPattern("*.java").matcher("Shell.javac").matches());
+		assertTrue(FileUtilities.globToPattern("?[!a-c]x").matcher("zdx").matches());
+		assertFalse(FileUtilities.globToPattern("?[!a-c]x").matcher("zbx").matches());
+		assertTrue(FileUtilities.globToPattern("a.b(c)").matcher("a.b(c)").matches());
+		assertTrue(FileUtilities.globToPattern("*.{c,h}").matcher("main.h").matches());
+		assertTrue(FileUtilities.globToPattern("\\*").matcher("*").matches());
+		assertFalse(FileUtilities.globToPattern("/a/*").matcher("/a/b/c").matches());
+		assertTrue(FileUtilities.globToPattern("/a/**").matcher("/a/b/c").matches());
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testScript() throws IOException {
+		final byte contents[] = new byte[100000];
+		new Random(42).nextBytes(contents);
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path hostFile = createTempFile(null, null);
+		write(hostFile, contents);
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path exported = createTempFile(null, null);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			final String script = String.join("\n",
+					"mkdir -p /a/b/c",
+					"cd /a/b",
+					"cp " + Shell.HOST_PREFIX + hostFile + " c/data",
+					"cp c/data ../copy",
+					"cp /a/copy " + Shell.HOST_PREFIX + exported,
+					"pwd",
+					"ls /a",
+					"find / -type f",
+					"find .. -name 'd*'",
+					"stat /a/copy",
+					"rm /a/b",
+					"no-such-command",
+					"");
+			final String output[] = new String[2];
+			assertEquals(1, run(fs, script, output));
+			assertArrayEquals(contents, readAllBytes(exported));
+
+			assertThat(output[0], containsString("/a/b\nb\ncopy\n/a/b/c/data\n/a/copy\n../b/c/data\n"));
+			assertThat(output[0], containsString("Size: 100000"));
+			assertThat(output[1], containsString("11: rm: cannot remove `/a/b': Is a directory"));
+			assertThat(output[1], containsString("12: no-such-command: command not found"));
+
+			assertEquals(0, run(fs, "cat /a/copy\nrm -r /a\nls /\n", output));
+			assertEquals(new String(contents, UTF_8), output[0]);
+			assertEquals(0, fs.getRoot().getDataSize());
+		}
+	}
+
+	private static int run(final FileSystem fs, final String script, final String output[]) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final int status;
+		try (final PrintStream out0 = new PrintStream(out, true, UTF_8);
+				final PrintStream err0 = new PrintStream(err, true, UTF_8)) {
+			status = new Shell(fs, out0, err0).run(new BufferedReader(new StringReader(script)), false);
+		}
+		output[0] = new String(out.toByteArray(), UTF_8);
+		output[1] = new String(err.toByteArray(), UTF_8);
+		return status;
+	}
+}
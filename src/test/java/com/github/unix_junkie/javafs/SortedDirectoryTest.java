@@ -0,0 +1,177 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.COMPACT_METADATA;
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class SortedDirectoryTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testCompare() {
+		assertTrue(SortedLayout.compare(ByteBuffer.wrap("a".getBytes(UTF_8)), ByteBuffer.wrap("b".getBytes(UTF_8))) < 0);
+		assertTrue(SortedLayout.compare(ByteBuffer.wrap("ab".getBytes(UTF_8)), ByteBuffer.wrap("a".getBytes(UTF_8))) > 0);
+		assertEquals(0, SortedLayout.compare(ByteBuffer.wrap("abc".getBytes(UTF_8)), ByteBuffer.wrap("abc".getBytes(UTF_8))));
+
+		/*
+		 * Bytes are unsigned: non-ASCII characters sort after ASCII ones.
+		 */
+		assertTrue(SortedLayout.compare(ByteBuffer.wrap("\u044f".getBytes(UTF_8)), ByteBuffer.wrap("z".getBytes(UTF_8))) > 0);
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testRoundTrip() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {
+				{SORTED_DIRECTORIES},
+				{SORTED_DIRECTORIES, COMPACT_METADATA, INLINE_DATA},
+				{SORTED_DIRECTORIES, JOURNAL}}) {
+			@Nonnull
+			@SuppressWarnings("null")
+			final Path p = createTempFile(null, ".javafs");
+
+			final byte contents[] = "Hello, World!\n".getBytes(US_ASCII);
+			final List<String> names = new ArrayList<>();
+			for (int i = 0; i < 120; i++) {
+				names.add(format(i));
+			}
+			Collections.shuffle(names, new Random(42));
+
+			final long freeBlockCount;
+			try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1, options)) {
+				freeBlockCount = fs.getFreeBlockCount();
+
+				final Directory root = fs.getRoot();
+				root.addChild(new Directory("dir"));
+				final Directory dir = (Directory) root.getChild("dir");
+				assertNotNull(dir);
+				for (final String name : names) {
+					dir.addChild(new File(name, contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+				}
+				dir.addChild(new Directory("sub"));
+
+				try {
+					dir.addChild(new File(names.get(0), 0L, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+					throw new AssertionError("Expecting an IOException");
+				} catch (final IOException ioe) {
+					// expected
+				}
+			}
+
+			try (final FileSystem fs = FileSystem.mount(p)) {
+				final Directory dir = (Directory) fs.getRoot().getChild("dir");
+				assertNotNull(dir);
+
+				/*
+				 * The directory has been split, and its size accounts
+				 * for all of its blocks.
+				 */
+				assertTrue(dir.getBlockCount() > 1);
+				assertEquals(dir.getBlockCount() * fs.getBlockSize().getLength(), dir.getDataSize());
+
+				final List<String> listed = new ArrayList<>();
+				for (final FileSystemEntry child : dir.list()) {
+					listed.add(child.getName());
+				}
+				final List<String> expected = new ArrayList<>(names);
+				expected.add("sub");
+				Collections.sort(expected);
+				assertEquals(expected, listed);
+
+				for (final String name : names) {
+					final FileSystemEntry child = dir.getChild(name);
+					assertNotNull(name, child);
+					assertArrayEquals(contents, child.getData().array());
+				}
+				assertNull(dir.getChild("file"));
+				assertNull(dir.getChild("zzz"));
+
+				/*
+				 * Sizes of sorted subdirectories are kept up to date.
+				 */
+				final Directory sub = (Directory) dir.getChild("sub");
+				assertNotNull(sub);
+				sub.addChild(new Directory("leaf"));
+				final Directory sub1 = (Directory) dir.getChild("sub");
+				assertNotNull(sub1);
+				assertEquals(fs.getBlockSize().getLength(), sub1.getDataSize());
+				assertNotNull(sub1.getChild("leaf"));
+				sub1.unlink("leaf");
+				assertEquals(0L, ((Directory) dir.getChild("sub")).getDataSize());
+
+				for (final String name : names) {
+					dir.unlink(name);
+					assertNull(dir.getChild(name));
+				}
+				dir.unlink("sub");
+				assertEquals(0L, dir.getDataSize());
+				assertEquals(0, dir.list().size());
+				fs.getRoot().unlink("dir");
+				assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testNameTooLong() throws IOException {
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, BlockSize.B512, SORTED_DIRECTORIES)) {
+			final long freeBlockCount = fs.getFreeBlockCount();
+			final StringBuilder name = new StringBuilder();
+			for (int i = 0; i < 512; i++) {
+				name.append('x');
+			}
+			try {
+				fs.getRoot().addChild(new File(name.toString(), 1L, Channels.newChannel(new ByteArrayInputStream(new byte[1]))));
+				throw new AssertionError("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+			assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			assertEquals(0, fs.getRoot().list().size());
+		}
+	}
+
+	private static String format(final int i) {
+		return String.format("file%03d", Integer.valueOf(i));
+	}
+}
@@ -0,0 +1,236 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.CHECKSUMS;
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.JOURNAL;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.lang.Math.min;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class StagingChannelTest {
+	private static final FileSystemOption OPTIONS[][] = {
+		{},
+		{JOURNAL, CHECKSUMS},
+		{SORTED_DIRECTORIES, INLINE_DATA},
+	};
+
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testWrite() throws IOException {
+		for (final FileSystemOption options[] : OPTIONS) {
+			try (final FileSystem fs = FileSystem.createInMemory(4L * 1024 * 1024, options)) {
+				final Directory root = fs.getRoot();
+				final long freeBlockCount = fs.getFreeBlockCount();
+
+				/*
+				 * Larger than the buffer, with a gap.
+				 */
+				final byte contents[] = contents(300000);
+				final long gap = 1000;
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					channel.write(ByteBuffer.wrap(contents, 0, 100));
+					channel.position(100 + gap);
+					channel.write(ByteBuffer.wrap(contents, 100, contents.length - 100));
+					assertEquals(contents.length + gap, channel.size());
+					channel.link(root, "a");
+					assertFalse(channel.isOpen());
+				}
+				final byte expected[] = new byte[(int) (contents.length + gap)];
+				System.arraycopy(contents, 0, expected, 0, 100);
+				System.arraycopy(contents, 100, expected, (int) (100 + gap), contents.length - 100);
+				assertContents(root, "a", expected);
+
+				/*
+				 * Truncated to an inline file (if supported), and
+				 * replacing the previous one.
+				 */
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					channel.write(ByteBuffer.wrap(contents));
+					channel.truncate(10);
+					assertEquals(10, channel.size());
+					assertEquals(10, channel.position());
+					channel.link(root, "a");
+				}
+				final byte truncated[] = new byte[10];
+				System.arraycopy(contents, 0, truncated, 0, truncated.length);
+				assertContents(root, "a", truncated);
+
+				/*
+				 * Empty.
+				 */
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					channel.link(root, "b");
+				}
+				assertContents(root, "b", new byte[0]);
+
+				/*
+				 * Discarded.
+				 */
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					channel.write(ByteBuffer.wrap(contents));
+					channel.flush();
+				}
+
+				root.unlink("a");
+				root.unlink("b");
+				assertEquals(freeBlockCount, fs.getFreeBlockCount());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testWriteLarge() throws IOException {
+		for (final FileSystemOption options[] : OPTIONS) {
+			try (final FileSystem fs = FileSystem.createInMemory(32L * 1024 * 1024, options)) {
+				final Directory root = fs.getRoot();
+
+				/*
+				 * Many times the buffer, written piecewise.
+				 */
+				final byte contents[] = contents(16 * 1024 * 1024);
+				final long mapCount = fs.getMetrics().getMapCount();
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					for (int offset = 0; offset < contents.length; offset += 100000) {
+						channel.write(ByteBuffer.wrap(contents, offset, min(100000, contents.length - offset)));
+					}
+					channel.link(root, "a");
+				}
+
+				/*
+				 * Each block is mapped about once, rather than once
+				 * per flush.
+				 */
+				final long blockCount = FileUtilities.getBlockCount(contents.length, fs.getBlockSize().getLength());
+				assertThat(Long.valueOf(fs.getMetrics().getMapCount() - mapCount), lessThan(Long.valueOf(2 * blockCount)));
+				assertContents(root, "a", contents);
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testReplaceOnFullVolume() throws IOException {
+		for (final FileSystemOption options[] : OPTIONS) {
+			try (final FileSystem fs = FileSystem.createInMemory(1024L * 1024, options)) {
+				final Directory root = fs.getRoot();
+				final byte original[] = contents(10000);
+				root.addChild(new File("f", original.length, Channels.newChannel(new ByteArrayInputStream(original))));
+
+				final byte replacement[] = contents(20000);
+				final StagingChannel discarded = new StagingChannel(fs);
+				discarded.write(ByteBuffer.wrap(contents(5000)));
+				discarded.flush();
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					channel.write(ByteBuffer.wrap(replacement));
+					channel.flush();
+
+					fill(fs);
+
+					/*
+					 * The blocks of the new contents are the only
+					 * ones needed.
+					 */
+					channel.link(root, "f");
+				}
+				assertContents(root, "f", replacement);
+				final FileSystemEntry f = root.getChild("f");
+				assertNotNull(f);
+				assertEquals(FileUtilities.getBlockCount(replacement.length, fs.getBlockSize().getLength()), f.getBlockCount());
+				final long freeBlockCount = fs.getFreeBlockCount();
+				assertEquals(FileUtilities.getBlockCount(original.length, fs.getBlockSize().getLength()), freeBlockCount);
+
+				/*
+				 * No space left for the new contents: the file is
+				 * left intact.
+				 */
+				fill(fs);
+				try (final StagingChannel channel = new StagingChannel(fs)) {
+					channel.write(ByteBuffer.wrap(contents(30000)));
+					try {
+						channel.link(root, "f");
+						throw new AssertionError("Expecting an IOException");
+					} catch (final IOException ioe) {
+						// expected
+					}
+					assertTrue(channel.isOpen());
+				}
+				assertContents(root, "f", replacement);
+				assertEquals(0, fs.getFreeBlockCount());
+
+				discarded.close();
+				assertEquals(FileUtilities.getBlockCount(5000, fs.getBlockSize().getLength()), fs.getFreeBlockCount());
+			}
+		}
+	}
+
+	/**
+	 * <p>Takes up all the free space left with a new file.</p>
+	 */
+	private static void fill(final FileSystem fs) throws IOException {
+		final Directory root = fs.getRoot();
+		final String name = "filler" + root.list().size();
+		final long blockCount = fs.getFreeBlockCount();
+		final int blockLength = fs.getBlockSize().getLength();
+		try {
+			root.addChild(new File(name, blockCount * blockLength, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+		} catch (final IOException ioe) {
+			/*
+			 * The directory needs to grow.
+			 */
+			root.addChild(new File(name, (blockCount - 1) * blockLength, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+		}
+		assertEquals(0, fs.getFreeBlockCount());
+	}
+
+	private static void assertContents(final Directory directory, final String name, final byte expected[]) throws IOException {
+		final FileSystemEntry entry = directory.getChild(name);
+		assertNotNull(entry);
+		assertEquals(expected.length, entry.getDataSize());
+		final ByteBuffer actual = ByteBuffer.allocate(expected.length);
+		try (final SeekableByteChannel channel = entry.newByteChannel()) {
+			while (actual.hasRemaining() && channel.read(actual) != -1) {
+				// read on
+			}
+		}
+		assertArrayEquals(expected, actual.array());
+	}
+
+	private static byte[] contents(final int length) {
+		final byte contents[] = new byte[length];
+		new Random(length).nextBytes(contents);
+		return contents;
+	}
+}
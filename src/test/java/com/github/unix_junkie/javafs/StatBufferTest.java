@@ -0,0 +1,109 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.COMPACT_METADATA;
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.file.Files.createTempFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.LogManager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class StatBufferTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testStat() throws IOException {
+		final StatFormatter formatter = new StatFormatter();
+		final StatBuffer stats = new StatBuffer(1);
+
+		for (final FileSystemOption options[] : new FileSystemOption[][] {
+				{},
+				{COMPACT_METADATA},
+				{SORTED_DIRECTORIES, INLINE_DATA}}) {
+			try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, options)) {
+				final Directory root = fs.getRoot();
+				assertEquals(0, root.stat(stats));
+
+				root.addChild(new Directory("dir"));
+				for (int i = 0; i < 40; i++) {
+					root.addChild(newFile("file-\u044f" + i, (short) (1000 + i), (short) 0640, new Date(1000000000000L + i * 1000L), i * 7));
+				}
+				root.addChild(new SymbolicLink(new PosixAttributes(0777), (short) 0, (short) 0, new Date(), "link", "target"));
+
+				final List<FileSystemEntry> children = new ArrayList<>(root.list());
+				assertEquals(children.size(), root.stat(stats));
+				assertEquals(42, stats.size());
+				for (int i = 0; i < children.size(); i++) {
+					final FileSystemEntry child = children.get(i);
+					assertEquals(child.getName(), stats.getName(i));
+					assertEquals(child.getType(), stats.getType(i));
+					assertEquals(child.getAttributes().getValue(), stats.getAttributes(i));
+					assertEquals(child.getNumberOfLinks(), stats.getNumberOfLinks(i));
+					assertEquals(child.getUid(), stats.getUid(i));
+					assertEquals(child.getGid(), stats.getGid(i));
+					assertEquals(child.getDataSize(), stats.getSize(i));
+					assertEquals(child.getCreationTime().getTime(), stats.getCreationTime(i));
+					assertEquals(child.getModificationTime().getTime(), stats.getModificationTime(i));
+					assertEquals(child.getAccessTime().getTime(), stats.getAccessTime(i));
+					assertEquals(child.firstBlockId, stats.getInode(i));
+					/*
+					 * Link targets are not part of the attributes.
+					 */
+					final String expected = child instanceof SymbolicLink
+							? child.toString().replace(" -> target", "")
+							: child.toString();
+					assertEquals(expected, formatter.format(stats, i, new StringBuilder()).toString());
+				}
+
+				/*
+				 * The buffer is cleared before being refilled.
+				 */
+				final Directory dir = (Directory) root.getChild("dir");
+				assertNotNull(dir);
+				assertEquals(0, dir.stat(stats));
+				assertEquals(0, stats.size());
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testOutOfBounds() {
+		final StatBuffer stats = new StatBuffer();
+		try {
+			stats.getSize(0);
+			throw new AssertionError("Expecting an IndexOutOfBoundsException");
+		} catch (final IndexOutOfBoundsException ioobe) {
+			// expected
+		}
+	}
+
+	private static File newFile(final String name, final short uid, final short mode, final Date mtime, final int size) throws IOException {
+		final byte contents[] = new byte[size];
+		return new File(new PosixAttributes(mode), uid, (short) 0, mtime, name, size, Channels.newChannel(new ByteArrayInputStream(contents)));
+	}
+}
@@ -0,0 +1,139 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.file.Files.createTempFile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.LogManager;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class TarTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testPaxRecords() throws IOException {
+		final Map<String, String> records = new LinkedHashMap<>();
+		records.put("path", "a/b/c");
+		records.put("size", "123456789012");
+		final byte data[] = Tar.formatPaxRecords(records);
+		assertEquals("14 path=a/b/c\n21 size=123456789012\n", new String(data, "US-ASCII"));
+		assertEquals(records, Tar.parsePaxRecords(data));
+
+		assertEquals(3, Tar.split("./a//b/c/").size());
+		try {
+			Tar.split("a/../../etc");
+			fail("Expecting an IOException");
+		} catch (final AssertionError ae) {
+			throw ae;
+		} catch (final Throwable t) {
+			assertThat(t, IsInstanceOf.instanceOf(IOException.class));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testRoundTrip() throws IOException {
+		final byte contents[] = new byte[100000];
+		new Random(42).nextBytes(contents);
+		final StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 30; i++) {
+			longName.append("long-name-");
+		}
+		final Date mtime = new Date(1234567890000L);
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			final Directory dir = new Directory("dir");
+			fs.getRoot().addChild(dir);
+			dir.addChild(new File(new PosixAttributes(0600), (short) 1000, (short) 100, mtime, "file", contents.length, Channels.newChannel(new ByteArrayInputStream(contents))));
+			dir.addChild(new File("empty", 0, Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+			dir.addChild(new SymbolicLink(new PosixAttributes(0777), (short) 0, (short) 0, mtime, "link", "file"));
+			final Directory nested = new Directory(longName.toString());
+			dir.addChild(nested);
+			nested.addChild(new File(longName.toString(), 3, Channels.newChannel(new ByteArrayInputStream(new byte[] {1, 2, 3}))));
+
+			assertEquals(6, Tar.exportTo(fs.getRoot(), archive));
+		}
+		assertEquals(0, archive.size() % 512);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p2 = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p2, 1024L * 1024 - 1)) {
+			assertEquals(6, Tar.importFrom(new ByteArrayInputStream(archive.toByteArray()), fs.getRoot()));
+		}
+
+		try (final FileSystem fs = FileSystem.mount(p2)) {
+			final Directory dir = (Directory) fs.getRoot().getChild("dir");
+			final FileSystemEntry file = dir.getChild("file");
+			assertArrayEquals(contents, file.getData().array());
+			assertEquals(0600, file.getAttributes().getValue());
+			assertEquals(1000, file.getUid());
+			assertEquals(100, file.getGid());
+			assertEquals(mtime, file.getModificationTime());
+			assertEquals(0, dir.getChild("empty").getDataSize());
+			assertEquals("file", ((SymbolicLink) dir.getChild("link")).getTarget().toString());
+			final Directory nested = (Directory) dir.getChild(longName.toString());
+			assertArrayEquals(new byte[] {1, 2, 3}, nested.getChild(longName.toString()).getData().array());
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testCorruptHeader() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+			fs.getRoot().addChild(new File("file", 1, Channels.newChannel(new ByteArrayInputStream(new byte[1]))));
+			Tar.exportTo(fs.getRoot(), archive);
+			final byte bytes[] = archive.toByteArray();
+			bytes[0] ^= 1;
+
+			final Directory target = new Directory("target");
+			fs.getRoot().addChild(target);
+			try {
+				Tar.importFrom(new ByteArrayInputStream(bytes), target);
+				fail("Expecting an IOException");
+			} catch (final IOException ioe) {
+				assertTrue(ioe.getMessage(), ioe.getMessage().contains("checksum"));
+			}
+		}
+	}
+}
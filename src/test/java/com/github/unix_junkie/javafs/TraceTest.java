@@ -0,0 +1,142 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class TraceTest {
+	private static final Pattern RECORD = Pattern.compile("(\\d+) \\+\\S+ us \\[\\d+\\] Freeing block (\\d+)");
+
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@After
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void tearDown() {
+		Trace.disable();
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testDisabled() {
+		assertFalse(Trace.isEnabled());
+		Trace.record(Trace.Point.FREE_BLOCK, 1L, 0L);
+		assertEquals(0, Trace.getRecordCount());
+		assertEquals("", dump());
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testWrapAround() {
+		Trace.enable(10);
+		assertTrue(Trace.isEnabled());
+		for (int i = 0; i < 100; i++) {
+			Trace.record(Trace.Point.FREE_BLOCK, i, 0L);
+		}
+		assertEquals(100, Trace.getRecordCount());
+
+		/*
+		 * The capacity is rounded up to 16.
+		 */
+		final String lines[] = dump().split("\n");
+		assertEquals(16, lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			final Matcher matcher = RECORD.matcher(lines[i]);
+			assertTrue(lines[i], matcher.matches());
+			assertEquals(84 + i, Long.parseLong(matcher.group(1)));
+			assertEquals(84 + i, Long.parseLong(matcher.group(2)));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testConcurrentRecording() throws InterruptedException {
+		Trace.enable(1024);
+
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			final Thread thread = new Thread(() -> {
+				for (int j = 0; j < 100000; j++) {
+					Trace.record(Trace.Point.FREE_BLOCK, j, 0L);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		final String dump = dump();
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(400000, Trace.getRecordCount());
+
+		for (final String dumpAfter : new String[] {dump, dump()}) {
+			final String lines[] = dumpAfter.split("\n");
+			assertThat(Integer.valueOf(lines.length), lessThanOrEqualTo(Integer.valueOf(1024)));
+			for (final String line : lines) {
+				if (line.length() != 0) {
+					assertTrue(line, RECORD.matcher(line).matches());
+				}
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFileSystem() throws IOException {
+		Trace.enable(1024);
+
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path p = createTempFile(null, ".javafs");
+		try (final FileSystem fs = FileSystem.create(p, 1024L * 1024 - 1)) {
+			fs.getRoot().addChild(new Directory("dir"));
+			fs.getRoot().unlink("dir");
+		}
+
+		final String dump = dump();
+		assertThat(dump, containsString("Initial block available is 0"));
+		assertThat(dump, containsString("Writing EOF marker to block 1"));
+		assertThat(dump, containsString("Freeing block 1"));
+	}
+
+	private static String dump() {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (final PrintStream out = new PrintStream(buffer, true, UTF_8)) {
+			Trace.dump(out);
+		}
+		return new String(buffer.toByteArray(), UTF_8).replace("\r", "");
+	}
+}
@@ -0,0 +1,150 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs;
+
+import static com.github.unix_junkie.javafs.Feature.INLINE_DATA;
+import static com.github.unix_junkie.javafs.Feature.SORTED_DIRECTORIES;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.LogManager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class TreeWalkerTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(Main.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testWalk() throws IOException {
+		for (final FileSystemOption options[] : new FileSystemOption[][] {
+				{},
+				{SORTED_DIRECTORIES, INLINE_DATA}}) {
+			try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1, options)) {
+				final Set<String> expected = new TreeSet<>();
+				long expectedSize = 0L;
+				final Directory root = fs.getRoot();
+				for (int i = 0; i < 4; i++) {
+					root.addChild(new Directory("d" + i));
+					final Directory d = (Directory) root.getChild("d" + i);
+					assertNotNull(d);
+					expected.add("/d" + i);
+					for (int j = 0; j < 3; j++) {
+						d.addChild(new Directory("e" + j));
+						final Directory e = (Directory) d.getChild("e" + j);
+						assertNotNull(e);
+						expected.add("/d" + i + "/e" + j);
+						e.addChild(newFile("f", i * 10 + j));
+						expected.add("/d" + i + "/e" + j + "/f");
+						expectedSize += i * 10 + j;
+					}
+				}
+				for (final String path : expected) {
+					if (!path.endsWith("/f")) {
+						expectedSize += resolve(fs, path).getDataSize();
+					}
+				}
+
+				final Set<String> visited = new ConcurrentSkipListSet<>();
+				final LongAdder size = new LongAdder();
+				fs.walk((directory, stats, row, depth) -> {
+					final String path = directory.endsWith("/")
+							? directory + stats.getName(row)
+							: directory + '/' + stats.getName(row);
+					assertEquals(path.split("/").length - 1, depth);
+					visited.add(path);
+					size.add(stats.getSize(row));
+					return true;
+				});
+				assertEquals(expected, visited);
+				assertEquals(expectedSize, size.sum());
+
+				/*
+				 * Depth limit.
+				 */
+				final AtomicInteger count = new AtomicInteger();
+				fs.walk(root, (directory, stats, row, depth) -> {
+					count.incrementAndGet();
+					return true;
+				}, 2);
+				assertEquals(16, count.get());
+
+				/*
+				 * Pruning, and walking from a subdirectory.
+				 */
+				final Set<String> pruned = new ConcurrentSkipListSet<>();
+				final Directory d1 = (Directory) root.getChild("d1");
+				assertNotNull(d1);
+				fs.walk(d1, (directory, stats, row, depth) -> {
+					pruned.add(directory + '/' + stats.getName(row));
+					return !stats.getName(row).equals("e1");
+				}, Integer.MAX_VALUE);
+				assertEquals(new TreeSet<>(asList("/d1/e0", "/d1/e0/f", "/d1/e1", "/d1/e2", "/d1/e2/f")), pruned);
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testDu() throws IOException {
+		try (final FileSystem fs = FileSystem.create(createTempFile(null, ".javafs"), 1024L * 1024 - 1)) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final ByteArrayOutputStream err = new ByteArrayOutputStream();
+			final Shell shell = new Shell(fs, new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+			assertEquals(0, shell.run(new BufferedReader(new StringReader("mkdir -p /a/b\n")), false));
+			final Directory a = (Directory) fs.getRoot().getChild("a");
+			assertNotNull(a);
+			final Directory b = (Directory) a.getChild("b");
+			assertNotNull(b);
+			b.addChild(newFile("c", 1000));
+
+			final Directory b1 = (Directory) a.getChild("b");
+			assertNotNull(b1);
+			assertEquals(0, shell.run(new BufferedReader(new StringReader("du /a /a/b/c\n")), false));
+			assertEquals(String.join(System.lineSeparator(),
+					(a.getDataSize() + b1.getDataSize() + 1000) + "\t/a",
+					"1000\t/a/b/c",
+					""), new String(out.toByteArray(), UTF_8));
+		}
+	}
+
+	private static FileSystemEntry resolve(final FileSystem fs, final String path) throws IOException {
+		FileSystemEntry entry = fs.getRoot();
+		for (final String name : path.substring(1).split("/")) {
+			entry = ((Directory) entry).getChild(name);
+			assertNotNull(entry);
+		}
+		return entry;
+	}
+
+	private static File newFile(final String name, final int size) throws IOException {
+		return new File(name, size, Channels.newChannel(new ByteArrayInputStream(new byte[size])));
+	}
+}
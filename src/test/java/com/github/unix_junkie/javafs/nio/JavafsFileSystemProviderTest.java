@@ -0,0 +1,341 @@
+/*-
+ * $Id$
+ */
+package com.github.unix_junkie.javafs.nio;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.LogManager;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * @author Andrew ``Bass'' Shcheglov &lt;mailto:andrewbass@gmail.com&gt;
+ */
+@RunWith(JUnit4.class)
+public final class JavafsFileSystemProviderTest {
+	@BeforeClass
+	@SuppressWarnings("javadoc")
+	public static void oneTimeSetUp() throws IOException {
+		LogManager.getLogManager().readConfiguration(JavafsFileSystemProviderTest.class.getResourceAsStream("/logging.properties"));
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testPaths() throws IOException {
+		try (final FileSystem fs = newFileSystem()) {
+			final Path p = fs.getPath("/a//b/./c/../d/");
+			assertEquals("/a/b/./c/../d", p.toString());
+			assertEquals("/a/b/d", p.normalize().toString());
+			assertEquals("d", String.valueOf(p.getFileName()));
+			assertEquals("/a/b/./c/..", String.valueOf(p.getParent()));
+			assertEquals(6, p.getNameCount());
+			assertEquals("b/.", p.subpath(1, 3).toString());
+			assertTrue(p.startsWith(fs.getPath("/a/b")));
+			assertFalse(p.startsWith(fs.getPath("/a/bc")));
+			assertTrue(p.endsWith(fs.getPath("../d")));
+			assertEquals("/a/b/e", fs.getPath("/a/b").resolve("e").toString());
+			assertEquals("../c/d", fs.getPath("/a/b").relativize(fs.getPath("/a/c/d")).toString());
+			assertEquals("/x/y", fs.getPath("x", "y").toAbsolutePath().toString());
+
+			assertTrue(fs.getPathMatcher("glob:/a/*.{txt,md}").matches(fs.getPath("/a/readme.md")));
+			assertFalse(fs.getPathMatcher("glob:/a/*.txt").matches(fs.getPath("/a/b/c.txt")));
+			assertTrue(fs.getPathMatcher("glob:/a/**.txt").matches(fs.getPath("/a/b/c.txt")));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testUri() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path container = createTempFile(null, ".javafs");
+		Files.delete(container);
+		final URI uri = URI.create("javafs:" + container.toUri());
+		try (final FileSystem fs = FileSystems.newFileSystem(uri, Map.of("create", "true", "size", "1m"))) {
+			assertThat(fs, IsInstanceOf.instanceOf(JavafsFileSystem.class));
+			assertSame(fs, FileSystems.getFileSystem(uri));
+
+			final Path p = fs.getPath("/dir with spaces/file");
+			final URI fileUri = p.toUri();
+			assertEquals("javafs", fileUri.getScheme());
+			assertEquals(p, Paths.get(fileUri));
+
+			try {
+				FileSystems.newFileSystem(uri, Map.of());
+				fail("Expecting a FileSystemAlreadyExistsException");
+			} catch (final AssertionError ae) {
+				throw ae;
+			} catch (final Throwable t) {
+				assertThat(t, IsInstanceOf.instanceOf(java.nio.file.FileSystemAlreadyExistsException.class));
+			}
+		}
+
+		/*
+		 * Unmounted on close, and can be mounted again.
+		 */
+		try (final FileSystem fs = FileSystems.newFileSystem(container, (ClassLoader) null)) {
+			assertThat(fs, IsInstanceOf.instanceOf(JavafsFileSystem.class));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testReadWrite() throws IOException {
+		final byte contents[] = new byte[100000];
+		new Random(42).nextBytes(contents);
+
+		try (final FileSystem fs = newFileSystem()) {
+			final Path p = fs.getPath("/file");
+			Files.write(p, contents);
+			assertArrayEquals(contents, Files.readAllBytes(p));
+			assertEquals(contents.length, Files.size(p));
+
+			Files.write(p, "tail".getBytes(UTF_8), APPEND);
+			assertEquals(contents.length + 4, Files.size(p));
+
+			Files.write(p, List.of("line"));
+			assertEquals(List.of("line"), Files.readAllLines(p));
+
+			try {
+				Files.createFile(p);
+				fail("Expecting a FileAlreadyExistsException");
+			} catch (final FileAlreadyExistsException faee) {
+				// expected
+			}
+
+			try {
+				Files.readAllBytes(fs.getPath("/missing"));
+				fail("Expecting a NoSuchFileException");
+			} catch (final NoSuchFileException nsfe) {
+				// expected
+			}
+
+			final Path host = createTempFile(null, ".tmp");
+			try {
+				Files.write(host, contents);
+				Files.copy(host, fs.getPath("/copy"));
+				assertArrayEquals(contents, Files.readAllBytes(fs.getPath("/copy")));
+				Files.copy(fs.getPath("/copy"), fs.getPath("/copy2"));
+				assertArrayEquals(contents, Files.readAllBytes(fs.getPath("/copy2")));
+				Files.move(fs.getPath("/copy2"), fs.getPath("/moved"));
+				assertFalse(Files.exists(fs.getPath("/copy2")));
+				assertArrayEquals(contents, Files.readAllBytes(fs.getPath("/moved")));
+			} finally {
+				Files.delete(host);
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testFileChannel() throws IOException {
+		try (final FileSystem fs = newFileSystem()) {
+			final Path p = fs.getPath("/file");
+			try (final FileChannel channel = FileChannel.open(p, CREATE_NEW, WRITE)) {
+				channel.write(ByteBuffer.wrap("0123456789".getBytes(UTF_8)));
+				assertEquals(1, channel.write(ByteBuffer.wrap("x".getBytes(UTF_8)), 5));
+				assertEquals(10, channel.position());
+				assertEquals(10, channel.size());
+			}
+			assertEquals("01234x6789", new String(Files.readAllBytes(p), UTF_8));
+
+			try (final FileChannel channel = FileChannel.open(p)) {
+				final ByteBuffer buffer = ByteBuffer.allocate(4);
+				assertEquals(4, channel.read(buffer, 4));
+				assertEquals("4x67", new String(buffer.array(), UTF_8));
+				assertEquals(0, channel.position());
+
+				try {
+					channel.map(READ_ONLY, 0, channel.size());
+					fail("Expecting an UnsupportedOperationException");
+				} catch (final UnsupportedOperationException uoe) {
+					// expected
+				}
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testReplaceOnFullVolume() throws IOException {
+		final byte contents[] = new byte[100000];
+		new Random(42).nextBytes(contents);
+
+		try (final JavafsFileSystem fs = newFileSystem()) {
+			final Path p = fs.getPath("/file");
+			Files.write(p, contents);
+
+			/*
+			 * Leave a block for the root directory to grow.
+			 */
+			final FileStore store = Files.getFileStore(fs.getPath("/"));
+			final long blockLength = fs.getVolume().getBlockSize().getLength();
+			Files.write(fs.getPath("/filler"), new byte[(int) (store.getUsableSpace() - blockLength)]);
+			final long usableSpace = store.getUsableSpace();
+			assertTrue(usableSpace <= blockLength);
+
+			/*
+			 * Larger than the space the original file takes.
+			 */
+			try {
+				Files.write(p, new byte[contents.length + 4 * (int) blockLength]);
+				fail("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+			assertArrayEquals(contents, Files.readAllBytes(p));
+			assertEquals(usableSpace, store.getUsableSpace());
+
+			try {
+				Files.write(p, "tail".getBytes(UTF_8), APPEND);
+				fail("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+			assertArrayEquals(contents, Files.readAllBytes(p));
+			assertEquals(usableSpace, store.getUsableSpace());
+
+			Files.delete(fs.getPath("/filler"));
+			Files.write(p, List.of("line"));
+			assertEquals(List.of("line"), Files.readAllLines(p));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testCopyOnFullVolume() throws IOException {
+		final byte contents[] = new byte[100000];
+		new Random(42).nextBytes(contents);
+
+		try (final JavafsFileSystem fs = newFileSystem()) {
+			final Path p = fs.getPath("/file");
+			Files.write(p, contents);
+
+			/*
+			 * Larger than the space the original file takes.
+			 */
+			final long blockLength = fs.getVolume().getBlockSize().getLength();
+			final Path source = fs.getPath("/source");
+			Files.write(source, new byte[contents.length + 4 * (int) blockLength]);
+
+			/*
+			 * Leave a block for the root directory to grow.
+			 */
+			final FileStore store = Files.getFileStore(fs.getPath("/"));
+			Files.write(fs.getPath("/filler"), new byte[(int) (store.getUsableSpace() - blockLength)]);
+			final long usableSpace = store.getUsableSpace();
+			assertTrue(usableSpace <= blockLength);
+
+			try {
+				Files.copy(source, p, REPLACE_EXISTING);
+				fail("Expecting an IOException");
+			} catch (final IOException ioe) {
+				// expected
+			}
+			assertArrayEquals(contents, Files.readAllBytes(p));
+			assertEquals(usableSpace, store.getUsableSpace());
+
+			Files.delete(fs.getPath("/filler"));
+			Files.copy(source, p, REPLACE_EXISTING);
+			assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(p));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "static-method", "javadoc" })
+	public void testDirectories() throws IOException {
+		try (final FileSystem fs = newFileSystem()) {
+			final Path root = fs.getPath("/");
+			Files.createDirectories(fs.getPath("/a/b/c"));
+			Files.write(fs.getPath("/a/b/c/file"), new byte[1000]);
+			Files.write(fs.getPath("/a/file"), new byte[10]);
+			assertTrue(Files.isDirectory(fs.getPath("/a/b")));
+			assertTrue(Files.isRegularFile(fs.getPath("/a/file")));
+
+			try (final Stream<Path> paths = Files.walk(root)) {
+				final List<String> names = paths.map(Path::toString).sorted().collect(toList());
+				assertEquals(List.of("/", "/a", "/a/b", "/a/b/c", "/a/b/c/file", "/a/file"), names);
+			}
+
+			final List<Path> children = new ArrayList<>();
+			try (final DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/a"), "f*")) {
+				stream.forEach(children::add);
+			}
+			assertEquals(List.of(fs.getPath("/a/file")), children);
+
+			final BasicFileAttributes attributes = Files.readAttributes(fs.getPath("/a/b/c/file"), BasicFileAttributes.class);
+			assertTrue(attributes.isRegularFile());
+			assertEquals(1000, attributes.size());
+			final PosixFileAttributes posixAttributes = Files.readAttributes(fs.getPath("/a"), PosixFileAttributes.class);
+			assertTrue(posixAttributes.isDirectory());
+			assertEquals("rwxr-xr-x", PosixFilePermissions.toString(posixAttributes.permissions()));
+			assertEquals(Long.valueOf(10), Files.readAttributes(fs.getPath("/a/file"), "posix:size,permissions").get("size"));
+
+			try {
+				Files.delete(fs.getPath("/a/b"));
+				fail("Expecting a DirectoryNotEmptyException");
+			} catch (final DirectoryNotEmptyException dnee) {
+				// expected
+			}
+
+			Files.delete(fs.getPath("/a/b/c/file"));
+			Files.delete(fs.getPath("/a/b/c"));
+			assertFalse(Files.exists(fs.getPath("/a/b/c")));
+			assertTrue(Files.exists(fs.getPath("/a/b")));
+
+			final long usableSpace = Files.getFileStore(root).getUsableSpace();
+			assertTrue(usableSpace > 0 && usableSpace < Files.getFileStore(root).getTotalSpace());
+		}
+	}
+
+	private static JavafsFileSystem newFileSystem() throws IOException {
+		@Nonnull
+		@SuppressWarnings("null")
+		final Path container = createTempFile(null, ".javafs");
+		com.github.unix_junkie.javafs.FileSystem.create(container, 1024L * 1024 - 1).close();
+		return new JavafsFileSystemProvider().newFileSystem(container, Map.of());
+	}
+}